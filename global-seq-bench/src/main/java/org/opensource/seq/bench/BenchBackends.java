@@ -0,0 +1,89 @@
+package org.opensource.seq.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.opensource.seq.core.GlobalSeqPo;
+import org.opensource.seq.core.GlobalSeqRepository;
+import org.opensource.seq.db.GlobalSeqRepositoryImpl;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+/**
+ * 压测使用的后端
+ *
+ * @author wutianbiao
+ * @date 2022-07-04
+ */
+final class BenchBackends {
+    private static final String TABLE = "global_seq";
+
+    private BenchBackends() {
+    }
+
+    /**
+     * 协调进程在启动工作进程前准备后端，预先创建序列，避免多个进程并发创建
+     *
+     * @param options
+     * @throws SQLException
+     * @throws IOException
+     */
+    static void prepare(BenchOptions options) throws SQLException, IOException {
+        File dir = new File(options.getDir());
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IllegalStateException("无法创建目录:" + dir);
+        }
+        GlobalSeqRepository repository;
+        if ("sqlite".equals(options.getBackend())) {
+            SQLiteDataSource dataSource = sqlite(options);
+            try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+                statement.executeUpdate("create table if not exists " + TABLE + " ("
+                        + "id integer NOT NULL primary key AUTOINCREMENT, "
+                        + "seq_name varchar(50) NOT NULL, "
+                        + "current_value bigint DEFAULT 0)");
+                statement.executeUpdate("create unique index if not exists uniq_seq_name on " + TABLE + "(seq_name)");
+            }
+            repository = new GlobalSeqRepositoryImpl(dataSource, TABLE);
+        } else {
+            repository = repository(options);
+        }
+        if (!repository.loadSeq(options.getSeqName()).isPresent()) {
+            repository.createSeq(new GlobalSeqPo(options.getSeqName(), 1L));
+            // 新建的后端不能沿用上次遗留的主机段
+            if (!options.getHostShared().isEmpty()) {
+                Files.deleteIfExists(Paths.get(options.getHostShared()));
+            }
+        }
+    }
+
+    /**
+     * 工作进程使用的仓库
+     *
+     * @param options
+     * @return
+     */
+    static GlobalSeqRepository repository(BenchOptions options) {
+        switch (options.getBackend()) {
+            case "sqlite":
+                return new GlobalSeqRepositoryImpl(sqlite(options), TABLE);
+            case "file":
+                return new FileLockGlobalSeqRepository(new File(options.getDir(), "seq"));
+            default:
+                throw new IllegalArgumentException("不支持的后端:" + options.getBackend());
+        }
+    }
+
+    private static SQLiteDataSource sqlite(BenchOptions options) {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(60_000);
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        SQLiteDataSource dataSource = new SQLiteDataSource(config);
+        dataSource.setUrl("jdbc:sqlite:" + new File(options.getDir(), "seq.sqlite").getAbsolutePath());
+        return dataSource;
+    }
+}
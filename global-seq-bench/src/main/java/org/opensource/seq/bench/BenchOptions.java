@@ -0,0 +1,114 @@
+package org.opensource.seq.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 压测参数，命令行格式--key=value
+ *
+ * @author wutianbiao
+ * @date 2022-07-04
+ */
+@Data
+public class BenchOptions {
+    /**
+     * 后端：sqlite(共享的数据库文件)、file(文件锁)
+     */
+    private String backend = "sqlite";
+    /**
+     * 后端数据和压测结果所在目录
+     */
+    private String dir = "target/seq-bench";
+    /**
+     * 序列名称
+     */
+    private String seqName = "bench_seq";
+    /**
+     * 序列步长
+     */
+    private long step = 100;
+    /**
+     * 预取比例
+     */
+    private double prefetch = 0;
+    /**
+     * 主机共享序列段的映射文件，为空不共享
+     */
+    private String hostShared = "";
+    /**
+     * 进程数
+     */
+    private int procs = 4;
+    /**
+     * 每个进程的线程数
+     */
+    private int threads = 4;
+    /**
+     * 每个进程每秒的目标调用数，0不限速
+     */
+    private long rate = 10_000;
+    /**
+     * 压测时长(秒)
+     */
+    private long duration = 10;
+    /**
+     * 工作进程的序号，只在工作进程中使用
+     */
+    private int index;
+
+    /**
+     * 解析命令行参数
+     *
+     * @param args
+     * @return
+     */
+    public static BenchOptions parse(String[] args) {
+        BenchOptions options = new BenchOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("参数格式为--key=value:" + arg);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (key) {
+                case "backend": options.setBackend(value); break;
+                case "dir": options.setDir(value); break;
+                case "seq-name": options.setSeqName(value); break;
+                case "step": options.setStep(Long.parseLong(value)); break;
+                case "prefetch": options.setPrefetch(Double.parseDouble(value)); break;
+                case "host-shared": options.setHostShared(value); break;
+                case "procs": options.setProcs(Integer.parseInt(value)); break;
+                case "threads": options.setThreads(Integer.parseInt(value)); break;
+                case "rate": options.setRate(Long.parseLong(value)); break;
+                case "duration": options.setDuration(Long.parseLong(value)); break;
+                case "index": options.setIndex(Integer.parseInt(value)); break;
+                default: throw new IllegalArgumentException("未知参数:" + arg);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * 转为工作进程的命令行参数
+     *
+     * @param index 工作进程序号
+     * @return
+     */
+    public List<String> toArgs(int index) {
+        List<String> args = new ArrayList<>();
+        args.add("--backend=" + backend);
+        args.add("--dir=" + dir);
+        args.add("--seq-name=" + seqName);
+        args.add("--step=" + step);
+        args.add("--prefetch=" + prefetch);
+        args.add("--host-shared=" + hostShared);
+        args.add("--procs=" + procs);
+        args.add("--threads=" + threads);
+        args.add("--rate=" + rate);
+        args.add("--duration=" + duration);
+        args.add("--index=" + index);
+        return args;
+    }
+}
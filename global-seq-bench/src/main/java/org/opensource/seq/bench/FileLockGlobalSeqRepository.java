@@ -0,0 +1,122 @@
+package org.opensource.seq.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Optional;
+
+import org.opensource.seq.core.AtomicIncrementRepository;
+import org.opensource.seq.core.GlobalSeqPo;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 本地文件的全局序列存储，压测时代替共享后端
+ *
+ * 每个序列一个8字节的文件，读改写在文件锁内完成，同一台机器上的多个进程之间原子；
+ * 同一进程内的线程先在实例上同步，文件锁不能在同一进程内重入。
+ *
+ * @author wutianbiao
+ * @date 2022-07-04
+ */
+@Slf4j
+public class FileLockGlobalSeqRepository implements AtomicIncrementRepository {
+    /**
+     * 同一JVM内不能重复获取同一文件的锁(即使是不同的FileChannel)，所有实例先用本地锁互斥
+     */
+    private static final Object JVM_LOCK = new Object();
+    /**
+     * 序列文件所在目录
+     */
+    private final File dir;
+
+    /**
+     * 构造函数
+     *
+     * @param dir 序列文件所在目录，不存在时创建
+     */
+    public FileLockGlobalSeqRepository(File dir) {
+        this.dir = dir;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("无法创建序列目录:" + dir);
+        }
+    }
+
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        synchronized (JVM_LOCK) {
+            try (RandomAccessFile file = new RandomAccessFile(new File(dir, seqName), "rw");
+                    FileChannel channel = file.getChannel();
+                    FileLock lock = channel.lock()) {
+                long value = file.length() < Long.BYTES ? start : file.readLong();
+                value += step;
+                file.seek(0);
+                file.writeLong(value);
+                return new GlobalSeqPo(seqName, value);
+            } catch (IOException e) {
+                log.error("文件序列自增异常:{}", e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        synchronized (JVM_LOCK) {
+            try (RandomAccessFile file = new RandomAccessFile(new File(dir, po.getSeqName()), "rw");
+                    FileChannel channel = file.getChannel();
+                    FileLock lock = channel.lock()) {
+                if (file.length() >= Long.BYTES) {
+                    return 0;
+                }
+                file.writeLong(po.getCurrentValue());
+                return 1;
+            } catch (IOException e) {
+                log.error("创建文件序列异常:{}", e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        synchronized (JVM_LOCK) {
+            File seqFile = new File(dir, seqName);
+            if (!seqFile.exists()) {
+                return Optional.empty();
+            }
+            try (RandomAccessFile file = new RandomAccessFile(seqFile, "rw");
+                    FileChannel channel = file.getChannel();
+                    FileLock lock = channel.lock()) {
+                if (file.length() < Long.BYTES) {
+                    return Optional.empty();
+                }
+                return Optional.of(new GlobalSeqPo(seqName, file.readLong()));
+            } catch (IOException e) {
+                log.error("加载文件序列异常:{}", e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        synchronized (JVM_LOCK) {
+            try (RandomAccessFile file = new RandomAccessFile(new File(dir, seqName), "rw");
+                    FileChannel channel = file.getChannel();
+                    FileLock lock = channel.lock()) {
+                if (file.length() < Long.BYTES || file.readLong() != old) {
+                    return Optional.empty();
+                }
+                file.seek(0);
+                file.writeLong(old + step);
+                return Optional.of(new GlobalSeqPo(seqName, old + step));
+            } catch (IOException e) {
+                log.error("锁定文件序列异常:{}", e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.opensource.seq.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * 发出的序列值审计，统计重复和空洞
+ *
+ * 两级位图：序列值的高位定位页，每页65536位(8KB)，只为出现过的页分配内存；
+ * 分区、区间等稀疏的取值不会按整个跨度占用内存。非线程安全，由一个线程汇总。
+ *
+ * @author wutianbiao
+ * @date 2022-07-04
+ */
+public class IdAuditor {
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_WORDS = (1 << PAGE_BITS) / Long.SIZE;
+    private static final long OFFSET_MASK = (1L << PAGE_BITS) - 1;
+
+    private final Map<Long, long[]> pages = new HashMap<>();
+
+    /**
+     * 收到的序列值个数
+     */
+    @Getter
+    private long total;
+    /**
+     * 不重复的序列值个数
+     */
+    @Getter
+    private long unique;
+    /**
+     * 重复的次数
+     */
+    @Getter
+    private long duplicates;
+    /**
+     * 第一个重复的值
+     */
+    @Getter
+    private Long firstDuplicate;
+    @Getter
+    private long min = Long.MAX_VALUE;
+    @Getter
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * 记录一个序列值
+     *
+     * @param id
+     * @return 已经出现过时返回false
+     */
+    public boolean add(long id) {
+        total++;
+        min = Math.min(min, id);
+        max = Math.max(max, id);
+
+        long[] page = pages.computeIfAbsent(id >> PAGE_BITS, k -> new long[PAGE_WORDS]);
+        int offset = (int) (id & OFFSET_MASK);
+        long bit = 1L << (offset & (Long.SIZE - 1));
+        int word = offset >>> 6;
+        if ((page[word] & bit) != 0) {
+            duplicates++;
+            if (firstDuplicate == null) {
+                firstDuplicate = id;
+            }
+            return false;
+        }
+        page[word] |= bit;
+        unique++;
+        return true;
+    }
+
+    /**
+     * 空洞：最小值到最大值之间没有发出的值，包括段切换、对冲、超时丢弃和进程退出时未用完的段
+     *
+     * @return
+     */
+    public long getGaps() {
+        return unique == 0 ? 0 : max - min + 1 - unique;
+    }
+
+    /**
+     * 已分配的位图页数
+     *
+     * @return
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+}
@@ -0,0 +1,120 @@
+package org.opensource.seq.bench;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * 多进程压测和序列唯一性审计
+ *
+ * 启动procs个工作进程({@link SeqBenchWorker})，共享同一个后端，各自按目标速率调用next()；
+ * 全部结束后汇总发出的序列值，用位图检查重复和空洞，合并延迟直方图输出p50/p99/p999。
+ * 有重复或工作进程失败时以非0状态退出。
+ *
+ * 用法：java -cp ... org.opensource.seq.bench.SeqBench --backend=sqlite --procs=4 --threads=4 --rate=10000 --duration=10
+ *
+ * @author wutianbiao
+ * @date 2022-07-04
+ */
+public class SeqBench {
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        BenchOptions options = BenchOptions.parse(args);
+        BenchBackends.prepare(options);
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < options.getProcs(); i++) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.add("-cp");
+            command.add(classpath);
+            command.add(SeqBenchWorker.class.getName());
+            command.addAll(options.toArgs(i));
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+        boolean failed = false;
+        for (Process process : processes) {
+            failed |= process.waitFor() != 0;
+        }
+        if (failed) {
+            System.err.println("有工作进程失败");
+            System.exit(2);
+        }
+
+        Report report = collect(options);
+        report.print(System.out);
+        System.exit(report.auditor.getDuplicates() > 0 ? 1 : 0);
+    }
+
+    /**
+     * 汇总工作进程的结果
+     *
+     * @param options
+     * @return
+     * @throws IOException
+     * @throws DataFormatException
+     */
+    static Report collect(BenchOptions options) throws IOException, DataFormatException {
+        Report report = new Report(options);
+        File dir = new File(options.getDir());
+        for (int i = 0; i < options.getProcs(); i++) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(new File(dir, "ids-" + i + ".bin")), 1 << 16))) {
+                report.elapsed = Math.max(report.elapsed, in.readLong());
+                long count = in.readLong();
+                for (long j = 0; j < count; j++) {
+                    report.auditor.add(in.readLong());
+                }
+            }
+            byte[] bytes = Files.readAllBytes(new File(dir, "latency-" + i + ".hdr").toPath());
+            report.latency.add(Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(bytes), 0));
+        }
+        return report;
+    }
+
+    /**
+     * 压测结果
+     */
+    static final class Report {
+        final BenchOptions options;
+        final IdAuditor auditor = new IdAuditor();
+        final Histogram latency = new Histogram(SeqBenchWorker.HIGHEST_LATENCY, 3);
+        long elapsed;
+
+        Report(BenchOptions options) {
+            this.options = options;
+        }
+
+        void print(PrintStream out) {
+            double seconds = Math.max(elapsed, 1) / 1e9;
+            out.printf("backend=%s procs=%d threads=%d rate=%d/s step=%d prefetch=%s%n", options.getBackend(),
+                    options.getProcs(), options.getThreads(), options.getRate(), options.getStep(),
+                    options.getPrefetch());
+            out.printf("ids=%d unique=%d duplicates=%d%s gaps=%d throughput=%.0f/s%n", auditor.getTotal(),
+                    auditor.getUnique(), auditor.getDuplicates(),
+                    auditor.getFirstDuplicate() == null ? "" : " (first " + auditor.getFirstDuplicate() + ")",
+                    auditor.getGaps(), auditor.getTotal() / seconds);
+            out.printf("latency(us) p50=%d p99=%d p999=%d max=%d%n", micros(latency.getValueAtPercentile(50)),
+                    micros(latency.getValueAtPercentile(99)), micros(latency.getValueAtPercentile(99.9)),
+                    micros(latency.getMaxValue()));
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+}
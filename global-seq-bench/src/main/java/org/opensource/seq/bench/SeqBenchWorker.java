@@ -0,0 +1,138 @@
+package org.opensource.seq.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+/**
+ * 压测工作进程，由{@link SeqBench}启动
+ *
+ * 每个线程按固定节奏调用next()，延迟从计划开始时间算起，后端变慢时排队的等待也计入，没有协调遗漏；
+ * 不限速(rate = 0)时退化为闭环调用。结束时把发出的序列值和延迟直方图写入dir：
+ * ids-{index}.bin：耗时(纳秒)、个数、序列值，都是long；latency-{index}.hdr：压缩的直方图。
+ *
+ * @author wutianbiao
+ * @date 2022-07-04
+ */
+public class SeqBenchWorker {
+    /**
+     * 直方图最大记录1小时
+     */
+    static final long HIGHEST_LATENCY = TimeUnit.HOURS.toNanos(1);
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        BenchOptions options = BenchOptions.parse(args);
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(options.getStep());
+        config.setDefaultPrefetch(options.getPrefetch());
+        config.setHostSharedPath(options.getHostShared());
+        GlobalSequence sequence = new GlobalSequenceImpl(config, BenchBackends.repository(options));
+
+        int threads = options.getThreads();
+        long interval = options.getRate() > 0 ? TimeUnit.SECONDS.toNanos(1) * threads / options.getRate() : 0;
+        long begin = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long end = begin + TimeUnit.SECONDS.toNanos(options.getDuration());
+
+        List<Runner> runners = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Runner runner = new Runner(sequence, options.getSeqName(), begin + interval * i / threads, interval, end);
+            runner.start();
+            runners.add(runner);
+        }
+        Histogram histogram = new Histogram(HIGHEST_LATENCY, 3);
+        long count = 0;
+        for (Runner runner : runners) {
+            runner.join();
+            if (runner.error != null) {
+                throw new IllegalStateException("压测线程异常", runner.error);
+            }
+            histogram.add(runner.histogram);
+            count += runner.size;
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        File dir = new File(options.getDir());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(dir, "ids-" + options.getIndex() + ".bin")), 1 << 16))) {
+            out.writeLong(elapsed);
+            out.writeLong(count);
+            for (Runner runner : runners) {
+                for (int i = 0; i < runner.size; i++) {
+                    out.writeLong(runner.ids[i]);
+                }
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        Files.write(new File(dir, "latency-" + options.getIndex() + ".hdr").toPath(),
+                Arrays.copyOf(buffer.array(), length));
+        System.out.printf("worker %d: %d ids in %d ms%n", options.getIndex(), count,
+                TimeUnit.NANOSECONDS.toMillis(elapsed));
+        System.exit(0);
+    }
+
+    /**
+     * 压测线程
+     */
+    private static final class Runner extends Thread {
+        final GlobalSequence sequence;
+        final String seqName;
+        final long first;
+        final long interval;
+        final long end;
+        final Histogram histogram = new Histogram(HIGHEST_LATENCY, 3);
+        long[] ids = new long[1 << 16];
+        int size;
+        volatile Throwable error;
+
+        Runner(GlobalSequence sequence, String seqName, long first, long interval, long end) {
+            this.sequence = sequence;
+            this.seqName = seqName;
+            this.first = first;
+            this.interval = interval;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (long k = 0; ; k++) {
+                    long intended = interval > 0 ? first + k * interval : System.nanoTime();
+                    if (intended >= end) {
+                        break;
+                    }
+                    long now;
+                    while ((now = System.nanoTime()) < intended) {
+                        LockSupport.parkNanos(intended - now);
+                    }
+                    long id = sequence.next(seqName);
+                    histogram.recordValue(Math.min(System.nanoTime() - intended, HIGHEST_LATENCY));
+                    add(id);
+                }
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        private void add(long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
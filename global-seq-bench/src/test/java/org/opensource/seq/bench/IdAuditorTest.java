@@ -0,0 +1,81 @@
+package org.opensource.seq.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 审计位图和文件锁后端的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-04
+ */
+public class IdAuditorTest {
+
+    /**
+     * 重复、空洞和稀疏取值
+     */
+    @Test
+    public void testAudit() {
+        IdAuditor auditor = new IdAuditor();
+        for (long i = 1; i <= 100; i++) {
+            assertTrue(auditor.add(i));
+        }
+        assertFalse(auditor.add(50));
+        assertTrue(auditor.add(201));
+        // 高位分区的值只多分配一页
+        assertTrue(auditor.add(1L << 62));
+        assertTrue(auditor.add(-5));
+
+        assertEquals(104, auditor.getTotal());
+        assertEquals(103, auditor.getUnique());
+        assertEquals(1, auditor.getDuplicates());
+        assertEquals(50L, auditor.getFirstDuplicate());
+        assertEquals(3, auditor.getPageCount());
+    }
+
+    /**
+     * 两个序列对象共用一个文件后端，相当于两个进程，序列不重复
+     */
+    @Test
+    public void testFileLockRepository() throws Exception {
+        File dir = Files.createTempDirectory("seq-bench").toFile();
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(7);
+        GlobalSequence first = new GlobalSequenceImpl(config, new FileLockGlobalSeqRepository(dir));
+        GlobalSequence second = new GlobalSequenceImpl(config, new FileLockGlobalSeqRepository(dir));
+
+        IdAuditor auditor = new IdAuditor();
+        List<Thread> pool = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        for (GlobalSequence sequence : new GlobalSequence[] { first, second, first, second }) {
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    long id = sequence.next("file_seq");
+                    synchronized (ids) {
+                        ids.add(id);
+                    }
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+        ids.forEach(auditor::add);
+        assertEquals(2_000, auditor.getUnique());
+        assertEquals(0, auditor.getDuplicates());
+    }
+}
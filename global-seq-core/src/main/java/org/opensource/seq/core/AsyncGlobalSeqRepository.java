@@ -0,0 +1,57 @@
+package org.opensource.seq.core;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步的全局序列持久化仓库
+ *
+ * 与{@link GlobalSeqRepository}语义相同，所有方法返回CompletableFuture，不阻塞调用线程。
+ * 底层客户端本身是异步的(etcd、zookeeper)或者可以合并请求(redis管道)时直接实现该接口；
+ * 阻塞的仓库通过{@link AsyncGlobalSeqRepositoryAdapter}转换为异步，
+ * 异步的仓库通过{@link BlockingGlobalSeqRepositoryAdapter}转换为阻塞。
+ *
+ * @author wutianbiao
+ * @date 2022-06-28
+ */
+public interface AsyncGlobalSeqRepository {
+
+    /**
+     * 创建一个序列，创建成功返回1
+     *
+     * @param po
+     * @return
+     */
+    CompletableFuture<Integer> createSeqAsync(GlobalSeqPo po);
+
+    /**
+     * 从持久层加载序列
+     *
+     * @param seqName
+     * @return
+     */
+    CompletableFuture<Optional<GlobalSeqPo>> loadSeqAsync(String seqName);
+
+    /**
+     * 锁定一段(step)序列，当前值不是old时返回空
+     *
+     * @param seqName
+     * @param step
+     * @param old
+     * @return
+     */
+    CompletableFuture<Optional<GlobalSeqPo>> lockSeqAsync(String seqName, long step, long old);
+
+    /**
+     * 锁定一段(step)序列，序列不存在时以start为当前值创建
+     * 默认由加载、创建、锁定组合而成，冲突时重试；底层支持原子自增时应覆盖该方法
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 锁定后的序列值
+     */
+    default CompletableFuture<GlobalSeqPo> incrementAndGetAsync(String seqName, long step, long start) {
+        return CasRefill.refillAsync(this, seqName, step, start, CasRefill.DEFAULT_MAX_RETRY);
+    }
+}
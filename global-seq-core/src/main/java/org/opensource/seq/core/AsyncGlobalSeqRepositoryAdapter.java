@@ -0,0 +1,75 @@
+package org.opensource.seq.core;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * 阻塞仓库到异步仓库的适配
+ *
+ * 每次调用提交到executor执行，适合数据库等只有阻塞客户端的仓库；
+ * executor的线程数决定了同时进行的刷新数，不占用调用线程；
+ * executor拒绝(队列已满或已关闭)时返回以RejectedExecutionException失败的future，不在调用线程抛出。
+ *
+ * @author wutianbiao
+ * @date 2022-06-28
+ */
+public class AsyncGlobalSeqRepositoryAdapter implements AsyncGlobalSeqRepository {
+    /**
+     * 被适配的阻塞仓库
+     */
+    private final GlobalSeqRepository repository;
+    /**
+     * 执行阻塞调用的线程池
+     */
+    private final Executor executor;
+
+    /**
+     * 构造方法
+     *
+     * @param repository
+     * @param executor
+     */
+    public AsyncGlobalSeqRepositoryAdapter(GlobalSeqRepository repository, Executor executor) {
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Integer> createSeqAsync(GlobalSeqPo po) {
+        return supply(() -> repository.createSeq(po));
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> loadSeqAsync(String seqName) {
+        return supply(() -> repository.loadSeq(seqName));
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> lockSeqAsync(String seqName, long step, long old) {
+        return supply(() -> repository.lockSeq(seqName, step, old));
+    }
+
+    @Override
+    public CompletableFuture<GlobalSeqPo> incrementAndGetAsync(String seqName, long step, long start) {
+        if (repository instanceof AtomicIncrementRepository) {
+            return supply(() -> ((AtomicIncrementRepository) repository).incrementAndGet(seqName, step, start));
+        }
+        return AsyncGlobalSeqRepository.super.incrementAndGetAsync(seqName, step, start);
+    }
+
+    /**
+     * 提交到executor执行，被拒绝时返回失败的future
+     */
+    private <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.opensource.seq.core;
+
+/**
+ * 支持原子自增的全局序列仓库
+ *
+ * 底层可以一次原子操作完成“不存在则创建、再增加一段”的存储(如redis的INCRBY)实现该接口，
+ * 刷新序列时直接调用{@link #incrementAndGet(String, long, long)}，不再先loadSeq再lockSeq。
+ * 只能比较并更新的存储(如数据库)只实现{@link GlobalSeqRepository}，仍走加载+CAS的流程。
+ *
+ * @author wutianbiao
+ * @date 2022-06-20
+ */
+public interface AtomicIncrementRepository extends GlobalSeqRepository {
+
+    /**
+     * 原子锁定一段(step)序列
+     * 序列不存在时以start为当前值创建，再增加step
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 增加后的序列值
+     */
+    GlobalSeqPo incrementAndGet(String seqName, long step, long start);
+
+}
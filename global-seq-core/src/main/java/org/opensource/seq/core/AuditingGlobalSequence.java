@@ -0,0 +1,360 @@
+package org.opensource.seq.core;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 审计发出的序列值的{@link GlobalSequence}装饰器，可以在生产环境常开
+ *
+ * 按值的哈希抽样(同一个值要么总被抽中要么总不被抽中，重复的值一定能被发现)，
+ * 抽中的值无锁地放入有界环形队列，队列满时丢弃并计数，获取序列的线程不会等待；
+ * 审计线程把值加入每个序列的堆外压缩位图({@link OffHeapBitmap})，发现重复时报错。
+ * 被装饰的是{@link GlobalSequenceImpl}时同时监听序列段租约，发出的值不在本地锁定过的任何段内也报错。
+ *
+ * 内存有界：每个序列的位图最多maxBytesPerSeq字节，超出时淘汰最早的值；每个序列只保留最近的租约。
+ * 只能发现本进程内的重复，跨进程的重复需要汇总各进程的结果。
+ *
+ * @author wutianbiao
+ * @date 2022-07-05
+ */
+@Slf4j
+public class AuditingGlobalSequence implements GlobalSequence, Closeable {
+    /**
+     * 每个序列保留的租约数
+     */
+    private static final int MAX_LEASES = 1024;
+
+    private final GlobalSequence delegate;
+    /**
+     * 抽样阈值，值的哈希高32位小于该阈值时抽中
+     */
+    private final long sampleThreshold;
+    /**
+     * 每个序列位图的最大字节数
+     */
+    private final long maxBytesPerSeq;
+    /**
+     * 发现异常时的回调
+     */
+    private final SeqAuditListener listener;
+    /**
+     * 是否检查租约
+     */
+    private final boolean leaseChecking;
+    /**
+     * 添加到被装饰序列上的租约监听，关闭时移除
+     */
+    private final SeqLeaseListener leaseListener = this::onLease;
+
+    private final SampleRing ring;
+    private final Map<String, SeqAudit> audits = new ConcurrentHashMap<>();
+    private final Thread auditor;
+    private volatile boolean running = true;
+
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong outsideLease = new AtomicLong();
+    private final AtomicLong unknown = new AtomicLong();
+
+    /**
+     * 构造函数，队列65536，每个序列位图最多16MB，只记录日志
+     *
+     * @param delegate
+     * @param sampleRate 抽样比例，1全部审计
+     */
+    public AuditingGlobalSequence(GlobalSequence delegate, double sampleRate) {
+        this(delegate, sampleRate, 1 << 16, 16L << 20, new SeqAuditListener() { });
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param delegate 被装饰的序列
+     * @param sampleRate 抽样比例，(0, 1]
+     * @param queueCapacity 环形队列容量，向上取2的幂
+     * @param maxBytesPerSeq 每个序列位图的最大字节数
+     * @param listener 发现异常时的回调
+     */
+    public AuditingGlobalSequence(GlobalSequence delegate, double sampleRate, int queueCapacity,
+            long maxBytesPerSeq, SeqAuditListener listener) {
+        if (sampleRate <= 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("抽样比例必须在(0, 1]之间:" + sampleRate);
+        }
+        this.delegate = delegate;
+        this.sampleThreshold = (long) (sampleRate * (1L << 32));
+        this.maxBytesPerSeq = maxBytesPerSeq;
+        this.listener = listener;
+        this.ring = new SampleRing(queueCapacity);
+        this.leaseChecking = delegate instanceof GlobalSequenceImpl;
+        if (leaseChecking) {
+            // 与应用已设置的监听并存，不替换
+            ((GlobalSequenceImpl) delegate).addLeaseListener(leaseListener);
+        }
+        this.auditor = new Thread(this::drain, "global-seq-audit");
+        this.auditor.setDaemon(true);
+        this.auditor.start();
+    }
+
+    @Override
+    public long next(String seqName) {
+        long id = delegate.next(seqName);
+        sample(seqName, id);
+        return id;
+    }
+
+    @Override
+    public long next(String seqName, Object routingKey) {
+        long id = delegate.next(seqName, routingKey);
+        sample(seqName, id);
+        return id;
+    }
+
+    @Override
+    public SeqRange nextRange(String seqName, int max) {
+        SeqRange range = delegate.nextRange(seqName, max);
+        for (long id = range.getFirst(); id <= range.getLast(); id++) {
+            sample(seqName, id);
+        }
+        return range;
+    }
+
+    @Override
+    public long currentValue(String seqName) {
+        return delegate.currentValue(seqName);
+    }
+
+    @Override
+    public OptionalLong tryNext(String seqName, long timeout, TimeUnit unit) {
+        OptionalLong id = delegate.tryNext(seqName, timeout, unit);
+        if (id.isPresent()) {
+            sample(seqName, id.getAsLong());
+        }
+        return id;
+    }
+
+    /**
+     * 队列满丢弃的抽样数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 已审计的值个数
+     */
+    public long getChecked() {
+        return checked.get();
+    }
+
+    /**
+     * 发现的重复数
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * 不在租约内的值个数
+     */
+    public long getOutsideLease() {
+        return outsideLease.get();
+    }
+
+    /**
+     * 位图已淘汰、无法判断的值个数
+     */
+    public long getUnknown() {
+        return unknown.get();
+    }
+
+    /**
+     * 所有序列位图占用的直接内存
+     */
+    public long getBitmapBytes() {
+        long bytes = 0;
+        for (SeqAudit audit : audits.values()) {
+            bytes += audit.bitmapBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * 停止审计线程，不影响被装饰的序列
+     */
+    @Override
+    public void close() {
+        if (leaseChecking) {
+            ((GlobalSequenceImpl) delegate).removeLeaseListener(leaseListener);
+        }
+        running = false;
+        LockSupport.unpark(auditor);
+        try {
+            auditor.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample(String seqName, long id) {
+        if (mix(id) >>> 32 < sampleThreshold && !ring.offer(auditName(seqName), id)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * 共享池的成员按池审计，租约也是按池通知的
+     */
+    private String auditName(String seqName) {
+        return leaseChecking ? ((GlobalSequenceImpl) delegate).backendName(seqName) : seqName;
+    }
+
+    /**
+     * 记录租约，只保留最近的MAX_LEASES个，更早的值不再检查
+     */
+    private void onLease(String seqName, long from, long to) {
+        SeqAudit audit = audit(seqName);
+        audit.leases.put(from, to);
+        if (audit.leases.size() > MAX_LEASES) {
+            audit.leases.pollFirstEntry();
+            audit.leaseFloor = audit.leases.firstKey();
+        }
+    }
+
+    private SeqAudit audit(String seqName) {
+        return audits.computeIfAbsent(seqName, k -> new SeqAudit(maxBytesPerSeq));
+    }
+
+    /**
+     * 审计线程：取出抽样逐个检查，队列空时短暂休眠
+     */
+    private void drain() {
+        while (running) {
+            if (!ring.poll()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+            try {
+                check(ring.polledName, ring.polledValue);
+            } catch (Exception e) {
+                log.error("审计序列异常:{}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void check(String seqName, long id) {
+        SeqAudit audit = audit(seqName);
+        int result = audit.bitmap.add(id);
+        audit.bitmapBytes = audit.bitmap.bytes();
+        checked.incrementAndGet();
+        if (result == OffHeapBitmap.DUPLICATE) {
+            duplicates.incrementAndGet();
+            log.error("发现重复的序列值:{},{}", seqName, id);
+            listener.onDuplicate(seqName, id);
+        } else if (result == OffHeapBitmap.UNKNOWN) {
+            unknown.incrementAndGet();
+        }
+
+        if (leaseChecking && id >= audit.leaseFloor) {
+            Map.Entry<Long, Long> lease = audit.leases.floorEntry(id);
+            if (lease == null || id > lease.getValue()) {
+                outsideLease.incrementAndGet();
+                log.error("序列值不在本地锁定的序列段内:{},{}", seqName, id);
+                listener.onOutsideLease(seqName, id);
+            }
+        }
+    }
+
+    /**
+     * 64位混合函数(SplitMix64)，顺序的值也能均匀抽样
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 单个序列的审计状态
+     */
+    private static final class SeqAudit {
+        final OffHeapBitmap bitmap;
+        final ConcurrentSkipListMap<Long, Long> leases = new ConcurrentSkipListMap<>();
+        volatile long leaseFloor = Long.MIN_VALUE;
+        volatile long bitmapBytes;
+
+        SeqAudit(long maxBytes) {
+            this.bitmap = new OffHeapBitmap(maxBytes);
+        }
+    }
+
+    /**
+     * 有界的多生产者单消费者环形队列，入队不加锁、不分配对象
+     */
+    private static final class SampleRing {
+        final int mask;
+        final AtomicLongArray sequences;
+        final long[] values;
+        final String[] names;
+        final AtomicLong tail = new AtomicLong();
+        long head;
+        String polledName;
+        long polledValue;
+
+        SampleRing(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+            this.mask = size - 1;
+            this.sequences = new AtomicLongArray(size);
+            this.values = new long[size];
+            this.names = new String[size];
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(String name, long value) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        values[index] = value;
+                        names[index] = name;
+                        sequences.lazySet(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    // 队列已满
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        boolean poll() {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                return false;
+            }
+            polledValue = values[index];
+            polledName = names[index];
+            names[index] = null;
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.opensource.seq.core;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 异步仓库到阻塞仓库的适配
+ *
+ * 阻塞等待异步结果，最长等待timeout毫秒；同时保留异步接口，
+ * {@link GlobalSequenceImpl}可以用它做不阻塞的预取。
+ *
+ * @author wutianbiao
+ * @date 2022-06-28
+ */
+public class BlockingGlobalSeqRepositoryAdapter implements AtomicIncrementRepository, AsyncGlobalSeqRepository {
+    /**
+     * 被适配的异步仓库
+     */
+    private final AsyncGlobalSeqRepository repository;
+    /**
+     * 等待异步结果的最长时间(毫秒)
+     */
+    private final long timeout;
+
+    /**
+     * 构造方法，最长等待30秒
+     *
+     * @param repository
+     */
+    public BlockingGlobalSeqRepositoryAdapter(AsyncGlobalSeqRepository repository) {
+        this(repository, 30_000);
+    }
+
+    /**
+     * 构造方法
+     *
+     * @param repository
+     * @param timeout 等待异步结果的最长时间(毫秒)
+     */
+    public BlockingGlobalSeqRepositoryAdapter(AsyncGlobalSeqRepository repository, long timeout) {
+        this.repository = repository;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        return await(repository.createSeqAsync(po));
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        return await(repository.loadSeqAsync(seqName));
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        return await(repository.lockSeqAsync(seqName, step, old));
+    }
+
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        return await(repository.incrementAndGetAsync(seqName, step, start));
+    }
+
+    @Override
+    public CompletableFuture<Integer> createSeqAsync(GlobalSeqPo po) {
+        return repository.createSeqAsync(po);
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> loadSeqAsync(String seqName) {
+        return repository.loadSeqAsync(seqName);
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> lockSeqAsync(String seqName, long step, long old) {
+        return repository.lockSeqAsync(seqName, step, old);
+    }
+
+    @Override
+    public CompletableFuture<GlobalSeqPo> incrementAndGetAsync(String seqName, long step, long start) {
+        return repository.incrementAndGetAsync(seqName, step, start);
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new RuntimeException("等待持久层超时", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待持久层被中断", e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.opensource.seq.core;
+
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntConsumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 基于加载+创建+CAS锁定的序列刷新流程
+ *
+ * 供只能比较并更新的仓库组合出incrementAndGet语义
+ *
+ * @author wutianbiao
+ * @date 2022-06-28
+ */
+@Slf4j
+final class CasRefill {
+    /**
+     * 默认最大重试次数，与{@link GlobalSeqConfig#getMaxRetry()}的默认值一致
+     */
+    static final int DEFAULT_MAX_RETRY = 30;
+
+    private CasRefill() {
+    }
+
+    /**
+     * 同步刷新：流程与{@link #refillAsync}相同，原子自增的仓库直接调用incrementAndGet
+     */
+    static GlobalSeqPo refill(GlobalSeqRepository repository, String seqName, long step, long start, int maxRetry) {
+        return refill(repository, seqName, step, start, maxRetry, null);
+    }
+
+    /**
+     * 同步刷新，成功时把重试次数交给retries(可以为空)；超过最大重试次数时记录JFR事件
+     */
+    static GlobalSeqPo refill(GlobalSeqRepository repository, String seqName, long step, long start, int maxRetry,
+            IntConsumer retries) {
+        if (repository instanceof AtomicIncrementRepository) {
+            GlobalSeqPo seqPo = ((AtomicIncrementRepository) repository).incrementAndGet(seqName, step, start);
+            if (retries != null) {
+                retries.accept(0);
+            }
+            return seqPo;
+        }
+        for (int i = 0; i < maxRetry; i++) {
+            Optional<GlobalSeqPo> optSeqPo = repository.loadSeq(seqName);
+            if (!optSeqPo.isPresent()) {
+                GlobalSeqPo seqPo = new GlobalSeqPo(seqName, start + step);
+                try {
+                    if (repository.createSeq(seqPo) == 1) {
+                        if (retries != null) {
+                            retries.accept(i);
+                        }
+                        return seqPo;
+                    }
+                } catch (RuntimeException e) {
+                    if (!isConstraintViolation(e)) {
+                        throw e;
+                    }
+                    log.info("一致性约束异常，可能持久层序列已创建:{}", seqName);
+                }
+                continue;
+            }
+            Optional<GlobalSeqPo> optLockResult = repository.lockSeq(seqName, step, optSeqPo.get().getCurrentValue());
+            if (optLockResult.isPresent()) {
+                if (retries != null) {
+                    retries.accept(i);
+                }
+                return optLockResult.get();
+            }
+        }
+        SeqFlightRecorder.retryExhausted(seqName, "lock", maxRetry);
+        throw new IllegalStateException("超过最大重试次数未能锁定序列:" + seqName);
+    }
+
+    /**
+     * 异步刷新：加载，不存在则以start + step创建，存在则按加载的值锁定；创建冲突或锁定失败时重试
+     */
+    static CompletableFuture<GlobalSeqPo> refillAsync(AsyncGlobalSeqRepository repository,
+            String seqName, long step, long start, int maxRetry) {
+        return attempt(repository, seqName, step, start, maxRetry, 0);
+    }
+
+    private static CompletableFuture<GlobalSeqPo> attempt(AsyncGlobalSeqRepository repository,
+            String seqName, long step, long start, int maxRetry, int retry) {
+        if (retry >= maxRetry) {
+            CompletableFuture<GlobalSeqPo> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("超过最大重试次数未能锁定序列:" + seqName));
+            return failed;
+        }
+
+        return repository.loadSeqAsync(seqName).thenCompose(optSeqPo -> {
+            if (!optSeqPo.isPresent()) {
+                GlobalSeqPo seqPo = new GlobalSeqPo(seqName, start + step);
+                return repository.createSeqAsync(seqPo)
+                        .handle((result, e) -> {
+                            if (e != null && !isConstraintViolation(e)) {
+                                throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                            }
+                            return e == null && result == 1 ? seqPo : null;
+                        })
+                        .thenCompose(created -> created != null
+                                ? CompletableFuture.completedFuture(created)
+                                : attempt(repository, seqName, step, start, maxRetry, retry + 1));
+            }
+            return repository.lockSeqAsync(seqName, step, optSeqPo.get().getCurrentValue())
+                    .thenCompose(optLockResult -> optLockResult.isPresent()
+                            ? CompletableFuture.completedFuture(optLockResult.get())
+                            : attempt(repository, seqName, step, start, maxRetry, retry + 1));
+        });
+    }
+
+    /**
+     * 并发创建导致的唯一约束冲突，可以重试
+     */
+    static boolean isConstraintViolation(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause.getCause() instanceof SQLIntegrityConstraintViolationException;
+    }
+}
@@ -32,4 +32,84 @@ public class GlobalSeqConfig {
      * 锁定库存最大重试次数
      */
     private int maxRetry = 30;
+
+    /**
+     * 默认预取比例，当前段剩余不足step * defaultPrefetch时异步锁定下一段，0不预取
+     */
+    private double defaultPrefetch = 0;
+
+    /**
+     * 单次刷新访问持久层的超时时间(毫秒)，0不限制
+     */
+    private long refillTimeout = 0;
+
+    /**
+     * 阻塞仓库执行预取的最大线程数
+     */
+    private int refillThreads = 4;
+
+    /**
+     * 阻塞仓库线程池的最大排队任务数，队列满时提交的刷新直接失败
+     */
+    private int refillQueue = 1024;
+
+    /**
+     * 所有序列同时访问持久层的最大刷新数，超出的按预计耗尽时间排队，0不限制
+     */
+    private int refillConcurrency = 0;
+
+    /**
+     * 连续失败多少次后熔断，0不熔断
+     */
+    private int breakerThreshold = 0;
+
+    /**
+     * 熔断后多久探测持久层(毫秒)
+     */
+    private long breakerOpenMillis = 5_000;
+
+    /**
+     * 默认保留段长度，持久层不可用时使用，0没有保留段
+     */
+    private long defaultReserve = 0;
+
+    /**
+     * 严格有序序列空闲时收集同伴的时间(微秒)，0不等待
+     */
+    private long strictWindowMicros = 100;
+
+    /**
+     * 严格有序序列一次提交最多合并的调用数
+     */
+    private int strictMaxBatch = 64;
+
+    /**
+     * 主机共享序列段的映射文件(如/dev/shm/global-seq-order)，为空不共享；一个文件只能对应一个持久层
+     */
+    private String hostSharedPath;
+
+    /**
+     * 主机共享映射文件的槽位数，每个序列一个
+     */
+    private int hostSharedSlots = 1024;
+
+    /**
+     * 主机段是本地步长的多少倍
+     */
+    private int hostSharedFactor = 8;
+
+    /**
+     * 多区域部署时本区域的偏移，序列值为region-offset + k * region-stride，k来自本区域的持久层
+     */
+    private long regionOffset = 0;
+
+    /**
+     * 多区域部署时的步幅，一般等于区域数，1不交错
+     */
+    private long regionStride = 1;
+
+    /**
+     * 本区域的最大序列值(包含)，为空不限制；按区间划分区域时配合region-offset使用
+     */
+    private Long regionMaxValue;
 }
@@ -1,5 +1,8 @@
 package org.opensource.seq.core;
 
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
 /**
  * 基于表的全局序列仓库接口
  * 
@@ -22,6 +25,33 @@ public interface GlobalSequence {
      */
     long next(String seqName);
 
+    /**
+     * 按路由键获取序列的下一个值
+     * 配置了分片字段的序列，路由键决定序列值中的分片号，下游用{@link SeqShardLayout#shardOf(long, int)}直接取出；
+     * 数字路由键按取模分片，其他按哈希值，为空时随机选择分片。默认实现忽略路由键
+     *
+     * @param seqName
+     * @param routingKey 路由键，如用户id
+     * @return
+     */
+    default long next(String seqName, Object routingKey) {
+        return next(seqName);
+    }
+
+    /**
+     * 一次获取最多max个连续的序列值
+     * 从本地缓存的序列段中一次原子操作取出，适合批量插入前先取一批id；段内剩余不足时返回的值少于max，
+     * 调用方用完后再次获取。默认实现每次只返回一个值
+     *
+     * @param seqName
+     * @param max 最多获取的个数，大于0
+     * @return
+     */
+    default SeqRange nextRange(String seqName, int max) {
+        long next = next(seqName);
+        return new SeqRange(next, next);
+    }
+
     /**
      * 获取当前值，瞬时值，不可用做判断
      * 
@@ -30,4 +60,17 @@ public interface GlobalSequence {
      */
     long currentValue(String seqName);
 
+    /**
+     * 在timeout内获取序列的下一个值，超时或持久层不可用时返回空，不会阻塞超过timeout
+     * 默认实现不支持超时，直接调用{@link #next(String)}
+     *
+     * @param seqName
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    default OptionalLong tryNext(String seqName, long timeout, TimeUnit unit) {
+        return OptionalLong.of(next(seqName));
+    }
+
 }
@@ -1,10 +1,19 @@
 package org.opensource.seq.core;
 
-import java.sql.SQLIntegrityConstraintViolationException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -13,15 +22,22 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * 基于表的全局序列实现
  *
+ * 阻塞仓库的预取在refill-threads个守护线程中执行，不再使用时调用{@link #close()}停止线程；
+ * spring容器关闭时自动调用。
+ *
  * @author wutianbiao
  * @date 2022-02-23
  */
 @Slf4j
-public class GlobalSequenceImpl implements GlobalSequence {
+public class GlobalSequenceImpl implements GlobalSequence, Closeable {
     /**
      * 序列持久层
      */
     private GlobalSeqRepository repository;
+    /**
+     * 按配置创建的主机共享层，关闭时一起关闭
+     */
+    private final HostSharedGlobalSeqRepository hostShared;
     /**
      * 序列每次从持久层获取的个数
      */
@@ -29,20 +45,173 @@ public class GlobalSequenceImpl implements GlobalSequence {
     /**
      * 全局序列本地缓存
      */
-    Map<String, SeqCache> seqCachesMap = new HashMap<>();
+    Map<String, SeqAllocator> seqCachesMap = new HashMap<>();
     /**
      * 缓存读写锁
      */
     ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
     private final Lock rLock = rwl.readLock();
     private final Lock wLock = rwl.writeLock();
+    /**
+     * 预取和带超时刷新使用的异步持久层，第一次创建序列时创建，线程按需启动
+     */
+    private volatile AsyncGlobalSeqRepository asyncRepository;
+    /**
+     * 严格有序序列使用的异步持久层，不经过主机共享层
+     */
+    private volatile AsyncGlobalSeqRepository strictAsyncRepository;
+    /**
+     * 异步持久层执行阻塞调用的线程池，最多refill-threads个线程，空闲后回收；最多排队refill-queue个任务
+     */
+    private volatile ThreadPoolExecutor executor;
+    /**
+     * 持久层熔断器，所有序列共用
+     */
+    private final SeqCircuitBreaker breaker;
+    /**
+     * 刷新调度器，所有序列共用，为空不限制刷新并发
+     */
+    private final RefillScheduler refillScheduler;
+    /**
+     * 序列段租约监听，按添加顺序通知
+     */
+    private final List<SeqLeaseListener> leaseListeners = new CopyOnWriteArrayList<>();
+    /**
+     * 设置到分配器上的监听，转发给所有leaseListeners
+     */
+    private final SeqLeaseListener leaseDispatcher = this::dispatchLease;
 
     /**
      * 构造器
      */
     public GlobalSequenceImpl (GlobalSeqConfig config, GlobalSeqRepository repository) {
         this.config = config;
-        this.repository = repository;
+        // 主机共享层位于序列缓存和持久层之间
+        this.hostShared = config.getHostSharedPath() == null || config.getHostSharedPath().isEmpty()
+                ? null
+                : new HostSharedGlobalSeqRepository(repository, config.getHostSharedPath(),
+                        config.getHostSharedSlots(), config.getHostSharedFactor(), config.getMaxRetry());
+        this.repository = hostShared == null ? repository : hostShared;
+        RegionSeq.validate(config.getRegionOffset(), config.getRegionStride(),
+                config.getRegionMaxValue() == null ? Long.MAX_VALUE : config.getRegionMaxValue());
+        this.breaker = config.getBreakerThreshold() > 0
+                ? new SeqCircuitBreaker(config.getBreakerThreshold(), config.getBreakerOpenMillis())
+                : null;
+        this.refillScheduler = config.getRefillConcurrency() > 0
+                ? new RefillScheduler(config.getRefillConcurrency())
+                : null;
+        validatePools(config);
+    }
+
+    /**
+     * 共享池的成员不能单独设置严格有序、分片、步长、预取和保留段，池本身不能再属于其他池
+     *
+     * 步长有默认值，无法区分是否配置过，只拒绝既不是默认值也不等于池步长的配置
+     */
+    private static void validatePools(GlobalSeqConfig config) {
+        if (config.getSeq() == null) {
+            return;
+        }
+        for (Map.Entry<String, SeqConfig> entry : config.getSeq().entrySet()) {
+            String pool = entry.getValue().getPool();
+            if (pool == null || pool.equals(entry.getKey())) {
+                continue;
+            }
+            if (Boolean.TRUE.equals(entry.getValue().getStrictOrder()) || entry.getValue().getShardBits() != null) {
+                throw new IllegalArgumentException("共享池的序列不能单独设置严格有序或分片，在池的配置中设置:" + entry.getKey());
+            }
+            if (entry.getValue().getPrefetch() != null || entry.getValue().getReserve() != null) {
+                throw new IllegalArgumentException("共享池的序列不能单独设置预取或保留段，在池的配置中设置:" + entry.getKey());
+            }
+            SeqConfig poolConfig = config.getSeq().get(pool);
+            Long step = entry.getValue().getStep();
+            if (step != null && step != SeqConfig.DEFAULT_STEP
+                    && (poolConfig == null || !step.equals(poolConfig.getStep()))) {
+                throw new IllegalArgumentException("共享池的序列不能单独设置步长，在池的配置中设置:" + entry.getKey());
+            }
+            if (poolConfig != null && poolConfig.getPool() != null && !poolConfig.getPool().equals(pool)) {
+                throw new IllegalArgumentException("共享池不能再属于其他池:" + pool);
+            }
+        }
+    }
+
+    /**
+     * 设置序列段租约监听，替换所有已添加的监听，已创建的序列同时生效
+     * @param leaseListener 为null时清除所有监听
+     */
+    public void setLeaseListener(SeqLeaseListener leaseListener) {
+        wLock.lock();
+        try {
+            leaseListeners.clear();
+            if (leaseListener != null) {
+                leaseListeners.add(leaseListener);
+            }
+            applyLeaseListeners();
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * 添加序列段租约监听，与已有的监听同时生效
+     * @param leaseListener
+     */
+    public void addLeaseListener(SeqLeaseListener leaseListener) {
+        wLock.lock();
+        try {
+            leaseListeners.add(leaseListener);
+            applyLeaseListeners();
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * 移除序列段租约监听
+     * @param leaseListener
+     */
+    public void removeLeaseListener(SeqLeaseListener leaseListener) {
+        wLock.lock();
+        try {
+            leaseListeners.remove(leaseListener);
+            applyLeaseListeners();
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * 没有监听时分配器不再回调
+     */
+    private void applyLeaseListeners() {
+        for (SeqAllocator allocator : seqCachesMap.values()) {
+            allocator.setLeaseListener(currentLeaseListener());
+        }
+    }
+
+    private SeqLeaseListener currentLeaseListener() {
+        return leaseListeners.isEmpty() ? null : leaseDispatcher;
+    }
+
+    /**
+     * 依次通知所有监听，一个监听抛出异常不影响其他监听
+     */
+    private void dispatchLease(String seqName, long from, long to) {
+        for (SeqLeaseListener listener : leaseListeners) {
+            try {
+                listener.onLease(seqName, from, to);
+            } catch (RuntimeException e) {
+                log.error("序列段租约监听异常:{},{}-{}", seqName, from, to, e);
+            }
+        }
+    }
+
+    /**
+     * 持久层熔断器，未开启时为空
+     * @return
+     */
+    public SeqCircuitBreaker getBreaker() {
+        return breaker;
     }
 
     /**
@@ -59,6 +228,131 @@ public class GlobalSequenceImpl implements GlobalSequence {
         return this.config.getDefaultStep();
     }
 
+    /**
+     * 获取预取比例
+     * @param seqName
+     * @return
+     */
+    private double getPrefetch(String seqName) {
+        if(this.config.getSeq() != null
+                && this.config.getSeq().get(seqName) != null
+                && this.config.getSeq().get(seqName).getPrefetch() != null) {
+            return this.config.getSeq().get(seqName).getPrefetch();
+        }
+        return this.config.getDefaultPrefetch();
+    }
+
+    /**
+     * 是否严格有序
+     * @param seqName
+     * @return
+     */
+    private boolean isStrictOrder(String seqName) {
+        return this.config.getSeq() != null
+                && this.config.getSeq().get(seqName) != null
+                && Boolean.TRUE.equals(this.config.getSeq().get(seqName).getStrictOrder());
+    }
+
+    /**
+     * 序列所属的共享池，不属于其他池时为空
+     * @param seqName
+     * @return
+     */
+    private String getPool(String seqName) {
+        Map<String, SeqConfig> seq = this.config.getSeq();
+        SeqConfig seqConfig = seq == null ? null : seq.get(seqName);
+        if (seqConfig == null || seqConfig.getPool() == null || seqConfig.getPool().equals(seqName)) {
+            return null;
+        }
+        return seqConfig.getPool();
+    }
+
+    /**
+     * 分片字段的位数，0不分片
+     * @param seqName
+     * @return
+     */
+    private int getShardBits(String seqName) {
+        if(this.config.getSeq() != null
+                && this.config.getSeq().get(seqName) != null
+                && this.config.getSeq().get(seqName).getShardBits() != null) {
+            return this.config.getSeq().get(seqName).getShardBits();
+        }
+        return 0;
+    }
+
+    /**
+     * 获取保留段长度
+     * @param seqName
+     * @return
+     */
+    private long getReserve(String seqName) {
+        if(this.config.getSeq() != null
+                && this.config.getSeq().get(seqName) != null
+                && this.config.getSeq().get(seqName).getReserve() != null) {
+            return this.config.getSeq().get(seqName).getReserve();
+        }
+        return this.config.getDefaultReserve();
+    }
+
+    /**
+     * 预取和带超时刷新使用的异步持久层
+     * @return
+     */
+    private AsyncGlobalSeqRepository getAsyncRepository() {
+        if (asyncRepository == null) {
+            synchronized (this) {
+                if (asyncRepository == null) {
+                    asyncRepository = toAsync(repository);
+                }
+            }
+        }
+        return asyncRepository;
+    }
+
+    /**
+     * 严格有序序列使用的异步持久层，每个值都必须在持久层提交，绕过主机共享层
+     * @return
+     */
+    private AsyncGlobalSeqRepository getStrictAsyncRepository() {
+        if (!(repository instanceof HostSharedGlobalSeqRepository)) {
+            return getAsyncRepository();
+        }
+        if (strictAsyncRepository == null) {
+            synchronized (this) {
+                if (strictAsyncRepository == null) {
+                    strictAsyncRepository = toAsync(((HostSharedGlobalSeqRepository) repository).getDelegate());
+                }
+            }
+        }
+        return strictAsyncRepository;
+    }
+
+    /**
+     * 持久层本身是异步的直接使用，否则提交到守护线程池执行
+     * @param repository
+     * @return
+     */
+    private synchronized AsyncGlobalSeqRepository toAsync(GlobalSeqRepository repository) {
+        if (repository instanceof AsyncGlobalSeqRepository) {
+            return (AsyncGlobalSeqRepository) repository;
+        }
+        if (executor == null) {
+            int threads = Math.max(1, config.getRefillThreads());
+            // 预取、带截止时间和refill-timeout的同步刷新、严格有序序列的提交共用这个线程池，
+            // 持久层挂起时排队的任务会不断增加，所以队列有界；队列满时拒绝，适配器返回失败的future
+            int queue = Math.max(1, config.getRefillQueue());
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue),
+                    r -> {
+                        Thread t = new Thread(r, "global-seq-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return new AsyncGlobalSeqRepositoryAdapter(repository, executor);
+    }
+
     /**
      * 获取初始值
      * @param seqName
@@ -80,19 +374,61 @@ public class GlobalSequenceImpl implements GlobalSequence {
      */
     @Override
     public long next(String seqName) {
-        rLock.lock();
-        try {
-            // 如果有值直接返回
-            SeqCache cache = seqCachesMap.get(seqName);
-            if (cache != null) {
-                return cache.next();
-            }
-        } finally {
-            rLock.unlock();
+        return getCache(seqName).next();
+    }
+
+    /**
+     * 按路由键获取序列值，不分片的序列忽略路由键，路由键为空时随机选择分片
+     *
+     * @param seqName
+     * @param routingKey
+     * @return
+     */
+    @Override
+    public long next(String seqName, Object routingKey) {
+        SeqAllocator allocator = getCache(seqName);
+        if (!(allocator instanceof ShardedSeq)) {
+            return allocator.next();
         }
+        ShardedSeq sharded = (ShardedSeq) allocator;
+        long next = sharded.next(sharded.shardOf(routingKey), SeqAllocator.UNBOUNDED);
+        if (next == SeqAllocator.NONE) {
+            throw new RuntimeException("序列持久层不可用，未能获取序列:" + seqName);
+        }
+        return next;
+    }
 
-        // 初始化cache对象
-        return initSeqAndGet(seqName);
+    /**
+     * 批量获取连续的序列值；严格有序、分片和多区域的序列每次只返回一个值
+     *
+     * @param seqName
+     * @param max
+     * @return
+     */
+    @Override
+    public SeqRange nextRange(String seqName, int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("批量获取的个数必须大于0:" + max);
+        }
+        return getCache(seqName).nextRange(max);
+    }
+
+    /**
+     * 在timeout内获取序列值，持久层超时或熔断时使用保留段，保留段也没有时返回空
+     *
+     * @param seqName
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    @Override
+    public OptionalLong tryNext(String seqName, long timeout, TimeUnit unit) {
+        long now = System.nanoTime();
+        long nanos = unit.toNanos(timeout);
+        // 超时时间过长时不限制，避免截止时间溢出
+        long deadline = nanos >= SeqAllocator.UNBOUNDED - now ? SeqAllocator.UNBOUNDED : now + nanos;
+        long next = getCache(seqName).next(deadline);
+        return next == SeqAllocator.NONE ? OptionalLong.empty() : OptionalLong.of(next);
     }
 
     /**
@@ -102,205 +438,232 @@ public class GlobalSequenceImpl implements GlobalSequence {
      */
     @Override
     public long currentValue(String seqName) {
+        return getCache(seqName).currentValue();
+    }
+
+    /**
+     * 获取序列缓存，没有时创建
+     * @param seqName
+     * @return
+     */
+    private SeqAllocator getCache(String seqName) {
+        rLock.lock();
         try {
-            this.rLock.lock();
-            // 如果有值直接返回
-            SeqCache cache = seqCachesMap.get(seqName);
+            // 如果有直接返回
+            SeqAllocator cache = seqCachesMap.get(seqName);
             if (cache != null) {
-                return cache.currentValue();
+                return cache;
             }
         } finally {
             rLock.unlock();
         }
 
         // 初始化cache对象
-        return initSeqAndGet(seqName);
+        return initSeq(seqName);
     }
 
     /**
-     * 初始化序列并获取值
+     * 序列在持久层中的名称：共享池的成员返回池名称，其他返回序列名称
      * @param seqName
      * @return
      */
-    private long initSeqAndGet(String seqName) {
-        log.info("初始化加载序列:{}", seqName);
-        wLock.lock();
+    String backendName(String seqName) {
+        String pool = getPool(seqName);
+        return pool == null ? seqName : pool;
+    }
+
+    /**
+     * 所有已缓存序列的运行状态，共享池只统计一次
+     * @return
+     */
+    public List<SeqStats> stats() {
+        rLock.lock();
         try {
-            //加锁后再次判断
-            SeqCache cache = seqCachesMap.get(seqName);
-            if (cache != null) {
-                // 其他线程已创建
-                log.info("其他线程已初始化序列{}，直接返回值!", seqName);
-                return cache.next();
+            Set<SeqAllocator> allocators = Collections.newSetFromMap(new IdentityHashMap<>());
+            allocators.addAll(seqCachesMap.values());
+            List<SeqStats> stats = new ArrayList<>(allocators.size());
+            for (SeqAllocator cache : allocators) {
+                stats.add(cache.stats());
             }
+            return stats;
+        } finally {
+            rLock.unlock();
+        }
+    }
 
-            // 创建序列缓存管理对象
-            cache = new SeqCache(seqName, getStart(seqName), getStep(seqName), config.getMaxRetry(), repository);
-            long next = cache.next();
-
-            // 放入序列缓存
-            seqCachesMap.put(seqName, cache);
+    /**
+     * 运行时修改序列的步长和预取比例，下一次刷新生效
+     * 同时写入序列配置，序列尚未缓存时初始化即使用新配置
+     *
+     * @param seqName
+     * @param step 新步长，为空不修改
+     * @param prefetch 新预取比例，为空不修改
+     */
+    public void tune(String seqName, Long step, Double prefetch) {
+        if (step != null && step <= 0) {
+            throw new IllegalArgumentException("序列步长必须大于0:" + step);
+        }
+        if (prefetch != null && (prefetch < 0 || prefetch >= 1)) {
+            throw new IllegalArgumentException("序列预取比例必须在[0, 1)之间:" + prefetch);
+        }
+        // 共享池的成员修改池的配置
+        String name = backendName(seqName);
+        log.info("修改序列配置{}: step={}, prefetch={}", name, step, prefetch);
+        wLock.lock();
+        try {
+            if (config.getSeq() == null) {
+                config.setSeq(new HashMap<>());
+            }
+            SeqConfig seqConfig = config.getSeq().get(name);
+            if (seqConfig == null) {
+                seqConfig = new SeqConfig();
+                seqConfig.setStep(getStep(name));
+                config.getSeq().put(name, seqConfig);
+            }
+            if (step != null) {
+                seqConfig.setStep(step);
+            }
+            if (prefetch != null) {
+                seqConfig.setPrefetch(prefetch);
+            }
 
-            return next;
+            SeqAllocator allocator = seqCachesMap.get(name);
+            if (allocator != null) {
+                tune(name, allocator, step, prefetch);
+            }
         } finally {
             wLock.unlock();
         }
     }
 
+    private void tune(String seqName, SeqAllocator allocator, Long step, Double prefetch) {
+        // 分片在外、区域在内，展开到实际缓存序列段的分配器
+        if (allocator instanceof ShardedSeq) {
+            allocator = ((ShardedSeq) allocator).getDelegate();
+        }
+        if (allocator instanceof RegionSeq) {
+            allocator = ((RegionSeq) allocator).getAllocator();
+        }
+        if (allocator instanceof GroupCommitSeq) {
+            log.info("严格有序序列不使用步长和预取，忽略:{}", seqName);
+            return;
+        }
+        if (!(allocator instanceof SeqCache)) {
+            log.warn("序列的分配器不支持调整步长和预取，忽略:{},{}", seqName, allocator.getClass().getSimpleName());
+            return;
+        }
+        SeqCache cache = (SeqCache) allocator;
+        if (step != null) {
+            cache.setStep(step);
+        }
+        if (prefetch != null) {
+            cache.setPrefetch(prefetch);
+        }
+    }
+
     /**
-     * 单个序列缓存管理对象
-     *
-     * @author wutianbiao
-     * @date 2022-02-24
-     */
-    private static class SeqCache {
-        /**
-         * 持久层加载最大重试次数
-         */
-        private int maxRetry = 30;
-
-        /**
-         * 序列名称
-         */
-        private String seqName;
-        /**
-         * 序列的初始值
-         */
-        private Long start;
-        /**
-         * 序列持久层
-         */
-        private GlobalSeqRepository repository;
-        /**
-         * 序列当前值，默认从1开始
-         */
-        private AtomicLong current = new AtomicLong(1L);
-        /**
-         * 每次获取的序列个数
-         */
-        private Long step;
-        /**
-         * 缓存限制
-         */
-        private volatile Long limit;
-
-
-        /**
-         * 构造函数
-         * @param seqName
-         * @param step
-         * @param repository
-         */
-        public SeqCache(String seqName, Long start, Long step, int maxRetry, GlobalSeqRepository repository) {
-            log.info("创建序列对象{}: {},{},{}", seqName, start, step, maxRetry);
-            this.seqName = seqName;
-            this.start = start;
-            this.step = step;
-            this.maxRetry = maxRetry;
-            this.repository = repository;
-        }
-
-        /**
-         * 获取下一个序列值
-         * @return
-         */
-        public long next() {
-            if(limit == null) {
-                loadOrLock();
+     * 初始化序列缓存，第一段在第一次获取时锁定，不占用写锁
+     * @param seqName
+     * @return
+     */
+    private SeqAllocator initSeq(String seqName) {
+        log.info("初始化序列:{}", seqName);
+        wLock.lock();
+        try {
+            //加锁后再次判断
+            SeqAllocator allocator = seqCachesMap.get(seqName);
+            if (allocator != null) {
+                // 其他线程已创建
+                log.info("其他线程已初始化序列{}，直接返回!", seqName);
+                return allocator;
             }
 
-            for(int i = 0; i < maxRetry; i++) {
-                // 增加一个值并比较，如果小于限制，直接返回
-                long next = this.current.incrementAndGet();
-                if(next <= limit.longValue()) {
-                    return next;
+            // 共享池的成员直接使用池的分配器
+            String pool = getPool(seqName);
+            if (pool != null) {
+                allocator = seqCachesMap.get(pool);
+                if (allocator == null) {
+                    allocator = initSeq(pool);
                 }
+                log.info("序列使用共享池:{} -> {}", seqName, pool);
+                seqCachesMap.put(seqName, allocator);
+                return allocator;
+            }
 
-                // 超出重新获取一段
-                loadOrLock();
+            // 分片序列的所有分片共用一个分配器
+            int shardBits = getShardBits(seqName);
+            if (shardBits > 0) {
+                allocator = new ShardedSeq(seqName, this.config.getSeq().get(seqName).getShardLayout(), shardBits,
+                        newAllocator(seqName));
+            } else {
+                allocator = newAllocator(seqName);
             }
+            allocator.setLeaseListener(currentLeaseListener());
+            SeqFlightRecorder.init(seqName, allocator.getClass().getSimpleName(), getStart(seqName), getStep(seqName));
 
-            throw new RuntimeException("超过最大重试次数未能获取序列");
+            // 放入序列缓存
+            seqCachesMap.put(seqName, allocator);
+
+            return allocator;
+        } finally {
+            wLock.unlock();
         }
+    }
 
-        /**
-         * 获取当前值，粗略瞬时值，不可依赖该值
-         * @return
-         */
-        public long currentValue() {
-            // 未初始化
-            if(this.limit == null) {
-                loadOrLock();
-            }
-            return current.get();
-        }
-
-        /**
-         * 从持久层载入序列信息
-         * 如果没有，创建序列
-         */
-        private void loadOrLock() {
-            log.info("从持久层获取锁定一段序列:{}", seqName);
-            synchronized(this){
-                // 如果已经初始化，并且当前值小于limit值，直接返回
-                if(limit != null && current.get() < limit.longValue()) {
-                    log.info("序列已初始化，当前值小于限制值:{} < {}，退出锁定序列段逻辑", current.get(), limit.longValue());
-                    return ;
-                }
+    /**
+     * 创建单个序列(或分片)的分配器
+     * @param seqName
+     * @return
+     */
+    private SeqAllocator newAllocator(String seqName) {
+        SeqAllocator allocator = newLocalAllocator(seqName);
+        // 多区域部署时展开到本区域的值空间
+        if (config.getRegionStride() > 1 || config.getRegionOffset() > 0 || config.getRegionMaxValue() != null) {
+            long maxValue = config.getRegionMaxValue() == null ? Long.MAX_VALUE : config.getRegionMaxValue();
+            return new RegionSeq(seqName, allocator, config.getRegionOffset(), config.getRegionStride(), maxValue);
+        }
+        return allocator;
+    }
 
-                for(int i = 0; i < maxRetry; i++) {
-                    // 查询持久层
-                    Optional<GlobalSeqPo> optSeqPo = this.repository.loadSeq(seqName);
-
-                    // 如果没有，创建持久层
-                    if(!optSeqPo.isPresent()) {
-                        log.info("创建持久层序列:{}", seqName);
-                        try {
-                            GlobalSeqPo seqPo = new GlobalSeqPo(seqName, this.step + start);
-                            int result = this.repository.createSeq(seqPo);
-                            if(result == 1) {
-                                log.info("持久层序列创建成功:{}", seqName);
-                                changeCache(seqPo);
-                                break ; // 退出重试锁定
-                            }
-                        } catch (Exception e) {
-                            log.error("创建全局序列持久化异常:{}", e.getMessage(), e);
-                            Throwable cause = e.getCause();
-                            if (cause instanceof SQLIntegrityConstraintViolationException) {
-                                log.info("一致性约束异常，可能持久层序列已创建，忽略上面异常!:{}", seqName);
-                                continue ;
-                            } else {
-                                throw e;
-                            }
-                        }
-                    } else { // 更新锁定
-                        GlobalSeqPo seqPo = optSeqPo.get();
-                        log.info("持久层加载全局序列对象:{}", seqPo);
-
-                        log.info("更新锁定序列段:{}", seqName);
-                        Optional<GlobalSeqPo> optLockResult = this.repository.lockSeq(seqName, step, seqPo.getCurrentValue());
-                        if(optLockResult.isPresent()) {
-                            GlobalSeqPo lockResult = optLockResult.get();
-                            log.info("锁定序列段成功：{}", lockResult);
-                            changeCache(lockResult);
-                            break ; // 退出重试锁定
-                        }
-                    }
+    /**
+     * 创建访问本区域持久层的分配器
+     * @param seqName
+     * @return
+     */
+    private SeqAllocator newLocalAllocator(String seqName) {
+        // 严格有序的序列合并提交，不缓存
+        if (isStrictOrder(seqName)) {
+            return new GroupCommitSeq(seqName, getStart(seqName), getStrictAsyncRepository(),
+                    TimeUnit.MICROSECONDS.toNanos(config.getStrictWindowMicros()), config.getStrictMaxBatch(),
+                    breaker, TimeUnit.MILLISECONDS.toNanos(config.getRefillTimeout()));
+        }
 
-                }
+        // 创建序列缓存管理对象
+        SeqCache cache = new SeqCache(seqName, getStart(seqName), getStep(seqName), config.getMaxRetry(), repository,
+                getPrefetch(seqName), getAsyncRepository());
+        cache.setBreaker(breaker);
+        cache.setScheduler(refillScheduler);
+        cache.setRefillTimeout(config.getRefillTimeout());
+        cache.setReserveSize(getReserve(seqName));
+        return cache;
+    }
 
-                log.info("从持久层获取锁定一段序列结束:{}", seqName);
-            }
+    /**
+     * 停止预取线程池，已提交的预取继续执行完，关闭自己创建的主机共享映射文件；
+     * 关闭后不再预取，当前段用完时直接访问持久层同步刷新
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            log.info("关闭全局序列预取线程池");
+            executor.shutdown();
         }
-
-        /**
-         * 用持久层数据，修改当前序列值
-         * @param seqPo
-         */
-        private void changeCache(GlobalSeqPo seqPo) {
-            this.current.set(seqPo.getCurrentValue() - step);
-            this.limit = seqPo.getCurrentValue();
-            log.info("序列加载成功{}: {},{}", this.seqName, this.current, this.limit);
+        if (hostShared != null) {
+            try {
+                hostShared.close();
+            } catch (IOException e) {
+                log.warn("关闭主机共享序列文件失败:{}", e.getMessage());
+            }
         }
     }
 }
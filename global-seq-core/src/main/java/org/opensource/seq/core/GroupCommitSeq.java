@@ -0,0 +1,408 @@
+package org.opensource.seq.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 严格有序序列的合并提交分配器
+ *
+ * 不缓存序列段，每个值都在持久层提交后才发出，保证整个集群内按获取顺序严格递增。
+ * 同一时间只有一个提交在进行：提交进行中到达的调用排队，提交完成后立即把排队的调用合并为一次提交；
+ * 空闲时第一个到达的调用等待window纳秒(或排满maxBatch个)收集同伴。
+ * 一次提交锁定n个值，按到达顺序分给n个调用，持久层写入次数降为原来的1/n。
+ *
+ * 等待超时的调用如果已经在提交中，分到的值丢弃，只产生空洞，不影响顺序。
+ * refillTimeout与{@link SeqCache}相同，限制单次提交访问持久层的时间(排队时间不计入)：提交超时后这一批调用失败，
+ * 不再等待它返回，排队的调用立即开始下一次提交；超时的提交返回的值全部丢弃，因此不影响顺序。
+ *
+ * 访问持久层在mutex之外进行；持久层同步完成时在当前线程循环提交下一批，不递归。
+ *
+ * @author wutianbiao
+ * @date 2022-07-03
+ */
+@Slf4j
+final class GroupCommitSeq implements SeqAllocator {
+    /**
+     * 序列名称
+     */
+    private final String seqName;
+    /**
+     * 序列的初始值
+     */
+    private final long start;
+    /**
+     * 提交使用的异步持久层
+     */
+    private final AsyncGlobalSeqRepository repository;
+    /**
+     * 空闲时收集同伴的时间(纳秒)
+     */
+    private final long windowNanos;
+    /**
+     * 一次提交最多合并的调用数
+     */
+    private final int maxBatch;
+    /**
+     * 持久层熔断器，为空不熔断
+     */
+    private final SeqCircuitBreaker breaker;
+    /**
+     * 单次提交访问持久层的超时时间(纳秒)，0不限制
+     */
+    private final long refillTimeoutNanos;
+    /**
+     * 序列段租约监听，为空不通知
+     */
+    private volatile SeqLeaseListener leaseListener;
+
+    private final Object mutex = new Object();
+    /**
+     * 排队的调用，按到达顺序
+     */
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+    /**
+     * 正在进行的提交，为空表示没有提交
+     */
+    private Batch inFlight;
+    /**
+     * 有调用正在收集同伴
+     */
+    private boolean collecting;
+
+    /**
+     * 最近一次发出的值
+     */
+    private volatile long lastValue;
+    /**
+     * 最近一次提交的调用数
+     */
+    private volatile long lastBatch;
+    /**
+     * 提交次数
+     */
+    private final AtomicLong commitCount = new AtomicLong();
+    /**
+     * 最近一次提交的耗时(纳秒)
+     */
+    private volatile long lastCommitNanos;
+
+    GroupCommitSeq(String seqName, long start, AsyncGlobalSeqRepository repository, long windowNanos, int maxBatch,
+            SeqCircuitBreaker breaker, long refillTimeoutNanos) {
+        log.info("创建严格有序序列{}: {},{},{}", seqName, start, windowNanos, maxBatch);
+        this.seqName = seqName;
+        this.start = start;
+        this.repository = repository;
+        this.windowNanos = windowNanos;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.breaker = breaker;
+        this.refillTimeoutNanos = refillTimeoutNanos;
+        this.lastValue = start;
+    }
+
+    /**
+     * 设置序列段租约监听
+     * @param leaseListener
+     */
+    @Override
+    public void setLeaseListener(SeqLeaseListener leaseListener) {
+        this.leaseListener = leaseListener;
+    }
+
+    @Override
+    public long next() {
+        long next = next(UNBOUNDED);
+        if (next == NONE) {
+            throw new RuntimeException("序列持久层不可用，未能获取序列:" + seqName);
+        }
+        return next;
+    }
+
+    @Override
+    public long next(long deadline) {
+        Waiter waiter = new Waiter();
+        boolean collector = false;
+        Batch batch = null;
+        synchronized (mutex) {
+            queue.add(waiter);
+            if (inFlight == null && !collecting) {
+                if (windowNanos <= 0 || queue.size() >= maxBatch) {
+                    batch = drain();
+                } else {
+                    collecting = true;
+                    collector = true;
+                }
+            } else if (collecting && queue.size() >= maxBatch) {
+                mutex.notifyAll();
+            }
+        }
+        if (collector) {
+            batch = collect();
+        }
+        commit(batch);
+
+        try {
+            return await(waiter, deadline);
+        } catch (TimeoutException e) {
+            // 还在排队的直接出队，已经在提交中的值丢弃
+            waiter.future.cancel(false);
+            log.warn("等待序列提交超时:{}", seqName);
+            return NONE;
+        } catch (InterruptedException e) {
+            waiter.future.cancel(false);
+            Thread.currentThread().interrupt();
+            return NONE;
+        } catch (ExecutionException e) {
+            if (deadline == UNBOUNDED && e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            log.warn("序列提交失败:{},{}", seqName, e.getCause().getMessage());
+            return NONE;
+        }
+    }
+
+    @Override
+    public long currentValue() {
+        return lastValue;
+    }
+
+    @Override
+    public SeqStats stats() {
+        SeqStats stats = new SeqStats();
+        stats.setSeqName(seqName);
+        stats.setCurrentValue(lastValue);
+        stats.setLimit(lastValue);
+        stats.setStep(lastBatch);
+        stats.setRefillCount(commitCount.get());
+        stats.setLastRefillMillis(TimeUnit.NANOSECONDS.toMillis(lastCommitNanos));
+        return stats;
+    }
+
+    /**
+     * 等待分到的值，截止时间不限制排队；所在的提交超过refillTimeout未返回时放弃这次提交
+     */
+    private long await(Waiter waiter, long deadline) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        while (true) {
+            long wait = deadline == UNBOUNDED ? Long.MAX_VALUE : deadline - System.nanoTime();
+            Batch batch = waiter.batch;
+            if (refillTimeoutNanos > 0) {
+                // 还在排队时每refillTimeout检查一次是否已开始提交
+                wait = Math.min(wait, batch == null ? refillTimeoutNanos
+                        : batch.startNanos + refillTimeoutNanos - System.nanoTime());
+            }
+            try {
+                return wait == Long.MAX_VALUE ? waiter.future.get()
+                        : waiter.future.get(Math.max(0, wait), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (deadline != UNBOUNDED && deadline - System.nanoTime() <= 0) {
+                    throw e;
+                }
+                batch = waiter.batch;
+                if (batch != null && System.nanoTime() - batch.startNanos >= refillTimeoutNanos) {
+                    abandon(batch);
+                }
+            }
+        }
+    }
+
+    /**
+     * 等待window纳秒或排满maxBatch个调用，返回要提交的一批
+     */
+    private Batch collect() {
+        long until = System.nanoTime() + windowNanos;
+        synchronized (mutex) {
+            try {
+                long remaining;
+                while (queue.size() < maxBatch && (remaining = until - System.nanoTime()) > 0) {
+                    mutex.wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                collecting = false;
+            }
+            return inFlight == null ? drain() : null;
+        }
+    }
+
+    /**
+     * 把排队的调用取出为一批并标记为正在提交，持有mutex时调用；没有排队的调用返回null
+     */
+    private Batch drain() {
+        List<Waiter> waiters = new ArrayList<>(Math.min(queue.size(), maxBatch));
+        while (waiters.size() < maxBatch && !queue.isEmpty()) {
+            Waiter waiter = queue.poll();
+            if (!waiter.future.isDone()) {
+                waiters.add(waiter);
+            }
+        }
+        if (waiters.isEmpty()) {
+            return null;
+        }
+        Batch batch = new Batch(waiters);
+        for (Waiter waiter : waiters) {
+            waiter.batch = batch;
+        }
+        inFlight = batch;
+        return batch;
+    }
+
+    /**
+     * 在mutex之外提交；持久层同步完成时在当前线程继续提交下一批
+     */
+    private void commit(Batch batch) {
+        while (batch != null) {
+            CompletableFuture<GlobalSeqPo> future = launch(batch);
+            if (!future.isDone()) {
+                Batch current = batch;
+                future.whenComplete((seqPo, e) -> commit(complete(current, seqPo, e)));
+                return;
+            }
+            GlobalSeqPo seqPo = null;
+            Throwable error = null;
+            try {
+                seqPo = future.join();
+            } catch (CompletionException e) {
+                error = e.getCause();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            batch = complete(batch, seqPo, error);
+        }
+    }
+
+    /**
+     * 访问持久层锁定这一批的值
+     */
+    private CompletableFuture<GlobalSeqPo> launch(Batch batch) {
+        batch.event = SeqFlightRecorder.beginRefill();
+        batch.rejected = breaker != null && !breaker.allowRequest();
+        CompletableFuture<GlobalSeqPo> commit;
+        if (batch.rejected) {
+            commit = new CompletableFuture<>();
+            commit.completeExceptionally(new IllegalStateException("序列持久层熔断中:" + seqName));
+            return commit;
+        }
+        try {
+            return repository.incrementAndGetAsync(seqName, batch.waiters.size(), start);
+        } catch (RuntimeException e) {
+            commit = new CompletableFuture<>();
+            commit.completeExceptionally(e);
+            return commit;
+        }
+    }
+
+    /**
+     * 提交完成，按到达顺序分配值；返回接着要提交的一批，没有时返回null
+     */
+    private Batch complete(Batch batch, GlobalSeqPo seqPo, Throwable e) {
+        int n = batch.waiters.size();
+        long elapsed = System.nanoTime() - batch.startNanos;
+        SeqFlightRecorder.commitRefill(batch.event, seqName, n, repository.getClass().getSimpleName(), "strict", -1,
+                e == null);
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        // 线程池拒绝不是持久层的失败
+        if (breaker != null && !batch.rejected && !(cause instanceof RejectedExecutionException)) {
+            if (e == null) {
+                breaker.onSuccess();
+            } else {
+                breaker.onFailure();
+            }
+        }
+        boolean current;
+        synchronized (mutex) {
+            current = inFlight == batch;
+            if (current) {
+                inFlight = null;
+            }
+        }
+
+        if (e == null) {
+            long first = seqPo.getCurrentValue() - n + 1;
+            SeqLeaseListener listener = leaseListener;
+            if (listener != null) {
+                listener.onLease(seqName, first, seqPo.getCurrentValue());
+            }
+            if (current) {
+                lastValue = seqPo.getCurrentValue();
+                lastBatch = n;
+                lastCommitNanos = elapsed;
+                commitCount.incrementAndGet();
+                for (int i = 0; i < n; i++) {
+                    batch.waiters.get(i).future.complete(first + i);
+                }
+            } else {
+                log.warn("提交超时后返回，丢弃序列值:{},{}-{}", seqName, first, seqPo.getCurrentValue());
+            }
+        } else {
+            for (Waiter waiter : batch.waiters) {
+                waiter.future.completeExceptionally(e);
+            }
+        }
+
+        if (!current) {
+            return null;
+        }
+        synchronized (mutex) {
+            return inFlight == null && !collecting ? drain() : null;
+        }
+    }
+
+    /**
+     * 提交超过refillTimeout未返回，这一批调用失败，排队的调用开始下一次提交
+     */
+    private void abandon(Batch batch) {
+        Batch next;
+        synchronized (mutex) {
+            if (inFlight != batch) {
+                return;
+            }
+            inFlight = null;
+            next = collecting ? null : drain();
+        }
+        log.warn("序列提交超过{}ms未返回，放弃这次提交:{}", TimeUnit.NANOSECONDS.toMillis(refillTimeoutNanos), seqName);
+        TimeoutException timeout = new TimeoutException("序列提交超时:" + seqName);
+        for (Waiter waiter : batch.waiters) {
+            waiter.future.completeExceptionally(timeout);
+        }
+        commit(next);
+    }
+
+    /**
+     * 排队的调用
+     */
+    private static final class Waiter {
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        /**
+         * 所在的提交，排队时为空
+         */
+        volatile Batch batch;
+    }
+
+    /**
+     * 一次提交
+     */
+    private static final class Batch {
+        final List<Waiter> waiters;
+        /**
+         * 开始提交的时间
+         */
+        final long startNanos = System.nanoTime();
+        Object event;
+        boolean rejected;
+
+        Batch(List<Waiter> waiters) {
+            this.waiters = waiters;
+        }
+    }
+}
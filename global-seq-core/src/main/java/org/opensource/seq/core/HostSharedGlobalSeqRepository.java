@@ -0,0 +1,297 @@
+package org.opensource.seq.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 同一台主机上多个JVM共享序列段的仓库装饰器
+ *
+ * 在内存映射文件(一般放在/dev/shm)中为每个序列保存一个主机段，同一主机的JVM在槽位的文件锁保护下从主机段中取出本地段，
+ * 主机段不足时由持有锁的JVM从被装饰的仓库锁定新的主机段(本地步长 * factor)，持久层的刷新次数降为原来的几分之一，
+ * JVM重启时主机段也不会丢失。本地段用完才访问一次主机段，文件锁的开销可以忽略。
+ *
+ * 文件布局：64字节的文件头(魔数、槽位数)，之后每个序列一个128字节的槽位(状态、名称长度、当前值、上限、名称)，按名称哈希线性探测。
+ * 槽位只在文件锁内读写，持有文件锁的进程崩溃时锁自动释放。没有对映射内存的long做CAS：不使用Unsafe时JDK 8无法原子地
+ * 比较并更新映射内存，因此每次取本地段都获取槽位的文件锁，锁内读写当前值和上限。
+ * 映射文件在进程退出后仍然存在，锁内的写入顺序保证进程在两次写入之间崩溃时只浪费值、不重复：
+ * 不相连的新主机段先写当前值、再写上限。
+ * 主机段剩余不足一个本地段时，新锁定的主机段和剩余部分相连(持久层中没有其他实例插入)则合并使用，不相连时剩余部分丢弃。
+ *
+ * 一个文件只能对应一个持久层；名称过长或槽位用完的序列、以及关闭之后的刷新直接访问被装饰的仓库。
+ *
+ * @author wutianbiao
+ * @date 2022-07-06
+ */
+@Slf4j
+public class HostSharedGlobalSeqRepository implements AtomicIncrementRepository, Closeable {
+    private static final long MAGIC = 0x474c4f42414c5351L;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 128;
+    private static final int STATE = 0;
+    private static final int NAME_LENGTH = 4;
+    private static final int CURRENT = 8;
+    private static final int LIMIT = 16;
+    private static final int NAME = 32;
+    private static final int MAX_NAME_BYTES = SLOT_BYTES - NAME;
+    private static final int CLAIMED = 1;
+
+    /**
+     * 被装饰的仓库
+     */
+    private final GlobalSeqRepository delegate;
+    /**
+     * 主机段是本地步长的多少倍
+     */
+    private final int factor;
+    /**
+     * 非原子自增仓库锁定主机段的最大重试次数
+     */
+    private final int maxRetry;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    /**
+     * 映射的内存，必须持有引用，否则可能被回收解除映射
+     */
+    private final MappedByteBuffer mapped;
+    private final int slots;
+    /**
+     * 同一JVM内不能重复获取同一区域的文件锁(即使是不同的FileChannel)，先用按文件共享的本地锁互斥
+     */
+    private static final Map<String, ReentrantLock> HEADER_LOCKS = new ConcurrentHashMap<>();
+    private static final Map<String, ReentrantLock[]> SLOT_LOCKS = new ConcurrentHashMap<>();
+    private final ReentrantLock headerLock;
+    private final ReentrantLock[] slotLocks;
+    /**
+     * 序列对应的槽位，-1表示不共享
+     */
+    private final Map<String, Integer> slotIndex = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * 构造函数，映射文件不存在时创建
+     *
+     * @param delegate 被装饰的仓库
+     * @param path 映射文件路径，如/dev/shm/global-seq-order
+     * @param slots 文件不存在时创建的槽位数
+     * @param factor 主机段是本地步长的多少倍
+     * @param maxRetry 非原子自增仓库锁定主机段的最大重试次数
+     */
+    public HostSharedGlobalSeqRepository(GlobalSeqRepository delegate, String path, int slots, int factor,
+            int maxRetry) {
+        if (slots <= 0 || factor <= 0) {
+            throw new IllegalArgumentException("槽位数和倍数必须大于0:" + slots + "," + factor);
+        }
+        this.delegate = delegate;
+        this.factor = factor;
+        this.maxRetry = maxRetry;
+        try {
+            File parent = new File(path).getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("无法创建目录:" + parent);
+            }
+            File mapFile = new File(path).getCanonicalFile();
+            this.headerLock = HEADER_LOCKS.computeIfAbsent(mapFile.getPath(), k -> new ReentrantLock());
+            this.file = new RandomAccessFile(mapFile, "rw");
+            this.channel = file.getChannel();
+            this.slots = initHeader(slots);
+            this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) this.slots * SLOT_BYTES);
+            this.slotLocks = SLOT_LOCKS.computeIfAbsent(mapFile.getPath(), k -> newLocks(this.slots));
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开主机共享序列文件失败:" + path, e);
+        }
+        log.info("主机共享序列文件:{}, 槽位数:{}, 倍数:{}", path, this.slots, factor);
+    }
+
+    /**
+     * 被装饰的仓库
+     */
+    public GlobalSeqRepository getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * 从主机段取出step个值，主机段不足时锁定新的主机段
+     */
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        int slot = closed ? -1 : slotIndex.computeIfAbsent(seqName, this::findOrClaim);
+        if (slot < 0) {
+            return CasRefill.refill(delegate, seqName, step, start, maxRetry);
+        }
+        int base = HEADER_BYTES + slot * SLOT_BYTES;
+        ReentrantLock lock = slotLocks[slot];
+        lock.lock();
+        try (FileLock ignored = channel.lock(base, SLOT_BYTES, false)) {
+            long current = mapped.getLong(base + CURRENT);
+            long limit = mapped.getLong(base + LIMIT);
+            if (limit - current < step) {
+                long size = step * factor;
+                long to = CasRefill.refill(delegate, seqName, size, start, maxRetry).getCurrentValue();
+                long from = to - size;
+                if (from != limit) {
+                    if (limit > current) {
+                        log.warn("主机段剩余部分和新段不相连，丢弃{}: ({}, {}]", seqName, current, limit);
+                    }
+                    current = from;
+                    // 先写当前值：只写了当前值时新段尚未生效，下次重新锁定；先写上限会发出(旧上限, from]中其他实例的值
+                    mapped.putLong(base + CURRENT, current);
+                }
+                limit = to;
+                mapped.putLong(base + LIMIT, limit);
+                log.info("锁定主机段成功{}: ({}, {}]", seqName, current, limit);
+            }
+            mapped.putLong(base + CURRENT, current + step);
+            return new GlobalSeqPo(seqName, current + step);
+        } catch (ClosedChannelException e) {
+            return CasRefill.refill(delegate, seqName, step, start, maxRetry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("获取主机共享序列文件锁失败:" + seqName, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        return delegate.createSeq(po);
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        return delegate.loadSeq(seqName);
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        return delegate.lockSeq(seqName, step, old);
+    }
+
+    /**
+     * 关闭映射文件，之后的刷新直接访问被装饰的仓库
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        file.close();
+    }
+
+    /**
+     * 新文件写入文件头，已有文件读取槽位数
+     */
+    private int initHeader(int slots) throws IOException {
+        headerLock.lock();
+        try (FileLock ignored = channel.lock(0, HEADER_BYTES, false)) {
+            if (file.length() >= HEADER_BYTES) {
+                file.seek(0);
+                if (file.readLong() == MAGIC) {
+                    return file.readInt();
+                }
+            }
+            file.setLength(HEADER_BYTES + (long) slots * SLOT_BYTES);
+            file.seek(0);
+            file.writeLong(MAGIC);
+            file.writeInt(slots);
+            return slots;
+        } finally {
+            headerLock.unlock();
+        }
+    }
+
+    /**
+     * 在文件头锁保护下查找序列的槽位，没有时占用一个空槽位
+     *
+     * @return 槽位号，名称过长或没有空槽位时返回-1
+     */
+    private int findOrClaim(String seqName) {
+        byte[] name = seqName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES) {
+            log.warn("序列名称过长，不在主机间共享:{}", seqName);
+            return -1;
+        }
+        headerLock.lock();
+        try (FileLock ignored = channel.lock(0, HEADER_BYTES, false)) {
+            int slot = find(name);
+            if (slot < 0) {
+                log.warn("主机共享序列槽位已用完，不在主机间共享:{}", seqName);
+            }
+            return slot;
+        } catch (ClosedChannelException e) {
+            return -1;
+        } catch (IOException e) {
+            throw new UncheckedIOException("获取主机共享序列文件锁失败:" + seqName, e);
+        } finally {
+            headerLock.unlock();
+        }
+    }
+
+    /**
+     * 线性探测查找槽位，遇到空槽位时占用，在文件头锁内调用
+     *
+     * @param name
+     * @return
+     */
+    private int find(byte[] name) {
+        int first = (hash(name) & Integer.MAX_VALUE) % slots;
+        for (int i = 0; i < slots; i++) {
+            int slot = (first + i) % slots;
+            int base = HEADER_BYTES + slot * SLOT_BYTES;
+            if (mapped.getInt(base + STATE) != CLAIMED) {
+                for (int j = 0; j < name.length; j++) {
+                    mapped.put(base + NAME + j, name[j]);
+                }
+                mapped.putInt(base + NAME_LENGTH, name.length);
+                mapped.putLong(base + LIMIT, 0);
+                mapped.putLong(base + CURRENT, 0);
+                mapped.putInt(base + STATE, CLAIMED);
+                return slot;
+            }
+            if (nameEquals(base, name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int base, byte[] name) {
+        if (mapped.getInt(base + NAME_LENGTH) != name.length) {
+            return false;
+        }
+        for (int j = 0; j < name.length; j++) {
+            if (mapped.get(base + NAME + j) != name[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ReentrantLock[] newLocks(int count) {
+        ReentrantLock[] locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    private static int hash(byte[] name) {
+        int h = 0x811c9dc5;
+        for (byte b : name) {
+            h = (h ^ b) * 0x01000193;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,172 @@
+package org.opensource.seq.core;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 堆外的压缩位图，参考Roaring bitmap
+ *
+ * 按值的高48位分为容器，每个容器保存低16位：不超过4096个值时是有序的char数组(按需倍增)，
+ * 超过后转为8KB的位图；容器的数据都在直接内存中，不增加GC压力。
+ * 总占用超过maxBytes时淘汰最小(最早)的容器，淘汰范围内的值不再能判断是否重复。
+ * 非线程安全，由审计线程单独使用。
+ *
+ * @author wutianbiao
+ * @date 2022-07-05
+ */
+final class OffHeapBitmap {
+    /**
+     * 新增的值
+     */
+    static final int ADDED = 1;
+    /**
+     * 重复的值
+     */
+    static final int DUPLICATE = 0;
+    /**
+     * 在已淘汰的范围内，无法判断
+     */
+    static final int UNKNOWN = -1;
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_BYTES = 8192;
+    private static final int INITIAL_ARRAY = 16;
+
+    private final TreeMap<Long, Container> containers = new TreeMap<>();
+    private final long maxBytes;
+    private long bytes;
+    /**
+     * 已淘汰的最大容器号
+     */
+    private Long evictedKey;
+    private long evictions;
+
+    OffHeapBitmap(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 加入一个值
+     *
+     * @param value
+     * @return {@link #ADDED}、{@link #DUPLICATE}或{@link #UNKNOWN}
+     */
+    int add(long value) {
+        long key = value >> 16;
+        if (evictedKey != null && key <= evictedKey) {
+            return UNKNOWN;
+        }
+        Container container = containers.get(key);
+        if (container == null) {
+            container = new Container();
+            containers.put(key, container);
+            bytes += container.buffer.capacity();
+        }
+        int before = container.buffer.capacity();
+        boolean added = container.add((char) value);
+        bytes += container.buffer.capacity() - before;
+
+        while (bytes > maxBytes && containers.size() > 1) {
+            Map.Entry<Long, Container> eldest = containers.pollFirstEntry();
+            bytes -= eldest.getValue().buffer.capacity();
+            evictedKey = eldest.getKey();
+            evictions++;
+        }
+        return added ? ADDED : DUPLICATE;
+    }
+
+    /**
+     * 当前占用的直接内存
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * 淘汰的容器数
+     */
+    long evictions() {
+        return evictions;
+    }
+
+    /**
+     * 一个容器，保存高位相同的值的低16位
+     */
+    private static final class Container {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_ARRAY * Character.BYTES);
+        int cardinality;
+        boolean bitmap;
+
+        boolean add(char low) {
+            if (bitmap) {
+                int index = (low >>> 6) * Long.BYTES;
+                long word = buffer.getLong(index);
+                long bit = 1L << (low & 63);
+                if ((word & bit) != 0) {
+                    return false;
+                }
+                buffer.putLong(index, word | bit);
+                cardinality++;
+                return true;
+            }
+
+            // 顺序发出的值总是追加在末尾，先比较最后一个
+            int position;
+            if (cardinality == 0 || buffer.getChar((cardinality - 1) * Character.BYTES) < low) {
+                position = cardinality;
+            } else {
+                position = search(low);
+                if (position >= 0) {
+                    return false;
+                }
+                position = -position - 1;
+            }
+            if (cardinality == ARRAY_MAX) {
+                toBitmap();
+                return add(low);
+            }
+            if ((cardinality + 1) * Character.BYTES > buffer.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocateDirect(Math.min(buffer.capacity() * 2, ARRAY_MAX * Character.BYTES));
+                for (int i = 0; i < cardinality; i++) {
+                    grown.putChar(i * Character.BYTES, buffer.getChar(i * Character.BYTES));
+                }
+                buffer = grown;
+            }
+            for (int i = cardinality; i > position; i--) {
+                buffer.putChar(i * Character.BYTES, buffer.getChar((i - 1) * Character.BYTES));
+            }
+            buffer.putChar(position * Character.BYTES, low);
+            cardinality++;
+            return true;
+        }
+
+        private int search(char low) {
+            int from = 0;
+            int to = cardinality - 1;
+            while (from <= to) {
+                int middle = (from + to) >>> 1;
+                char value = buffer.getChar(middle * Character.BYTES);
+                if (value < low) {
+                    from = middle + 1;
+                } else if (value > low) {
+                    to = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(from + 1);
+        }
+
+        private void toBitmap() {
+            ByteBuffer words = ByteBuffer.allocateDirect(BITMAP_BYTES);
+            for (int i = 0; i < cardinality; i++) {
+                char low = buffer.getChar(i * Character.BYTES);
+                int index = (low >>> 6) * Long.BYTES;
+                words.putLong(index, words.getLong(index) | (1L << (low & 63)));
+            }
+            buffer = words;
+            bitmap = true;
+        }
+    }
+}
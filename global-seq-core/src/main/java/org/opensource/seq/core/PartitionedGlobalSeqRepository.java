@@ -0,0 +1,387 @@
+package org.opensource.seq.core;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 分区的全局序列存储，多个独立的后端组合为一个仓库
+ *
+ * 序列的id空间按高位拆成2^partitionBits个互不相交的分区，第i个分区的取值为
+ * (i << (63 - partitionBits)) + 分区内的值，每个分区由一个独立的仓库(不同的数据库分片、redis节点)保存分区内的值。
+ * 刷新时选择负载最低的分区(在途请求数 * 平均耗时)；超过hedgeDelay毫秒未返回时向另一个分区发出对冲请求，
+ * 先返回的结果生效，后返回的段丢弃(只产生空洞，不会重复)；一个分区失败时立即转到其他分区。
+ * 刷新吞吐随分区数线性增长，单个后端变慢或不可用不影响整体。
+ *
+ * 序列在分区内递增，跨分区不保证递增。
+ * 加载、创建、比较并锁定(CAS方式的刷新)固定使用第0个分区：它的取值从0开始，序列值不需要换算，
+ * 与incrementAndGet选中第0个分区时使用同一个计数器，两种方式混用也不会重复。
+ * 定时线程在{@link #close()}时停止。
+ *
+ * @author wutianbiao
+ * @date 2022-07-01
+ */
+@Slf4j
+public class PartitionedGlobalSeqRepository implements AtomicIncrementRepository, AsyncGlobalSeqRepository, Closeable {
+    /**
+     * 对冲延迟(毫秒)，选中的分区超过该时间未返回时向另一个分区再发一次，小于等于0不对冲
+     */
+    @Getter
+    @Setter
+    private long hedgeDelay = 50;
+    /**
+     * 分区失败时计入的耗时(毫秒)，使后续刷新避开该分区
+     */
+    @Getter
+    @Setter
+    private long failurePenalty = 1_000;
+    /**
+     * 同步调用等待异步结果的最长时间(毫秒)
+     */
+    @Getter
+    @Setter
+    private long timeout = 30_000;
+    /**
+     * 分区位数
+     */
+    @Getter
+    private final int partitionBits;
+    /**
+     * 分区
+     */
+    private final List<Partition> partitions;
+    /**
+     * 触发对冲请求的定时线程
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 构造函数，分区位数取能容纳全部分区的最小值
+     *
+     * @param repositories 每个分区的仓库，顺序决定分区号，不可随意调整
+     */
+    public PartitionedGlobalSeqRepository(List<? extends AsyncGlobalSeqRepository> repositories) {
+        this(repositories, 32 - Integer.numberOfLeadingZeros(Math.max(repositories.size() - 1, 1)));
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param repositories 每个分区的仓库，顺序决定分区号，不可随意调整
+     * @param partitionBits 分区位数，预留位数后可以增加分区而不改变已有分区的取值范围
+     */
+    public PartitionedGlobalSeqRepository(List<? extends AsyncGlobalSeqRepository> repositories, int partitionBits) {
+        if (repositories.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个分区");
+        }
+        if (partitionBits < 1 || partitionBits > 16 || repositories.size() > (1 << partitionBits)) {
+            throw new IllegalArgumentException("分区位数不能容纳全部分区:" + partitionBits + "," + repositories.size());
+        }
+        this.partitionBits = partitionBits;
+        List<Partition> list = new ArrayList<>(repositories.size());
+        for (int i = 0; i < repositories.size(); i++) {
+            list.add(new Partition(i, repositories.get(i), (long) i << (63 - partitionBits)));
+        }
+        this.partitions = Collections.unmodifiableList(list);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "global-seq-hedge");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 用阻塞的仓库创建，不是异步仓库的分区提交到executor执行
+     *
+     * @param repositories
+     * @param executor
+     * @return
+     */
+    public static PartitionedGlobalSeqRepository fromBlocking(List<? extends GlobalSeqRepository> repositories,
+            Executor executor) {
+        List<AsyncGlobalSeqRepository> asyncRepositories = new ArrayList<>(repositories.size());
+        for (GlobalSeqRepository repository : repositories) {
+            asyncRepositories.add(repository instanceof AsyncGlobalSeqRepository
+                    ? (AsyncGlobalSeqRepository) repository
+                    : new AsyncGlobalSeqRepositoryAdapter(repository, executor));
+        }
+        return new PartitionedGlobalSeqRepository(asyncRepositories);
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        return await(createSeqAsync(po));
+    }
+
+    /**
+     * 第0个分区中的序列值
+     */
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        return await(loadSeqAsync(seqName));
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        return await(lockSeqAsync(seqName, step, old));
+    }
+
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        return await(incrementAndGetAsync(seqName, step, start));
+    }
+
+    /**
+     * 在第0个分区创建序列，序列值不能超出第0个分区的范围
+     */
+    @Override
+    public CompletableFuture<Integer> createSeqAsync(GlobalSeqPo po) {
+        Partition first = partitions.get(0);
+        if (po.getCurrentValue() < 0 || po.getCurrentValue() >= first.capacity()) {
+            return failed(new IllegalArgumentException("序列值超出第0个分区的范围:" + po));
+        }
+        return first.repository.createSeqAsync(po);
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> loadSeqAsync(String seqName) {
+        return partitions.get(0).repository.loadSeqAsync(seqName);
+    }
+
+    /**
+     * 在第0个分区比较并锁定，锁定后超出第0个分区的范围时失败
+     */
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> lockSeqAsync(String seqName, long step, long old) {
+        Partition first = partitions.get(0);
+        if (old < 0 || step <= 0 || old + step >= first.capacity()) {
+            return failed(new IllegalStateException("分区取值已用完:0," + old));
+        }
+        return first.repository.lockSeqAsync(seqName, step, old);
+    }
+
+    /**
+     * 选择负载最低的分区锁定一段序列，超过hedgeDelay未返回时对冲到另一个分区
+     */
+    @Override
+    public CompletableFuture<GlobalSeqPo> incrementAndGetAsync(String seqName, long step, long start) {
+        Race race = new Race(seqName, step, start);
+        Partition primary = choose(null);
+        if (primary == null) {
+            race.result.completeExceptionally(new IllegalStateException("没有可用的分区:" + seqName));
+            return race.result;
+        }
+        race.launch(primary);
+        if (hedgeDelay > 0 && partitions.size() > 1 && !scheduler.isShutdown()) {
+            try {
+                scheduler.schedule(() -> race.hedge(primary), hedgeDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 已关闭，不再对冲
+            }
+        }
+        return race.result;
+    }
+
+    /**
+     * 选择在途请求数 * 平均耗时最小的分区，分数相同时随机选择
+     */
+    private Partition choose(Partition excluded) {
+        Partition best = null;
+        double bestScore = Double.MAX_VALUE;
+        int offset = ThreadLocalRandom.current().nextInt(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            Partition partition = partitions.get((offset + i) % partitions.size());
+            if (partition == excluded || partition.exhausted) {
+                continue;
+            }
+            double score = (partition.inflight.get() + 1) * (partition.latencyMillis + 1);
+            if (score < bestScore) {
+                best = partition;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 停止触发对冲请求的定时线程，之后不再对冲
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("等待持久层超时", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待持久层被中断", e);
+        }
+    }
+
+    /**
+     * 一次刷新，主请求和对冲请求中先成功的生效
+     */
+    private final class Race {
+        final String seqName;
+        final long step;
+        final long start;
+        final CompletableFuture<GlobalSeqPo> result = new CompletableFuture<>();
+        /**
+         * 已发出、未失败的请求数
+         */
+        int running;
+        boolean hedged;
+
+        Race(String seqName, long step, long start) {
+            this.seqName = seqName;
+            this.step = step;
+            this.start = start;
+        }
+
+        void launch(Partition partition) {
+            synchronized (this) {
+                running++;
+            }
+            long begin = System.nanoTime();
+            partition.inflight.incrementAndGet();
+            CompletableFuture<GlobalSeqPo> future;
+            try {
+                future = partition.repository.incrementAndGetAsync(seqName, step, start);
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((po, e) -> {
+                partition.inflight.decrementAndGet();
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+                partition.record(e == null ? millis : Math.max(millis, failurePenalty));
+                if (e == null) {
+                    complete(partition, po);
+                } else {
+                    fail(partition, e);
+                }
+            });
+        }
+
+        /**
+         * 对冲：主请求仍未返回时向另一个分区发出
+         */
+        void hedge(Partition primary) {
+            if (result.isDone()) {
+                return;
+            }
+            synchronized (this) {
+                if (hedged) {
+                    return;
+                }
+                hedged = true;
+            }
+            Partition other = choose(primary);
+            if (other != null) {
+                log.info("分区{}超过{}ms未返回，对冲到分区{}:{}", primary.index, hedgeDelay, other.index, seqName);
+                launch(other);
+            }
+        }
+
+        void complete(Partition partition, GlobalSeqPo po) {
+            long local = po.getCurrentValue();
+            if (local >= partition.capacity()) {
+                partition.exhausted = true;
+                fail(partition, new IllegalStateException("分区取值已用完:" + partition.index + "," + local));
+                return;
+            }
+            GlobalSeqPo global = new GlobalSeqPo(seqName, partition.base + local);
+            if (!result.complete(global)) {
+                log.info("对冲请求晚于其他分区返回，丢弃序列段:{},{}", partition.index, global);
+            }
+        }
+
+        void fail(Partition partition, Throwable e) {
+            log.warn("分区{}锁定序列段失败:{},{}", partition.index, seqName, e.getMessage());
+            boolean failover;
+            boolean last;
+            synchronized (this) {
+                running--;
+                failover = !hedged && !result.isDone();
+                hedged = true;
+                last = running == 0;
+            }
+            Partition other = failover ? choose(partition) : null;
+            if (other != null) {
+                launch(other);
+            } else if (last) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 分区及其负载统计
+     */
+    private final class Partition {
+        final int index;
+        final AsyncGlobalSeqRepository repository;
+        /**
+         * 分区的起始值
+         */
+        final long base;
+        /**
+         * 在途请求数
+         */
+        final AtomicInteger inflight = new AtomicInteger();
+        /**
+         * 指数加权平均耗时(毫秒)
+         */
+        volatile double latencyMillis;
+        /**
+         * 分区取值已用完
+         */
+        volatile boolean exhausted;
+
+        Partition(int index, AsyncGlobalSeqRepository repository, long base) {
+            this.index = index;
+            this.repository = repository;
+            this.base = base;
+        }
+
+        long capacity() {
+            return 1L << (63 - partitionBits);
+        }
+
+        void record(long millis) {
+            latencyMillis = latencyMillis * 0.8 + millis * 0.2;
+        }
+    }
+}
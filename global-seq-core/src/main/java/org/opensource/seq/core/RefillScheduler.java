@@ -0,0 +1,244 @@
+package org.opensource.seq.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 所有序列缓存共用的刷新调度器
+ *
+ * 同一时间最多maxInFlight个刷新访问持久层，超出的按预计耗尽时间排队，最先耗尽的先刷新；
+ * 同步刷新(当前段已用完)的耗尽时间是当前时间，排在预取前面。
+ * 同一个序列排队中的预取只保留一个，重复提交合并到已排队的请求，耗尽时间取较早的。
+ *
+ * @author wutianbiao
+ * @date 2022-07-14
+ */
+@Slf4j
+class RefillScheduler {
+    /**
+     * 同时访问持久层的最大刷新数
+     */
+    private final int maxInFlight;
+    /**
+     * 排队的刷新，按预计耗尽时间排序，相同时先到先刷新
+     */
+    private final PriorityQueue<Request> queue = new PriorityQueue<>((a, b) -> {
+        int c = Long.compare(a.exhaustAt - b.exhaustAt, 0);
+        return c != 0 ? c : Long.compare(a.order, b.order);
+    });
+    /**
+     * 排队中的预取，key为序列缓存
+     */
+    private final Map<Object, Request> pending = new HashMap<>();
+    /**
+     * 正在访问持久层的刷新数
+     */
+    private int inFlight;
+    /**
+     * 提交顺序
+     */
+    private long order;
+
+    /**
+     * 构造函数
+     *
+     * @param maxInFlight 同时访问持久层的最大刷新数
+     */
+    RefillScheduler(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("刷新并发数必须大于0:" + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * 提交一个异步预取，同一个key已在排队时合并
+     *
+     * @param key 序列缓存
+     * @param exhaustAt 预计耗尽时间(System.nanoTime())
+     * @param refill 轮到时执行的刷新
+     * @return 刷新结果
+     */
+    CompletableFuture<GlobalSeqPo> submit(Object key, long exhaustAt, Supplier<CompletableFuture<GlobalSeqPo>> refill) {
+        Request request;
+        synchronized (this) {
+            request = pending.get(key);
+            if (request != null) {
+                reorder(request, exhaustAt);
+                return request.result;
+            }
+            request = new Request(key, exhaustAt, order++, refill);
+            pending.put(key, request);
+            queue.add(request);
+        }
+        dispatch();
+        return request.result;
+    }
+
+    /**
+     * 当前段已用完，排队中的预取提前到最前面
+     *
+     * @param key 序列缓存
+     */
+    void expedite(Object key) {
+        synchronized (this) {
+            Request request = pending.get(key);
+            if (request != null) {
+                reorder(request, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * 同步刷新前获取许可，排在所有预取前面；获取成功后必须调用{@link #release()}
+     *
+     * @param deadline 截止时间，{@link SeqAllocator#UNBOUNDED}不限制
+     * @return 截止时间前获取到许可返回true
+     */
+    boolean acquire(long deadline) throws InterruptedException {
+        Request request;
+        synchronized (this) {
+            request = new Request(null, System.nanoTime(), order++, null);
+            queue.add(request);
+        }
+        dispatch();
+        try {
+            if (deadline == SeqAllocator.UNBOUNDED) {
+                request.result.get();
+            } else {
+                request.result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } catch (TimeoutException | InterruptedException e) {
+            cancel(request);
+            if (e instanceof InterruptedException) {
+                throw (InterruptedException) e;
+            }
+            log.warn("等待刷新调度超时，排队{}个", queued());
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 归还同步刷新的许可
+     */
+    void release() {
+        synchronized (this) {
+            inFlight--;
+        }
+        dispatch();
+    }
+
+    /**
+     * 排队中的刷新数
+     */
+    synchronized int queued() {
+        return queue.size();
+    }
+
+    /**
+     * 正在访问持久层的刷新数
+     */
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private void reorder(Request request, long exhaustAt) {
+        if (exhaustAt - request.exhaustAt < 0 && queue.remove(request)) {
+            request.exhaustAt = exhaustAt;
+            queue.add(request);
+        }
+    }
+
+    /**
+     * 放弃等待的同步刷新：还在排队时移除，已经拿到许可时归还
+     */
+    private void cancel(Request request) {
+        synchronized (this) {
+            if (queue.remove(request)) {
+                return;
+            }
+        }
+        if (!request.result.cancel(false)) {
+            release();
+        }
+    }
+
+    /**
+     * 有空闲许可时按顺序启动排队的刷新，在锁外启动
+     */
+    private void dispatch() {
+        List<Request> started = null;
+        synchronized (this) {
+            while (inFlight < maxInFlight && !queue.isEmpty()) {
+                Request request = queue.poll();
+                if (request.key != null) {
+                    pending.remove(request.key);
+                }
+                inFlight++;
+                if (started == null) {
+                    started = new ArrayList<>();
+                }
+                started.add(request);
+            }
+        }
+        if (started != null) {
+            started.forEach(this::start);
+        }
+    }
+
+    private void start(Request request) {
+        // 同步刷新，交给等待的线程执行，等待已放弃时归还许可
+        if (request.refill == null) {
+            if (!request.result.complete(null)) {
+                release();
+            }
+            return;
+        }
+        CompletableFuture<GlobalSeqPo> future;
+        try {
+            future = request.refill.get();
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((seqPo, e) -> {
+            release();
+            if (e != null) {
+                request.result.completeExceptionally(e);
+            } else {
+                request.result.complete(seqPo);
+            }
+        });
+    }
+
+    /**
+     * 排队的刷新
+     */
+    private static final class Request {
+        final Object key;
+        final long order;
+        final Supplier<CompletableFuture<GlobalSeqPo>> refill;
+        final CompletableFuture<GlobalSeqPo> result = new CompletableFuture<>();
+        long exhaustAt;
+
+        Request(Object key, long exhaustAt, long order, Supplier<CompletableFuture<GlobalSeqPo>> refill) {
+            this.key = key;
+            this.exhaustAt = exhaustAt;
+            this.order = order;
+            this.refill = refill;
+        }
+    }
+}
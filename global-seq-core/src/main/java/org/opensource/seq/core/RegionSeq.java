@@ -0,0 +1,103 @@
+package org.opensource.seq.core;
+
+/**
+ * 多区域部署时把本区域持久层的序列值展开到本区域独占的值空间
+ *
+ * 本区域的序列k(来自本区域自己的持久层)映射为offset + k * stride：
+ * 各区域stride相同、offset不同时是互不相交的等差数列；stride为1时是从offset开始的区间，maxValue为区间上限。
+ * 刷新只访问本区域的持久层，不需要跨区域协调。
+ *
+ * @author wutianbiao
+ * @date 2022-07-08
+ */
+final class RegionSeq implements SeqAllocator {
+    private final String seqName;
+    private final SeqAllocator allocator;
+    private final long offset;
+    private final long stride;
+    /**
+     * 本区域的最大序列值，包含
+     */
+    private final long maxValue;
+
+    RegionSeq(String seqName, SeqAllocator allocator, long offset, long stride, long maxValue) {
+        validate(offset, stride, maxValue);
+        this.seqName = seqName;
+        this.allocator = allocator;
+        this.offset = offset;
+        this.stride = stride;
+        this.maxValue = maxValue;
+    }
+
+    @Override
+    public long next() {
+        return expand(allocator.next());
+    }
+
+    @Override
+    public long next(long deadline) {
+        long next = allocator.next(deadline);
+        return next == NONE ? NONE : expand(next);
+    }
+
+    @Override
+    public long currentValue() {
+        return map(allocator.currentValue());
+    }
+
+    @Override
+    public SeqStats stats() {
+        SeqStats stats = allocator.stats();
+        stats.setCurrentValue(map(stats.getCurrentValue()));
+        if (stats.getLimit() != null) {
+            stats.setLimit(map(stats.getLimit()));
+        }
+        return stats;
+    }
+
+    /**
+     * 租约同样展开，区间内属于其他区域的值本区域不会发出
+     */
+    @Override
+    public void setLeaseListener(SeqLeaseListener leaseListener) {
+        allocator.setLeaseListener(leaseListener == null ? null
+                : (name, from, to) -> leaseListener.onLease(name, map(from), map(to)));
+    }
+
+    /**
+     * 校验区域配置：stride >= 1，0 <= offset < stride(stride为1时不限制offset上限)，maxValue > offset
+     *
+     * @throws IllegalArgumentException 配置错误
+     */
+    static void validate(long offset, long stride, long maxValue) {
+        if (stride < 1 || offset < 0 || (stride > 1 && offset >= stride)) {
+            throw new IllegalArgumentException("区域配置错误，要求stride >= 1且0 <= offset < stride(stride为1时不限制offset上限):"
+                    + offset + "," + stride);
+        }
+        if (maxValue <= offset) {
+            throw new IllegalArgumentException("区域配置错误，最大序列值必须大于offset:" + maxValue + "," + offset);
+        }
+    }
+
+    /**
+     * 被展开的分配器
+     */
+    SeqAllocator getAllocator() {
+        return allocator;
+    }
+
+    /**
+     * 发出的值必须在本区域的范围内
+     */
+    private long expand(long value) {
+        long expanded = Math.addExact(offset, Math.multiplyExact(value, stride));
+        if (expanded > maxValue) {
+            throw new IllegalStateException("序列超出本区域的范围:" + seqName + "," + expanded + " > " + maxValue);
+        }
+        return expanded;
+    }
+
+    private long map(long value) {
+        return offset + value * stride;
+    }
+}
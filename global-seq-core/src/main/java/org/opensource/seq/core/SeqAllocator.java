@@ -0,0 +1,62 @@
+package org.opensource.seq.core;
+
+/**
+ * 单个序列的本地分配器
+ *
+ * 普通序列使用{@link SeqCache}按段缓存，严格有序的序列使用{@link GroupCommitSeq}合并提交，
+ * 带分片字段的序列使用{@link ShardedSeq}为每个分片创建一个分配器
+ *
+ * @author wutianbiao
+ * @date 2022-07-03
+ */
+interface SeqAllocator {
+    /**
+     * 不限制截止时间，只用于deadline参数，与{@link #NONE}取不同的值
+     */
+    long UNBOUNDED = Long.MAX_VALUE;
+    /**
+     * 未能获取序列，只用于返回值
+     */
+    long NONE = Long.MIN_VALUE;
+
+    /**
+     * 获取下一个序列值，持久层不可用时抛出异常
+     * @return
+     */
+    long next();
+
+    /**
+     * 在deadline(System.nanoTime())前获取下一个序列值
+     * @param deadline 截止时间，{@link #UNBOUNDED}不限制
+     * @return 序列值，超时或持久层不可用时返回{@link #NONE}
+     */
+    long next(long deadline);
+
+    /**
+     * 获取最多max个连续的序列值，默认只返回一个
+     * @param max
+     * @return
+     */
+    default SeqRange nextRange(int max) {
+        long next = next();
+        return new SeqRange(next, next);
+    }
+
+    /**
+     * 获取当前值，粗略瞬时值，不可依赖该值
+     * @return
+     */
+    long currentValue();
+
+    /**
+     * 运行状态快照
+     * @return
+     */
+    SeqStats stats();
+
+    /**
+     * 设置序列段租约监听
+     * @param leaseListener
+     */
+    void setLeaseListener(SeqLeaseListener leaseListener);
+}
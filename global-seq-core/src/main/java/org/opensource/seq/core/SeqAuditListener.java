@@ -0,0 +1,28 @@
+package org.opensource.seq.core;
+
+/**
+ * 序列审计发现异常时的回调，在审计线程中执行
+ *
+ * @author wutianbiao
+ * @date 2022-07-05
+ */
+public interface SeqAuditListener {
+
+    /**
+     * 同一个值发出了两次
+     *
+     * @param seqName
+     * @param id
+     */
+    default void onDuplicate(String seqName, long id) {
+    }
+
+    /**
+     * 发出的值不在本地锁定过的任何序列段内
+     *
+     * @param seqName
+     * @param id
+     */
+    default void onOutsideLease(String seqName, long id) {
+    }
+}
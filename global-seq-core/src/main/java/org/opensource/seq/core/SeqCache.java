@@ -0,0 +1,695 @@
+package org.opensource.seq.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 单个序列缓存管理对象
+ *
+ * 开启预取(prefetch > 0)时，当前段用到(1 - prefetch)后异步锁定下一段，
+ * 当前段用完时直接切换到预取好的段；预取失败或未完成时仍然同步刷新。
+ * 步长和预取比例可以在运行时修改，下一次刷新生效。
+ *
+ * 设置了刷新超时(refillTimeout)或带截止时间获取时，访问持久层最多等待到超时，不会无限阻塞；
+ * 刷新失败或熔断器打开时使用保留段(reserveSize > 0时额外锁定的一段)，保留段只在这种情况下消耗。
+ * 设置了刷新调度器时，访问持久层前先在调度器排队，预取按当前段的消耗速度预计耗尽时间。
+ *
+ * @author wutianbiao
+ * @date 2022-02-24
+ */
+@Slf4j
+class SeqCache implements SeqAllocator {
+    /**
+     * 持久层加载最大重试次数
+     */
+    private int maxRetry = 30;
+
+    /**
+     * 序列名称
+     */
+    private String seqName;
+    /**
+     * 序列的初始值
+     */
+    private Long start;
+    /**
+     * 序列持久层
+     */
+    private GlobalSeqRepository repository;
+    /**
+     * 序列当前值，默认从1开始
+     */
+    private AtomicLong current = new AtomicLong(1L);
+    /**
+     * 每次获取的序列个数，下一次刷新生效
+     */
+    private volatile long step;
+    /**
+     * 缓存限制
+     */
+    private volatile Long limit;
+    /**
+     * 预取比例，剩余不足step * prefetch时预取下一段，0不预取
+     */
+    private volatile double prefetch;
+    /**
+     * 预取和带超时刷新使用的异步持久层
+     */
+    private final AsyncGlobalSeqRepository asyncRepository;
+    /**
+     * 进行中或已完成的预取
+     */
+    private volatile CompletableFuture<GlobalSeqPo> prefetching;
+    /**
+     * 预取时使用的步长
+     */
+    private long prefetchStep;
+    /**
+     * 当前段的步长
+     */
+    private volatile long segmentStep;
+    /**
+     * 从持久层刷新的次数
+     */
+    private final AtomicLong refillCount = new AtomicLong();
+    /**
+     * 最近一次刷新的耗时(纳秒)
+     */
+    private volatile long lastRefillNanos;
+    /**
+     * 刷新锁，可以带超时等待
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * 持久层熔断器，为空不熔断
+     */
+    private SeqCircuitBreaker breaker;
+    /**
+     * 序列段租约监听，为空不通知
+     */
+    private volatile SeqLeaseListener leaseListener;
+    /**
+     * 单次刷新的超时时间(纳秒)，0不限制
+     */
+    private long refillTimeoutNanos;
+    /**
+     * 保留段的长度，0没有保留段
+     */
+    private volatile long reserveSize;
+    /**
+     * 保留段，只在持久层不可用时使用
+     */
+    private volatile Segment reserve;
+    /**
+     * 最近一次刷新失败的原因，刷新成功后清空；持久层不可用时作为异常的cause
+     */
+    private volatile Throwable lastFailure;
+    /**
+     * 持久层类型，记录在JFR事件中
+     */
+    private final String backend;
+    /**
+     * 最近一次同步锁定的CAS重试次数，-1未知，在lock保护下读写
+     */
+    private int retries;
+    /**
+     * 共用的刷新调度器，为空不排队
+     */
+    private RefillScheduler scheduler;
+    /**
+     * 当前段的起始值和切换时间，用于预计耗尽时间
+     */
+    private volatile long segmentFirst;
+    private volatile long segmentBeginNanos;
+
+
+    /**
+     * 构造函数
+     * @param seqName
+     * @param step
+     * @param repository
+     */
+    public SeqCache(String seqName, Long start, Long step, int maxRetry, GlobalSeqRepository repository) {
+        this(seqName, start, step, maxRetry, repository, 0, null);
+    }
+
+    /**
+     * 构造函数，带预取
+     * @param seqName
+     * @param step
+     * @param repository
+     * @param prefetch
+     * @param asyncRepository
+     */
+    public SeqCache(String seqName, Long start, Long step, int maxRetry, GlobalSeqRepository repository,
+            double prefetch, AsyncGlobalSeqRepository asyncRepository) {
+        log.info("创建序列对象{}: {},{},{},{}", seqName, start, step, maxRetry, prefetch);
+        this.seqName = seqName;
+        this.start = start;
+        this.step = step;
+        this.maxRetry = maxRetry;
+        this.repository = repository;
+        this.prefetch = asyncRepository == null ? 0 : prefetch;
+        this.asyncRepository = asyncRepository;
+        this.backend = repository.getClass().getSimpleName();
+    }
+
+    /**
+     * 修改步长，下一次刷新生效
+     * @param step
+     */
+    void setStep(long step) {
+        log.info("修改序列步长{}: {} -> {}", seqName, this.step, step);
+        this.step = step;
+    }
+
+    /**
+     * 修改预取比例，下一次刷新生效
+     * @param prefetch
+     */
+    void setPrefetch(double prefetch) {
+        log.info("修改序列预取比例{}: {} -> {}", seqName, this.prefetch, prefetch);
+        this.prefetch = this.asyncRepository == null ? 0 : prefetch;
+    }
+
+    /**
+     * 设置持久层熔断器
+     * @param breaker
+     */
+    void setBreaker(SeqCircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * 设置序列段租约监听
+     * @param leaseListener
+     */
+    @Override
+    public void setLeaseListener(SeqLeaseListener leaseListener) {
+        this.leaseListener = leaseListener;
+    }
+
+    /**
+     * 设置单次刷新的超时时间，需要异步持久层
+     * @param refillTimeout 毫秒，0不限制
+     */
+    void setRefillTimeout(long refillTimeout) {
+        this.refillTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(refillTimeout);
+    }
+
+    /**
+     * 设置共用的刷新调度器
+     * @param scheduler 为空不排队
+     */
+    void setScheduler(RefillScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 设置保留段长度，下一次刷新时锁定
+     * @param reserveSize 0没有保留段
+     */
+    void setReserveSize(long reserveSize) {
+        this.reserveSize = reserveSize;
+    }
+
+    @Override
+    public SeqStats stats() {
+        SeqStats stats = new SeqStats();
+        stats.setSeqName(seqName);
+        stats.setCurrentValue(current.get());
+        stats.setLimit(limit);
+        stats.setStep(step);
+        stats.setPrefetch(prefetch);
+        stats.setRefillCount(refillCount.get());
+        stats.setLastRefillMillis(TimeUnit.NANOSECONDS.toMillis(lastRefillNanos));
+        return stats;
+    }
+
+    /**
+     * 获取下一个序列值，持久层不可用且没有保留段时抛出异常
+     * @return
+     */
+    @Override
+    public long next() {
+        long next = next(UNBOUNDED);
+        if (next == NONE) {
+            throw unavailable();
+        }
+        return next;
+    }
+
+    /**
+     * 在deadline(System.nanoTime())前获取下一个序列值
+     * @param deadline 截止时间，{@link #UNBOUNDED}不限制
+     * @return 序列值，超时或持久层不可用时返回{@link #NONE}
+     */
+    @Override
+    public long next(long deadline) {
+        if(limit == null && !loadOrLock(deadline)) {
+            return takeReserve();
+        }
+
+        for(int i = 0; i < maxRetry; i++) {
+            // 增加一个值并比较，如果小于限制，直接返回
+            long next = this.current.incrementAndGet();
+            long limit = this.limit.longValue();
+            if(next <= limit) {
+                if (prefetch > 0 && limit - next < segmentStep * prefetch) {
+                    prefetch();
+                }
+                return next;
+            }
+
+            // 超出重新获取一段
+            if (!loadOrLock(deadline)) {
+                return takeReserve();
+            }
+        }
+
+        SeqFlightRecorder.retryExhausted(seqName, "next", maxRetry);
+        throw new RuntimeException("超过最大重试次数未能获取序列");
+    }
+
+    /**
+     * 一次原子操作取出当前段内最多max个连续的值，段内剩余不足时只返回剩余的值
+     * @param max
+     * @return
+     */
+    @Override
+    public SeqRange nextRange(int max) {
+        if(limit == null && !loadOrLock(UNBOUNDED)) {
+            return reserveRange();
+        }
+
+        for(int i = 0; i < maxRetry; i++) {
+            long first = this.current.getAndAdd(max) + 1;
+            long limit = this.limit.longValue();
+            if(first <= limit) {
+                long last = Math.min(first + max - 1, limit);
+                if (prefetch > 0 && limit - last < segmentStep * prefetch) {
+                    prefetch();
+                }
+                return new SeqRange(first, last);
+            }
+
+            if (!loadOrLock(UNBOUNDED)) {
+                return reserveRange();
+            }
+        }
+
+        SeqFlightRecorder.retryExhausted(seqName, "nextRange", maxRetry);
+        throw new RuntimeException("超过最大重试次数未能获取序列");
+    }
+
+    /**
+     * 持久层不可用时从保留段逐个取值
+     */
+    private SeqRange reserveRange() {
+        long next = takeReserve();
+        if (next == NONE) {
+            throw unavailable();
+        }
+        return new SeqRange(next, next);
+    }
+
+    /**
+     * 获取当前值，粗略瞬时值，不可依赖该值
+     * @return
+     */
+    @Override
+    public long currentValue() {
+        // 未初始化
+        if(this.limit == null && !loadOrLock(UNBOUNDED)) {
+            throw unavailable();
+        }
+        return current.get();
+    }
+
+    /**
+     * 异步锁定下一段，同一时间只有一个预取；正在刷新时不预取
+     */
+    private void prefetch() {
+        if (prefetching != null || !lock.tryLock()) {
+            return;
+        }
+        try {
+            if (prefetching != null || (breaker != null && breaker.getState() != SeqCircuitBreaker.State.CLOSED)) {
+                return;
+            }
+            log.info("预取下一段序列:{}", seqName);
+            long step = this.step;
+            prefetchStep = step;
+            Supplier<CompletableFuture<GlobalSeqPo>> refill = () -> {
+                long begin = System.nanoTime();
+                Object event = SeqFlightRecorder.beginRefill();
+                CompletableFuture<GlobalSeqPo> future;
+                try {
+                    future = asyncRepository.incrementAndGetAsync(seqName, step, start);
+                } catch (RuntimeException e) {
+                    // 线程池已关闭等提交失败，当前段用完时同步刷新
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                }
+                return future
+                        .whenComplete((seqPo, e) -> {
+                            lastRefillNanos = System.nanoTime() - begin;
+                            SeqFlightRecorder.commitRefill(event, seqName, step, backend, "prefetch", -1, e == null);
+                            Throwable cause = e instanceof CompletionException && e.getCause() != null
+                                    ? e.getCause() : e;
+                            // 只在预取时出错的持久层同样要触发熔断；线程池拒绝不是持久层的失败
+                            if (breaker != null && !(cause instanceof RejectedExecutionException)) {
+                                if (e == null) {
+                                    breaker.onSuccess();
+                                } else {
+                                    breaker.onFailure();
+                                }
+                            }
+                            if (cause != null) {
+                                lastFailure = cause;
+                            }
+                        });
+            };
+            RefillScheduler scheduler = this.scheduler;
+            prefetching = scheduler == null ? refill.get() : scheduler.submit(this, exhaustAt(), refill);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按当前段的平均消耗速度预计耗尽时间
+     * @return System.nanoTime()时间
+     */
+    private long exhaustAt() {
+        long now = System.nanoTime();
+        long next = current.get();
+        long used = next - segmentFirst;
+        long left = limit.longValue() - next;
+        if (used <= 0 || left <= 0) {
+            return now;
+        }
+        double nanosPerId = (double) (now - segmentBeginNanos) / used;
+        return now + (long) Math.min(nanosPerId * left, Long.MAX_VALUE / 2);
+    }
+
+    /**
+     * 熔断或超时时从保留段取值
+     * @return 保留段用完或没有保留段时返回{@link #NONE}
+     */
+    private long takeReserve() {
+        Segment segment = reserve;
+        if (segment != null) {
+            long next = segment.current.incrementAndGet();
+            if (next <= segment.limit) {
+                return next;
+            }
+        }
+        log.warn("序列持久层不可用，且没有可用的保留段:{}", seqName);
+        return NONE;
+    }
+
+    /**
+     * 从持久层加载序列；
+     * 如果没有，创建序列
+     * @param deadline 截止时间
+     * @return 当前段可用返回true；等待超时、刷新失败或熔断时返回false
+     */
+    private boolean loadOrLock(long deadline) {
+        Object event = SeqFlightRecorder.beginWait();
+        boolean loaded = false;
+        try {
+            loaded = doLoadOrLock(deadline);
+            return loaded;
+        } finally {
+            SeqFlightRecorder.commitWait(event, seqName, loaded);
+        }
+    }
+
+    private boolean doLoadOrLock(long deadline) {
+        log.info("从持久层获取锁定一段序列:{}", seqName);
+        try {
+            if (deadline == UNBOUNDED) {
+                lock.lock();
+            } else if (!lock.tryLock(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                log.warn("等待其他线程刷新序列超时:{}", seqName);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            // 如果已经初始化，并且当前值小于limit值，直接返回
+            if(limit != null && current.get() < limit.longValue()) {
+                log.info("序列已初始化，当前值小于限制值:{} < {}，退出锁定序列段逻辑", current.get(), limit.longValue());
+                return true;
+            }
+
+            // 有预取的段，等待并切换
+            CompletableFuture<GlobalSeqPo> pending = prefetching;
+            if (pending != null) {
+                if (scheduler != null) {
+                    scheduler.expedite(this);
+                }
+                try {
+                    GlobalSeqPo seqPo = pending.get(remaining(deadline), TimeUnit.NANOSECONDS);
+                    prefetching = null;
+                    log.info("切换到预取的序列段：{}", seqPo);
+                    changeCache(seqPo, prefetchStep);
+                    fillReserve(deadline);
+                    return true;
+                } catch (TimeoutException e) {
+                    // 预取仍在进行，保留给下一次刷新
+                    log.warn("等待预取序列段超时:{}", seqName);
+                    return false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (Exception e) {
+                    prefetching = null;
+                    log.warn("预取序列段失败，同步刷新:{},{}", seqName, e.getMessage());
+                }
+            }
+
+            // 排队等待访问持久层，熔断探测也在拿到许可后发出
+            if (!acquireScheduler(deadline)) {
+                return false;
+            }
+            try {
+                if (breaker != null && !breaker.allowRequest()) {
+                    log.warn("序列持久层熔断中，不刷新:{}", seqName);
+                    return false;
+                }
+
+                long step = this.step;
+                long begin = System.nanoTime();
+                try {
+                    GlobalSeqPo seqPo = lockWithin(step, deadline, "sync");
+                    changeCache(seqPo, step);
+                    if (breaker != null) {
+                        breaker.onSuccess();
+                    }
+                } catch (Exception e) {
+                    log.error("从持久层锁定序列段失败:{},{}", seqName, e.getMessage(), e);
+                    lastFailure = e;
+                    if (breaker != null) {
+                        breaker.onFailure();
+                    }
+                    if (deadline == UNBOUNDED && reserve == null && e instanceof RuntimeException) {
+                        throw (RuntimeException) e;
+                    }
+                    return false;
+                } finally {
+                    lastRefillNanos = System.nanoTime() - begin;
+                }
+            } finally {
+                releaseScheduler();
+            }
+            log.info("从持久层获取锁定一段序列结束:{}", seqName);
+
+            fillReserve(deadline);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 保留段没有或已用完时锁定一段新的保留段，失败只记录日志
+     * @param deadline
+     */
+    private void fillReserve(long deadline) {
+        long size = this.reserveSize;
+        Segment segment = reserve;
+        if (size <= 0 || (segment != null && segment.current.get() < segment.limit)) {
+            return;
+        }
+        if (!acquireScheduler(deadline)) {
+            return;
+        }
+        try {
+            GlobalSeqPo seqPo = lockWithin(size, deadline, "reserve");
+            lease(seqPo.getCurrentValue() - size + 1, seqPo.getCurrentValue());
+            reserve = new Segment(seqPo.getCurrentValue() - size, seqPo.getCurrentValue());
+            log.info("锁定保留段成功{}: {}", seqName, seqPo);
+        } catch (Exception e) {
+            log.warn("锁定保留段失败:{},{}", seqName, e.getMessage());
+        } finally {
+            releaseScheduler();
+        }
+    }
+
+    /**
+     * 同步访问持久层前在调度器排队，没有调度器直接返回
+     * @param deadline
+     * @return 截止时间前轮到返回true
+     */
+    private boolean acquireScheduler(long deadline) {
+        if (scheduler == null) {
+            return true;
+        }
+        try {
+            if (scheduler.acquire(deadline)) {
+                return true;
+            }
+            log.warn("等待刷新调度超时:{}", seqName);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void releaseScheduler() {
+        if (scheduler != null) {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * 在截止时间和单次刷新超时内锁定一段序列，超时后已发出的请求继续执行，锁定的段丢弃
+     * @param step
+     * @param deadline
+     * @param mode 刷新方式，记录在JFR事件中
+     * @return
+     */
+    private GlobalSeqPo lockWithin(long step, long deadline, String mode) throws Exception {
+        Object event = SeqFlightRecorder.beginRefill();
+        retries = -1;
+        boolean success = false;
+        try {
+            GlobalSeqPo seqPo = doLockWithin(step, deadline);
+            success = true;
+            return seqPo;
+        } finally {
+            SeqFlightRecorder.commitRefill(event, seqName, step, backend, mode, retries, success);
+        }
+    }
+
+    private GlobalSeqPo doLockWithin(long step, long deadline) throws Exception {
+        long timeout = refillTimeoutNanos > 0 ? refillTimeoutNanos : Long.MAX_VALUE;
+        if (deadline != UNBOUNDED) {
+            timeout = Math.min(timeout, remaining(deadline));
+        }
+        if (timeout == Long.MAX_VALUE || asyncRepository == null) {
+            return lock(step);
+        }
+        CompletableFuture<GlobalSeqPo> future;
+        try {
+            future = asyncRepository.incrementAndGetAsync(seqName, step, start);
+        } catch (RejectedExecutionException e) {
+            // 预取线程池已关闭，在调用线程刷新
+            return lock(step);
+        }
+        try {
+            return future.get(timeout, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                // 线程池已关闭或队列已满，在调用线程刷新
+                return lock(step);
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new TimeoutException("锁定序列段超时:" + seqName);
+        }
+    }
+
+    private static long remaining(long deadline) {
+        return deadline == UNBOUNDED ? Long.MAX_VALUE : Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * 从持久层锁定一段step长度的序列
+     * @param step
+     * @return 锁定后的序列值
+     */
+    private GlobalSeqPo lock(long step) {
+        GlobalSeqPo seqPo = CasRefill.refill(repository, seqName, step, start, maxRetry, i -> retries = i);
+        log.info("锁定序列段成功：{}", seqPo);
+        return seqPo;
+    }
+
+    /**
+     * 用持久层数据，修改当前序列值
+     * @param seqPo
+     * @param step 锁定这一段使用的步长
+     */
+    private void changeCache(GlobalSeqPo seqPo, long step) {
+        lease(seqPo.getCurrentValue() - step + 1, seqPo.getCurrentValue());
+        this.refillCount.incrementAndGet();
+        this.segmentStep = step;
+        this.current.set(seqPo.getCurrentValue() - step);
+        this.segmentFirst = seqPo.getCurrentValue() - step;
+        this.segmentBeginNanos = System.nanoTime();
+        this.limit = seqPo.getCurrentValue();
+        this.lastFailure = null;
+        log.info("序列加载成功{}: {},{}", this.seqName, this.current, this.limit);
+    }
+
+    /**
+     * 持久层不可用的异常，带上最近一次刷新失败的原因
+     */
+    private RuntimeException unavailable() {
+        Throwable cause = lastFailure;
+        String message = "序列持久层不可用，未能获取序列:" + seqName;
+        if (cause == null && breaker != null && breaker.getState() != SeqCircuitBreaker.State.CLOSED) {
+            message += "，持久层熔断中";
+        }
+        return new RuntimeException(message, cause);
+    }
+
+    /**
+     * 通知序列段租约
+     * @param from
+     * @param to
+     */
+    private void lease(long from, long to) {
+        SeqLeaseListener listener = this.leaseListener;
+        if (listener != null) {
+            listener.onLease(seqName, from, to);
+        }
+    }
+
+    /**
+     * 保留段
+     */
+    private static final class Segment {
+        final AtomicLong current;
+        final long limit;
+
+        Segment(long current, long limit) {
+            this.current = new AtomicLong(current);
+            this.limit = limit;
+        }
+    }
+}
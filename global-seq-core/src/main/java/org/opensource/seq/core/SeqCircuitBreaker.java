@@ -0,0 +1,109 @@
+package org.opensource.seq.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 序列持久层的熔断器
+ *
+ * 连续失败(含超时)达到failureThreshold次后打开，打开期间刷新不再访问持久层，直接失败或使用保留段；
+ * 打开openMillis毫秒后放行一次探测，探测成功关闭，失败重新打开。
+ *
+ * @author wutianbiao
+ * @date 2022-07-02
+ */
+@Slf4j
+public class SeqCircuitBreaker {
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        /**
+         * 关闭，正常访问持久层
+         */
+        CLOSED,
+        /**
+         * 打开，不访问持久层
+         */
+        OPEN,
+        /**
+         * 半开，正在探测
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * 连续失败多少次后打开
+     */
+    @Getter
+    private final int failureThreshold;
+    /**
+     * 打开后多久放行探测(毫秒)
+     */
+    @Getter
+    private final long openMillis;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long openedAt;
+
+    /**
+     * 构造函数
+     *
+     * @param failureThreshold 连续失败多少次后打开
+     * @param openMillis 打开后多久放行探测(毫秒)
+     */
+    public SeqCircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * 是否可以访问持久层；打开超过openMillis后只放行一个探测请求
+     *
+     * @return
+     */
+    public boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN
+                && System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(openMillis)
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            log.info("序列持久层熔断器半开，放行探测请求");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 访问持久层成功
+     */
+    public void onSuccess() {
+        failures.set(0);
+        if (state.getAndSet(State.CLOSED) != State.CLOSED) {
+            log.info("序列持久层熔断器关闭");
+        }
+    }
+
+    /**
+     * 访问持久层失败或超时
+     */
+    public void onFailure() {
+        if (state.get() == State.HALF_OPEN || failures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.nanoTime();
+            if (state.getAndSet(State.OPEN) != State.OPEN) {
+                log.warn("序列持久层熔断器打开，{}ms后探测", openMillis);
+            }
+        }
+    }
+}
@@ -9,6 +9,11 @@ import lombok.Data;
  */
 @Data
 public class SeqConfig {
+    /**
+     * 未配置时的步长
+     */
+    public static final long DEFAULT_STEP = 100L;
+
     /**
      * 序列的开始值
      */
@@ -16,5 +21,31 @@ public class SeqConfig {
     /**
      * 序列获取的步长
      */
-    private Long step = 100L;
+    private Long step = DEFAULT_STEP;
+    /**
+     * 序列的预取比例，为空时使用默认预取比例
+     */
+    private Double prefetch;
+    /**
+     * 序列的保留段长度，为空时使用默认保留段长度
+     */
+    private Long reserve;
+    /**
+     * 是否严格有序，严格有序的序列不缓存，并发的调用合并为一次提交
+     */
+    private Boolean strictOrder;
+    /**
+     * 分片字段的位数，为空不分片；分片序列通过{@link GlobalSequence#next(String, Object)}按路由键获取
+     */
+    private Integer shardBits;
+    /**
+     * 分片字段在序列值中的位置
+     */
+    private SeqShardLayout shardLayout = SeqShardLayout.LOW;
+    /**
+     * 所属的共享池，为空不共享
+     * 同一个池的序列共用持久层中以池名称命名的一个序列和同一段本地缓存，只保证唯一，每个序列的值不连续；
+     * 步长、预取等使用池名称的配置
+     */
+    private String pool;
 }
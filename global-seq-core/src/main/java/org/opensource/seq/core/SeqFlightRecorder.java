@@ -0,0 +1,275 @@
+package org.opensource.seq.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * 全局序列的JDK Flight Recorder事件
+ *
+ * 事件都在"Global Sequence"分类下，可以在持续运行的JFR录制中直接看到序列的停顿：
+ * <ul>
+ * <li>org.opensource.seq.Refill：从持久层锁定一段序列，默认阈值1ms</li>
+ * <li>org.opensource.seq.Wait：取号线程在段边界等待刷新，默认阈值1ms</li>
+ * <li>org.opensource.seq.Backend：仓库实现访问后端的单次操作，默认阈值10ms</li>
+ * <li>org.opensource.seq.RetryExhausted：超过最大重试次数</li>
+ * <li>org.opensource.seq.Init：创建序列</li>
+ * </ul>
+ * 没有录制或事件未开启时只有一次判断；运行在没有jdk.jfr的JDK上时所有方法为空操作。
+ * begin方法返回的对象只能传给对应的commit方法。
+ *
+ * @author wutianbiao
+ * @date 2022-07-09
+ */
+public final class SeqFlightRecorder {
+    /**
+     * 运行时是否有jdk.jfr(8u262之前的JDK 8没有)
+     */
+    private static final boolean AVAILABLE = detect();
+
+    private SeqFlightRecorder() {
+    }
+
+    /**
+     * 仓库实现开始一次后端操作
+     *
+     * @return 事件，未开启时为空
+     */
+    public static Object beginBackend() {
+        return AVAILABLE ? Events.beginBackend() : null;
+    }
+
+    /**
+     * 仓库实现结束一次后端操作，超过阈值时提交事件
+     *
+     * @param event {@link #beginBackend()}的返回值
+     * @param backend 后端类型，如db、redis
+     * @param operation 操作，如load、lock
+     * @param seqName
+     * @param success 是否成功
+     */
+    public static void commitBackend(Object event, String backend, String operation, String seqName, boolean success) {
+        if (event != null) {
+            Events.commitBackend(event, backend, operation, seqName, success);
+        }
+    }
+
+    static Object beginRefill() {
+        return AVAILABLE ? Events.beginRefill() : null;
+    }
+
+    static void commitRefill(Object event, String seqName, long step, String backend, String mode, int retries,
+            boolean success) {
+        if (event != null) {
+            Events.commitRefill(event, seqName, step, backend, mode, retries, success);
+        }
+    }
+
+    static Object beginWait() {
+        return AVAILABLE ? Events.beginWait() : null;
+    }
+
+    static void commitWait(Object event, String seqName, boolean success) {
+        if (event != null) {
+            Events.commitWait(event, seqName, success);
+        }
+    }
+
+    static void retryExhausted(String seqName, String operation, int maxRetry) {
+        if (AVAILABLE) {
+            Events.retryExhausted(seqName, operation, maxRetry);
+        }
+    }
+
+    static void init(String seqName, String allocator, long start, long step) {
+        if (AVAILABLE) {
+            Events.init(seqName, allocator, start, step);
+        }
+    }
+
+    private static boolean detect() {
+        try {
+            Class.forName("jdk.jfr.Event", false, SeqFlightRecorder.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * 引用事件类的代码，只有jdk.jfr可用时才加载
+     */
+    private static final class Events {
+
+        static Object beginBackend() {
+            BackendEvent event = new BackendEvent();
+            if (!event.isEnabled()) {
+                return null;
+            }
+            event.begin();
+            return event;
+        }
+
+        static void commitBackend(Object e, String backend, String operation, String seqName, boolean success) {
+            BackendEvent event = (BackendEvent) e;
+            event.end();
+            if (event.shouldCommit()) {
+                event.backend = backend;
+                event.operation = operation;
+                event.seqName = seqName;
+                event.success = success;
+                event.commit();
+            }
+        }
+
+        static Object beginRefill() {
+            RefillEvent event = new RefillEvent();
+            if (!event.isEnabled()) {
+                return null;
+            }
+            event.begin();
+            return event;
+        }
+
+        static void commitRefill(Object e, String seqName, long step, String backend, String mode, int retries,
+                boolean success) {
+            RefillEvent event = (RefillEvent) e;
+            event.end();
+            if (event.shouldCommit()) {
+                event.seqName = seqName;
+                event.step = step;
+                event.backend = backend;
+                event.mode = mode;
+                event.retries = retries;
+                event.success = success;
+                event.commit();
+            }
+        }
+
+        static Object beginWait() {
+            WaitEvent event = new WaitEvent();
+            if (!event.isEnabled()) {
+                return null;
+            }
+            event.begin();
+            return event;
+        }
+
+        static void commitWait(Object e, String seqName, boolean success) {
+            WaitEvent event = (WaitEvent) e;
+            event.end();
+            if (event.shouldCommit()) {
+                event.seqName = seqName;
+                event.success = success;
+                event.commit();
+            }
+        }
+
+        static void retryExhausted(String seqName, String operation, int maxRetry) {
+            RetryExhaustedEvent event = new RetryExhaustedEvent();
+            if (event.shouldCommit()) {
+                event.seqName = seqName;
+                event.operation = operation;
+                event.maxRetry = maxRetry;
+                event.commit();
+            }
+        }
+
+        static void init(String seqName, String allocator, long start, long step) {
+            InitEvent event = new InitEvent();
+            if (event.shouldCommit()) {
+                event.seqName = seqName;
+                event.allocator = allocator;
+                event.start = start;
+                event.step = step;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("org.opensource.seq.Refill")
+    @Label("Sequence Refill")
+    @Category("Global Sequence")
+    @Description("从持久层锁定一段序列")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class RefillEvent extends Event {
+        @Label("Sequence")
+        String seqName;
+        @Label("Step")
+        long step;
+        @Label("Backend")
+        String backend;
+        @Label("Mode")
+        @Description("sync同步刷新，prefetch预取，reserve保留段")
+        String mode;
+        @Label("Retries")
+        @Description("CAS冲突重试次数，-1未知")
+        int retries;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("org.opensource.seq.Wait")
+    @Label("Sequence Boundary Wait")
+    @Category("Global Sequence")
+    @Description("取号线程在段边界等待刷新")
+    @Threshold("1 ms")
+    static final class WaitEvent extends Event {
+        @Label("Sequence")
+        String seqName;
+        @Label("Success")
+        @Description("false表示超时、熔断或刷新失败")
+        boolean success;
+    }
+
+    @Name("org.opensource.seq.Backend")
+    @Label("Sequence Backend Operation")
+    @Category("Global Sequence")
+    @Description("仓库实现访问后端的单次操作")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class BackendEvent extends Event {
+        @Label("Backend")
+        String backend;
+        @Label("Operation")
+        String operation;
+        @Label("Sequence")
+        String seqName;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("org.opensource.seq.RetryExhausted")
+    @Label("Sequence Retry Exhausted")
+    @Category("Global Sequence")
+    @Description("超过最大重试次数未能锁定或获取序列")
+    static final class RetryExhaustedEvent extends Event {
+        @Label("Sequence")
+        String seqName;
+        @Label("Operation")
+        String operation;
+        @Label("Max Retry")
+        int maxRetry;
+    }
+
+    @Name("org.opensource.seq.Init")
+    @Label("Sequence Init")
+    @Category("Global Sequence")
+    @Description("创建序列的本地分配器")
+    @StackTrace(false)
+    static final class InitEvent extends Event {
+        @Label("Sequence")
+        String seqName;
+        @Label("Allocator")
+        String allocator;
+        @Label("Start")
+        long start;
+        @Label("Step")
+        long step;
+    }
+}
@@ -0,0 +1,22 @@
+package org.opensource.seq.core;
+
+/**
+ * 序列段租约监听
+ *
+ * 本地从持久层锁定一段序列(包括预取段、保留段、严格有序序列的一次提交)后、发出其中的值之前回调，
+ * 在刷新线程中同步执行，实现必须很快且不能抛出异常。
+ *
+ * @author wutianbiao
+ * @date 2022-07-05
+ */
+public interface SeqLeaseListener {
+
+    /**
+     * 锁定了一段序列，[from, to]都可以发出
+     *
+     * @param seqName
+     * @param from 段内第一个值
+     * @param to 段内最后一个值
+     */
+    void onLease(String seqName, long from, long to);
+}
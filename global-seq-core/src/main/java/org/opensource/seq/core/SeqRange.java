@@ -0,0 +1,30 @@
+package org.opensource.seq.core;
+
+import lombok.Data;
+
+/**
+ * 一次批量获取的连续序列值，[first, last]
+ *
+ * @author wutianbiao
+ * @date 2022-07-11
+ */
+@Data
+public class SeqRange {
+    /**
+     * 第一个值
+     */
+    private final long first;
+    /**
+     * 最后一个值，包含
+     */
+    private final long last;
+
+    /**
+     * 值的个数
+     *
+     * @return
+     */
+    public long size() {
+        return last - first + 1;
+    }
+}
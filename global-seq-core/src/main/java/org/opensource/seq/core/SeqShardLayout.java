@@ -0,0 +1,72 @@
+package org.opensource.seq.core;
+
+/**
+ * 带分片字段的序列值布局
+ *
+ * 序列值由分片号和分片内的序号n组成，下游按位运算即可从序列值取出分片号路由，不需要查表：
+ * <pre>
+ * LOW:  n << bits | shard           分片号 = id & ((1 << bits) - 1)
+ * HIGH: shard << (63 - bits) | n    分片号 = id >>> (63 - bits)
+ * </pre>
+ * LOW保持序列值整体递增，分片号与取模路由一致；HIGH把不同分片的写入分散到B树的不同位置，避免最右页的热点。
+ *
+ * @author wutianbiao
+ * @date 2022-07-07
+ */
+public enum SeqShardLayout {
+    /**
+     * 分片号在低位
+     */
+    LOW {
+        @Override
+        public long compose(long n, int shard, int bits) {
+            checkRange(n, bits);
+            return n << bits | shard;
+        }
+
+        @Override
+        public int shardOf(long id, int bits) {
+            return (int) (id & ((1L << bits) - 1));
+        }
+    },
+    /**
+     * 分片号在高位(符号位之后)
+     */
+    HIGH {
+        @Override
+        public long compose(long n, int shard, int bits) {
+            checkRange(n, bits);
+            return (long) shard << (63 - bits) | n;
+        }
+
+        @Override
+        public int shardOf(long id, int bits) {
+            return (int) (id >>> (63 - bits));
+        }
+    };
+
+    /**
+     * 由分片内序号和分片号组成序列值
+     *
+     * @param n 分片内序号，小于2^(63 - bits)
+     * @param shard 分片号，小于2^bits
+     * @param bits 分片字段的位数
+     * @return
+     */
+    public abstract long compose(long n, int shard, int bits);
+
+    /**
+     * 从序列值取出分片号
+     *
+     * @param id
+     * @param bits 分片字段的位数
+     * @return
+     */
+    public abstract int shardOf(long id, int bits);
+
+    private static void checkRange(long n, int bits) {
+        if (n < 0 || n >>> (63 - bits) != 0) {
+            throw new IllegalStateException("序列值超出分片布局的范围:" + n + ", bits=" + bits);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.opensource.seq.core;
+
+import lombok.Data;
+
+/**
+ * 单个序列缓存的运行状态快照
+ *
+ * @author wutianbiao
+ * @date 2022-06-30
+ */
+@Data
+public class SeqStats {
+    /**
+     * 序列名称
+     */
+    private String seqName;
+    /**
+     * 当前值，瞬时值
+     */
+    private long currentValue;
+    /**
+     * 当前段的上限，未加载时为空
+     */
+    private Long limit;
+    /**
+     * 下一次刷新使用的步长
+     */
+    private long step;
+    /**
+     * 预取比例
+     */
+    private double prefetch;
+    /**
+     * 从持久层刷新的次数
+     */
+    private long refillCount;
+    /**
+     * 最近一次刷新的耗时(毫秒)
+     */
+    private long lastRefillMillis;
+}
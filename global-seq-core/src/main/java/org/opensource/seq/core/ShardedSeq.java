@@ -0,0 +1,136 @@
+package org.opensource.seq.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 带分片字段的序列
+ *
+ * 所有分片共用一个分配器，只锁定一份序列段；每次取出段内的下一个序号n，与路由键对应的分片号按{@link SeqShardLayout}组成序列值。
+ * n互不重复，所以组成的序列值全局唯一；LOW布局下序列值随n整体递增，刷新次数和缓存占用与不分片的序列相同。
+ *
+ * @author wutianbiao
+ * @date 2022-07-07
+ */
+final class ShardedSeq implements SeqAllocator {
+    private final String seqName;
+    private final SeqShardLayout layout;
+    private final int bits;
+    /**
+     * 所有分片共用的分配器
+     */
+    private final SeqAllocator delegate;
+
+    /**
+     * 构造函数
+     *
+     * @param seqName
+     * @param layout 序列值布局
+     * @param bits 分片字段的位数
+     * @param delegate 所有分片共用的分配器
+     */
+    ShardedSeq(String seqName, SeqShardLayout layout, int bits, SeqAllocator delegate) {
+        if (bits <= 0 || bits > 16) {
+            throw new IllegalArgumentException("分片位数必须在[1, 16]之间:" + bits);
+        }
+        this.seqName = seqName;
+        this.layout = layout;
+        this.bits = bits;
+        this.delegate = delegate;
+    }
+
+    /**
+     * 所有分片共用的分配器
+     */
+    SeqAllocator getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * 路由键对应的分片，数字取模，其他按哈希值，没有路由键时随机选择
+     *
+     * @param routingKey 可以为空
+     * @return
+     */
+    int shardOf(Object routingKey) {
+        int count = 1 << bits;
+        if (routingKey == null) {
+            return ThreadLocalRandom.current().nextInt(count);
+        }
+        if (routingKey instanceof Number) {
+            return (int) Math.floorMod(((Number) routingKey).longValue(), (long) count);
+        }
+        int h = routingKey.hashCode();
+        // 打散哈希值的低位
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, count);
+    }
+
+    /**
+     * 没有路由键时随机选择一个分片
+     */
+    @Override
+    public long next() {
+        long next = next(UNBOUNDED);
+        if (next == NONE) {
+            throw new RuntimeException("序列持久层不可用，未能获取序列:" + seqName);
+        }
+        return next;
+    }
+
+    @Override
+    public long next(long deadline) {
+        return next(shardOf(null), deadline);
+    }
+
+    /**
+     * 从共用的段取出下一个序号，组成指定分片的序列值
+     *
+     * @param shard
+     * @param deadline
+     * @return
+     */
+    long next(int shard, long deadline) {
+        long n = delegate.next(deadline);
+        return n == NONE ? NONE : layout.compose(n, shard, bits);
+    }
+
+    /**
+     * 最大分片号下的当前值
+     */
+    @Override
+    public long currentValue() {
+        return layout.compose(delegate.currentValue(), (1 << bits) - 1, bits);
+    }
+
+    @Override
+    public SeqStats stats() {
+        SeqStats stats = delegate.stats();
+        stats.setSeqName(seqName);
+        stats.setCurrentValue(currentValue());
+        stats.setLimit(stats.getLimit() == null ? null : layout.compose(stats.getLimit(), (1 << bits) - 1, bits));
+        return stats;
+    }
+
+    /**
+     * 锁定的段[from, to]转换为各分片可能发出的序列值范围：LOW是一个连续区间，HIGH每个分片一个区间
+     */
+    @Override
+    public void setLeaseListener(SeqLeaseListener leaseListener) {
+        if (leaseListener == null) {
+            delegate.setLeaseListener(null);
+            return;
+        }
+        int mask = (1 << bits) - 1;
+        delegate.setLeaseListener((name, from, to) -> {
+            if (layout == SeqShardLayout.LOW) {
+                leaseListener.onLease(name, layout.compose(from, 0, bits), layout.compose(to, mask, bits));
+                return;
+            }
+            for (int shard = 0; shard <= mask; shard++) {
+                leaseListener.onLease(name, layout.compose(from, shard, bits), layout.compose(to, shard, bits));
+            }
+        });
+    }
+}
@@ -0,0 +1,102 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 原子自增仓库刷新的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-15
+ */
+public class AtomicIncrementGlobalSeqTest {
+
+    /**
+     * 刷新只调用incrementAndGet，每段一次，多线程获取的序列不重复
+     */
+    @Test
+    public void testRefill() throws InterruptedException {
+        MemoryGlobalSeqRepository memory = new MemoryGlobalSeqRepository();
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10L);
+        GlobalSequence globalSequence = new GlobalSequenceImpl(config, atomicOnly(memory));
+
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> {
+                long last = Long.MIN_VALUE;
+                for (int j = 0; j < 250; j++) {
+                    long next = globalSequence.next("atomic");
+                    assertTrue(next > last);
+                    assertTrue(seqs.add(next));
+                    last = next;
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+
+        assertEquals(1_000, seqs.size());
+        assertEquals(100, memory.calls.get());
+        assertEquals(memory.value("atomic"), seqs.stream().mapToLong(Long::longValue).max().getAsLong());
+    }
+
+    /**
+     * 原子刷新不调用loadSeq：持久层的序列丢失后直接由incrementAndGet重建，重建的初始值由仓库负责
+     */
+    @Test
+    public void testNoRebuildFromLoad() {
+        MemoryGlobalSeqRepository memory = new MemoryGlobalSeqRepository();
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10L);
+        GlobalSequence globalSequence = new GlobalSequenceImpl(config, atomicOnly(memory));
+
+        long first = globalSequence.next("lost");
+        for (int i = 1; i < 10; i++) {
+            globalSequence.next("lost");
+        }
+        memory.values.remove("lost");
+        globalSequence.next("lost");
+        assertEquals(2, memory.calls.get());
+        assertEquals(first + 9, memory.value("lost"));
+    }
+
+    /**
+     * 只能原子自增的仓库视图，加载、创建和CAS被调用时失败
+     */
+    static AtomicIncrementRepository atomicOnly(MemoryGlobalSeqRepository memory) {
+        return new AtomicIncrementRepository() {
+            @Override
+            public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+                return memory.incrementAndGet(seqName, step, start);
+            }
+
+            @Override
+            public int createSeq(GlobalSeqPo po) {
+                throw new UnsupportedOperationException("createSeq");
+            }
+
+            @Override
+            public Optional<GlobalSeqPo> loadSeq(String seqName) {
+                throw new UnsupportedOperationException("loadSeq");
+            }
+
+            @Override
+            public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+                throw new UnsupportedOperationException("lockSeq");
+            }
+        };
+    }
+}
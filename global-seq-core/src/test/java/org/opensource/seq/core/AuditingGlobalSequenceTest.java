@@ -0,0 +1,173 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 序列审计和堆外位图的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-05
+ */
+public class AuditingGlobalSequenceTest {
+
+    /**
+     * 正常发出的值没有重复，也都在租约内
+     */
+    @Test
+    public void testNoFalsePositive() throws InterruptedException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(100);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, new MemoryGlobalSeqRepository());
+        try (AuditingGlobalSequence auditing = new AuditingGlobalSequence(globalSequence, 1)) {
+            for (int i = 0; i < 10_000; i++) {
+                auditing.next("audit_seq");
+            }
+            awaitChecked(auditing, 10_000 - auditing.getDropped());
+            assertEquals(0, auditing.getDuplicates());
+            assertEquals(0, auditing.getOutsideLease());
+        }
+    }
+
+    /**
+     * 持久层没有真正自增时重复发出同一段，能发现重复
+     */
+    @Test
+    public void testDuplicate() throws InterruptedException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, new MemoryGlobalSeqRepository() {
+            @Override
+            public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+                return new GlobalSeqPo(seqName, start + step);
+            }
+        });
+        Set<Long> duplicates = ConcurrentHashMap.newKeySet();
+        try (AuditingGlobalSequence auditing = new AuditingGlobalSequence(globalSequence, 1, 1024, 1 << 20,
+                new SeqAuditListener() {
+                    @Override
+                    public void onDuplicate(String seqName, long id) {
+                        duplicates.add(id);
+                    }
+                })) {
+            for (int i = 0; i < 30; i++) {
+                auditing.next("dup_seq");
+            }
+            awaitChecked(auditing, 30);
+            assertEquals(20, auditing.getDuplicates());
+            assertEquals(10, duplicates.size());
+            assertEquals(0, auditing.getOutsideLease());
+        }
+    }
+
+    /**
+     * 发出的值不在锁定过的序列段内
+     */
+    @Test
+    public void testOutsideLease() throws InterruptedException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, new MemoryGlobalSeqRepository()) {
+            private int calls;
+
+            @Override
+            public long next(String seqName) {
+                long id = super.next(seqName);
+                return ++calls == 5 ? 1_000_000L : id;
+            }
+        };
+        try (AuditingGlobalSequence auditing = new AuditingGlobalSequence(globalSequence, 1)) {
+            for (int i = 0; i < 10; i++) {
+                auditing.next("lease_seq");
+            }
+            awaitChecked(auditing, 10);
+            assertEquals(1, auditing.getOutsideLease());
+            assertEquals(0, auditing.getDuplicates());
+        }
+    }
+
+    /**
+     * 抽样由值决定，同一个值总被抽中或总不被抽中
+     */
+    @Test
+    public void testSampling() throws InterruptedException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(1000);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, new MemoryGlobalSeqRepository());
+        try (AuditingGlobalSequence auditing = new AuditingGlobalSequence(globalSequence, 0.1)) {
+            for (int i = 0; i < 100_000; i++) {
+                auditing.next("sample_seq");
+            }
+            Thread.sleep(200);
+            long checked = auditing.getChecked() + auditing.getDropped();
+            assertTrue(checked > 8_000 && checked < 12_000, "sampled " + checked);
+        }
+    }
+
+    /**
+     * 位图在数组和位图容器间转换，超出内存上限时淘汰最早的容器
+     */
+    @Test
+    public void testOffHeapBitmap() {
+        OffHeapBitmap bitmap = new OffHeapBitmap(1 << 20);
+        Set<Long> expected = new HashSet<>();
+        for (long i = 0; i < 100_000; i += 3) {
+            assertEquals(OffHeapBitmap.ADDED, bitmap.add(i));
+            expected.add(i);
+        }
+        for (long i = 99_999; i >= 0; i--) {
+            assertEquals(expected.contains(i) ? OffHeapBitmap.DUPLICATE : OffHeapBitmap.ADDED, bitmap.add(i));
+        }
+        assertEquals(OffHeapBitmap.DUPLICATE, bitmap.add(42));
+
+        OffHeapBitmap bounded = new OffHeapBitmap(3 * 8192);
+        for (long i = 0; i < 10 * 65536; i++) {
+            bounded.add(i);
+        }
+        assertTrue(bounded.bytes() <= 3 * 8192);
+        assertTrue(bounded.evictions() > 0);
+        assertEquals(OffHeapBitmap.UNKNOWN, bounded.add(0));
+    }
+
+    /**
+     * 审计的租约监听与应用已设置的监听并存，关闭后移除
+     */
+    @Test
+    public void testLeaseListenerKept() throws InterruptedException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, new MemoryGlobalSeqRepository());
+        AtomicInteger leases = new AtomicInteger();
+        globalSequence.setLeaseListener((seqName, from, to) -> leases.incrementAndGet());
+        try (AuditingGlobalSequence auditing = new AuditingGlobalSequence(globalSequence, 1)) {
+            for (int i = 0; i < 30; i++) {
+                auditing.next("listener_seq");
+            }
+            awaitChecked(auditing, 30);
+            assertEquals(0, auditing.getOutsideLease());
+            assertTrue(leases.get() >= 3, "应用监听收到的租约:" + leases.get());
+        }
+
+        // 审计已关闭，应用的监听继续生效
+        int before = leases.get();
+        for (int i = 0; i < 30; i++) {
+            globalSequence.next("listener_seq");
+        }
+        assertTrue(leases.get() > before);
+    }
+
+    private static void awaitChecked(AuditingGlobalSequence auditing, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (auditing.getChecked() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, auditing.getChecked());
+    }
+}
@@ -0,0 +1,139 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 严格有序序列合并提交的单元测试，使用原子自增的内存仓库
+ *
+ * @author wutianbiao
+ * @date 2022-07-15
+ */
+public class GroupCommitSeqTest {
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 持久层同步完成，八个线程并发获取：序列连续不重复，每个线程拿到的值递增，每次提交都被计数
+     */
+    @Test
+    public void testSyncBackend() throws InterruptedException {
+        MemoryGlobalSeqRepository memory = new MemoryGlobalSeqRepository();
+        GroupCommitSeq seq = new GroupCommitSeq("strict", 0, new AsyncGlobalSeqRepositoryAdapter(memory, Runnable::run),
+                TimeUnit.MICROSECONDS.toNanos(100), 64, null, 0);
+
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                long last = 0;
+                for (int j = 0; j < 500; j++) {
+                    long next = seq.next();
+                    assertTrue(next > last);
+                    last = next;
+                    seqs.add(next);
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+
+        assertEquals(4_000, seqs.size());
+        assertEquals(1L, seqs.stream().mapToLong(Long::longValue).min().getAsLong());
+        assertEquals(4_000L, memory.value("strict"));
+        assertEquals(memory.calls.get(), seq.stats().getRefillCount());
+        assertEquals(4_000L, seq.currentValue());
+    }
+
+    /**
+     * 持久层异步完成，提交期间到达的调用合并为一次提交
+     */
+    @Test
+    public void testGroup() throws Exception {
+        MemoryGlobalSeqRepository memory = new MemoryGlobalSeqRepository(100);
+        GroupCommitSeq seq = new GroupCommitSeq("group", 0, new AsyncGlobalSeqRepositoryAdapter(memory, executor),
+                0, 64, null, 0);
+
+        CompletableFuture<Long> first = CompletableFuture.supplyAsync(seq::next, executor);
+        while (memory.calls.get() == 0) {
+            Thread.sleep(1);
+        }
+        List<CompletableFuture<Long>> followers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            followers.add(CompletableFuture.supplyAsync(seq::next, executor));
+        }
+        assertEquals(1L, first.get(5, TimeUnit.SECONDS).longValue());
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+        for (CompletableFuture<Long> follower : followers) {
+            values.add(follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(10, values.size());
+        assertEquals(11L, memory.value("group"));
+        assertTrue(memory.calls.get() < 11, "提交次数:" + memory.calls.get());
+    }
+
+    /**
+     * refillTimeout限制单次提交，排队时间不计入：排队加提交超过refillTimeout，但每次提交都在超时内，获取成功
+     */
+    @Test
+    public void testRefillTimeoutPerCommit() throws Exception {
+        MemoryGlobalSeqRepository memory = new MemoryGlobalSeqRepository(300);
+        GroupCommitSeq seq = new GroupCommitSeq("per_commit", 0, new AsyncGlobalSeqRepositoryAdapter(memory, executor),
+                0, 1, null, TimeUnit.MILLISECONDS.toNanos(500));
+
+        CompletableFuture<Long> first = CompletableFuture.supplyAsync(seq::next, executor);
+        while (memory.calls.get() == 0) {
+            Thread.sleep(1);
+        }
+        long begin = System.nanoTime();
+        long second = seq.next();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) >= 500);
+        assertEquals(1L, first.get(5, TimeUnit.SECONDS).longValue());
+        assertEquals(2L, second);
+    }
+
+    /**
+     * 提交超过refillTimeout未返回时这一批失败，之后的提交不再等待它，晚返回的值丢弃
+     */
+    @Test
+    public void testAbandonHungCommit() throws Exception {
+        MemoryGlobalSeqRepository memory = new MemoryGlobalSeqRepository(5_000);
+        GroupCommitSeq seq = new GroupCommitSeq("hung", 0, new AsyncGlobalSeqRepositoryAdapter(memory, executor),
+                0, 64, null, TimeUnit.MILLISECONDS.toNanos(100));
+
+        long begin = System.nanoTime();
+        assertThrows(RuntimeException.class, seq::next);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 2_000);
+
+        memory.delayMillis = 0;
+        long next = seq.next();
+        assertEquals(next, seq.currentValue());
+        assertEquals(1, seq.stats().getRefillCount());
+    }
+}
@@ -0,0 +1,119 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 主机共享序列段的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-06
+ */
+public class HostSharedGlobalSeqRepositoryTest {
+
+    @TempDir
+    File dir;
+
+    /**
+     * 多个序列实例共享主机段，发出的值不重复，持久层刷新次数按倍数减少
+     */
+    @Test
+    public void testShared() throws InterruptedException {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        List<GlobalSequenceImpl> sequences = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            sequences.add(new GlobalSequenceImpl(config(), repository));
+        }
+
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (GlobalSequenceImpl sequence : sequences) {
+            for (int i = 0; i < 2; i++) {
+                Thread thread = new Thread(() -> {
+                    for (int j = 0; j < 2_000; j++) {
+                        assertTrue(seqs.add(sequence.next("host_seq")));
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(16_000, seqs.size());
+        // 每次刷新锁定8个本地段
+        assertTrue(repository.calls.get() <= 16_000 / 10 / 8 + 4, "calls " + repository.calls.get());
+    }
+
+    /**
+     * 重新打开映射文件后继续使用剩余的主机段
+     */
+    @Test
+    public void testReopen() {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSequenceImpl first = new GlobalSequenceImpl(config(), repository);
+        assertEquals(2L, first.next("reopen_seq"));
+        assertEquals(1, repository.calls.get());
+
+        GlobalSequenceImpl second = new GlobalSequenceImpl(config(), repository);
+        assertEquals(12L, second.next("reopen_seq"));
+        assertEquals(1, repository.calls.get());
+    }
+
+    /**
+     * 主机段剩余不足一个本地段时，和新锁定的相连主机段合并，剩余的值不丢弃
+     */
+    @Test
+    public void testRemainder() {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSeqConfig small = config();
+        small.setHostSharedFactor(3);
+        GlobalSequenceImpl first = new GlobalSequenceImpl(small, repository);
+        // 主机段(1, 31]，取出(1, 11]
+        assertEquals(2L, first.next("remainder_seq"));
+
+        GlobalSeqConfig large = config();
+        large.setDefaultStep(25);
+        large.setHostSharedFactor(3);
+        GlobalSequenceImpl second = new GlobalSequenceImpl(large, repository);
+        // 剩余(11, 31]不足25个，和新主机段(31, 106]合并，取出(11, 36]
+        assertEquals(12L, second.next("remainder_seq"));
+        assertEquals(2, repository.calls.get());
+        assertEquals(106L, repository.value("remainder_seq"));
+    }
+
+    /**
+     * 关闭后不再使用映射文件，直接访问持久层
+     */
+    @Test
+    public void testClose() {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSequenceImpl sequence = new GlobalSequenceImpl(config(), repository);
+        assertEquals(2L, sequence.next("close_seq"));
+        sequence.close();
+        for (long i = 3; i <= 11; i++) {
+            assertEquals(i, sequence.next("close_seq"));
+        }
+        // 主机段(1, 81]不再使用，从持久层锁定(81, 91]
+        assertEquals(82L, sequence.next("close_seq"));
+    }
+
+    private GlobalSeqConfig config() {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        config.setHostSharedPath(new File(dir, "global-seq.map").getPath());
+        config.setHostSharedSlots(16);
+        config.setHostSharedFactor(8);
+        return config;
+    }
+}
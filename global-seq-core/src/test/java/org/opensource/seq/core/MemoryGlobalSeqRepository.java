@@ -0,0 +1,91 @@
+package org.opensource.seq.core;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单元测试共用的内存仓库，支持原子自增
+ *
+ * 每个序列一个计数器，不存在时以start为当前值创建；可以设置每次自增的延迟模拟慢或挂起的持久层，
+ * 并记录自增的调用次数和最大并发。
+ *
+ * @author wutianbiao
+ * @date 2022-07-15
+ */
+class MemoryGlobalSeqRepository implements AtomicIncrementRepository {
+    final Map<String, AtomicLong> values = new ConcurrentHashMap<>();
+    /**
+     * incrementAndGet的调用次数
+     */
+    final AtomicLong calls = new AtomicLong();
+    /**
+     * 同时执行incrementAndGet的最大线程数
+     */
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * 每次incrementAndGet的延迟(毫秒)，0不延迟
+     */
+    volatile long delayMillis;
+    /**
+     * 不为空时incrementAndGet抛出该异常，模拟持久层故障
+     */
+    volatile RuntimeException failure;
+
+    MemoryGlobalSeqRepository() {
+    }
+
+    MemoryGlobalSeqRepository(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * 序列在持久层的当前值，不存在时返回0
+     */
+    long value(String seqName) {
+        AtomicLong value = values.get(seqName);
+        return value == null ? 0 : value.get();
+    }
+
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        calls.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            long delay = delayMillis;
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        RuntimeException failure = this.failure;
+        if (failure != null) {
+            throw failure;
+        }
+        return new GlobalSeqPo(seqName, values.computeIfAbsent(seqName, k -> new AtomicLong(start)).addAndGet(step));
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        return values.putIfAbsent(po.getSeqName(), new AtomicLong(po.getCurrentValue())) == null ? 1 : 0;
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        AtomicLong value = values.get(seqName);
+        return value == null ? Optional.empty() : Optional.of(new GlobalSeqPo(seqName, value.get()));
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        AtomicLong value = values.get(seqName);
+        return value != null && value.compareAndSet(old, old + step)
+                ? Optional.of(new GlobalSeqPo(seqName, old + step)) : Optional.empty();
+    }
+}
@@ -0,0 +1,91 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 多区域部署的单元测试，每个区域使用自己的持久层
+ *
+ * @author wutianbiao
+ * @date 2022-07-08
+ */
+public class MultiRegionGlobalSeqTest {
+
+    /**
+     * 交错的等差数列：两个区域各自刷新，序列值互不重复
+     */
+    @Test
+    public void testInterleaved() {
+        GlobalSequenceImpl east = new GlobalSequenceImpl(config(0, 2, null), new MemoryGlobalSeqRepository());
+        GlobalSequenceImpl west = new GlobalSequenceImpl(config(1, 2, null), new MemoryGlobalSeqRepository());
+
+        Set<Long> seqs = new HashSet<>();
+        for (int i = 0; i < 1_000; i++) {
+            long e = east.next("region_seq");
+            long w = west.next("region_seq");
+            assertEquals(0, e % 2);
+            assertEquals(1, w % 2);
+            assertTrue(seqs.add(e));
+            assertTrue(seqs.add(w));
+        }
+        // 同一区域内相邻的值相差stride
+        long first = east.next("region_seq");
+        assertEquals(first + 2, east.next("region_seq"));
+    }
+
+    /**
+     * 区间划分：超出本区域的区间时报错
+     */
+    @Test
+    public void testRange() {
+        GlobalSequenceImpl west = new GlobalSequenceImpl(config(1_000_000, 1, 1_000_020L),
+                new MemoryGlobalSeqRepository());
+        for (long i = 2; i <= 20; i++) {
+            assertEquals(1_000_000 + i, west.next("region_seq"));
+        }
+        assertThrows(IllegalStateException.class, () -> west.next("region_seq"));
+    }
+
+    @Test
+    public void testInvalidConfig() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new GlobalSequenceImpl(config(2, 2, null), new MemoryGlobalSeqRepository()));
+        assertThrows(IllegalArgumentException.class,
+                () -> new GlobalSequenceImpl(config(1_000_000, 1, 1_000_000L), new MemoryGlobalSeqRepository()));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RegionSeq("region_seq", null, 3, 2, Long.MAX_VALUE));
+    }
+
+    /**
+     * 调整步长对区域序列生效
+     */
+    @Test
+    public void testTune() {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSequenceImpl east = new GlobalSequenceImpl(config(0, 2, null), repository);
+        east.next("region_seq");
+        long before = repository.value("region_seq");
+
+        // 步长仍为10时，再取10个值最多推进两段
+        east.tune("region_seq", 50L, null);
+        for (int i = 0; i < 10; i++) {
+            east.next("region_seq");
+        }
+        assertTrue(repository.value("region_seq") - before >= 50);
+    }
+
+    private GlobalSeqConfig config(long offset, long stride, Long maxValue) {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        config.setRegionOffset(offset);
+        config.setRegionStride(stride);
+        config.setRegionMaxValue(maxValue);
+        return config;
+    }
+}
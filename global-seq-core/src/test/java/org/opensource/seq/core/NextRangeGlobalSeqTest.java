@@ -0,0 +1,91 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 批量获取连续序列值的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-11
+ */
+public class NextRangeGlobalSeqTest {
+
+    /**
+     * 段内剩余足够时一次取满，不足时只取到段尾，下一次刷新新段
+     */
+    @Test
+    public void testRange() {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSequenceImpl sequence = new GlobalSequenceImpl(config(), repository);
+
+        SeqRange range = sequence.nextRange("range_seq", 30);
+        assertEquals(30, range.size());
+        assertEquals(range.getLast() + 1, sequence.next("range_seq"));
+
+        // 段长100，已用31个，剩余69个
+        SeqRange tail = sequence.nextRange("range_seq", 100);
+        assertEquals(69, tail.size());
+        long calls = repository.calls.get();
+        SeqRange fresh = sequence.nextRange("range_seq", 100);
+        assertEquals(100, fresh.size());
+        assertEquals(calls + 1, repository.calls.get());
+        assertTrue(fresh.getFirst() > tail.getLast());
+    }
+
+    /**
+     * 并发批量获取和单个获取混用，值不重复
+     */
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        GlobalSequenceImpl sequence = new GlobalSequenceImpl(config(), new MemoryGlobalSeqRepository());
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int batch = i + 1;
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 500; j++) {
+                    SeqRange range = sequence.nextRange("range_concurrent", batch);
+                    for (long id = range.getFirst(); id <= range.getLast(); id++) {
+                        assertTrue(seqs.add(id));
+                    }
+                    assertTrue(seqs.add(sequence.next("range_concurrent")));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(seqs.size() >= 8 * 500 * 2);
+    }
+
+    /**
+     * 严格有序的序列每次只返回一个值
+     */
+    @Test
+    public void testStrictOrderSingle() {
+        GlobalSeqConfig config = config();
+        SeqConfig seqConfig = new SeqConfig();
+        seqConfig.setStrictOrder(true);
+        config.getSeq().put("range_strict", seqConfig);
+        GlobalSequenceImpl sequence = new GlobalSequenceImpl(config, new MemoryGlobalSeqRepository());
+        assertEquals(1, sequence.nextRange("range_strict", 10).size());
+        assertThrows(IllegalArgumentException.class, () -> sequence.nextRange("range_strict", 0));
+    }
+
+    private GlobalSeqConfig config() {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(100);
+        return config;
+    }
+}
@@ -0,0 +1,197 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 分区仓库的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-01
+ */
+public class PartitionedGlobalSeqRepositoryTest {
+
+    /**
+     * 多线程从四个分区获取，序列不重复，每个分区都分担了刷新
+     */
+    @Test
+    public void testUnique() throws InterruptedException {
+        List<MemoryGlobalSeqRepository> memories = Arrays.asList(new MemoryGlobalSeqRepository(),
+                new MemoryGlobalSeqRepository(), new MemoryGlobalSeqRepository(), new MemoryGlobalSeqRepository());
+        List<AsyncGlobalSeqRepository> backends = new ArrayList<>();
+        for (MemoryGlobalSeqRepository memory : memories) {
+            backends.add(new AsyncGlobalSeqRepositoryAdapter(memory, Runnable::run));
+        }
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        PartitionedGlobalSeqRepository repository = new PartitionedGlobalSeqRepository(backends);
+        GlobalSequence globalSequence = new GlobalSequenceImpl(config, repository);
+
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 500; j++) {
+                    seqs.add(globalSequence.next("partitioned"));
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+        repository.close();
+        assertEquals(4_000, seqs.size());
+        for (MemoryGlobalSeqRepository memory : memories) {
+            assertTrue(memory.calls.get() > 0);
+        }
+    }
+
+    /**
+     * 主请求挂起时对冲到另一个分区，先返回的生效，主请求晚返回的序列段丢弃
+     */
+    @Test
+    public void testHedge() throws Exception {
+        BlockingQueue<GateRequest> requests = new LinkedBlockingQueue<>();
+        PartitionedGlobalSeqRepository repository = new PartitionedGlobalSeqRepository(
+                Arrays.asList(new GateRepository(0, requests), new GateRepository(1, requests)));
+        repository.setHedgeDelay(10);
+
+        CompletableFuture<GlobalSeqPo> result = repository.incrementAndGetAsync("hedged", 10, 0);
+        GateRequest primary = requests.poll(5, TimeUnit.SECONDS);
+        GateRequest hedged = requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(primary);
+        assertNotNull(hedged);
+        assertNotEquals(primary.partition, hedged.partition);
+        assertFalse(result.isDone());
+
+        hedged.future.complete(new GlobalSeqPo("hedged", 10L));
+        long base = (long) hedged.partition << 62;
+        assertEquals(base + 10, result.get(5, TimeUnit.SECONDS).getCurrentValue());
+
+        primary.future.complete(new GlobalSeqPo("hedged", 10L));
+        assertEquals(base + 10, result.get().getCurrentValue());
+        repository.close();
+    }
+
+    /**
+     * 加载、创建、比较并锁定都在第0个分区，与原子自增不重复
+     */
+    @Test
+    public void testCas() {
+        MemoryGlobalSeqRepository first = new MemoryGlobalSeqRepository();
+        MemoryGlobalSeqRepository second = new MemoryGlobalSeqRepository();
+        PartitionedGlobalSeqRepository repository = PartitionedGlobalSeqRepository.fromBlocking(
+                Arrays.asList(first, second), Runnable::run);
+
+        assertFalse(repository.loadSeq("cas").isPresent());
+        assertEquals(1, repository.createSeq(new GlobalSeqPo("cas", 10L)));
+        assertEquals(0, repository.createSeq(new GlobalSeqPo("cas", 20L)));
+        assertEquals(10L, repository.loadSeq("cas").get().getCurrentValue());
+        assertEquals(20L, repository.lockSeq("cas", 10, 10).get().getCurrentValue());
+        assertFalse(repository.lockSeq("cas", 10, 10).isPresent());
+        assertEquals(20L, first.value("cas"));
+        assertFalse(second.loadSeq("cas").isPresent());
+
+        // 原子自增选中第0个分区时与CAS共用计数器
+        Set<Long> ends = ConcurrentHashMap.newKeySet();
+        ends.add(20L);
+        for (int i = 0; i < 20; i++) {
+            GlobalSeqPo po = repository.incrementAndGet("cas", 10, 0);
+            assertTrue(ends.add(po.getCurrentValue()));
+        }
+        long old = repository.loadSeq("cas").get().getCurrentValue();
+        Optional<GlobalSeqPo> locked = repository.lockSeq("cas", 10, old);
+        assertTrue(locked.isPresent());
+        assertTrue(ends.add(locked.get().getCurrentValue()));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> repository.createSeq(new GlobalSeqPo("big", 1L << 62)));
+        assertThrows(IllegalStateException.class, () -> repository.lockSeq("cas", 1L << 62, old + 10));
+        repository.close();
+    }
+
+    /**
+     * 关闭后停止对冲，请求仍由选中的分区完成
+     */
+    @Test
+    public void testClose() throws Exception {
+        BlockingQueue<GateRequest> requests = new LinkedBlockingQueue<>();
+        PartitionedGlobalSeqRepository repository = new PartitionedGlobalSeqRepository(
+                Arrays.asList(new GateRepository(0, requests), new GateRepository(1, requests)));
+        repository.setHedgeDelay(1);
+        repository.close();
+
+        CompletableFuture<GlobalSeqPo> result = repository.incrementAndGetAsync("closed", 10, 0);
+        GateRequest primary = requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(primary);
+        primary.future.complete(new GlobalSeqPo("closed", 10L));
+        assertEquals(((long) primary.partition << 62) + 10, result.get(5, TimeUnit.SECONDS).getCurrentValue());
+        assertTrue(requests.isEmpty());
+    }
+
+    /**
+     * 挂起的原子自增请求，由测试决定何时返回
+     */
+    static final class GateRequest {
+        final int partition;
+        final CompletableFuture<GlobalSeqPo> future = new CompletableFuture<>();
+
+        GateRequest(int partition) {
+            this.partition = partition;
+        }
+    }
+
+    /**
+     * 原子自增请求放入队列等待测试完成的仓库
+     */
+    static final class GateRepository implements AsyncGlobalSeqRepository {
+        final int partition;
+        final BlockingQueue<GateRequest> requests;
+
+        GateRepository(int partition, BlockingQueue<GateRequest> requests) {
+            this.partition = partition;
+            this.requests = requests;
+        }
+
+        @Override
+        public CompletableFuture<Integer> createSeqAsync(GlobalSeqPo po) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Optional<GlobalSeqPo>> loadSeqAsync(String seqName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Optional<GlobalSeqPo>> lockSeqAsync(String seqName, long step, long old) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<GlobalSeqPo> incrementAndGetAsync(String seqName, long step, long start) {
+            GateRequest request = new GateRequest(partition);
+            requests.add(request);
+            return request.future;
+        }
+    }
+}
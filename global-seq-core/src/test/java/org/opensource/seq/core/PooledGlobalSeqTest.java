@@ -0,0 +1,123 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 共享池的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-13
+ */
+public class PooledGlobalSeqTest {
+
+    /**
+     * 池内的序列共用一个持久层序列和一段缓存，值互不重复
+     */
+    @Test
+    public void testShared() {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSequenceImpl sequence = new GlobalSequenceImpl(config(), repository);
+
+        Set<Long> seqs = new HashSet<>();
+        for (int i = 0; i < 30; i++) {
+            assertTrue(seqs.add(sequence.next("cold_a")));
+            assertTrue(seqs.add(sequence.next("cold_b")));
+            assertTrue(seqs.add(sequence.next("cold_c")));
+        }
+        // 90个值在一段(100)内，只刷新一次
+        assertEquals(1, repository.calls.get());
+        assertEquals(1, sequence.stats().size());
+        assertEquals("cold", sequence.stats().get(0).getSeqName());
+
+        // 不在池内的序列单独刷新
+        sequence.next("hot");
+        assertEquals(2, repository.calls.get());
+        assertEquals(2, sequence.stats().size());
+    }
+
+    /**
+     * 修改池成员的步长时修改池
+     */
+    @Test
+    public void testTune() {
+        GlobalSeqConfig config = config();
+        GlobalSequenceImpl sequence = new GlobalSequenceImpl(config, new MemoryGlobalSeqRepository());
+        sequence.next("cold_a");
+        sequence.tune("cold_b", 500L, null);
+        assertEquals(500L, config.getSeq().get("cold").getStep());
+        assertEquals(500L, sequence.stats().get(0).getStep());
+    }
+
+    /**
+     * 审计按池检查租约，池成员的值不会被误报
+     */
+    @Test
+    public void testAudit() throws InterruptedException {
+        GlobalSequenceImpl sequence = new GlobalSequenceImpl(config(), new MemoryGlobalSeqRepository());
+        try (AuditingGlobalSequence auditing = new AuditingGlobalSequence(sequence, 1)) {
+            for (int i = 0; i < 300; i++) {
+                auditing.next(i % 2 == 0 ? "cold_a" : "cold_b");
+            }
+            while (auditing.getChecked() < 300) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, auditing.getDuplicates());
+            assertEquals(0, auditing.getOutsideLease());
+        }
+    }
+
+    @Test
+    public void testInvalidConfig() {
+        GlobalSeqConfig config = config();
+        config.getSeq().get("cold_a").setStrictOrder(true);
+        assertThrows(IllegalArgumentException.class,
+                () -> new GlobalSequenceImpl(config, new MemoryGlobalSeqRepository()));
+    }
+
+    /**
+     * 成员单独设置的步长、预取、保留段不会生效，直接拒绝
+     */
+    @Test
+    public void testMemberTuning() {
+        GlobalSeqConfig step = config();
+        step.getSeq().get("cold_a").setStep(500L);
+        assertThrows(IllegalArgumentException.class,
+                () -> new GlobalSequenceImpl(step, new MemoryGlobalSeqRepository()));
+
+        GlobalSeqConfig prefetch = config();
+        prefetch.getSeq().get("cold_b").setPrefetch(0.5);
+        assertThrows(IllegalArgumentException.class,
+                () -> new GlobalSequenceImpl(prefetch, new MemoryGlobalSeqRepository()));
+
+        GlobalSeqConfig reserve = config();
+        reserve.getSeq().get("cold_c").setReserve(10L);
+        assertThrows(IllegalArgumentException.class,
+                () -> new GlobalSequenceImpl(reserve, new MemoryGlobalSeqRepository()));
+
+        // 与池相同的步长不冲突
+        GlobalSeqConfig same = config();
+        same.getSeq().get("cold").setStep(1000L);
+        same.getSeq().get("cold_a").setStep(1000L);
+        new GlobalSequenceImpl(same, new MemoryGlobalSeqRepository());
+    }
+
+    private GlobalSeqConfig config() {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        SeqConfig pool = new SeqConfig();
+        pool.setStep(100L);
+        config.getSeq().put("cold", pool);
+        for (String name : new String[] { "cold_a", "cold_b", "cold_c" }) {
+            SeqConfig member = new SeqConfig();
+            member.setPool("cold");
+            config.getSeq().put(name, member);
+        }
+        return config;
+    }
+}
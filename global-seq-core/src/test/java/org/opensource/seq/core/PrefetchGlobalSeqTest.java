@@ -0,0 +1,225 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 异步适配和预取的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-06-28
+ */
+public class PrefetchGlobalSeqTest {
+    private static ExecutorService executor;
+
+    @BeforeAll
+    public static void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    public static void destory() {
+        executor.shutdown();
+    }
+
+    /**
+     * 阻塞仓库适配为异步，并发刷新由加载+CAS组合完成，锁定的段不重复
+     */
+    @Test
+    public void testAsyncAdapter() {
+        String seqName = "async_seq";
+        MemoryGlobalSeqRepository memory = new MemoryGlobalSeqRepository();
+        AsyncGlobalSeqRepositoryAdapter async = new AsyncGlobalSeqRepositoryAdapter(casOnly(memory), executor);
+        assertEquals(10L, async.incrementAndGetAsync(seqName, 10, 0).join().getCurrentValue());
+
+        List<CompletableFuture<GlobalSeqPo>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(async.incrementAndGetAsync(seqName, 10, 0));
+        }
+        Set<Long> limits = ConcurrentHashMap.newKeySet();
+        for (CompletableFuture<GlobalSeqPo> future : futures) {
+            limits.add(future.join().getCurrentValue());
+        }
+        assertEquals(5, limits.size());
+        assertEquals(60L, memory.value(seqName));
+        // 没有走原子自增
+        assertEquals(0, memory.calls.get());
+    }
+
+    /**
+     * 线程池队列已满时适配器返回失败的future，不在调用线程抛出
+     */
+    @Test
+    public void testAdapterRejected() {
+        ThreadPoolExecutor bounded = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+        try {
+            AsyncGlobalSeqRepositoryAdapter async = new AsyncGlobalSeqRepositoryAdapter(
+                    new MemoryGlobalSeqRepository(200), bounded);
+            CompletableFuture<GlobalSeqPo> running = async.incrementAndGetAsync("rejected_seq", 10, 0);
+            CompletableFuture<GlobalSeqPo> queued = async.incrementAndGetAsync("rejected_seq", 10, 0);
+            CompletableFuture<GlobalSeqPo> rejected = async.incrementAndGetAsync("rejected_seq", 10, 0);
+
+            CompletionException e = assertThrows(CompletionException.class, rejected::join);
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            assertEquals(20L, Math.max(running.join().getCurrentValue(), queued.join().getCurrentValue()));
+        } finally {
+            bounded.shutdown();
+        }
+    }
+
+    /**
+     * 预取线程池饱和时被拒绝的预取不计入熔断，当前段用完后同步刷新，序列不重复
+     */
+    @Test
+    public void testQueueFull() throws InterruptedException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        config.setDefaultPrefetch(0.5);
+        config.setRefillThreads(1);
+        config.setRefillQueue(1);
+        config.setBreakerThreshold(1);
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository(20);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, repository);
+
+        Set<String> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String seqName = "full_seq_" + i;
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 30; j++) {
+                    seqs.add(seqName + ":" + globalSequence.next(seqName));
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+        assertEquals(8 * 30, seqs.size());
+        assertEquals(SeqCircuitBreaker.State.CLOSED, globalSequence.getBreaker().getState());
+        globalSequence.close();
+    }
+
+    /**
+     * 开启预取，十个线程并发获取，序列不重复不遗漏
+     */
+    @Test
+    public void testPrefetch() throws InterruptedException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(20);
+        config.setDefaultPrefetch(0.5);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, casOnly(new MemoryGlobalSeqRepository()));
+
+        String seqName = "prefetch_seq";
+        long threshold = 1_000;
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Thread t = new Thread(() -> {
+                long next;
+                while ((next = globalSequence.next(seqName)) <= threshold) {
+                    seqs.add(next);
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+        // 序列从start + 1开始
+        assertEquals(threshold - 1, seqs.size());
+        globalSequence.close();
+    }
+
+    /**
+     * 关闭后不再预取，当前段用完时同步刷新
+     */
+    @Test
+    public void testClose() {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        config.setDefaultPrefetch(0.5);
+        config.setRefillTimeout(1_000);
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, repository);
+
+        assertEquals(2L, globalSequence.next("closed_seq"));
+        globalSequence.close();
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 50; i++) {
+            seqs.add(globalSequence.next("closed_seq"));
+        }
+        assertEquals(50, seqs.size());
+    }
+
+    /**
+     * 运行时修改步长，下一次刷新生效
+     */
+    @Test
+    public void testTune() {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, casOnly(repository));
+
+        String seqName = "tune_seq";
+        assertEquals(2L, globalSequence.next(seqName));
+        globalSequence.tune(seqName, 50L, null);
+        // 当前段用完前不受影响
+        for (long i = 3; i <= 11; i++) {
+            assertEquals(i, globalSequence.next(seqName));
+        }
+        assertEquals(11L, repository.value(seqName));
+        assertEquals(12L, globalSequence.next(seqName));
+        assertEquals(61L, repository.value(seqName));
+
+        SeqStats stats = globalSequence.stats().get(0);
+        assertEquals(seqName, stats.getSeqName());
+        assertEquals(50L, stats.getStep());
+        assertEquals(61L, stats.getLimit());
+        assertEquals(2L, stats.getRefillCount());
+    }
+
+    /**
+     * 只能比较并更新的仓库，和数据库一样走加载+CAS
+     */
+    static GlobalSeqRepository casOnly(MemoryGlobalSeqRepository memory) {
+        return new GlobalSeqRepository() {
+            @Override
+            public int createSeq(GlobalSeqPo po) {
+                return memory.createSeq(po);
+            }
+
+            @Override
+            public Optional<GlobalSeqPo> loadSeq(String seqName) {
+                return memory.loadSeq(seqName);
+            }
+
+            @Override
+            public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+                return memory.lockSeq(seqName, step, old);
+            }
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 刷新调度器的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-14
+ */
+public class RefillSchedulerTest {
+
+    /**
+     * 许可用完时按预计耗尽时间启动，同步刷新最先
+     */
+    @Test
+    public void testUrgency() throws Exception {
+        RefillScheduler scheduler = new RefillScheduler(1);
+        List<String> started = new CopyOnWriteArrayList<>();
+        CompletableFuture<GlobalSeqPo> blocker = new CompletableFuture<>();
+        scheduler.submit("blocker", System.nanoTime(), () -> blocker);
+
+        long now = System.nanoTime();
+        scheduler.submit("slow", now + TimeUnit.SECONDS.toNanos(10), refill(started, "slow"));
+        scheduler.submit("fast", now + TimeUnit.SECONDS.toNanos(1), refill(started, "fast"));
+        CompletableFuture<Boolean> sync = CompletableFuture.supplyAsync(() -> {
+            try {
+                boolean acquired = scheduler.acquire(SeqAllocator.UNBOUNDED);
+                started.add("sync");
+                scheduler.release();
+                return acquired;
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (scheduler.queued() < 3) {
+            Thread.sleep(1);
+        }
+        assertTrue(started.isEmpty());
+
+        blocker.complete(new GlobalSeqPo("blocker", 1L));
+        assertTrue(sync.get(5, TimeUnit.SECONDS));
+        while (started.size() < 3) {
+            Thread.sleep(1);
+        }
+        assertEquals("sync", started.get(0));
+        assertEquals("fast", started.get(1));
+        assertEquals("slow", started.get(2));
+        assertEquals(0, scheduler.inFlight());
+    }
+
+    /**
+     * 排队中的重复预取合并，只访问一次持久层；提前后排到最前
+     */
+    @Test
+    public void testCoalesce() throws Exception {
+        RefillScheduler scheduler = new RefillScheduler(1);
+        List<String> started = new CopyOnWriteArrayList<>();
+        CompletableFuture<GlobalSeqPo> blocker = new CompletableFuture<>();
+        scheduler.submit("blocker", System.nanoTime(), () -> blocker);
+
+        long now = System.nanoTime();
+        scheduler.submit("other", now + TimeUnit.SECONDS.toNanos(1), refill(started, "other"));
+        CompletableFuture<GlobalSeqPo> first = scheduler.submit("seq", now + TimeUnit.SECONDS.toNanos(10),
+                refill(started, "seq"));
+        CompletableFuture<GlobalSeqPo> second = scheduler.submit("seq", now + TimeUnit.SECONDS.toNanos(20),
+                refill(started, "seq"));
+        assertSame(first, second);
+        assertEquals(2, scheduler.queued());
+
+        scheduler.expedite("seq");
+        blocker.complete(new GlobalSeqPo("blocker", 1L));
+        first.get(5, TimeUnit.SECONDS);
+        while (started.size() < 2) {
+            Thread.sleep(1);
+        }
+        assertEquals("seq", started.get(0));
+        assertEquals("other", started.get(1));
+    }
+
+    /**
+     * 截止时间前没轮到的同步刷新放弃排队，不占用许可
+     */
+    @Test
+    public void testAcquireTimeout() throws Exception {
+        RefillScheduler scheduler = new RefillScheduler(1);
+        CompletableFuture<GlobalSeqPo> blocker = new CompletableFuture<>();
+        scheduler.submit("blocker", System.nanoTime(), () -> blocker);
+
+        assertFalse(scheduler.acquire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)));
+        assertEquals(0, scheduler.queued());
+        blocker.complete(new GlobalSeqPo("blocker", 1L));
+        assertEquals(0, scheduler.inFlight());
+        assertTrue(scheduler.acquire(SeqAllocator.UNBOUNDED));
+        scheduler.release();
+    }
+
+    /**
+     * 多个序列同时刷新时，访问持久层的并发不超过配置，值不重复
+     */
+    @Test
+    public void testConcurrencyCap() throws Exception {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository(5);
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(50L);
+        config.setDefaultPrefetch(0.5);
+        config.setRefillConcurrency(2);
+        GlobalSequenceImpl sequence = new GlobalSequenceImpl(config, repository);
+
+        Map<String, Set<Long>> values = new ConcurrentHashMap<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            String seqName = "seq_" + t;
+            Set<Long> seqs = ConcurrentHashMap.newKeySet();
+            values.put(seqName, seqs);
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 300; i++) {
+                    assertTrue(seqs.add(sequence.next(seqName)));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(repository.maxInFlight.get() <= 2, "持久层并发:" + repository.maxInFlight.get());
+        for (Set<Long> seqs : values.values()) {
+            assertEquals(300, seqs.size());
+        }
+    }
+
+    private static Supplier<CompletableFuture<GlobalSeqPo>> refill(List<String> started, String name) {
+        return () -> {
+            started.add(name);
+            return CompletableFuture.completedFuture(new GlobalSeqPo(name, 1L));
+        };
+    }
+}
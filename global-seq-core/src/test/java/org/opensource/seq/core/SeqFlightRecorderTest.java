@@ -0,0 +1,69 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * JFR事件的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-09
+ */
+public class SeqFlightRecorderTest {
+
+    @TempDir
+    File dir;
+
+    /**
+     * 录制中能看到初始化、刷新和段边界等待事件
+     */
+    @Test
+    public void testEvents() throws Exception {
+        File file = new File(dir, "seq.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.opensource.seq.Refill").withThreshold(java.time.Duration.ZERO);
+            recording.enable("org.opensource.seq.Wait").withThreshold(java.time.Duration.ZERO);
+            recording.enable("org.opensource.seq.Init");
+            recording.start();
+
+            GlobalSeqConfig config = new GlobalSeqConfig();
+            config.setDefaultStep(10);
+            GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, new MemoryGlobalSeqRepository());
+            for (int i = 0; i < 25; i++) {
+                globalSequence.next("jfr_seq");
+            }
+
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+        Map<String, Long> counts = events.stream()
+                .collect(Collectors.groupingBy(e -> e.getEventType().getName(), Collectors.counting()));
+        assertEquals(1L, counts.get("org.opensource.seq.Init"));
+        assertEquals(3L, counts.get("org.opensource.seq.Refill"));
+        assertTrue(counts.get("org.opensource.seq.Wait") >= 3);
+
+        Map<String, RecordedEvent> byName = events.stream()
+                .collect(Collectors.toMap(e -> e.getEventType().getName(), Function.identity(), (a, b) -> a));
+        RecordedEvent refill = byName.get("org.opensource.seq.Refill");
+        assertEquals("jfr_seq", refill.getString("seqName"));
+        assertEquals(10L, refill.getLong("step"));
+        assertEquals("sync", refill.getString("mode"));
+        assertEquals(0, refill.getInt("retries"));
+        assertTrue(refill.getBoolean("success"));
+    }
+}
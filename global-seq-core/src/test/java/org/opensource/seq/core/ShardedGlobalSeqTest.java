@@ -0,0 +1,99 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 带分片字段的序列单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-07
+ */
+public class ShardedGlobalSeqTest {
+
+    /**
+     * 低位分片：分片号等于路由键取模，序列值不重复
+     */
+    @Test
+    public void testLowLayout() throws InterruptedException {
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config(SeqShardLayout.LOW), new MemoryGlobalSeqRepository());
+        try (AuditingGlobalSequence auditing = new AuditingGlobalSequence(globalSequence, 1)) {
+            Set<Long> seqs = new HashSet<>();
+            for (long userId = 0; userId < 1_000; userId++) {
+                long id = auditing.next("shard_seq", userId);
+                assertTrue(seqs.add(id));
+                assertEquals(userId % 16, SeqShardLayout.LOW.shardOf(id, 4));
+            }
+            // 没有路由键时随机分片
+            assertTrue(seqs.add(auditing.next("shard_seq")));
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (auditing.getChecked() < seqs.size() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(seqs.size(), auditing.getChecked());
+            assertEquals(0, auditing.getOutsideLease());
+        }
+    }
+
+    /**
+     * 高位分片：单线程下同一分片的序列值连续递增，字符串路由键按哈希分片
+     */
+    @Test
+    public void testHighLayout() {
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config(SeqShardLayout.HIGH), new MemoryGlobalSeqRepository());
+        long first = globalSequence.next("shard_seq", "order-1");
+        long second = globalSequence.next("shard_seq", "order-1");
+        assertEquals(first + 1, second);
+        int shard = SeqShardLayout.HIGH.shardOf(first, 4);
+        assertEquals(shard, SeqShardLayout.HIGH.shardOf(second, 4));
+        assertEquals((long) shard << 59, first & (0xFL << 59));
+        assertTrue(first > 0);
+    }
+
+    /**
+     * 所有分片共用一份序列段：低位分片的序列值整体递增，刷新次数与不分片相同
+     */
+    @Test
+    public void testSharedSegment() {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config(SeqShardLayout.LOW), repository);
+        long last = 0;
+        for (long userId = 0; userId < 100; userId++) {
+            long id = globalSequence.next("shard_seq", userId);
+            assertTrue(id > last);
+            last = id;
+        }
+        // 步长10，100个值刷新10次
+        assertEquals(10, repository.calls.get());
+    }
+
+    /**
+     * 路由键为空时和不带路由键一样随机选择分片
+     */
+    @Test
+    public void testNullRoutingKey() {
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config(SeqShardLayout.LOW), new MemoryGlobalSeqRepository());
+        Set<Long> seqs = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            long id = globalSequence.next("shard_seq", null);
+            assertTrue(seqs.add(id));
+            assertTrue(SeqShardLayout.LOW.shardOf(id, 4) < 16);
+        }
+    }
+
+    private GlobalSeqConfig config(SeqShardLayout layout) {
+        SeqConfig seqConfig = new SeqConfig();
+        seqConfig.setStep(10L);
+        seqConfig.setShardBits(4);
+        seqConfig.setShardLayout(layout);
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.getSeq().put("shard_seq", seqConfig);
+        return config;
+    }
+}
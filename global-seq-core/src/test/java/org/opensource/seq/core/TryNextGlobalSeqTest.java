@@ -0,0 +1,134 @@
+package org.opensource.seq.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 带截止时间获取、熔断和保留段的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-02
+ */
+public class TryNextGlobalSeqTest {
+
+    /**
+     * 持久层挂起时tryNext不超过超时时间，先用保留段，熔断后不再访问持久层，保留段用完返回空
+     */
+    @Test
+    public void testReserveWhileBreakerOpen() {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        config.setDefaultReserve(5);
+        config.setBreakerThreshold(1);
+        config.setBreakerOpenMillis(60_000);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, repository);
+
+        Set<Long> seqs = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            seqs.add(globalSequence.next("try_seq"));
+        }
+        assertEquals(10, seqs.size());
+        // 第一段(1, 11]已用完，保留段(11, 16]
+        assertEquals(16L, repository.value("try_seq"));
+
+        // 持久层挂起
+        repository.delayMillis = 5_000;
+        long begin = System.nanoTime();
+        OptionalLong next = globalSequence.tryNext("try_seq", 100, TimeUnit.MILLISECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 1_000);
+        assertEquals(12L, next.getAsLong());
+        assertEquals(SeqCircuitBreaker.State.OPEN, globalSequence.getBreaker().getState());
+
+        // 熔断期间直接使用保留段
+        long calls = repository.calls.get();
+        for (long i = 13; i <= 16; i++) {
+            assertEquals(i, globalSequence.tryNext("try_seq", 100, TimeUnit.MILLISECONDS).getAsLong());
+        }
+        assertEquals(calls, repository.calls.get());
+        assertFalse(globalSequence.tryNext("try_seq", 100, TimeUnit.MILLISECONDS).isPresent());
+    }
+
+    /**
+     * 熔断器连续失败后打开，探测成功后关闭
+     */
+    @Test
+    public void testBreaker() throws InterruptedException {
+        SeqCircuitBreaker breaker = new SeqCircuitBreaker(2, 50);
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(60);
+        assertTrue(breaker.allowRequest());
+        // 只放行一个探测
+        assertFalse(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(SeqCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * 保留段用完后持久层仍不可用，抛出的异常带上持久层的失败原因
+     */
+    @Test
+    public void testUnavailableCause() {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        config.setDefaultReserve(2);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, repository);
+        for (int i = 0; i < 10; i++) {
+            globalSequence.next("cause_seq");
+        }
+
+        RuntimeException failure = new IllegalStateException("db down");
+        repository.failure = failure;
+        // 保留段(11, 13]
+        assertEquals(12L, globalSequence.next("cause_seq"));
+        assertEquals(13L, globalSequence.next("cause_seq"));
+        RuntimeException e = assertThrows(RuntimeException.class, () -> globalSequence.next("cause_seq"));
+        assertSame(failure, e.getCause());
+
+        // 恢复后继续发号
+        repository.failure = null;
+        assertEquals(14L, globalSequence.next("cause_seq"));
+    }
+
+    /**
+     * 只在预取时失败的持久层同样触发熔断
+     */
+    @Test
+    public void testPrefetchFailureOpensBreaker() throws InterruptedException {
+        MemoryGlobalSeqRepository repository = new MemoryGlobalSeqRepository();
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(10);
+        config.setDefaultPrefetch(0.5);
+        config.setBreakerThreshold(1);
+        config.setBreakerOpenMillis(60_000);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, repository);
+        globalSequence.next("prefetch_seq");
+
+        repository.failure = new IllegalStateException("db down");
+        // 剩余不足一半时触发预取，当前段仍然可用
+        for (int i = 0; i < 6; i++) {
+            globalSequence.next("prefetch_seq");
+        }
+        long deadline = System.currentTimeMillis() + 2_000;
+        while (globalSequence.getBreaker().getState() != SeqCircuitBreaker.State.OPEN
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(SeqCircuitBreaker.State.OPEN, globalSequence.getBreaker().getState());
+    }
+}
@@ -1,9 +1,9 @@
 package org.opensource.seq.db;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.Optional;
 
 import javax.sql.DataSource;
@@ -33,142 +33,136 @@ public class GlobalSeqRepositoryImpl implements GlobalSeqRepository {
     /**
      * 创建序列sql
      */
-    private static volatile String CREATE_SQL = "insert into %s(seq_name, current_value) values(?,?)";
+    private static final String CREATE_SQL = "insert into %s(seq_name, current_value) values(?,?)";
     /**
      * 加载序列sql
      */
-    private static volatile String LOAD_SQL = "select * from %s where seq_name=?";
+    private static final String LOAD_SQL = "select * from %s where seq_name=?";
     /**
      * 锁定序列sql
      */
-    private static volatile String LOCK_SQL = "update %s set current_value=? where seq_name=? and current_value=?";
+    private static final String LOCK_SQL = "update %s set current_value=? where seq_name=? and current_value=?";
     /**
-     * 数据源
+     * sql执行入口，默认使用应用数据源
      */
-    private DataSource dataSource;
+    private final SqlExecutor executor;
     /**
      * 表名称，默认表名global_seq
      */
     private String tableName = "global_seq";
+    /**
+     * 替换表名后的sql，每个实例各自持有，多个实例可以使用不同的表
+     */
+    private final String createSql;
+    private final String loadSql;
+    private final String lockSql;
 
     public GlobalSeqRepositoryImpl(DataSource dataSource, String table) {
-        this.dataSource = dataSource;
-        if(tableName != null) {
+        this.executor = new SqlExecutor(dataSource);
+        if(table != null) {
             this.tableName = table;
         }
         // 替换表名
-        GlobalSeqRepositoryImpl.CREATE_SQL = String.format(GlobalSeqRepositoryImpl.CREATE_SQL, tableName);
-        log.info("创建序列sql:{}", CREATE_SQL);
-        GlobalSeqRepositoryImpl.LOAD_SQL = String.format(GlobalSeqRepositoryImpl.LOAD_SQL, tableName);
-        log.info("加载序列sql:{}", CREATE_SQL);
-        GlobalSeqRepositoryImpl.LOCK_SQL = String.format(GlobalSeqRepositoryImpl.LOCK_SQL, tableName);
-        log.info("锁定序列sql:{}", CREATE_SQL);
+        this.createSql = String.format(CREATE_SQL, tableName);
+        log.info("创建序列sql:{}", createSql);
+        this.loadSql = String.format(LOAD_SQL, tableName);
+        log.info("加载序列sql:{}", loadSql);
+        this.lockSql = String.format(LOCK_SQL, tableName);
+        log.info("锁定序列sql:{}", lockSql);
+    }
+
+    /**
+     * 使用刷新专用连接执行序列sql，不再占用应用连接池
+     *
+     * @param holder 为null时恢复使用应用数据源
+     */
+    public void setRefillConnection(RefillConnectionHolder holder) {
+        this.executor.setHolder(holder);
     }
 
     @Override
     public int createSeq(GlobalSeqPo po) {
         log.info("创建序列:{}", po);
-        Connection connection = null;
-        PreparedStatement pst = null;
         try {
-            connection = dataSource.getConnection();
-            pst = connection.prepareStatement(CREATE_SQL);
-            pst.setString(1, po.getSeqName());
-            pst.setLong(2, po.getCurrentValue());
-            // 执行返回
-            return pst.executeUpdate();
+            return executor.execute("create", po.getSeqName(), statements -> {
+                PreparedStatement pst = statements.prepare(createSql);
+                pst.setString(1, po.getSeqName());
+                pst.setLong(2, po.getCurrentValue());
+                // 执行返回
+                return pst.executeUpdate();
+            });
         } catch (SQLException e) {
+            // 并发创建时其他实例已插入，和其他仓库实现一样返回0，由调用方重新加载
+            if (isDuplicate(e, po.getSeqName())) {
+                log.info("序列已被其他实例创建:{}", po.getSeqName());
+                return 0;
+            }
             log.error("创建序列sql异常:{}", e.getMessage(), e);
             throw new RuntimeException(e);
-        } finally {
-            try {
-                if(pst != null) {
-                    pst.close();
-                }
-                if (connection != null) {
-                    connection.close();
-                }
-            } catch (SQLException e) {
-                log.error("创建序列，关闭sql资源异常:{}", e.getMessage(), e);
-            }
+        }
+    }
+
+    /**
+     * 是否唯一约束冲突；sqlite等驱动不报告SQLState，再查一次序列是否已存在
+     */
+    private boolean isDuplicate(SQLException e, String seqName) {
+        if (e instanceof SQLIntegrityConstraintViolationException
+                || (e.getSQLState() != null && e.getSQLState().startsWith("23"))) {
+            return true;
+        }
+        try {
+            return loadSeq(seqName).isPresent();
+        } catch (RuntimeException ex) {
+            return false;
         }
     }
 
     @Override
     public Optional<GlobalSeqPo> loadSeq(String seqName) {
         log.info("加载序列:{}", seqName);
-        Connection connection = null;
-        PreparedStatement pst = null;
-        ResultSet rs = null;
-
         try {
-            connection = dataSource.getConnection();
-            pst = connection.prepareStatement(LOAD_SQL);
-            pst.setString(1, seqName);
-
-            rs = pst.executeQuery();
-
-            // 未查到
-            if (!rs.next()) {
-                return Optional.empty();
-            }
-
-            // 组装返回
-            String seq = rs.getString(SEQ_NAME);
-            Long currentValue = rs.getLong(CURRENT_VALUE);
-            return Optional.of(new GlobalSeqPo(seq, currentValue));
+            return executor.execute("load", seqName, statements -> {
+                PreparedStatement pst = statements.prepare(loadSql);
+                pst.setString(1, seqName);
+
+                try (ResultSet rs = pst.executeQuery()) {
+                    // 未查到
+                    if (!rs.next()) {
+                        return Optional.empty();
+                    }
+
+                    // 组装返回
+                    String seq = rs.getString(SEQ_NAME);
+                    Long currentValue = rs.getLong(CURRENT_VALUE);
+                    return Optional.of(new GlobalSeqPo(seq, currentValue));
+                }
+            });
         } catch (SQLException e) {
             log.error("加载序列sql异常:{}", e.getMessage(), e);
             throw new RuntimeException(e);
-        } finally {
-            try {
-                if(rs != null) {
-                    rs.close();
-                }
-                if(pst != null) {
-                    pst.close();
-                }
-                if (connection != null) {
-                    connection.close();
-                }
-            } catch (SQLException e) {
-                log.error("加载序列，关闭sql资源异常:{}", e.getMessage(), e);
-            }
         }
     }
 
     @Override
     public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
         log.info("锁定序列:{},{},{}", seqName, step, old);
-        Connection connection = null;
-        PreparedStatement pst = null;
         try {
-            connection = dataSource.getConnection();
-            pst = dataSource.getConnection().prepareStatement(LOCK_SQL);
-            pst.setLong(1, old + step);
-            pst.setString(2, seqName);
-            pst.setLong(3, old);
-            // 执行返回
-            int result = pst.executeUpdate();
-
-            if(result == 1) {
-                return Optional.of(new GlobalSeqPo(seqName, old + step));
-            }
-            return Optional.empty();
+            return executor.execute("lock", seqName, statements -> {
+                PreparedStatement pst = statements.prepare(lockSql);
+                pst.setLong(1, old + step);
+                pst.setString(2, seqName);
+                pst.setLong(3, old);
+                // 执行返回
+                int result = pst.executeUpdate();
+
+                if(result == 1) {
+                    return Optional.of(new GlobalSeqPo(seqName, old + step));
+                }
+                return Optional.empty();
+            });
         } catch (SQLException e) {
             log.error("锁定序列sql异常:{}", e.getMessage(), e);
             throw new RuntimeException(e);
-        } finally {
-            try {
-                if(pst != null) {
-                    pst.close();
-                }
-                if (connection != null) {
-                    connection.close();
-                }
-            } catch (SQLException e) {
-                log.error("锁定序列，关闭sql资源异常:{}", e.getMessage(), e);
-            }
         }
     }
 
@@ -0,0 +1,205 @@
+package org.opensource.seq.db;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 序列刷新专用的数据库连接
+ *
+ * 应用连接池打满时，序列刷新会排在业务sql后面，next()随之阻塞。
+ * 该对象从独立的数据源打开一个常驻连接，缓存预编译语句，只给序列刷新使用：
+ * 1. 刷新不再从应用连接池借连接，也不再每次预编译sql
+ * 2. 同一时刻只有一个刷新使用连接，等待超过acquireTimeout直接失败，不会无限排队
+ * 3. 连接空闲超过validationInterval后使用前校验，sql异常后丢弃连接，下次使用时重建
+ *
+ * @author wutianbiao
+ * @date 2022-06-12
+ */
+@Slf4j
+public class RefillConnectionHolder implements Closeable {
+    /**
+     * 获取连接的最大等待时间，毫秒
+     */
+    @Getter
+    @Setter
+    private long acquireTimeout = 500L;
+    /**
+     * 连接空闲多久后使用前校验，毫秒
+     */
+    @Getter
+    @Setter
+    private long validationInterval = 30_000L;
+    /**
+     * 连接校验超时时间，秒
+     */
+    @Getter
+    @Setter
+    private int validationTimeout = 1;
+    /**
+     * 单条sql的执行超时时间，秒，0不限制
+     */
+    @Getter
+    @Setter
+    private int queryTimeout = 0;
+    /**
+     * 专用数据源，只用来打开常驻连接
+     */
+    private DataSource dataSource;
+    /**
+     * 常驻连接
+     */
+    private Connection connection;
+    /**
+     * 常驻连接上缓存的预编译语句
+     */
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    /**
+     * 最后一次使用连接的时间
+     */
+    private long lastUsed;
+    /**
+     * 隔离锁，同一时刻只允许一个刷新使用连接
+     */
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    /**
+     * 构造函数
+     *
+     * @param dataSource 专用数据源，不要和应用共用连接池
+     */
+    public RefillConnectionHolder(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * 在常驻连接上执行
+     *
+     * @param work
+     * @return
+     * @throws SQLException 执行异常或等待连接超时
+     */
+    <T> T execute(SqlExecutor.Work<T> work) throws SQLException {
+        boolean acquired;
+        try {
+            acquired = lock.tryLock(acquireTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待序列专用连接被中断", e);
+        }
+        if (!acquired) {
+            throw new SQLException("等待序列专用连接超时:" + acquireTimeout + "ms");
+        }
+
+        try {
+            Connection current = obtain();
+            try {
+                T result = work.apply(new SqlExecutor.Statements() {
+                    @Override
+                    public PreparedStatement prepare(String sql) throws SQLException {
+                        return statement(current, sql);
+                    }
+
+                    @Override
+                    public Connection connection() {
+                        return current;
+                    }
+                });
+                lastUsed = System.currentTimeMillis();
+                return result;
+            } catch (SQLException e) {
+                // 约束冲突是正常的并发结果，连接仍然可用
+                if (!isConstraintViolation(e)) {
+                    log.error("序列专用连接执行异常，丢弃连接:{}", e.getMessage());
+                    discard();
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                log.error("序列专用连接执行异常，丢弃连接:{}", e.getMessage());
+                discard();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isConstraintViolation(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+
+    /**
+     * 获取常驻连接，必要时校验或重建
+     */
+    private Connection obtain() throws SQLException {
+        if (connection != null
+                && System.currentTimeMillis() - lastUsed > validationInterval
+                && !connection.isValid(validationTimeout)) {
+            log.info("序列专用连接校验失败，重建连接");
+            discard();
+        }
+        if (connection == null) {
+            connection = dataSource.getConnection();
+            lastUsed = System.currentTimeMillis();
+            log.info("打开序列专用连接:{}", connection);
+        }
+        return connection;
+    }
+
+    private PreparedStatement statement(Connection current, String sql) throws SQLException {
+        PreparedStatement pst = statements.get(sql);
+        if (pst == null) {
+            pst = current.prepareStatement(sql);
+            if (queryTimeout > 0) {
+                pst.setQueryTimeout(queryTimeout);
+            }
+            statements.put(sql, pst);
+        } else {
+            pst.clearParameters();
+        }
+        return pst;
+    }
+
+    /**
+     * 关闭并丢弃常驻连接和缓存的语句
+     */
+    private void discard() {
+        for (PreparedStatement pst : statements.values()) {
+            try {
+                pst.close();
+            } catch (SQLException e) {
+                log.debug("关闭预编译语句异常:{}", e.getMessage());
+            }
+        }
+        statements.clear();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("关闭序列专用连接异常:{}", e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            discard();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
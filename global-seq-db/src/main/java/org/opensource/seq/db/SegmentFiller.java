@@ -0,0 +1,129 @@
+package org.opensource.seq.db;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 序列段后台填充器
+ *
+ * 定时检查{@link SegmentGlobalSeqRepositoryImpl}中登记过的序列，
+ * 空闲段少于freeSegments时，在序列表上一次推进缺少的段数并写入序列段表。
+ *
+ * @author wutianbiao
+ * @date 2022-06-10
+ */
+@Slf4j
+public class SegmentFiller implements Closeable {
+    /**
+     * 每个序列保持的空闲段个数
+     */
+    @Getter
+    @Setter
+    private int freeSegments = 5;
+    /**
+     * 定时检查间隔，毫秒
+     */
+    @Getter
+    @Setter
+    private long interval = 1000L;
+    /**
+     * 序列段仓库
+     */
+    private SegmentGlobalSeqRepositoryImpl repository;
+    /**
+     * 填充线程
+     */
+    private ScheduledExecutorService executor;
+    /**
+     * 是否已有一次唤醒在排队，避免重复提交
+     */
+    private final AtomicBoolean wakeUpPending = new AtomicBoolean(false);
+
+    /**
+     * 构造函数
+     *
+     * @param repository
+     */
+    public SegmentFiller(SegmentGlobalSeqRepositoryImpl repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * 启动定时填充，并注册到仓库，空闲段耗尽时由仓库唤醒
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "global-seq-segment-filler");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::fillAll, 0, interval, TimeUnit.MILLISECONDS);
+        repository.setFiller(this);
+        log.info("序列段填充器启动:{},{}", freeSegments, interval);
+    }
+
+    /**
+     * 立即执行一次填充
+     */
+    public void wakeUp() {
+        ScheduledExecutorService current = this.executor;
+        if (current != null && wakeUpPending.compareAndSet(false, true)) {
+            current.execute(() -> {
+                wakeUpPending.set(false);
+                fillAll();
+            });
+        }
+    }
+
+    /**
+     * 补充所有登记序列的空闲段
+     */
+    public void fillAll() {
+        for (Map.Entry<String, Long> entry : repository.registered().entrySet()) {
+            try {
+                fill(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                log.error("填充序列段异常:{},{}", entry.getKey(), e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 补充单个序列的空闲段
+     *
+     * @param seqName
+     * @param step
+     * @return 本次写入的段数
+     */
+    public int fill(String seqName, long step) {
+        repository.purge(seqName);
+        int free = repository.countFree(seqName, step);
+        int missing = freeSegments - free;
+        if (missing <= 0) {
+            return 0;
+        }
+        log.info("补充序列段:{},空闲{},补充{}", seqName, free, missing);
+        return repository.fill(seqName, step, missing);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            repository.setFiller(null);
+            log.info("序列段填充器关闭");
+        }
+    }
+}
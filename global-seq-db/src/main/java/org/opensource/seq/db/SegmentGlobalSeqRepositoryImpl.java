@@ -0,0 +1,486 @@
+package org.opensource.seq.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.opensource.seq.core.GlobalSeqPo;
+import org.opensource.seq.core.GlobalSeqRepository;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 基于预分配序列段表的数据库仓库实现
+ *
+ * 序列表(global_seq)仍然保存每个序列的最高水位，但只由{@link SegmentFiller}批量推进；
+ * 填充器把推进得到的区间切分成step长度的序列段，写入序列段表等待领取。
+ * 刷新序列时从序列段表领取一个空闲段，并发的实例各自领取不同的行，不再争抢序列表的同一行。
+ *
+ * 领取方式：
+ * 1. skipLocked=true，使用select ... for update skip locked（mysql8、postgresql等）
+ * 2. skipLocked=false，先查询若干候选段，从中随机选择起点，再用带状态条件的update抢占（sqlite等不支持行锁的库）；
+ *    并发的实例查出的候选相同，随机起点使它们分散领取不同的段，候选都被抢先时重新查询
+ *
+ * 领取不要求空闲段的长度等于当前步长，调整步长(tune)后已写入的段仍然可用：
+ * 首尾相接的空闲段合并领取，凑够一个步长即可，最后一段只用到一半时把它的起始值后移，剩余部分继续空闲；
+ * 前后都不相接、又不够一个步长的空闲段无法再领取，标记为已领取，由填充器清理，其中的值跳过。
+ *
+ * 序列段表没有空闲段时，直接在序列表上推进一段返回，同时唤醒填充器补充。
+ *
+ * @author wutianbiao
+ * @date 2022-06-10
+ */
+@Slf4j
+public class SegmentGlobalSeqRepositoryImpl implements GlobalSeqRepository {
+    private static final String CLAIM_SKIP_LOCKED_SQL = "select id, start_value, end_value from %s"
+            + " where seq_name=? and state=0"
+            + " order by start_value limit ? for update skip locked";
+    private static final String CANDIDATE_SQL = "select id, start_value, end_value from %s"
+            + " where seq_name=? and state=0"
+            + " order by start_value limit ?";
+    private static final String CLAIM_SQL = "update %s set state=1 where id=? and state=0";
+    private static final String RELEASE_SQL = "update %s set state=0 where id=? and state=1";
+    private static final String SHRINK_SQL = "update %s set start_value=? where id=? and state=0 and start_value=?";
+    private static final String COUNT_FREE_SQL = "select coalesce(sum(end_value-start_value), 0) from %s"
+            + " where seq_name=? and state=0";
+    private static final String INSERT_SQL = "insert into %s(seq_name, start_value, end_value, state) values(?,?,?,0)";
+    private static final String PURGE_SQL = "delete from %s where seq_name=? and state=1";
+    /**
+     * 不使用skip locked时，候选都被抢先后最多查询的次数
+     */
+    private static final int CLAIM_ATTEMPTS = 3;
+
+    /**
+     * 是否使用for update skip locked领取序列段
+     */
+    @Getter
+    @Setter
+    private boolean skipLocked = false;
+    /**
+     * 每次查询的候选段个数
+     */
+    @Getter
+    @Setter
+    private int claimCandidates = 8;
+    /**
+     * sql执行入口，默认使用应用数据源
+     */
+    private final SqlExecutor executor;
+    /**
+     * 序列表仓库，保存每个序列的最高水位
+     */
+    private GlobalSeqRepositoryImpl watermark;
+    /**
+     * 序列段表名称，默认global_seq_segment
+     */
+    @Getter
+    private String segmentTable = "global_seq_segment";
+    /**
+     * 已经使用过的序列及其步长，填充器据此补充序列段
+     */
+    private final Map<String, Long> steps = new ConcurrentHashMap<>();
+    /**
+     * 序列段填充器，空闲段不足时唤醒
+     */
+    @Setter
+    private volatile SegmentFiller filler;
+
+    private final String claimSkipLockedSql;
+    private final String candidateSql;
+    private final String claimSql;
+    private final String releaseSql;
+    private final String shrinkSql;
+    private final String countFreeSql;
+    private final String insertSql;
+    private final String purgeSql;
+
+    /**
+     * 构造函数
+     *
+     * @param dataSource 数据源
+     * @param table 序列表名称
+     * @param segmentTable 序列段表名称
+     */
+    public SegmentGlobalSeqRepositoryImpl(DataSource dataSource, String table, String segmentTable) {
+        this.executor = new SqlExecutor(dataSource);
+        this.watermark = new GlobalSeqRepositoryImpl(dataSource, table);
+        if (segmentTable != null) {
+            this.segmentTable = segmentTable;
+        }
+        this.claimSkipLockedSql = String.format(CLAIM_SKIP_LOCKED_SQL, this.segmentTable);
+        this.candidateSql = String.format(CANDIDATE_SQL, this.segmentTable);
+        this.claimSql = String.format(CLAIM_SQL, this.segmentTable);
+        this.releaseSql = String.format(RELEASE_SQL, this.segmentTable);
+        this.shrinkSql = String.format(SHRINK_SQL, this.segmentTable);
+        this.countFreeSql = String.format(COUNT_FREE_SQL, this.segmentTable);
+        this.insertSql = String.format(INSERT_SQL, this.segmentTable);
+        this.purgeSql = String.format(PURGE_SQL, this.segmentTable);
+        log.info("序列段表:{}", this.segmentTable);
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        return watermark.createSeq(po);
+    }
+
+    /**
+     * 序列表中的最高水位，已写入序列段表的值都不超过它
+     */
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        return watermark.loadSeq(seqName);
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        register(seqName, step);
+
+        Optional<Long> end = claim(seqName, step);
+        if (end.isPresent()) {
+            log.info("领取序列段成功:{},{}", seqName, end.get());
+            return Optional.of(new GlobalSeqPo(seqName, end.get()));
+        }
+
+        // 没有空闲段，直接推进序列表，并唤醒填充器
+        log.info("没有空闲序列段，直接锁定序列表:{}", seqName);
+        SegmentFiller current = this.filler;
+        if (current != null) {
+            current.wakeUp();
+        }
+        Optional<GlobalSeqPo> optSeqPo = watermark.loadSeq(seqName);
+        if (!optSeqPo.isPresent()) {
+            return Optional.empty();
+        }
+        return watermark.lockSeq(seqName, step, optSeqPo.get().getCurrentValue());
+    }
+
+    /**
+     * 序列表和序列段表都使用刷新专用连接执行，不再占用应用连接池
+     *
+     * @param holder 为null时恢复使用应用数据源
+     */
+    public void setRefillConnection(RefillConnectionHolder holder) {
+        this.executor.setHolder(holder);
+        this.watermark.setRefillConnection(holder);
+    }
+
+    /**
+     * 登记序列的步长，填充器只为登记过的序列补充序列段
+     *
+     * @param seqName
+     * @param step
+     */
+    public void register(String seqName, long step) {
+        Long prev = steps.put(seqName, step);
+        if (prev == null || prev.longValue() != step) {
+            log.info("登记序列段步长:{},{}", seqName, step);
+        }
+    }
+
+    /**
+     * 已登记的序列及步长
+     *
+     * @return
+     */
+    Map<String, Long> registered() {
+        return Collections.unmodifiableMap(steps);
+    }
+
+    /**
+     * 领取一个步长的空闲序列段
+     *
+     * @param seqName
+     * @param step
+     * @return 序列段的结束值
+     */
+    private Optional<Long> claim(String seqName, long step) {
+        try {
+            return executor.execute("claim", seqName, statements -> claim(statements, seqName, step));
+        } catch (SQLException e) {
+            log.error("领取序列段sql异常:{}", e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Optional<Long> claim(SqlExecutor.Statements statements, String seqName, long step) throws SQLException {
+        if (!skipLocked) {
+            // 逐行带状态条件抢占，不需要事务
+            return claimFree(statements, seqName, step);
+        }
+        // 行锁在事务提交前有效
+        Connection connection = statements.connection();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            Optional<Long> end = claimFree(statements, seqName, step);
+            connection.commit();
+            return end;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private Optional<Long> claimFree(SqlExecutor.Statements statements, String seqName, long step)
+            throws SQLException {
+        // 候选都被其他实例抢先时重新查询，查不到空闲段才退回序列表
+        for (int attempt = 0; attempt < CLAIM_ATTEMPTS; attempt++) {
+            List<Segment> free = new ArrayList<>();
+            PreparedStatement pst = statements.prepare(skipLocked ? claimSkipLockedSql : candidateSql);
+            pst.setString(1, seqName);
+            pst.setInt(2, claimCandidates);
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    free.add(new Segment(rs.getLong(1), rs.getLong(2), rs.getLong(3)));
+                }
+            }
+            if (free.isEmpty()) {
+                return Optional.empty();
+            }
+
+            List<List<Segment>> runs = runs(free);
+            retire(statements, seqName, runs, step);
+            for (List<Segment> from : starts(runs, step)) {
+                Optional<Long> end = claimRun(statements, from, step);
+                if (end.isPresent()) {
+                    return end;
+                }
+            }
+            if (skipLocked) {
+                // 查出的行已加锁，不会被抢先
+                return Optional.empty();
+            }
+            log.info("候选序列段都被其他实例领取，重新查询:{},{}", seqName, attempt);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 领取的起点，每个起点是从某一段开始到所在组末尾的空闲段
+     *
+     * skip locked查出的行已被本事务锁定，从第一组开头领取；
+     * 否则各实例查出的是同一批候选，从候选中随机选择起点，避免都去抢最前面的一段。
+     * 起点之前剩下的部分不能短于一个步长，否则会成为无法领取的碎片。
+     */
+    private List<List<Segment>> starts(List<List<Segment>> runs, long step) {
+        List<List<Segment>> starts = new ArrayList<>();
+        for (List<Segment> run : runs) {
+            long runStart = run.get(0).start;
+            for (int i = 0; i < run.size(); i++) {
+                long prefix = run.get(i).start - runStart;
+                List<Segment> from = run.subList(i, run.size());
+                if ((prefix == 0 || prefix >= step) && length(from) >= step) {
+                    starts.add(from);
+                }
+                if (skipLocked) {
+                    break;
+                }
+            }
+        }
+        if (!skipLocked) {
+            Collections.shuffle(starts);
+        }
+        return starts;
+    }
+
+    /**
+     * 按起始值排好序的空闲段拆分为首尾相接的若干组
+     */
+    private static List<List<Segment>> runs(List<Segment> free) {
+        List<List<Segment>> runs = new ArrayList<>();
+        List<Segment> run = null;
+        for (Segment segment : free) {
+            if (run == null || run.get(run.size() - 1).end != segment.start) {
+                run = new ArrayList<>();
+                runs.add(run);
+            }
+            run.add(segment);
+        }
+        return runs;
+    }
+
+    /**
+     * 标记不够一个步长、后面也不再相接的空闲段；最后一组可能与没查出来的段相接，保留
+     */
+    private void retire(SqlExecutor.Statements statements, String seqName, List<List<Segment>> runs, long step)
+            throws SQLException {
+        for (Iterator<List<Segment>> it = runs.iterator(); it.hasNext(); ) {
+            List<Segment> run = it.next();
+            if (!it.hasNext() || length(run) >= step) {
+                continue;
+            }
+            it.remove();
+            PreparedStatement update = statements.prepare(claimSql);
+            for (Segment segment : run) {
+                update.setLong(1, segment.id);
+                update.executeUpdate();
+            }
+            log.warn("空闲序列段不够一个步长，跳过:{},{}-{},{}", seqName, run.get(0).start,
+                    run.get(run.size() - 1).end, step);
+        }
+    }
+
+    /**
+     * 从首尾相接的空闲段开头领取一个步长，被其他实例抢先时归还已领取的段
+     *
+     * @return 领取到的结束值
+     */
+    private Optional<Long> claimRun(SqlExecutor.Statements statements, List<Segment> run, long step)
+            throws SQLException {
+        if (length(run) < step) {
+            return Optional.empty();
+        }
+        long end = run.get(0).start + step;
+        PreparedStatement claim = statements.prepare(claimSql);
+        List<Segment> claimed = new ArrayList<>();
+        boolean success = true;
+        for (Segment segment : run) {
+            if (segment.start >= end) {
+                break;
+            }
+            int updated;
+            if (segment.end <= end) {
+                claim.setLong(1, segment.id);
+                updated = claim.executeUpdate();
+            } else {
+                // 只用到一半，剩余部分继续空闲
+                PreparedStatement shrink = statements.prepare(shrinkSql);
+                shrink.setLong(1, end);
+                shrink.setLong(2, segment.id);
+                shrink.setLong(3, segment.start);
+                updated = shrink.executeUpdate();
+            }
+            if (updated != 1) {
+                success = false;
+                break;
+            }
+            if (segment.end <= end) {
+                claimed.add(segment);
+            }
+        }
+        if (success) {
+            return Optional.of(end);
+        }
+
+        PreparedStatement release = statements.prepare(releaseSql);
+        for (Segment segment : claimed) {
+            release.setLong(1, segment.id);
+            release.executeUpdate();
+        }
+        return Optional.empty();
+    }
+
+    private static long length(List<Segment> run) {
+        return run.get(run.size() - 1).end - run.get(0).start;
+    }
+
+    /**
+     * 空闲的值能凑出的序列段个数，不同步长写入的段都计入
+     *
+     * @param seqName
+     * @param step
+     * @return
+     */
+    int countFree(String seqName, long step) {
+        try {
+            return executor.execute("countFree", seqName, statements -> {
+                PreparedStatement pst = statements.prepare(countFreeSql);
+                pst.setString(1, seqName);
+                try (ResultSet rs = pst.executeQuery()) {
+                    return rs.next() ? (int) Math.min(Integer.MAX_VALUE, rs.getLong(1) / step) : 0;
+                }
+            });
+        } catch (SQLException e) {
+            log.error("查询空闲序列段sql异常:{}", e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 在序列表上一次推进count段，并切分写入序列段表
+     *
+     * @param seqName
+     * @param step
+     * @param count
+     * @return 写入的序列段个数，序列未创建或推进冲突时返回0
+     */
+    int fill(String seqName, long step, int count) {
+        Optional<GlobalSeqPo> optSeqPo = watermark.loadSeq(seqName);
+        if (!optSeqPo.isPresent() || count <= 0) {
+            return 0;
+        }
+        long old = optSeqPo.get().getCurrentValue();
+        Optional<GlobalSeqPo> locked = watermark.lockSeq(seqName, step * count, old);
+        if (!locked.isPresent()) {
+            log.info("推进序列表冲突，等待下次填充:{}", seqName);
+            return 0;
+        }
+
+        try {
+            executor.execute("fill", seqName, statements -> {
+                PreparedStatement pst = statements.prepare(insertSql);
+                for (int i = 0; i < count; i++) {
+                    pst.setString(1, seqName);
+                    pst.setLong(2, old + i * step);
+                    pst.setLong(3, old + (i + 1) * step);
+                    pst.addBatch();
+                }
+                return pst.executeBatch();
+            });
+            log.info("写入序列段:{},{},{}", seqName, old, count);
+            return count;
+        } catch (SQLException e) {
+            // 已推进的区间不会再被分配，只是浪费，不会重复
+            log.error("写入序列段sql异常:{}", e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 清理已领取的序列段
+     *
+     * @param seqName
+     * @return
+     */
+    int purge(String seqName) {
+        try {
+            return executor.execute("purge", seqName, statements -> {
+                PreparedStatement pst = statements.prepare(purgeSql);
+                pst.setString(1, seqName);
+                return pst.executeUpdate();
+            });
+        } catch (SQLException e) {
+            log.error("清理序列段sql异常:{}", e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 查询出的空闲序列段，(start, end]
+     */
+    private static final class Segment {
+        final long id;
+        final long start;
+        final long end;
+
+        Segment(long id, long start, long end) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.opensource.seq.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.opensource.seq.core.SeqFlightRecorder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 序列仓库执行sql的入口
+ *
+ * 配置了{@link RefillConnectionHolder}时在专用连接上执行，
+ * 否则每次从应用数据源借一个连接，执行完关闭语句并归还连接。
+ * 带操作名称执行时记录org.opensource.seq.Backend事件。
+ *
+ * @author wutianbiao
+ * @date 2022-06-12
+ */
+@Slf4j
+class SqlExecutor {
+    /**
+     * 应用数据源
+     */
+    private final DataSource dataSource;
+    /**
+     * 刷新专用连接，可选
+     */
+    private volatile RefillConnectionHolder holder;
+
+    SqlExecutor(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    void setHolder(RefillConnectionHolder holder) {
+        this.holder = holder;
+    }
+
+    /**
+     * 执行并记录JFR后端事件
+     *
+     * @param operation 操作名称
+     * @param seqName
+     * @param work
+     * @return
+     * @throws SQLException
+     */
+    <T> T execute(String operation, String seqName, Work<T> work) throws SQLException {
+        Object event = SeqFlightRecorder.beginBackend();
+        boolean success = false;
+        try {
+            T result = execute(work);
+            success = true;
+            return result;
+        } finally {
+            SeqFlightRecorder.commitBackend(event, "db", operation, seqName, success);
+        }
+    }
+
+    <T> T execute(Work<T> work) throws SQLException {
+        RefillConnectionHolder current = this.holder;
+        if (current != null) {
+            return current.execute(work);
+        }
+
+        List<PreparedStatement> opened = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            return work.apply(new Statements() {
+                @Override
+                public PreparedStatement prepare(String sql) throws SQLException {
+                    PreparedStatement pst = connection.prepareStatement(sql);
+                    opened.add(pst);
+                    return pst;
+                }
+
+                @Override
+                public Connection connection() {
+                    return connection;
+                }
+            });
+        } finally {
+            for (PreparedStatement pst : opened) {
+                try {
+                    pst.close();
+                } catch (SQLException e) {
+                    log.error("关闭sql资源异常:{}", e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在一个连接上执行的sql操作
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T apply(Statements statements) throws SQLException;
+    }
+
+    /**
+     * 获取预编译语句，语句由执行方负责关闭或缓存
+     */
+    public interface Statements {
+        PreparedStatement prepare(String sql) throws SQLException;
+
+        Connection connection();
+    }
+}
@@ -0,0 +1,99 @@
+package org.opensource.seq.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+/**
+ * 刷新专用连接的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-06-12
+ */
+public class RefillConnectionHolderTest {
+    private static RefillConnectionHolder holder;
+    private static GlobalSequence globalSequence;
+
+    @BeforeAll
+    public static void setUp() {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultTable("hishop_global_seq");
+        config.setDefaultStep(10L);
+
+        String dbPath = RefillConnectionHolderTest.class.getResource("/testdb.sqlite").getPath();
+        SQLiteConfig sqlConfig = new SQLiteConfig();
+        sqlConfig.setBusyTimeout(10_000);
+        SQLiteDataSource datasource = new SQLiteDataSource(sqlConfig);
+        datasource.setUrl("jdbc:sqlite:" + dbPath);
+
+        holder = new RefillConnectionHolder(datasource);
+        holder.setAcquireTimeout(200L);
+
+        GlobalSeqRepositoryImpl repository = new GlobalSeqRepositoryImpl(datasource, config.getDefaultTable());
+        repository.setRefillConnection(holder);
+        globalSequence = new GlobalSequenceImpl(config, repository);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        holder.close();
+    }
+
+    /**
+     * 多次刷新复用同一个连接，序列值不重复
+     */
+    @Test
+    public void testRefillOnPinnedConnection() {
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 200; i++) {
+            values.add(globalSequence.next("test_refill_holder_seq"));
+        }
+        assertEquals(200, values.size());
+    }
+
+    /**
+     * 连接被占用超过acquireTimeout时直接失败
+     */
+    @Test
+    public void testAcquireTimeout() throws InterruptedException {
+        CountDownLatch acquired = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread owner = new Thread(() -> {
+            try {
+                holder.execute(statements -> {
+                    acquired.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        owner.start();
+        acquired.await();
+        try {
+            assertThrows(SQLException.class, () -> holder.execute(statements -> 1));
+        } finally {
+            release.countDown();
+            owner.join();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package org.opensource.seq.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.opensource.seq.core.GlobalSeqPo;
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+import org.opensource.seq.core.SeqConfig;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 预分配序列段表的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-06-10
+ */
+@Slf4j
+public class SegmentGlobalSeqTest {
+    private static final String SEQ_NAME = "test_segment_seq";
+
+    private static SQLiteDataSource datasource;
+    private static GlobalSequence globalSequence;
+    private static SegmentGlobalSeqRepositoryImpl repository;
+    private static SegmentFiller filler;
+
+    @BeforeAll
+    public static void setUp() throws SQLException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultTable("hishop_global_seq");
+        SeqConfig seqConfig = new SeqConfig();
+        seqConfig.setStart(10L);
+        seqConfig.setStep(20L);
+        Map<String, SeqConfig> seqs = new HashMap<>();
+        seqs.put(SEQ_NAME, seqConfig);
+        config.setSeq(seqs);
+
+        String dbPath = SegmentGlobalSeqTest.class.getResource("/testdb.sqlite").getPath();
+        SQLiteConfig sqlConfig = new SQLiteConfig();
+        sqlConfig.setBusyTimeout(10_000);
+        datasource = new SQLiteDataSource(sqlConfig);
+        datasource.setUrl("jdbc:sqlite:" + dbPath);
+
+        try (Connection connection = datasource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table if not exists hishop_global_seq_segment ("
+                    + " id integer NOT NULL primary key AUTOINCREMENT,"
+                    + " seq_name varchar(50) NOT NULL,"
+                    + " start_value bigint NOT NULL,"
+                    + " end_value bigint NOT NULL,"
+                    + " state tinyint NOT NULL DEFAULT 0)");
+            statement.executeUpdate("create unique index if not exists uniq_seq_start"
+                    + " on hishop_global_seq_segment(seq_name, start_value)");
+        }
+
+        repository = new SegmentGlobalSeqRepositoryImpl(datasource, config.getDefaultTable(),
+                "hishop_global_seq_segment");
+        filler = new SegmentFiller(repository);
+        filler.setFreeSegments(3);
+        filler.setInterval(50L);
+        filler.start();
+
+        globalSequence = new GlobalSequenceImpl(config, repository);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        filler.close();
+    }
+
+    /**
+     * 十个线程并发获取，序列值不重复
+     */
+    @Test
+    public void testGetSeqNext() throws InterruptedException {
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+        AtomicInteger count = new AtomicInteger();
+
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    values.add(globalSequence.next(SEQ_NAME));
+                    count.incrementAndGet();
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+
+        assertEquals(count.get(), values.size());
+    }
+
+    /**
+     * 填充器补足空闲段
+     */
+    @Test
+    public void testFill() {
+        globalSequence.next(SEQ_NAME);
+        filler.fill(SEQ_NAME, 20L);
+        assertTrue(repository.countFree(SEQ_NAME, 20L) >= 3);
+    }
+
+    /**
+     * loadSeq返回序列表中的最高水位，不低于已分配的值
+     */
+    @Test
+    public void testLoadSeq() {
+        long value = globalSequence.next(SEQ_NAME);
+        assertTrue(repository.loadSeq(SEQ_NAME).get().getCurrentValue() >= value);
+    }
+
+    /**
+     * skip locked方式领取；调整步长后，按旧步长写入的空闲段仍然能领取
+     */
+    @Test
+    public void testSkipLockedAfterTune() {
+        List<String> sqls = new CopyOnWriteArrayList<>();
+        SegmentGlobalSeqRepositoryImpl skipLocked = new SegmentGlobalSeqRepositoryImpl(skipLockedSource(sqls),
+                "hishop_global_seq", "hishop_global_seq_segment");
+        skipLocked.setSkipLocked(true);
+        String seqName = "test_skip_locked_" + System.nanoTime();
+        skipLocked.createSeq(new GlobalSeqPo(seqName, 0L));
+
+        assertEquals(3, skipLocked.fill(seqName, 20L, 3));
+        assertEquals(20L, lock(skipLocked, seqName, 20L));
+        assertTrue(sqls.stream().anyMatch(sql -> sql.endsWith("for update skip locked")));
+
+        // 步长调整为30，剩余的两个20长度的段合并领取，第二段只用掉一半
+        assertEquals(1, skipLocked.countFree(seqName, 30L));
+        assertEquals(50L, lock(skipLocked, seqName, 30L));
+        assertEquals(2, skipLocked.fill(seqName, 30L, 2));
+        assertEquals(80L, lock(skipLocked, seqName, 30L));
+        assertEquals(110L, lock(skipLocked, seqName, 30L));
+        assertEquals(0, skipLocked.countFree(seqName, 30L));
+        // 剩下的10不够一个步长，直接推进序列表
+        assertEquals(150L, lock(skipLocked, seqName, 30L));
+        assertEquals(150L, skipLocked.loadSeq(seqName).get().getCurrentValue());
+    }
+
+    /**
+     * 前后不相接又不够一个步长的空闲段被跳过，不再计入空闲
+     */
+    @Test
+    public void testRetireShortSegment() {
+        SegmentGlobalSeqRepositoryImpl update = new SegmentGlobalSeqRepositoryImpl(datasource,
+                "hishop_global_seq", "hishop_global_seq_segment");
+        String seqName = "test_retire_" + System.nanoTime();
+        update.createSeq(new GlobalSeqPo(seqName, 0L));
+
+        assertEquals(1, update.fill(seqName, 20L, 1));
+        // 没有够30的空闲段，直接推进序列表，[0,20]与之后写入的段不再相接
+        assertEquals(50L, lock(update, seqName, 30L));
+        assertEquals(1, update.fill(seqName, 30L, 1));
+        assertEquals(80L, lock(update, seqName, 30L));
+        assertEquals(0, update.countFree(seqName, 1L));
+        assertEquals(110L, lock(update, seqName, 30L));
+    }
+
+    /**
+     * 不使用skip locked时，多个实例并发领取分散到不同的候选段，不退回序列表
+     */
+    @Test
+    public void testConcurrentClaim() throws InterruptedException {
+        String seqName = "test_contention_" + System.nanoTime();
+        List<SegmentGlobalSeqRepositoryImpl> pods = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            pods.add(new SegmentGlobalSeqRepositoryImpl(datasource, "hishop_global_seq", "hishop_global_seq_segment"));
+        }
+        pods.get(0).createSeq(new GlobalSeqPo(seqName, 0L));
+        assertEquals(40, pods.get(0).fill(seqName, 10L, 40));
+
+        Set<Long> ends = ConcurrentHashMap.newKeySet();
+        AtomicInteger claims = new AtomicInteger();
+        List<Thread> pool = new ArrayList<>();
+        for (SegmentGlobalSeqRepositoryImpl pod : pods) {
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 8; j++) {
+                    ends.add(lock(pod, seqName, 10L));
+                    claims.incrementAndGet();
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+
+        assertEquals(32, claims.get());
+        assertEquals(32, ends.size());
+        // 全部从序列段表领取，序列表没有被推进
+        assertEquals(400L, pods.get(0).loadSeq(seqName).get().getCurrentValue());
+        assertEquals(8, pods.get(0).countFree(seqName, 10L));
+    }
+
+    private static long lock(SegmentGlobalSeqRepositoryImpl repository, String seqName, long step) {
+        long old = repository.loadSeq(seqName).get().getCurrentValue();
+        return repository.lockSeq(seqName, step, old).get().getCurrentValue();
+    }
+
+    /**
+     * sqlite不支持for update skip locked，去掉后执行，并记录收到的sql；
+     * 事务使用immediate模式，开始时即取得写锁，代替行锁
+     */
+    private static DataSource skipLockedSource(List<String> sqls) {
+        SQLiteConfig sqlConfig = new SQLiteConfig();
+        sqlConfig.setBusyTimeout(10_000);
+        sqlConfig.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE);
+        SQLiteDataSource immediate = new SQLiteDataSource(sqlConfig);
+        immediate.setUrl(datasource.getUrl());
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                new Class<?>[] {DataSource.class}, (proxy, method, args) -> {
+                    Object result = invoke(immediate, method, args);
+                    if (!"getConnection".equals(method.getName())) {
+                        return result;
+                    }
+                    Connection connection = (Connection) result;
+                    return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                            new Class<?>[] {Connection.class}, (p, m, a) -> {
+                                if ("prepareStatement".equals(m.getName()) && a.length == 1) {
+                                    String sql = (String) a[0];
+                                    sqls.add(sql);
+                                    a = new Object[] {sql.replace(" for update skip locked", "")};
+                                }
+                                return invoke(connection, m, a);
+                            });
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.opensource.seq.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSequenceImpl;
+import org.opensource.seq.core.SeqConfig;
+import org.opensource.seq.core.SeqStats;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+/**
+ * 严格有序序列合并提交的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-03
+ */
+public class StrictOrderGlobalSeqTest {
+    private static GlobalSeqRepositoryImpl repository;
+
+    @BeforeAll
+    public static void setUp() {
+        String dbPath = StrictOrderGlobalSeqTest.class.getResource("/testdb.sqlite").getPath();
+        SQLiteConfig sqlConfig = new SQLiteConfig();
+        sqlConfig.setBusyTimeout(10000);
+        SQLiteDataSource datasource = new SQLiteDataSource(sqlConfig);
+        datasource.setUrl("jdbc:sqlite:" + dbPath);
+        repository = new GlobalSeqRepositoryImpl(datasource, "hishop_global_seq");
+    }
+
+    /**
+     * 八个线程并发获取，序列连续不重复，每个线程拿到的值递增，提交次数少于获取次数
+     */
+    @Test
+    public void testGroupCommit() throws InterruptedException {
+        String seqName = "strict_seq_" + System.currentTimeMillis();
+        SeqConfig seqConfig = new SeqConfig();
+        seqConfig.setStrictOrder(true);
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.getSeq().put(seqName, seqConfig);
+        GlobalSequenceImpl globalSequence = new GlobalSequenceImpl(config, repository);
+
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> pool = new ArrayList<>();
+        List<Boolean> ordered = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                long last = 0;
+                boolean increasing = true;
+                for (int j = 0; j < 100; j++) {
+                    long next = globalSequence.next(seqName);
+                    increasing &= next > last;
+                    last = next;
+                    seqs.add(next);
+                }
+                synchronized (ordered) {
+                    ordered.add(increasing);
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+
+        assertEquals(800, seqs.size());
+        // 序列从start + 1开始，没有空洞
+        assertEquals(2L, seqs.stream().mapToLong(Long::longValue).min().getAsLong());
+        assertEquals(801L, seqs.stream().mapToLong(Long::longValue).max().getAsLong());
+        assertTrue(ordered.stream().allMatch(Boolean::booleanValue));
+        assertEquals(801L, repository.loadSeq(seqName).get().getCurrentValue());
+
+        SeqStats stats = globalSequence.stats().get(0);
+        assertTrue(stats.getRefillCount() < 800, "提交次数:" + stats.getRefillCount());
+    }
+}
@@ -106,6 +106,8 @@ public class GlobalSeqRepositoryImpl implements GlobalSeqRepository {
                 return 1;
             } finally {
                 lockClient.unlock(lock);
+                // 释放租约，避免每次刷新遗留一个租约直到ttl过期
+                leaseClient.revoke(lease.getID());
             }
         } catch (InterruptedException e) {
             log.error("创建序列异常:{}", e.getMessage(), e);
@@ -195,6 +197,8 @@ public class GlobalSeqRepositoryImpl implements GlobalSeqRepository {
                 return Optional.of(po);
             } finally {
                 lockClient.unlock(lock);
+                // 释放租约，避免每次刷新遗留一个租约直到ttl过期
+                leaseClient.revoke(lease.getID());
             }
         } catch (InterruptedException e) {
             log.error("锁定序列段异常:{}", e.getMessage(), e);
@@ -0,0 +1,261 @@
+package org.opensource.seq.etcd;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.opensource.seq.core.AsyncGlobalSeqRepository;
+import org.opensource.seq.core.AtomicIncrementRepository;
+import org.opensource.seq.core.GlobalSeqPo;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Client;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.op.Cmp;
+import io.etcd.jetcd.op.CmpTarget;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.PutOption;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 全局序列存储，etcd事务(Txn)实现
+ *
+ * 不使用租约和分布式锁，每次刷新是一个Txn：
+ * 1. 序列不存在(createRevision == 0)时put(start + step)，否则在Else中get出当前值
+ * 2. 序列存在时比较modRevision，一致则put(value + step)，否则在Else中get出最新值再重试
+ * 本地记住每个序列最后一次写入的值和modRevision，单实例刷新通常一次往返完成；
+ * 冲突时Else分支已带回最新值，重试不需要额外读取，最多重试maxRetry次。
+ * 全部基于jetcd的异步api，同时实现{@link AsyncGlobalSeqRepository}，异步方法不阻塞调用线程。
+ *
+ * @author wutianbiao
+ * @date 2022-06-26
+ */
+@Slf4j
+public class TxnGlobalSeqRepositoryImpl implements AtomicIncrementRepository, AsyncGlobalSeqRepository {
+    /**
+     * 序列key的前缀
+     */
+    @Getter
+    @Setter
+    private String prefix = "seq_";
+    /**
+     * 冲突时的最大重试次数
+     */
+    @Getter
+    @Setter
+    private int maxRetry = 10;
+    /**
+     * 同步调用等待异步结果的最长时间(毫秒)
+     */
+    @Getter
+    @Setter
+    private long timeout = 30_000;
+    /**
+     * etcd client
+     */
+    private Client client;
+    /**
+     * 每个序列最后一次读到或写入的值和modRevision
+     */
+    private final Map<String, Revision> revisions = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数，etcd client必须
+     *
+     * @param client
+     */
+    public TxnGlobalSeqRepositoryImpl(Client client) {
+        this.client = client;
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        try {
+            return await(createSeqAsync(po));
+        } catch (Exception e) {
+            log.error("创建序列异常:{}", e.getMessage(), e);
+        }
+        return 0;
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        try {
+            return await(loadSeqAsync(seqName));
+        } catch (Exception e) {
+            log.error("加载序列异常:{}", e.getMessage(), e);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        try {
+            return await(lockSeqAsync(seqName, step, old));
+        } catch (Exception e) {
+            log.error("锁定序列段异常:{}", e.getMessage(), e);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Integer> createSeqAsync(GlobalSeqPo po) {
+        ByteSequence seqKey = key(po.getSeqName());
+        return kv().txn()
+                .If(new Cmp(seqKey, Cmp.Op.EQUAL, CmpTarget.createRevision(0)))
+                .Then(Op.put(seqKey, value(po.getCurrentValue()), PutOption.DEFAULT))
+                .commit()
+                .thenApply(response -> {
+                    if (response.isSucceeded()) {
+                        revisions.put(po.getSeqName(),
+                                new Revision(po.getCurrentValue(), response.getHeader().getRevision()));
+                        log.info("创建序列成功! {}", po.getSeqName());
+                        return 1;
+                    }
+                    log.info("序列已存在:{}", po.getSeqName());
+                    return 0;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> loadSeqAsync(String seqName) {
+        return kv().get(key(seqName)).thenApply(response -> {
+            if (response.getKvs().isEmpty()) {
+                log.info("未查询到序列:{}", seqName);
+                return Optional.empty();
+            }
+            Revision revision = remember(seqName, response.getKvs().get(0));
+            return Optional.of(new GlobalSeqPo(seqName, revision.value));
+        });
+    }
+
+    /**
+     * 当前值等于old时写入old + step，一个Txn完成；值已变化返回空，由调用方重新加载
+     */
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> lockSeqAsync(String seqName, long step, long old) {
+        ByteSequence seqKey = key(seqName);
+        long next = old + step;
+        return kv().txn()
+                .If(new Cmp(seqKey, Cmp.Op.EQUAL, CmpTarget.value(value(old))))
+                .Then(Op.put(seqKey, value(next), PutOption.DEFAULT))
+                .commit()
+                .thenApply(response -> {
+                    if (response.isSucceeded()) {
+                        revisions.put(seqName, new Revision(next, response.getHeader().getRevision()));
+                        log.info("锁定序列段成功! {}, {}", seqName, next);
+                        return Optional.of(new GlobalSeqPo(seqName, next));
+                    }
+                    log.info("序列值已变化:{}", seqName);
+                    return Optional.empty();
+                });
+    }
+
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        try {
+            return await(incrementAndGetAsync(seqName, step, start));
+        } catch (ExecutionException e) {
+            throw new RuntimeException("锁定序列段失败:" + seqName, e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException("锁定序列段失败:" + seqName, e);
+        }
+    }
+
+    /**
+     * 异步锁定一段(step)序列，序列不存在时以start为当前值创建
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 锁定后的序列值
+     */
+    @Override
+    public CompletableFuture<GlobalSeqPo> incrementAndGetAsync(String seqName, long step, long start) {
+        return attempt(seqName, step, start, revisions.get(seqName), 0);
+    }
+
+    /**
+     * 一次Txn：已知版本时比较modRevision后写入，未知时不存在则创建；失败时Else带回最新值
+     */
+    private CompletableFuture<GlobalSeqPo> attempt(String seqName, long step, long start, Revision known, int retry) {
+        ByteSequence seqKey = key(seqName);
+        long next = known == null ? start + step : known.value + step;
+        Cmp cmp = known == null
+                ? new Cmp(seqKey, Cmp.Op.EQUAL, CmpTarget.createRevision(0))
+                : new Cmp(seqKey, Cmp.Op.EQUAL, CmpTarget.modRevision(known.modRevision));
+
+        return kv().txn()
+                .If(cmp)
+                .Then(Op.put(seqKey, value(next), PutOption.DEFAULT))
+                .Else(Op.get(seqKey, GetOption.DEFAULT))
+                .commit()
+                .thenCompose(response -> {
+                    if (response.isSucceeded()) {
+                        revisions.put(seqName, new Revision(next, response.getHeader().getRevision()));
+                        log.info("锁定序列段成功! {}, {}", seqName, next);
+                        return CompletableFuture.completedFuture(new GlobalSeqPo(seqName, next));
+                    }
+                    if (retry + 1 >= maxRetry) {
+                        revisions.remove(seqName);
+                        CompletableFuture<GlobalSeqPo> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(new IllegalStateException("超过最大重试次数未能锁定序列:" + seqName));
+                        return failed;
+                    }
+                    // Else分支带回了最新值，序列被删除时退回创建
+                    List<KeyValue> kvs = response.getGetResponses().get(0).getKvs();
+                    Revision latest = kvs.isEmpty() ? null : remember(seqName, kvs.get(0));
+                    if (latest == null) {
+                        revisions.remove(seqName);
+                    }
+                    log.info("序列版本冲突，重试:{},{}", seqName, retry + 1);
+                    return attempt(seqName, step, start, latest, retry + 1);
+                });
+    }
+
+    private <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private Revision remember(String seqName, KeyValue keyValue) {
+        long value = Long.parseLong(keyValue.getValue().toString(StandardCharsets.UTF_8));
+        Revision revision = new Revision(value, keyValue.getModRevision());
+        revisions.put(seqName, revision);
+        return revision;
+    }
+
+    private KV kv() {
+        return client.getKVClient();
+    }
+
+    private ByteSequence key(String seqName) {
+        return ByteSequence.from(this.prefix + seqName, StandardCharsets.UTF_8);
+    }
+
+    private static ByteSequence value(long value) {
+        return ByteSequence.from(Long.toString(value), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 序列值和对应的modRevision
+     */
+    private static final class Revision {
+        final long value;
+        final long modRevision;
+
+        Revision(long value, long modRevision) {
+            this.value = value;
+            this.modRevision = modRevision;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.opensource.seq.etcd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSeqPo;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.etcd.jetcd.Client;
+
+/**
+ * etcd事务实现的单元测试，需要本地etcd
+ *
+ * @author wutianbiao
+ * @date 2022-06-26
+ */
+public class TxnEtcdGlobalSeqTest {
+    private static TxnGlobalSeqRepositoryImpl repository;
+    private static TxnGlobalSeqRepositoryImpl another;
+
+    @BeforeAll
+    public static void setUp() {
+        Client client = Client.builder()
+                .endpoints("http://localhost:2379")
+                .build();
+        repository = new TxnGlobalSeqRepositoryImpl(client);
+        repository.setMaxRetry(100);
+        // 另一个实例，模拟多个进程之间的版本冲突
+        another = new TxnGlobalSeqRepositoryImpl(client);
+        another.setMaxRetry(100);
+    }
+
+    /**
+     * 两个实例并发异步刷新，锁定的序列段不重复
+     */
+    @Test
+    public void testIncrementAndGetAsync() {
+        String seqName = "txn_seq_" + System.currentTimeMillis();
+        List<CompletableFuture<GlobalSeqPo>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(repository.incrementAndGetAsync(seqName, 10, 0));
+            futures.add(another.incrementAndGetAsync(seqName, 10, 0));
+        }
+        Set<Long> limits = ConcurrentHashMap.newKeySet();
+        for (CompletableFuture<GlobalSeqPo> future : futures) {
+            limits.add(future.join().getCurrentValue());
+        }
+        assertEquals(100, limits.size());
+        assertEquals(1000L, repository.loadSeq(seqName).get().getCurrentValue());
+    }
+
+    /**
+     * 十个线程，并发获取不超过1000的序列
+     */
+    @Test
+    public void testGetSeqNext() throws InterruptedException {
+        GlobalSequence globalSequence = new GlobalSequenceImpl(new GlobalSeqConfig(), repository);
+        String seqName = "txn_seq_name";
+        long threshold = 1_000;
+
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Thread t = new EtcdGlobalSeqTest.GetSeqThread(i, seqName, threshold, globalSequence);
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+
+        System.out.println("测试结束");
+    }
+}
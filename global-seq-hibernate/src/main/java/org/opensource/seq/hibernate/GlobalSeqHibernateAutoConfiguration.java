@@ -0,0 +1,41 @@
+package org.opensource.seq.hibernate;
+
+import org.opensource.seq.core.GlobalSequence;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 把容器中的GlobalSequence注册给hibernate主键生成器，主键生成器由hibernate创建，不是spring bean
+ *
+ * hibernate-core是provided依赖，应用没有引入hibernate时不生效
+ *
+ * @author wutianbiao
+ * @date 2022-07-11
+ */
+@Slf4j
+@Configuration
+@ConditionalOnClass(name = "org.hibernate.id.IdentifierGenerator")
+@AutoConfigureAfter(name = "org.opensource.seq.GlobalSequenceAutoConfiguration")
+public class GlobalSeqHibernateAutoConfiguration {
+
+    /**
+     * 注册全局序列，容器关闭时取消注册
+     *
+     * @param globalSequence
+     * @return
+     */
+    @Bean
+    @ConditionalOnBean(GlobalSequence.class)
+    public DisposableBean globalSeqIdentifierGeneratorBinding(GlobalSequence globalSequence) {
+        log.info("注册hibernate主键生成器使用的全局序列");
+        GlobalSeqIdentifierGenerator.setGlobalSequence(globalSequence);
+        return () -> GlobalSeqIdentifierGenerator.setGlobalSequence(null);
+    }
+}
@@ -0,0 +1,42 @@
+package org.opensource.seq.hibernate;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注实体主键使用的全局序列
+ *
+ * 和{@link GlobalSeqIdentifierGenerator}一起使用：
+ * <pre>
+ * &#64;Id
+ * &#64;GeneratedValue(generator = "order_id")
+ * &#64;GenericGenerator(name = "order_id", strategy = GlobalSeqIdentifierGenerator.STRATEGY)
+ * &#64;GlobalSeqId("order")
+ * private Long id;
+ * </pre>
+ *
+ * @author wutianbiao
+ * @date 2022-07-11
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD })
+public @interface GlobalSeqId {
+
+    /**
+     * 序列名称
+     *
+     * @return
+     */
+    String value();
+
+    /**
+     * 每次从本地序列段批量取出的个数，0使用hibernate.jdbc.batch_size
+     *
+     * @return
+     */
+    int batchSize() default 0;
+}
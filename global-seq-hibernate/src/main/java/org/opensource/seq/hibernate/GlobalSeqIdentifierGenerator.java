@@ -0,0 +1,159 @@
+package org.opensource.seq.hibernate;
+
+import java.io.Serializable;
+import java.lang.reflect.AnnotatedElement;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Properties;
+
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.SeqRange;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.boot.registry.classloading.spi.ClassLoaderService;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 使用全局序列的hibernate主键生成器
+ *
+ * 按pooled优化器的方式，每次用{@link GlobalSequence#nextRange(String, int)}从本地序列段一次取出一批连续的值，
+ * 逐个分配给实体，一批插入只需要一次原子操作；主键在persist时就已确定，hibernate可以自由地批量插入。
+ *
+ * 序列名称依次取generator参数seq_name、主键上的{@link GlobalSeqId}、实体的表名；
+ * 每批的个数依次取参数batch_size、{@link GlobalSeqId#batchSize()}、hibernate.jdbc.batch_size，默认1。
+ * 没有spring时需要先调用{@link #setGlobalSequence(GlobalSequence)}。
+ *
+ * @author wutianbiao
+ * @date 2022-07-11
+ */
+@Slf4j
+public class GlobalSeqIdentifierGenerator implements IdentifierGenerator {
+    /**
+     * {@link org.hibernate.annotations.GenericGenerator#strategy()}
+     */
+    public static final String STRATEGY = "org.opensource.seq.hibernate.GlobalSeqIdentifierGenerator";
+    /**
+     * 序列名称参数
+     */
+    public static final String SEQ_NAME = "seq_name";
+    /**
+     * 每批个数参数
+     */
+    public static final String BATCH_SIZE = "batch_size";
+
+    private static volatile GlobalSequence globalSequence;
+
+    private String seqName;
+    private int batchSize;
+    private Class<?> idType;
+    /**
+     * 本地批次中下一个分配的值，大于last时批次已用完
+     */
+    private long next = 0;
+    private long last = -1;
+
+    /**
+     * 注册主键生成器使用的全局序列
+     *
+     * @param sequence 为null时取消注册
+     */
+    public static void setGlobalSequence(GlobalSequence sequence) {
+        globalSequence = sequence;
+    }
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        this.idType = type.getReturnedClass();
+        GlobalSeqId annotation = findAnnotation(params, serviceRegistry);
+
+        String defaultName = annotation != null ? annotation.value() : params.getProperty(PersistentIdentifierGenerator.TABLE);
+        this.seqName = ConfigurationHelper.getString(SEQ_NAME, params, defaultName);
+        if (seqName == null || seqName.isEmpty()) {
+            throw new MappingException("未配置主键使用的全局序列名称:" + params.getProperty(ENTITY_NAME));
+        }
+
+        Map<?, ?> settings = serviceRegistry.getService(ConfigurationService.class).getSettings();
+        int defaultBatch = annotation != null && annotation.batchSize() > 0 ? annotation.batchSize()
+                : ConfigurationHelper.getInt(AvailableSettings.STATEMENT_BATCH_SIZE, settings, 1);
+        this.batchSize = Math.max(1, ConfigurationHelper.getInt(BATCH_SIZE, params, defaultBatch));
+        log.info("全局序列主键生成器:{},{},{},{}", params.getProperty(ENTITY_NAME), seqName, batchSize, idType.getName());
+    }
+
+    @Override
+    public synchronized Serializable generate(SharedSessionContractImplementor session, Object object)
+            throws HibernateException {
+        if (next > last) {
+            GlobalSequence sequence = globalSequence;
+            if (sequence == null) {
+                throw new HibernateException("未注册全局序列，先调用GlobalSeqIdentifierGenerator.setGlobalSequence");
+            }
+            SeqRange range = sequence.nextRange(seqName, batchSize);
+            next = range.getFirst();
+            last = range.getLast();
+        }
+        return convert(next++);
+    }
+
+    private Serializable convert(long id) {
+        if (idType == Long.class || idType == long.class) {
+            return id;
+        } else if (idType == Integer.class || idType == int.class) {
+            return Math.toIntExact(id);
+        } else if (idType == String.class) {
+            return String.valueOf(id);
+        } else if (idType == BigInteger.class) {
+            return BigInteger.valueOf(id);
+        } else if (idType == BigDecimal.class) {
+            return BigDecimal.valueOf(id);
+        }
+        throw new HibernateException("全局序列不支持的主键类型:" + idType.getName());
+    }
+
+    /**
+     * 在实体类及其父类的字段和方法上查找{@link GlobalSeqId}
+     */
+    private static GlobalSeqId findAnnotation(Properties params, ServiceRegistry serviceRegistry) {
+        String entityName = params.getProperty(ENTITY_NAME);
+        if (entityName == null) {
+            return null;
+        }
+        Class<?> entity;
+        try {
+            entity = serviceRegistry.getService(ClassLoaderService.class).classForName(entityName);
+        } catch (RuntimeException e) {
+            log.warn("未能加载实体类，忽略GlobalSeqId注解:{}", entityName);
+            return null;
+        }
+        for (Class<?> c = entity; c != null && c != Object.class; c = c.getSuperclass()) {
+            GlobalSeqId annotation = findAnnotation(c.getDeclaredFields());
+            if (annotation == null) {
+                annotation = findAnnotation(c.getDeclaredMethods());
+            }
+            if (annotation != null) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    private static GlobalSeqId findAnnotation(AnnotatedElement[] elements) {
+        for (AnnotatedElement element : elements) {
+            GlobalSeqId annotation = element.getAnnotation(GlobalSeqId.class);
+            if (annotation != null) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+}
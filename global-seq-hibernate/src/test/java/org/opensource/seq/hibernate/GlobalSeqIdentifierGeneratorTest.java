@@ -0,0 +1,102 @@
+package org.opensource.seq.hibernate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSequenceImpl;
+import org.opensource.seq.core.SeqRange;
+import org.opensource.seq.tck.InMemoryGlobalSeqRepository;
+
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.type.LongType;
+import org.hibernate.type.StringType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * hibernate主键生成器的单元测试，不需要数据库
+ *
+ * @author wutianbiao
+ * @date 2022-07-11
+ */
+public class GlobalSeqIdentifierGeneratorTest {
+    private StandardServiceRegistry registry;
+    private AtomicInteger ranges;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.STATEMENT_BATCH_SIZE, "50")
+                .build();
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(1_000);
+        ranges = new AtomicInteger();
+        GlobalSequenceImpl sequence = new GlobalSequenceImpl(config,
+                new InMemoryGlobalSeqRepository(new ConcurrentHashMap<>())) {
+            @Override
+            public SeqRange nextRange(String seqName, int max) {
+                ranges.incrementAndGet();
+                return super.nextRange(seqName, max);
+            }
+        };
+        GlobalSeqIdentifierGenerator.setGlobalSequence(sequence);
+    }
+
+    @AfterEach
+    public void destory() {
+        GlobalSeqIdentifierGenerator.setGlobalSequence(null);
+        StandardServiceRegistryBuilder.destroy(registry);
+    }
+
+    /**
+     * 注解指定序列名称，按hibernate.jdbc.batch_size批量取值
+     */
+    @Test
+    public void testAnnotation() {
+        GlobalSeqIdentifierGenerator generator = generator(LongType.INSTANCE, new Properties());
+        long previous = 0;
+        for (int i = 0; i < 200; i++) {
+            long id = (Long) generator.generate(null, new Order());
+            assertTrue(id > previous);
+            previous = id;
+        }
+        assertEquals(4, ranges.get());
+    }
+
+    /**
+     * generator参数优先，字符串主键
+     */
+    @Test
+    public void testParameters() {
+        Properties params = new Properties();
+        params.setProperty(GlobalSeqIdentifierGenerator.SEQ_NAME, "order_no");
+        params.setProperty(GlobalSeqIdentifierGenerator.BATCH_SIZE, "10");
+        GlobalSeqIdentifierGenerator generator = generator(StringType.INSTANCE, params);
+        long first = Long.parseLong((String) generator.generate(null, new Order()));
+        for (int i = 1; i < 25; i++) {
+            assertEquals(String.valueOf(first + i), generator.generate(null, new Order()));
+        }
+        assertEquals(3, ranges.get());
+    }
+
+    private GlobalSeqIdentifierGenerator generator(org.hibernate.type.Type type, Properties params) {
+        params.setProperty(IdentifierGenerator.ENTITY_NAME, Order.class.getName());
+        GlobalSeqIdentifierGenerator generator = new GlobalSeqIdentifierGenerator();
+        generator.configure(type, params, registry);
+        return generator;
+    }
+
+    static class Order {
+        @GlobalSeqId("order")
+        private Long id;
+    }
+}
@@ -0,0 +1,52 @@
+package org.opensource.seq.raft;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * 内嵌raft节点的配置
+ *
+ * @author wutianbiao
+ * @date 2022-07-12
+ */
+@Data
+public class RaftConfig {
+    /**
+     * 本节点编号，必须在members中
+     */
+    private int nodeId;
+    /**
+     * 所有成员，编号 -> host:port，建议3或5个
+     */
+    private Map<Integer, String> members = new HashMap<>();
+    /**
+     * 日志和投票状态的存储目录
+     */
+    private String dataDir;
+    /**
+     * 选举超时(毫秒)，每次在[electionTimeoutMillis, 2 * electionTimeoutMillis)之间随机
+     */
+    private long electionTimeoutMillis = 500;
+    /**
+     * 领导者心跳间隔(毫秒)
+     */
+    private long heartbeatMillis = 100;
+    /**
+     * 节点间单次请求的超时(毫秒)
+     */
+    private int rpcTimeoutMillis = 1000;
+    /**
+     * 一次序列命令最长等待(毫秒)，包括等待选出领导者
+     */
+    private long requestTimeoutMillis = 5000;
+    /**
+     * 每次复制的最大日志条数
+     */
+    private int maxBatchEntries = 256;
+    /**
+     * 快照之后已执行的日志达到多少条时生成快照并压缩日志，0不压缩
+     */
+    private int snapshotThreshold = 10_000;
+}
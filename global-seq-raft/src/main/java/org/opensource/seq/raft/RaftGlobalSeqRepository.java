@@ -0,0 +1,68 @@
+package org.opensource.seq.raft;
+
+import java.util.Optional;
+
+import org.opensource.seq.core.AtomicIncrementRepository;
+import org.opensource.seq.core.GlobalSeqPo;
+import org.opensource.seq.core.SeqFlightRecorder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 基于内嵌raft复制组的全局序列仓库实现，不依赖数据库、redis、zookeeper或etcd
+ *
+ * 每个操作是一条raft日志，由领导者提交后在所有节点按同样的顺序执行；
+ * 刷新序列只需一次{@link #incrementAndGet(String, long, long)}，非领导者节点转发给领导者。
+ * 领导者切换时请求会重试，已提交的自增可能再执行一次，只会跳过一段序列，不会重复。
+ *
+ * @author wutianbiao
+ * @date 2022-07-12
+ */
+@Slf4j
+public class RaftGlobalSeqRepository implements AtomicIncrementRepository {
+    private final RaftNode node;
+
+    public RaftGlobalSeqRepository(RaftNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        log.info("创建序列:{}", po);
+        return (int) execute("create", po.getSeqName(), SeqStateMachine.CREATE, po.getCurrentValue(), 0);
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        log.info("加载序列:{}", seqName);
+        return optional(seqName, execute("load", seqName, SeqStateMachine.LOAD, 0, 0));
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        log.info("锁定序列:{},{},{}", seqName, step, old);
+        return optional(seqName, execute("lock", seqName, SeqStateMachine.LOCK, step, old));
+    }
+
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        log.info("自增序列:{},{},{}", seqName, step, start);
+        return new GlobalSeqPo(seqName, execute("increment", seqName, SeqStateMachine.INCREMENT, step, start));
+    }
+
+    private long execute(String operation, String seqName, byte type, long a, long b) {
+        Object event = SeqFlightRecorder.beginBackend();
+        boolean success = false;
+        try {
+            long result = node.execute(SeqStateMachine.encode(type, seqName, a, b));
+            success = true;
+            return result;
+        } finally {
+            SeqFlightRecorder.commitBackend(event, "raft", operation, seqName, success);
+        }
+    }
+
+    private static Optional<GlobalSeqPo> optional(String seqName, long value) {
+        return value == SeqStateMachine.ABSENT ? Optional.empty() : Optional.of(new GlobalSeqPo(seqName, value));
+    }
+}
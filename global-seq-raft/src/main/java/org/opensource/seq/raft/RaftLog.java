@@ -0,0 +1,386 @@
+package org.opensource.seq.raft;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * raft日志、快照和投票状态的本地存储
+ *
+ * 日志文件raft.log以[long 起始索引]开头，之后按顺序追加记录：[int 命令长度][long 任期][命令][int crc32]，
+ * 第一条记录的索引是起始索引 + 1。启动时逐条读入内存，遇到不完整或校验失败的记录时截断(写入中途宕机)。
+ * 追加只写入文件不刷盘，{@link #sync()}一次刷盘之前追加的所有记录，由调用方合并刷盘。
+ * 任期和投票写入raft.meta，每次修改都立即刷盘。
+ * 快照写入raft.snapshot：[long 索引][long 任期][int 长度][状态][int crc32]，
+ * {@link #compact}先写快照再把快照之后的日志重写到新的日志文件，都是写临时文件刷盘后改名；
+ * 两步之间宕机时日志的起始索引小于快照索引，启动时丢弃快照已包含的记录。
+ * 非线程安全，除{@link #sync()}外都在节点锁内调用。
+ *
+ * @author wutianbiao
+ * @date 2022-07-12
+ */
+@Slf4j
+final class RaftLog implements Closeable {
+    private static final int HEADER = Integer.BYTES + Long.BYTES;
+    private static final String LOG = "raft.log";
+    private static final String SNAPSHOT = "raft.snapshot";
+
+    private final File dir;
+    private volatile FileChannel channel;
+    private final RandomAccessFile meta;
+    /**
+     * 快照之后的日志条目，下标0是索引snapshotIndex + 1
+     */
+    private final List<Entry> entries = new ArrayList<>();
+    /**
+     * 每个条目在文件中的位置
+     */
+    private final List<Long> offsets = new ArrayList<>();
+    private long size;
+    private long currentTerm;
+    private int votedFor;
+    /**
+     * 快照包含的最后一条日志的索引和任期，没有快照时为0
+     */
+    private long snapshotIndex;
+    private long snapshotTerm;
+    /**
+     * 快照的状态，没有快照时为空
+     */
+    private byte[] snapshot;
+
+    RaftLog(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建raft数据目录:" + dir);
+        }
+        this.dir = dir;
+        this.meta = new RandomAccessFile(new File(dir, "raft.meta"), "rw");
+        if (meta.length() >= Long.BYTES + Integer.BYTES) {
+            currentTerm = meta.readLong();
+            votedFor = meta.readInt();
+        } else {
+            votedFor = RaftNode.NONE;
+        }
+        loadSnapshot();
+        this.channel = FileChannel.open(new File(dir, LOG).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        load();
+        log.info("加载raft日志:{},{},{},{}", dir, currentTerm, snapshotIndex, lastIndex());
+    }
+
+    private void loadSnapshot() throws IOException {
+        File file = new File(dir, SNAPSHOT);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            long index = in.readLong();
+            long term = in.readLong();
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            if (in.readInt() != crc(index ^ term, state)) {
+                throw new IOException("raft快照校验失败:" + file);
+            }
+            snapshotIndex = index;
+            snapshotTerm = term;
+            snapshot = state;
+        }
+    }
+
+    private void load() throws IOException {
+        long length = channel.size();
+        if (length < Long.BYTES) {
+            // 新文件或写起始索引时宕机
+            writeBase(channel, snapshotIndex);
+            size = Long.BYTES;
+            return;
+        }
+        ByteBuffer base = ByteBuffer.allocate(Long.BYTES);
+        channel.read(base, 0);
+        base.flip();
+        long baseIndex = base.getLong();
+        if (baseIndex > snapshotIndex) {
+            throw new IOException("raft日志的起始索引超出快照:" + baseIndex + " > " + snapshotIndex);
+        }
+
+        long position = Long.BYTES;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (position + HEADER <= length) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int commandLength = header.getInt();
+            long term = header.getLong();
+            if (commandLength < 0 || position + HEADER + commandLength + Integer.BYTES > length) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(commandLength + Integer.BYTES);
+            channel.read(body, position + HEADER);
+            body.flip();
+            byte[] command = new byte[commandLength];
+            body.get(command);
+            if (body.getInt() != crc(term, command)) {
+                break;
+            }
+            entries.add(new Entry(term, command));
+            offsets.add(position);
+            position += HEADER + commandLength + Integer.BYTES;
+        }
+        if (position < length) {
+            log.warn("raft日志末尾不完整，截断:{} -> {}", length, position);
+            channel.truncate(position);
+        }
+        size = position;
+
+        if (baseIndex < snapshotIndex) {
+            // 压缩时写完快照后宕机，丢弃快照已包含的记录
+            int skip = (int) Math.min(entries.size(), snapshotIndex - baseIndex);
+            log.warn("raft日志的起始索引小于快照，重写日志:{} -> {}", baseIndex, snapshotIndex);
+            rewrite(new ArrayList<>(entries.subList(skip, entries.size())));
+        }
+    }
+
+    long getCurrentTerm() {
+        return currentTerm;
+    }
+
+    int getVotedFor() {
+        return votedFor;
+    }
+
+    long getSnapshotIndex() {
+        return snapshotIndex;
+    }
+
+    long getSnapshotTerm() {
+        return snapshotTerm;
+    }
+
+    /**
+     * 快照的状态，没有快照时为空
+     */
+    byte[] getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 修改任期和投票，立即刷盘
+     */
+    void setTermAndVote(long term, int votedFor) throws IOException {
+        this.currentTerm = term;
+        this.votedFor = votedFor;
+        meta.seek(0);
+        meta.writeLong(term);
+        meta.writeInt(votedFor);
+        meta.getFD().sync();
+    }
+
+    long lastIndex() {
+        return snapshotIndex + entries.size();
+    }
+
+    long lastTerm() {
+        return term(lastIndex());
+    }
+
+    /**
+     * 条目的任期，索引0为0，快照索引为快照的任期；不能查询快照之前的条目
+     */
+    long term(long index) {
+        if (index == snapshotIndex) {
+            return snapshotTerm;
+        }
+        return index == 0 ? 0 : get(index).term;
+    }
+
+    Entry get(long index) {
+        if (index <= snapshotIndex) {
+            throw new IllegalArgumentException("raft日志已压缩:" + index + " <= " + snapshotIndex);
+        }
+        return entries.get((int) (index - snapshotIndex) - 1);
+    }
+
+    /**
+     * 从from开始最多max个条目，from必须在快照之后
+     */
+    List<Entry> slice(long from, int max) {
+        if (from <= snapshotIndex) {
+            throw new IllegalArgumentException("raft日志已压缩:" + from + " <= " + snapshotIndex);
+        }
+        int start = (int) (from - snapshotIndex) - 1;
+        return new ArrayList<>(entries.subList(start, Math.min(entries.size(), start + max)));
+    }
+
+    /**
+     * 追加一个条目，不刷盘
+     *
+     * @return 条目的索引
+     */
+    long append(long term, byte[] command) throws IOException {
+        ByteBuffer buffer = encode(term, command);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, size + buffer.position());
+        }
+        entries.add(new Entry(term, command));
+        offsets.add(size);
+        size += buffer.limit();
+        return lastIndex();
+    }
+
+    /**
+     * 删除index及之后的条目，快照包含的条目已提交，不能删除
+     */
+    void truncate(long index) throws IOException {
+        if (index <= snapshotIndex) {
+            throw new IllegalArgumentException("不能删除已压缩的raft日志:" + index + " <= " + snapshotIndex);
+        }
+        int from = (int) (index - snapshotIndex) - 1;
+        size = offsets.get(from);
+        channel.truncate(size);
+        entries.subList(from, entries.size()).clear();
+        offsets.subList(from, offsets.size()).clear();
+    }
+
+    /**
+     * 保存index(包含)之前的状态快照，删除快照包含的日志
+     *
+     * 本地日志中index的任期等于term时保留之后的条目，否则(跟随者安装领导者的快照)丢弃全部日志。
+     *
+     * @param index 快照包含的最后一条日志的索引，必须已提交
+     * @param term 该条日志的任期
+     * @param state 执行到index后的状态
+     */
+    void compact(long index, long term, byte[] state) throws IOException {
+        if (index <= snapshotIndex) {
+            return;
+        }
+        List<Entry> kept = index < lastIndex() && term(index) == term
+                ? new ArrayList<>(entries.subList((int) (index - snapshotIndex), entries.size()))
+                : new ArrayList<>();
+
+        File tmp = new File(dir, SNAPSHOT + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(file)) {
+            out.writeLong(index);
+            out.writeLong(term);
+            out.writeInt(state.length);
+            out.write(state);
+            out.writeInt(crc(index ^ term, state));
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(dir, SNAPSHOT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotIndex = index;
+        snapshotTerm = term;
+        snapshot = state;
+
+        rewrite(kept);
+        log.info("压缩raft日志:{},{},{}", dir, snapshotIndex, lastIndex());
+    }
+
+    /**
+     * 以快照索引为起始索引，把条目写到新的日志文件刷盘后替换
+     */
+    private void rewrite(List<Entry> kept) throws IOException {
+        File tmp = new File(dir, LOG + ".tmp");
+        List<Long> positions = new ArrayList<>(kept.size());
+        long position = Long.BYTES;
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeBase(out, snapshotIndex);
+            for (Entry entry : kept) {
+                ByteBuffer buffer = encode(entry.term, entry.command);
+                positions.add(position);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer, position + buffer.position());
+                }
+                position += buffer.limit();
+            }
+            out.force(false);
+        }
+        Files.move(tmp.toPath(), new File(dir, LOG).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel old = channel;
+        channel = FileChannel.open(new File(dir, LOG).toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        old.close();
+
+        entries.clear();
+        entries.addAll(kept);
+        offsets.clear();
+        offsets.addAll(positions);
+        size = position;
+    }
+
+    /**
+     * 把已追加的条目刷盘，可以在节点锁外调用
+     */
+    void sync() throws IOException {
+        FileChannel current = channel;
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // 期间压缩换了日志文件，新文件已刷盘
+            if (current == channel) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        meta.close();
+    }
+
+    private static void writeBase(FileChannel out, long baseIndex) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(baseIndex);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer, buffer.position());
+        }
+    }
+
+    private static ByteBuffer encode(long term, byte[] command) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + command.length + Integer.BYTES);
+        buffer.putInt(command.length).putLong(term).put(command).putInt(crc(term, command));
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int crc(long term, byte[] command) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(term).array());
+        crc.update(command);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 日志条目
+     */
+    static final class Entry {
+        final long term;
+        final byte[] command;
+
+        Entry(long term, byte[] command) {
+            this.term = term;
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,858 @@
+package org.opensource.seq.raft;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 内嵌在应用中的raft节点，3到5个应用节点组成一个复制组，不依赖外部存储
+ *
+ * 复制的状态是序列高水位表({@link SeqStateMachine})，每次刷新序列段是一条日志。
+ * 领导者把日志复制给其他节点，过半节点刷盘后提交并执行，再把结果(锁定的段)返回给请求方；
+ * 其他节点上的请求通过{@link RaftTransport}转发给领导者。
+ * 本地追加和刷盘分开，领导者的刷盘线程一次刷盘之前追加的所有日志，跟随者每批复制的日志刷盘一次。
+ *
+ * 执行的日志超过snapshotThreshold条时把高水位表写成快照并删除之前的日志，
+ * 落后到已压缩日志的跟随者由领导者发送快照追上。
+ *
+ * 实现了选举、日志复制、提交和快照，没有实现成员变更。
+ *
+ * @author wutianbiao
+ * @date 2022-07-12
+ */
+@Slf4j
+public class RaftNode implements Closeable {
+    /**
+     * 没有投票或没有领导者
+     */
+    static final int NONE = -1;
+
+    private static final byte REQUEST_VOTE = 1;
+    private static final byte APPEND_ENTRIES = 2;
+    private static final byte CLIENT_REQUEST = 3;
+    private static final byte INSTALL_SNAPSHOT = 4;
+
+    private static final byte OK = 0;
+    private static final byte NOT_LEADER = 1;
+    private static final byte FAILED = 2;
+
+    /**
+     * 节点角色
+     */
+    public enum Role {
+        FOLLOWER, CANDIDATE, LEADER
+    }
+
+    private final RaftConfig config;
+    private final int id;
+    private final Map<Integer, InetSocketAddress> members = new HashMap<>();
+    private final int majority;
+    private final RaftLog raftLog;
+    private final SeqStateMachine stateMachine = new SeqStateMachine();
+    /**
+     * 复制和选举使用的连接
+     */
+    private final Map<Integer, RaftTransport.Peer> peers = new HashMap<>();
+    /**
+     * 转发请求使用的连接，每个并发请求一个
+     */
+    private final Map<Integer, Queue<RaftTransport.Peer>> forwarders = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> nextIndex = new HashMap<>();
+    private final Map<Integer, Long> matchIndex = new HashMap<>();
+    private final Map<Integer, Long> heartbeatDue = new HashMap<>();
+    /**
+     * 本节点作为领导者提出、等待提交的请求
+     */
+    private final Map<Long, Proposal> proposals = new HashMap<>();
+    private final ExecutorService voters;
+    private final List<Thread> threads = new ArrayList<>();
+    private final long heartbeatNanos;
+    private RaftTransport transport;
+    private volatile boolean running;
+
+    private Role role = Role.FOLLOWER;
+    private int leaderId = NONE;
+    private long commitIndex;
+    private long lastApplied;
+    /**
+     * 本节点已刷盘的最大索引，只在领导者上使用
+     */
+    private long durableIndex;
+    /**
+     * 日志截断或角色变化的次数，刷盘期间变化时结果作废
+     */
+    private long epoch;
+    private long electionDeadline;
+    private int votes;
+
+    /**
+     * 构造函数，加载本地日志
+     *
+     * @param config
+     * @throws IOException
+     */
+    public RaftNode(RaftConfig config) throws IOException {
+        this.config = config;
+        this.id = config.getNodeId();
+        for (Map.Entry<Integer, String> member : config.getMembers().entrySet()) {
+            String address = member.getValue();
+            int colon = address.lastIndexOf(':');
+            members.put(member.getKey(), new InetSocketAddress(address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon + 1))));
+        }
+        if (!members.containsKey(id)) {
+            throw new IllegalArgumentException("本节点不在raft成员中:" + id);
+        }
+        this.majority = members.size() / 2 + 1;
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(config.getHeartbeatMillis());
+        this.raftLog = new RaftLog(new File(config.getDataDir()));
+        if (raftLog.getSnapshot() != null) {
+            stateMachine.restore(raftLog.getSnapshot());
+            commitIndex = raftLog.getSnapshotIndex();
+            lastApplied = commitIndex;
+        }
+        for (Integer peer : members.keySet()) {
+            if (peer != id) {
+                peers.put(peer, new RaftTransport.Peer(members.get(peer)));
+            }
+        }
+        this.voters = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "global-seq-raft-" + id + "-vote");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 开始监听端口并参与选举
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        transport = new RaftTransport(members.get(id), this::handle, "global-seq-raft-" + id);
+        running = true;
+        resetElectionDeadline();
+        startThread(this::tick, "tick");
+        startThread(this::sync, "sync");
+        for (Integer peer : peers.keySet()) {
+            startThread(() -> replicate(peer), "replicate-" + peer);
+        }
+        log.info("raft节点启动:{},{}", id, members.get(id));
+    }
+
+    private void startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, "global-seq-raft-" + id + "-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+    }
+
+    public synchronized Role getRole() {
+        return role;
+    }
+
+    public synchronized boolean isLeader() {
+        return role == Role.LEADER;
+    }
+
+    /**
+     * 已知的领导者，没有时返回-1
+     */
+    public synchronized int getLeaderId() {
+        return leaderId;
+    }
+
+    public synchronized long getTerm() {
+        return raftLog.getCurrentTerm();
+    }
+
+    public synchronized long getCommitIndex() {
+        return commitIndex;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * 通过领导者执行一条命令，等待提交后返回结果；没有领导者时重试到请求超时
+     *
+     * @param command {@link SeqStateMachine#encode(byte, String, long, long)}
+     * @return 命令的结果
+     */
+    long execute(byte[] command) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getRequestTimeoutMillis());
+        Exception last = null;
+        while (running) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                CompletableFuture<Long> future = null;
+                int leader;
+                synchronized (this) {
+                    leader = leaderId;
+                    if (role == Role.LEADER) {
+                        future = propose(command);
+                    }
+                }
+                if (future != null) {
+                    return future.get(remaining, TimeUnit.NANOSECONDS);
+                }
+                if (leader != NONE) {
+                    Long result = forward(leader, command, remaining);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            } catch (TimeoutException e) {
+                last = e;
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待raft提交时被中断", e);
+            } catch (NotLeaderException | ExecutionException | IOException e) {
+                // 领导者变化或连接失败，等新的领导者
+                last = e;
+            }
+            sleep(Math.min(config.getHeartbeatMillis(), TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+        throw new IllegalStateException("raft集群没有可用的领导者，未能执行序列命令", last);
+    }
+
+    /**
+     * 转发给领导者
+     *
+     * @return 结果，对方已不是领导者时返回null
+     */
+    private Long forward(int leader, byte[] command, long remainingNanos) throws IOException {
+        Queue<RaftTransport.Peer> idle = forwarders.computeIfAbsent(leader, k -> new ConcurrentLinkedQueue<>());
+        RaftTransport.Peer peer = idle.poll();
+        if (peer == null) {
+            peer = new RaftTransport.Peer(members.get(leader));
+        }
+        int timeout = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+        Long result = peer.call(CLIENT_REQUEST, timeout, out -> {
+            out.writeInt(command.length);
+            out.write(command);
+        }, in -> {
+            byte status = in.readByte();
+            if (status == OK) {
+                return in.readLong();
+            } else if (status == FAILED) {
+                log.warn("领导者执行序列命令失败:{},{}", leader, in.readUTF());
+            }
+            return null;
+        });
+        idle.offer(peer);
+        return result;
+    }
+
+    /**
+     * 领导者追加一条日志，返回提交后的结果
+     */
+    private CompletableFuture<Long> propose(byte[] command) throws NotLeaderException {
+        if (role != Role.LEADER) {
+            throw new NotLeaderException();
+        }
+        long index = append(command);
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        proposals.put(index, new Proposal(raftLog.getCurrentTerm(), future));
+        notifyAll();
+        return future;
+    }
+
+    private long append(byte[] command) {
+        try {
+            return raftLog.append(raftLog.getCurrentTerm(), command);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 选举计时，超时未收到领导者消息时发起选举
+     */
+    private void tick() {
+        while (running) {
+            synchronized (this) {
+                if (role != Role.LEADER && System.nanoTime() >= electionDeadline) {
+                    startElection();
+                }
+            }
+            sleep(10);
+        }
+    }
+
+    private void startElection() {
+        long term = raftLog.getCurrentTerm() + 1;
+        persist(term, id);
+        role = Role.CANDIDATE;
+        leaderId = NONE;
+        votes = 1;
+        epoch++;
+        resetElectionDeadline();
+        log.info("raft节点发起选举:{},{}", id, term);
+        if (votes >= majority) {
+            becomeLeader();
+            return;
+        }
+        long lastIndex = raftLog.lastIndex();
+        long lastTerm = raftLog.lastTerm();
+        for (Integer peer : peers.keySet()) {
+            voters.execute(() -> requestVote(peer, term, lastIndex, lastTerm));
+        }
+    }
+
+    private void requestVote(int peer, long term, long lastIndex, long lastTerm) {
+        long[] response;
+        try {
+            response = peers.get(peer).call(REQUEST_VOTE, config.getRpcTimeoutMillis(), out -> {
+                out.writeLong(term);
+                out.writeInt(id);
+                out.writeLong(lastIndex);
+                out.writeLong(lastTerm);
+            }, in -> new long[] { in.readLong(), in.readBoolean() ? 1 : 0 });
+        } catch (IOException e) {
+            log.debug("请求投票失败:{},{}", peer, e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (response[0] > raftLog.getCurrentTerm()) {
+                becomeFollower(response[0], NONE);
+            } else if (role == Role.CANDIDATE && raftLog.getCurrentTerm() == term && response[1] == 1) {
+                votes++;
+                if (votes >= majority) {
+                    becomeLeader();
+                }
+            }
+        }
+    }
+
+    private void becomeLeader() {
+        role = Role.LEADER;
+        leaderId = id;
+        epoch++;
+        durableIndex = 0;
+        for (Integer peer : peers.keySet()) {
+            nextIndex.put(peer, raftLog.lastIndex() + 1);
+            matchIndex.put(peer, 0L);
+            heartbeatDue.put(peer, 0L);
+        }
+        // 提交一条当前任期的空日志，之前任期的日志随之提交
+        append(SeqStateMachine.encode(SeqStateMachine.NOOP, "", 0, 0));
+        log.info("raft节点成为领导者:{},{}", id, raftLog.getCurrentTerm());
+        notifyAll();
+    }
+
+    private void becomeFollower(long term, int leader) {
+        if (term > raftLog.getCurrentTerm()) {
+            persist(term, NONE);
+        }
+        if (role != Role.FOLLOWER) {
+            log.info("raft节点成为跟随者:{},{}", id, term);
+            role = Role.FOLLOWER;
+            epoch++;
+            failProposals();
+            resetElectionDeadline();
+        }
+        leaderId = leader;
+    }
+
+    /**
+     * 领导者刷盘线程，一次刷盘之前追加的所有日志
+     */
+    private void sync() {
+        while (running) {
+            long target;
+            long started;
+            synchronized (this) {
+                if (role != Role.LEADER || durableIndex >= raftLog.lastIndex()) {
+                    waitQuietly(config.getHeartbeatMillis());
+                    continue;
+                }
+                target = raftLog.lastIndex();
+                started = epoch;
+            }
+            try {
+                raftLog.sync();
+            } catch (IOException e) {
+                log.error("raft日志刷盘失败:{}", e.getMessage(), e);
+                sleep(config.getHeartbeatMillis());
+                continue;
+            }
+            synchronized (this) {
+                if (started == epoch && role == Role.LEADER) {
+                    durableIndex = Math.max(durableIndex, target);
+                    advanceCommit();
+                }
+            }
+        }
+    }
+
+    /**
+     * 领导者向一个节点复制日志，没有新日志时按间隔发送心跳
+     */
+    private void replicate(int peer) {
+        while (running) {
+            if (installSnapshot(peer)) {
+                continue;
+            }
+            long term;
+            long prevIndex;
+            long prevTerm;
+            long leaderCommit;
+            List<RaftLog.Entry> entries;
+            synchronized (this) {
+                if (role != Role.LEADER) {
+                    waitQuietly(config.getHeartbeatMillis());
+                    continue;
+                }
+                long next = nextIndex.get(peer);
+                if (next <= raftLog.getSnapshotIndex()) {
+                    // 刚刚压缩，下一轮发送快照
+                    continue;
+                }
+                long now = System.nanoTime();
+                if (next > raftLog.lastIndex() && now < heartbeatDue.get(peer)) {
+                    waitQuietly(Math.max(1, TimeUnit.NANOSECONDS.toMillis(heartbeatDue.get(peer) - now)));
+                    continue;
+                }
+                term = raftLog.getCurrentTerm();
+                prevIndex = next - 1;
+                prevTerm = raftLog.term(prevIndex);
+                leaderCommit = commitIndex;
+                entries = next > raftLog.lastIndex() ? new ArrayList<>() : raftLog.slice(next, config.getMaxBatchEntries());
+                heartbeatDue.put(peer, now + heartbeatNanos);
+            }
+
+            long[] response;
+            try {
+                response = peers.get(peer).call(APPEND_ENTRIES, config.getRpcTimeoutMillis(), out -> {
+                    out.writeLong(term);
+                    out.writeInt(id);
+                    out.writeLong(prevIndex);
+                    out.writeLong(prevTerm);
+                    out.writeLong(leaderCommit);
+                    out.writeInt(entries.size());
+                    for (RaftLog.Entry entry : entries) {
+                        out.writeLong(entry.term);
+                        out.writeInt(entry.command.length);
+                        out.write(entry.command);
+                    }
+                }, in -> new long[] { in.readLong(), in.readBoolean() ? 1 : 0, in.readLong() });
+            } catch (IOException e) {
+                log.debug("复制日志失败:{},{}", peer, e.getMessage());
+                sleep(config.getHeartbeatMillis());
+                continue;
+            }
+
+            synchronized (this) {
+                if (response[0] > raftLog.getCurrentTerm()) {
+                    becomeFollower(response[0], NONE);
+                } else if (role == Role.LEADER && raftLog.getCurrentTerm() == term) {
+                    if (response[1] == 1) {
+                        long match = prevIndex + entries.size();
+                        if (match > matchIndex.get(peer)) {
+                            matchIndex.put(peer, match);
+                        }
+                        nextIndex.put(peer, match + 1);
+                        advanceCommit();
+                    } else {
+                        // 按对方的日志长度快速回退
+                        nextIndex.put(peer, Math.max(1, Math.min(prevIndex, response[2] + 1)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 对方需要的日志已压缩时发送快照
+     *
+     * @return 发送了快照返回true
+     */
+    private boolean installSnapshot(int peer) {
+        long term;
+        long index;
+        long snapshotTerm;
+        byte[] state;
+        synchronized (this) {
+            if (role != Role.LEADER || nextIndex.get(peer) > raftLog.getSnapshotIndex()) {
+                return false;
+            }
+            term = raftLog.getCurrentTerm();
+            index = raftLog.getSnapshotIndex();
+            snapshotTerm = raftLog.getSnapshotTerm();
+            state = raftLog.getSnapshot();
+            heartbeatDue.put(peer, System.nanoTime() + heartbeatNanos);
+        }
+
+        long[] response;
+        try {
+            response = peers.get(peer).call(INSTALL_SNAPSHOT, config.getRpcTimeoutMillis(), out -> {
+                out.writeLong(term);
+                out.writeInt(id);
+                out.writeLong(index);
+                out.writeLong(snapshotTerm);
+                out.writeInt(state.length);
+                out.write(state);
+            }, in -> new long[] { in.readLong(), in.readBoolean() ? 1 : 0 });
+        } catch (IOException e) {
+            log.debug("发送快照失败:{},{}", peer, e.getMessage());
+            sleep(config.getHeartbeatMillis());
+            return true;
+        }
+
+        synchronized (this) {
+            if (response[0] > raftLog.getCurrentTerm()) {
+                becomeFollower(response[0], NONE);
+            } else if (role == Role.LEADER && raftLog.getCurrentTerm() == term && response[1] == 1) {
+                log.info("跟随者已安装raft快照:{},{}", peer, index);
+                if (index > matchIndex.get(peer)) {
+                    matchIndex.put(peer, index);
+                }
+                nextIndex.put(peer, index + 1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 过半节点已刷盘的当前任期日志可以提交
+     */
+    private void advanceCommit() {
+        for (long n = raftLog.lastIndex(); n > commitIndex; n--) {
+            if (raftLog.term(n) != raftLog.getCurrentTerm()) {
+                break;
+            }
+            int count = durableIndex >= n ? 1 : 0;
+            for (long match : matchIndex.values()) {
+                if (match >= n) {
+                    count++;
+                }
+            }
+            if (count >= majority) {
+                commitIndex = n;
+                applyCommitted();
+                return;
+            }
+        }
+    }
+
+    private void applyCommitted() {
+        while (lastApplied < commitIndex) {
+            lastApplied++;
+            RaftLog.Entry entry = raftLog.get(lastApplied);
+            long result = stateMachine.apply(entry.command);
+            Proposal proposal = proposals.remove(lastApplied);
+            if (proposal != null) {
+                if (proposal.term == entry.term) {
+                    proposal.future.complete(result);
+                } else {
+                    proposal.future.completeExceptionally(new NotLeaderException());
+                }
+            }
+        }
+        int threshold = config.getSnapshotThreshold();
+        if (threshold > 0 && lastApplied - raftLog.getSnapshotIndex() >= threshold) {
+            try {
+                raftLog.compact(lastApplied, raftLog.term(lastApplied), stateMachine.snapshot());
+            } catch (IOException e) {
+                log.error("生成raft快照失败:{}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void failProposals() {
+        for (Proposal proposal : proposals.values()) {
+            proposal.future.completeExceptionally(new NotLeaderException());
+        }
+        proposals.clear();
+    }
+
+    private void handle(byte type, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (type) {
+            case REQUEST_VOTE:
+                onRequestVote(in, out);
+                break;
+            case APPEND_ENTRIES:
+                onAppendEntries(in, out);
+                break;
+            case CLIENT_REQUEST:
+                onClientRequest(in, out);
+                break;
+            case INSTALL_SNAPSHOT:
+                onInstallSnapshot(in, out);
+                break;
+            default:
+                throw new IOException("未知的raft消息:" + type);
+        }
+    }
+
+    private void onRequestVote(DataInputStream in, DataOutputStream out) throws IOException {
+        long term = in.readLong();
+        int candidate = in.readInt();
+        long lastIndex = in.readLong();
+        long lastTerm = in.readLong();
+        boolean granted;
+        long currentTerm;
+        synchronized (this) {
+            if (term > raftLog.getCurrentTerm()) {
+                becomeFollower(term, NONE);
+            }
+            // 只投给日志不比自己旧的候选者
+            boolean upToDate = lastTerm > raftLog.lastTerm()
+                    || (lastTerm == raftLog.lastTerm() && lastIndex >= raftLog.lastIndex());
+            granted = term == raftLog.getCurrentTerm() && upToDate
+                    && (raftLog.getVotedFor() == NONE || raftLog.getVotedFor() == candidate);
+            if (granted) {
+                persist(term, candidate);
+                resetElectionDeadline();
+            }
+            currentTerm = raftLog.getCurrentTerm();
+        }
+        out.writeLong(currentTerm);
+        out.writeBoolean(granted);
+    }
+
+    private void onAppendEntries(DataInputStream in, DataOutputStream out) throws IOException {
+        long term = in.readLong();
+        int leader = in.readInt();
+        long prevIndex = in.readLong();
+        long prevTerm = in.readLong();
+        long leaderCommit = in.readLong();
+        int count = in.readInt();
+        List<RaftLog.Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long entryTerm = in.readLong();
+            byte[] command = new byte[in.readInt()];
+            in.readFully(command);
+            entries.add(new RaftLog.Entry(entryTerm, command));
+        }
+
+        boolean success = false;
+        boolean appended = false;
+        long currentTerm;
+        long lastIndex;
+        synchronized (this) {
+            if (term >= raftLog.getCurrentTerm()) {
+                becomeFollower(term, leader);
+                resetElectionDeadline();
+                long snapshotIndex = raftLog.getSnapshotIndex();
+                if (prevIndex < snapshotIndex) {
+                    // 快照包含的条目都已提交，和领导者一致，跳过
+                    int skip = (int) Math.min(entries.size(), snapshotIndex - prevIndex);
+                    if (skip > 0) {
+                        prevTerm = entries.get(skip - 1).term;
+                    }
+                    prevIndex += skip;
+                    entries = entries.subList(skip, entries.size());
+                }
+                if (prevIndex < snapshotIndex) {
+                    success = true;
+                } else if (prevIndex <= raftLog.lastIndex() && raftLog.term(prevIndex) == prevTerm) {
+                    long index = prevIndex;
+                    for (RaftLog.Entry entry : entries) {
+                        index++;
+                        if (index <= raftLog.lastIndex()) {
+                            if (raftLog.term(index) == entry.term) {
+                                continue;
+                            }
+                            log.info("删除和领导者冲突的日志:{},{}", id, index);
+                            raftLog.truncate(index);
+                            epoch++;
+                        }
+                        raftLog.append(entry.term, entry.command);
+                        appended = true;
+                    }
+                    long committable = Math.min(leaderCommit, prevIndex + entries.size());
+                    if (committable > commitIndex) {
+                        commitIndex = committable;
+                        applyCommitted();
+                    }
+                    success = true;
+                }
+            }
+            currentTerm = raftLog.getCurrentTerm();
+            lastIndex = raftLog.lastIndex();
+        }
+        // 应答前刷盘，一批日志刷盘一次
+        if (appended) {
+            raftLog.sync();
+        }
+        out.writeLong(currentTerm);
+        out.writeBoolean(success);
+        out.writeLong(lastIndex);
+    }
+
+    private void onInstallSnapshot(DataInputStream in, DataOutputStream out) throws IOException {
+        long term = in.readLong();
+        int leader = in.readInt();
+        long index = in.readLong();
+        long snapshotTerm = in.readLong();
+        byte[] state = new byte[in.readInt()];
+        in.readFully(state);
+
+        boolean success = false;
+        long currentTerm;
+        synchronized (this) {
+            if (term >= raftLog.getCurrentTerm()) {
+                becomeFollower(term, leader);
+                resetElectionDeadline();
+                // 已执行到快照之后的不需要安装
+                if (index > lastApplied) {
+                    log.info("安装领导者的raft快照:{},{}", id, index);
+                    raftLog.compact(index, snapshotTerm, state);
+                    stateMachine.restore(state);
+                    lastApplied = index;
+                    commitIndex = Math.max(commitIndex, index);
+                    epoch++;
+                    applyCommitted();
+                }
+                success = true;
+            }
+            currentTerm = raftLog.getCurrentTerm();
+        }
+        out.writeLong(currentTerm);
+        out.writeBoolean(success);
+    }
+
+    private void onClientRequest(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] command = new byte[in.readInt()];
+        in.readFully(command);
+        try {
+            CompletableFuture<Long> future;
+            synchronized (this) {
+                future = propose(command);
+            }
+            long result = future.get(config.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+            out.writeByte(OK);
+            out.writeLong(result);
+        } catch (NotLeaderException e) {
+            out.writeByte(NOT_LEADER);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NotLeaderException) {
+                out.writeByte(NOT_LEADER);
+            } else {
+                out.writeByte(FAILED);
+                out.writeUTF(String.valueOf(e.getCause()));
+            }
+        } catch (TimeoutException | InterruptedException e) {
+            out.writeByte(FAILED);
+            out.writeUTF("等待提交超时");
+        }
+    }
+
+    private void persist(long term, int votedFor) {
+        try {
+            raftLog.setTermAndVote(term, votedFor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void resetElectionDeadline() {
+        long timeout = config.getElectionTimeoutMillis();
+        electionDeadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeout + ThreadLocalRandom.current().nextLong(timeout));
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(Math.max(1, millis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(Math.max(1, millis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 停止节点，关闭端口和日志文件
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            role = Role.FOLLOWER;
+            failProposals();
+            notifyAll();
+        }
+        transport.close();
+        voters.shutdownNow();
+        for (RaftTransport.Peer peer : peers.values()) {
+            peer.close();
+        }
+        for (Queue<RaftTransport.Peer> idle : forwarders.values()) {
+            for (RaftTransport.Peer peer : idle) {
+                peer.close();
+            }
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            raftLog.close();
+        }
+        log.info("raft节点停止:{}", id);
+    }
+
+    /**
+     * 等待提交的请求
+     */
+    private static final class Proposal {
+        final long term;
+        final CompletableFuture<Long> future;
+
+        Proposal(long term, CompletableFuture<Long> future) {
+            this.term = term;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 本节点不是领导者或领导者已变化
+     */
+    static final class NotLeaderException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        NotLeaderException() {
+            super("不是raft领导者", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.opensource.seq.raft;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 节点间的紧凑二进制协议，基于TCP长连接的请求-响应
+ *
+ * 请求帧[int 长度][byte 类型][负载]，响应帧[int 长度][负载]，负载用DataOutput编码。
+ * 每个连接同一时间只有一个请求，服务端每个连接一个线程。
+ *
+ * @author wutianbiao
+ * @date 2022-07-12
+ */
+@Slf4j
+final class RaftTransport implements Closeable {
+    private final ServerSocket server;
+    private final Handler handler;
+    private final String name;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    RaftTransport(InetSocketAddress bind, Handler handler, String name) throws IOException {
+        this.handler = handler;
+        this.name = name;
+        this.server = new ServerSocket();
+        this.server.setReuseAddress(true);
+        this.server.bind(bind);
+        Thread acceptor = new Thread(this::accept, name + "-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread thread = new Thread(() -> serve(socket), name + "-conn");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("接受raft连接异常:{}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (running) {
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                handler.handle(frame[0], new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1)),
+                        new DataOutputStream(response));
+                out.writeInt(response.size());
+                response.writeTo(out);
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // 对端关闭连接
+        } catch (IOException e) {
+            if (running) {
+                log.debug("raft连接异常:{}", e.getMessage());
+            }
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(server);
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    /**
+     * 处理一个请求，写出响应
+     */
+    @FunctionalInterface
+    interface Handler {
+        void handle(byte type, DataInputStream in, DataOutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * 到一个节点的连接，断开后下次调用时重连
+     */
+    static final class Peer implements Closeable {
+        private final InetSocketAddress address;
+        private volatile Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * 发送请求并等待响应
+         *
+         * @param type 请求类型
+         * @param timeoutMillis 连接和读取超时
+         * @param writer 写请求负载
+         * @param reader 读响应负载
+         * @return
+         * @throws IOException 连接失败或超时，连接已关闭
+         */
+        synchronized <T> T call(byte type, int timeoutMillis, Writer writer, Reader<T> reader) throws IOException {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(request);
+            payload.writeByte(type);
+            writer.write(payload);
+            try {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.setTcpNoDelay(true);
+                    socket.connect(address, timeoutMillis);
+                    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                }
+                socket.setSoTimeout(timeoutMillis);
+                out.writeInt(request.size());
+                request.writeTo(out);
+                out.flush();
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+                return reader.read(new DataInputStream(new ByteArrayInputStream(frame)));
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * 关闭连接，进行中的调用抛出异常
+         */
+        @Override
+        public void close() {
+            Socket current = socket;
+            socket = null;
+            closeQuietly(current);
+        }
+    }
+}
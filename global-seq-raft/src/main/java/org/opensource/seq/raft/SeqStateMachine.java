@@ -0,0 +1,132 @@
+package org.opensource.seq.raft;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 复制的序列高水位表，所有节点按日志顺序执行同样的命令
+ *
+ * 命令编码为[byte 类型][UTF 序列名称][long a][long b]，结果是一个long，{@link #ABSENT}表示不存在或未写入。
+ * 快照编码为[int 序列数]([UTF 序列名称][long 当前值])*。
+ * 在节点锁内执行。
+ *
+ * @author wutianbiao
+ * @date 2022-07-12
+ */
+final class SeqStateMachine {
+    /**
+     * 不存在或CAS失败
+     */
+    static final long ABSENT = Long.MIN_VALUE;
+
+    /**
+     * 空操作，新领导者提交之前任期的日志
+     */
+    static final byte NOOP = 0;
+    /**
+     * 创建序列，a为初始值，成功返回1，已存在返回0
+     */
+    static final byte CREATE = 1;
+    /**
+     * 读取序列的当前值
+     */
+    static final byte LOAD = 2;
+    /**
+     * 当前值等于b时增加a，返回新值
+     */
+    static final byte LOCK = 3;
+    /**
+     * 增加a，不存在时从b开始，返回新值
+     */
+    static final byte INCREMENT = 4;
+
+    private final Map<String, Long> values = new HashMap<>();
+
+    static byte[] encode(byte type, String seqName, long a, long b) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + seqName.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            out.writeUTF(seqName);
+            out.writeLong(a);
+            out.writeLong(b);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    long apply(byte[] command) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(command))) {
+            byte type = in.readByte();
+            if (type == NOOP) {
+                return 0;
+            }
+            String seqName = in.readUTF();
+            long a = in.readLong();
+            long b = in.readLong();
+            Long current = values.get(seqName);
+            switch (type) {
+                case CREATE:
+                    if (current != null) {
+                        return 0;
+                    }
+                    values.put(seqName, a);
+                    return 1;
+                case LOAD:
+                    return current == null ? ABSENT : current;
+                case LOCK:
+                    if (current == null || current != b) {
+                        return ABSENT;
+                    }
+                    values.put(seqName, b + a);
+                    return b + a;
+                case INCREMENT:
+                    long next = (current == null ? b : current) + a;
+                    values.put(seqName, next);
+                    return next;
+                default:
+                    throw new IllegalStateException("未知的raft命令:" + type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 当前状态的快照，每个序列一个高水位
+     */
+    byte[] snapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Integer.BYTES + values.size() * 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(values.size());
+            for (Map.Entry<String, Long> value : values.entrySet()) {
+                out.writeUTF(value.getKey());
+                out.writeLong(value.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 用快照替换当前状态
+     */
+    void restore(byte[] snapshot) {
+        values.clear();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                values.put(in.readUTF(), in.readLong());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
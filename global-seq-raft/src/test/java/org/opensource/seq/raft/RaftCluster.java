@@ -0,0 +1,111 @@
+package org.opensource.seq.raft;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 测试用的本机raft集群，节点监听回环地址的随机端口
+ *
+ * @author wutianbiao
+ * @date 2022-07-12
+ */
+class RaftCluster implements Closeable {
+    private final Map<Integer, String> members = new HashMap<>();
+    private final Map<Integer, RaftNode> nodes = new HashMap<>();
+    private final File dir;
+    /**
+     * 修改每个节点的配置
+     */
+    private final Consumer<RaftConfig> customizer;
+
+    RaftCluster(int size) throws IOException {
+        this(size, config -> {
+        });
+    }
+
+    RaftCluster(int size, Consumer<RaftConfig> customizer) throws IOException {
+        this.dir = Files.createTempDirectory("global-seq-raft").toFile();
+        this.customizer = customizer;
+        for (int i = 1; i <= size; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                members.put(i, "127.0.0.1:" + socket.getLocalPort());
+            }
+        }
+        for (int i = 1; i <= size; i++) {
+            start(i);
+        }
+    }
+
+    RaftNode start(int id) throws IOException {
+        RaftConfig config = new RaftConfig();
+        config.setNodeId(id);
+        config.setMembers(members);
+        config.setDataDir(new File(dir, "node" + id).getPath());
+        config.setElectionTimeoutMillis(150);
+        config.setHeartbeatMillis(30);
+        config.setRpcTimeoutMillis(500);
+        config.setRequestTimeoutMillis(10_000);
+        customizer.accept(config);
+        RaftNode node = new RaftNode(config);
+        node.start();
+        nodes.put(id, node);
+        return node;
+    }
+
+    void stop(int id) throws IOException {
+        nodes.remove(id).close();
+    }
+
+    RaftNode node(int id) {
+        return nodes.get(id);
+    }
+
+    /**
+     * 节点的数据目录
+     */
+    File dataDir(int id) {
+        return new File(dir, "node" + id);
+    }
+
+    /**
+     * 等待选出领导者
+     */
+    RaftNode awaitLeader() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            for (RaftNode node : nodes.values()) {
+                if (node.isLeader()) {
+                    return node;
+                }
+            }
+            Thread.sleep(20);
+        }
+        throw new IllegalStateException("未能选出raft领导者");
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RaftNode node : nodes.values()) {
+            node.close();
+        }
+        nodes.clear();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
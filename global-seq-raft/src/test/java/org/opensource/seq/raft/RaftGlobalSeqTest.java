@@ -0,0 +1,159 @@
+package org.opensource.seq.raft;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSeqPo;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 内嵌raft实现的单元测试，3个节点运行在本机回环地址
+ *
+ * @author wutianbiao
+ * @date 2022-07-12
+ */
+public class RaftGlobalSeqTest {
+
+    /**
+     * 任意节点上的操作都由领导者提交，所有节点看到同样的结果
+     */
+    @Test
+    public void testReplicated() throws Exception {
+        try (RaftCluster cluster = new RaftCluster(3)) {
+            RaftNode leader = cluster.awaitLeader();
+            RaftGlobalSeqRepository repository = new RaftGlobalSeqRepository(follower(cluster, leader));
+
+            assertEquals(1, repository.createSeq(new GlobalSeqPo("raft_seq", 10L)));
+            assertEquals(0, repository.createSeq(new GlobalSeqPo("raft_seq", 20L)));
+            assertFalse(repository.lockSeq("raft_seq", 5, 9).isPresent());
+            assertEquals(15L, repository.lockSeq("raft_seq", 5, 10).get().getCurrentValue());
+            assertEquals(115L, repository.incrementAndGet("raft_seq", 100, 0).getCurrentValue());
+
+            for (int id = 1; id <= 3; id++) {
+                assertEquals(115L, new RaftGlobalSeqRepository(cluster.node(id)).loadSeq("raft_seq").get()
+                        .getCurrentValue());
+            }
+            assertFalse(repository.loadSeq("raft_absent").isPresent());
+        }
+    }
+
+    /**
+     * 领导者宕机后重新选举，序列继续递增不重复；重启的节点从本地日志恢复
+     */
+    @Test
+    public void testLeaderFailover() throws Exception {
+        try (RaftCluster cluster = new RaftCluster(3)) {
+            List<GlobalSequence> sequences = new ArrayList<>();
+            GlobalSeqConfig config = new GlobalSeqConfig();
+            config.setDefaultStep(50);
+            for (int id = 1; id <= 3; id++) {
+                sequences.add(new GlobalSequenceImpl(config, new RaftGlobalSeqRepository(cluster.node(id))));
+            }
+            Set<Long> seqs = ConcurrentHashMap.newKeySet();
+            next(sequences, seqs, 500);
+
+            RaftNode leader = cluster.awaitLeader();
+            int stopped = leader.getId();
+            cluster.stop(stopped);
+            RaftNode newLeader = cluster.awaitLeader();
+            assertNotEquals(stopped, newLeader.getId());
+
+            List<GlobalSequence> alive = new ArrayList<>();
+            for (int id = 1; id <= 3; id++) {
+                if (id != stopped) {
+                    alive.add(sequences.get(id - 1));
+                }
+            }
+            next(alive, seqs, 500);
+
+            // 重启后追上领导者的日志
+            RaftNode restarted = cluster.start(stopped);
+            long value = new RaftGlobalSeqRepository(restarted).incrementAndGet("raft_failover", 1, 0)
+                    .getCurrentValue();
+            assertFalse(seqs.contains(value));
+            assertTrue(restarted.getCommitIndex() > 0);
+        }
+    }
+
+    /**
+     * 日志超过阈值后压缩；停机期间日志被压缩的节点重启后通过快照追上，全部重启后从本地快照恢复
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        try (RaftCluster cluster = new RaftCluster(3, config -> config.setSnapshotThreshold(20))) {
+            RaftNode leader = cluster.awaitLeader();
+            int stopped = follower(cluster, leader).getId();
+            cluster.stop(stopped);
+
+            RaftGlobalSeqRepository repository = new RaftGlobalSeqRepository(leader);
+            long value = 0;
+            for (int i = 0; i < 100; i++) {
+                value = repository.incrementAndGet("raft_snapshot_" + (i % 3), 10, 0).getCurrentValue();
+            }
+            assertEquals(340L, value);
+            // 每个文件只剩快照之后的日志
+            File log = new File(cluster.dataDir(leader.getId()), "raft.log");
+            assertTrue(new File(cluster.dataDir(leader.getId()), "raft.snapshot").exists());
+            assertTrue(log.length() < 20 * 64, "raft.log: " + log.length());
+
+            RaftNode restarted = cluster.start(stopped);
+            assertEquals(350L, new RaftGlobalSeqRepository(restarted).incrementAndGet("raft_snapshot_0", 10, 0)
+                    .getCurrentValue());
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (restarted.getCommitIndex() < leader.getCommitIndex() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(new File(cluster.dataDir(stopped), "raft.snapshot").exists());
+
+            for (int id = 1; id <= 3; id++) {
+                cluster.stop(id);
+            }
+            for (int id = 1; id <= 3; id++) {
+                cluster.start(id);
+            }
+            cluster.awaitLeader();
+            for (int id = 1; id <= 3; id++) {
+                RaftGlobalSeqRepository restored = new RaftGlobalSeqRepository(cluster.node(id));
+                assertEquals(350L, restored.loadSeq("raft_snapshot_0").get().getCurrentValue());
+                assertEquals(330L, restored.loadSeq("raft_snapshot_1").get().getCurrentValue());
+            }
+        }
+    }
+
+    /**
+     * 并发线程各自获取，值唯一
+     */
+    private static void next(List<GlobalSequence> sequences, Set<Long> seqs, int count) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (GlobalSequence sequence : sequences) {
+            for (int t = 0; t < 2; t++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < count; i++) {
+                        assertTrue(seqs.add(sequence.next("raft_failover")));
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static RaftNode follower(RaftCluster cluster, RaftNode leader) {
+        return cluster.node(leader.getId() == 1 ? 2 : 1);
+    }
+}
@@ -0,0 +1,36 @@
+package org.opensource.seq.raft;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opensource.seq.core.GlobalSeqRepository;
+import org.opensource.seq.tck.GlobalSeqRepositoryTck;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+
+/**
+ * 内嵌raft实现运行一致性测试，仓库实例轮流连接3个节点
+ *
+ * @author wutianbiao
+ * @date 2022-07-12
+ */
+public class RaftRepositoryTckTest extends GlobalSeqRepositoryTck {
+    private static final AtomicInteger NEXT = new AtomicInteger();
+    private static RaftCluster cluster;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        cluster = new RaftCluster(3);
+        cluster.awaitLeader();
+    }
+
+    @AfterAll
+    public static void destory() throws Exception {
+        cluster.close();
+    }
+
+    @Override
+    protected GlobalSeqRepository newRepository() {
+        return new RaftGlobalSeqRepository(cluster.node(NEXT.getAndIncrement() % 3 + 1));
+    }
+}
@@ -1,24 +1,64 @@
 package org.opensource.seq.redis;
 
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.opensource.seq.core.AsyncGlobalSeqRepository;
+import org.opensource.seq.core.AtomicIncrementRepository;
 import org.opensource.seq.core.GlobalSeqPo;
-import org.opensource.seq.core.GlobalSeqRepository;
 
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Connection;
 import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
+import redis.clients.jedis.util.JedisClusterCRC16;
 
 /**
  * 全局序列redis存储实现
- * 
+ *
+ * 批量刷新{@link #incrementAll(Collection)}按slot分组，同一slot的序列合并为一次脚本调用，
+ * 再按节点分组，每个节点一个管道，多个节点并行发送。
+ * 使用{@link ClusterConnectionProvider}构造时可以按节点分组，否则按slot分组。
+ *
+ * 同时实现{@link AsyncGlobalSeqRepository}：并发的异步刷新(预取、共享池等)先排队，
+ * 由一个刷新线程把排队的请求通过incrementAll合并发送。
+ *
+ * 设置hashTagResolver后，序列key为sequence:{group}:name，同组的序列落在同一个slot，
+ * 可以由一次脚本调用完成刷新。开启前已存在的sequence:name仍然有效：每个序列第一次访问时读取旧key，
+ * 新key不存在时以旧key的值(和初始值中较大的一个)创建，不从初始值开始重复。
+ *
+ * 未设置batchExecutor时使用内置线程池，应用停止时调用{@link #close()}关闭内置线程池和刷新线程。
+ *
  * @author wutianbiao
  * @date 2022-04-20
  */
 @Slf4j
-public class ClusterGlobalSeqRepositoryImpl implements GlobalSeqRepository {
-    
+public class ClusterGlobalSeqRepositoryImpl implements AtomicIncrementRepository, AsyncGlobalSeqRepository, Closeable {
+
     /**
      * 全局序列在jimdb中的前缀
      */
@@ -26,10 +66,53 @@ public class ClusterGlobalSeqRepositoryImpl implements GlobalSeqRepository {
     @Getter
     private String seqPrefix = "sequence:";
 
+    /**
+     * 序列名称到hash tag分组，返回null时不使用hash tag
+     */
+    @Setter
+    @Getter
+    private Function<String, String> hashTagResolver;
+
+    /**
+     * 批量刷新时并行发送管道的线程池，未设置时使用内置的守护线程池
+     */
+    @Setter
+    private Executor batchExecutor;
+
     /**
      * jimdb集群连接
      */
-    private JedisCluster cluster;
+    private UnifiedJedis cluster;
+
+    /**
+     * 集群连接提供者，用于查询slot所在节点，可选
+     */
+    private ClusterConnectionProvider provider;
+
+    /**
+     * 内置的批量刷新线程池
+     */
+    private volatile ExecutorService defaultExecutor;
+    /**
+     * 异步刷新的执行线程，第一次异步调用时创建
+     */
+    private volatile ExecutorService asyncExecutor;
+    /**
+     * 已关闭，之后的批量刷新和异步调用在调用线程执行
+     */
+    private volatile boolean closed;
+    /**
+     * 排队中的异步刷新请求
+     */
+    private final Queue<PendingIncrement> pending = new ConcurrentLinkedQueue<>();
+    /**
+     * 是否已有刷新任务在执行
+     */
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    /**
+     * 开启hash tag前旧key中的值，没有旧key时为Long.MIN_VALUE；每个序列只查询一次
+     */
+    private final Map<String, Long> legacyValues = new ConcurrentHashMap<>();
 
     /**
      * 构造方法
@@ -39,27 +122,426 @@ public class ClusterGlobalSeqRepositoryImpl implements GlobalSeqRepository {
         this.cluster = cluster;
     }
 
+    /**
+     * 构造方法，批量刷新按节点合并管道
+     * @param provider
+     */
+    public ClusterGlobalSeqRepositoryImpl (ClusterConnectionProvider provider) {
+        this.provider = provider;
+        this.cluster = new UnifiedJedis(provider, JedisCluster.DEFAULT_MAX_ATTEMPTS,
+                Duration.ofMillis((long) JedisCluster.DEFAULT_TIMEOUT * JedisCluster.DEFAULT_MAX_ATTEMPTS));
+    }
+
+    /**
+     * 序列在redis中的key
+     *
+     * @param seqName
+     * @return
+     */
+    public String key(String seqName) {
+        String group = hashTagResolver == null ? null : hashTagResolver.apply(seqName);
+        if (group == null) {
+            return seqPrefix + seqName;
+        }
+        return seqPrefix + "{" + group + "}:" + seqName;
+    }
+
+    /**
+     * 新key的初始值，不小于开启hash tag前旧key中的值
+     *
+     * @param seqName
+     * @param start
+     * @return
+     */
+    private long start(String seqName, long start) {
+        if (hashTagResolver == null) {
+            return start;
+        }
+        String legacyKey = seqPrefix + seqName;
+        if (legacyKey.equals(key(seqName))) {
+            return start;
+        }
+        long legacy = legacyValues.computeIfAbsent(seqName, name -> {
+            String value = cluster.get(legacyKey);
+            if (value == null) {
+                return Long.MIN_VALUE;
+            }
+            log.warn("开启hash tag前的序列key仍然存在，新key以其值为初始值:{},{}", legacyKey, value);
+            return Long.parseLong(value);
+        });
+        return Math.max(start, legacy);
+    }
+
     @Override
     public int createSeq(GlobalSeqPo po) {
-        long result = cluster.setnx(seqPrefix + po.getSeqName(), po.getCurrentValue().toString());
+        long result = cluster.setnx(key(po.getSeqName()), Long.toString(start(po.getSeqName(), po.getCurrentValue())));
         log.info("创建序列:{}", result);
         return (int)result;
     }
 
     @Override
     public Optional<GlobalSeqPo> loadSeq(String seqName) {
-        String result = cluster.get(this.seqPrefix +  seqName);
+        String result = cluster.get(key(seqName));
         log.info("加载序列:{}", result);
         if(result == null){
-            return Optional.empty();
+            // 新key还没有创建，返回旧key的值
+            long legacy = start(seqName, Long.MIN_VALUE);
+            return legacy == Long.MIN_VALUE ? Optional.empty() : Optional.of(new GlobalSeqPo(seqName, legacy));
         }
         return Optional.of(new GlobalSeqPo(seqName, Long.parseLong(result)));
     }
 
+    /**
+     * 新key不存在时以old创建再增加，避免loadSeq返回旧key的值时从0开始
+     */
     @Override
     public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
-        Long result = cluster.incrBy(this.seqPrefix + seqName, step);
-        log.info("锁定序列成功:{}", result);
-        return Optional.of(new GlobalSeqPo(seqName, result));
+        return Optional.of(incrementAndGet(seqName, step, old));
+    }
+
+    /**
+     * 序列不存在时以start创建，再锁定一段step，一次往返
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 锁定后的序列值
+     */
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        String key = key(seqName);
+        Object result = SeqScript.INCR.eval(cluster, Collections.singletonList(key),
+                args(Collections.singletonList(new SeqIncrement(seqName, step, start(seqName, start)))));
+        long value = ((Number) result).longValue();
+        log.info("锁定序列成功:{},{}", seqName, value);
+        return new GlobalSeqPo(seqName, value);
+    }
+
+    /**
+     * 批量刷新多个序列
+     *
+     * 同一slot的序列合并为一次脚本调用，同一节点(或slot)的脚本调用合并为一个管道，节点之间并行。
+     * 管道中执行失败(如slot迁移)的脚本调用，只把它的序列退回逐个刷新，由集群客户端处理重定向；
+     * 已经成功的slot不再重复刷新。
+     *
+     * @param increments
+     * @return 序列名称到锁定后序列值
+     */
+    public Map<String, GlobalSeqPo> incrementAll(Collection<SeqIncrement> increments) {
+        // 按slot分组
+        Map<Integer, List<SeqIncrement>> slots = new LinkedHashMap<>();
+        for (SeqIncrement increment : increments) {
+            String seqName = increment.getSeqName();
+            int slot = JedisClusterCRC16.getSlot(key(seqName));
+            slots.computeIfAbsent(slot, s -> new ArrayList<>())
+                    .add(new SeqIncrement(seqName, increment.getStep(), start(seqName, increment.getStart())));
+        }
+
+        // 按节点分组，没有provider时每个slot单独一组
+        Map<Object, Map<Integer, List<SeqIncrement>>> nodes = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<SeqIncrement>> entry : slots.entrySet()) {
+            Object node = provider != null ? provider.getNode(entry.getKey()) : entry.getKey();
+            nodes.computeIfAbsent(node, n -> new LinkedHashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+        log.info("批量刷新序列:{}个，{}个slot，{}个分组", increments.size(), slots.size(), nodes.size());
+
+        Executor executor = executor();
+        List<CompletableFuture<Map<String, GlobalSeqPo>>> futures = new ArrayList<>(nodes.size());
+        for (Map<Integer, List<SeqIncrement>> group : nodes.values()) {
+            try {
+                futures.add(CompletableFuture.supplyAsync(() -> incrementGroup(group), executor));
+            } catch (RejectedExecutionException e) {
+                // 线程池已关闭，在调用线程执行
+                futures.add(CompletableFuture.completedFuture(incrementGroup(group)));
+            }
+        }
+
+        Map<String, GlobalSeqPo> result = new LinkedHashMap<>();
+        for (CompletableFuture<Map<String, GlobalSeqPo>> future : futures) {
+            result.putAll(future.join());
+        }
+        return result;
+    }
+
+    /**
+     * 在一个节点上用一个管道刷新多个slot，失败的slot逐个刷新
+     */
+    private Map<String, GlobalSeqPo> incrementGroup(Map<Integer, List<SeqIncrement>> group) {
+        int firstSlot = group.keySet().iterator().next();
+        List<List<SeqIncrement>> batches = new ArrayList<>(group.values());
+        Map<String, GlobalSeqPo> result = new LinkedHashMap<>();
+        List<List<SeqIncrement>> failed = new ArrayList<>();
+        try (Connection connection = connection(firstSlot)) {
+            Pipeline pipeline = new Pipeline(connection);
+            List<Response<Object>> responses = new ArrayList<>(batches.size());
+            for (List<SeqIncrement> batch : batches) {
+                responses.add(SeqScript.INCR_MULTI.eval(pipeline, keys(batch), args(batch)));
+            }
+            pipeline.sync();
+
+            List<List<SeqIncrement>> noScript = new ArrayList<>();
+            collect(batches, responses, result, noScript, failed);
+            if (!noScript.isEmpty()) {
+                log.info("服务端未缓存序列脚本，使用EVAL重试:{}个slot", noScript.size());
+                responses.clear();
+                for (List<SeqIncrement> batch : noScript) {
+                    responses.add(SeqScript.INCR_MULTI.evalSource(pipeline, keys(batch), args(batch)));
+                }
+                pipeline.sync();
+                collect(noScript, responses, result, null, failed);
+            }
+        } catch (Exception e) {
+            // 连接或管道整体失败，还没有拿到结果的slot都逐个刷新
+            log.warn("管道刷新序列失败:{}", e.getMessage());
+            failed.clear();
+            for (List<SeqIncrement> batch : batches) {
+                if (!result.containsKey(batch.get(0).getSeqName())) {
+                    failed.add(batch);
+                }
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            if (provider != null) {
+                provider.renewSlotCache();
+            }
+            for (List<SeqIncrement> batch : failed) {
+                for (SeqIncrement increment : batch) {
+                    result.put(increment.getSeqName(),
+                            incrementAndGet(increment.getSeqName(), increment.getStep(), increment.getStart()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取管道的结果，成功的放入result；NOSCRIPT的放入noScript(为null时视为失败)，其他失败放入failed
+     */
+    private void collect(List<List<SeqIncrement>> batches, List<Response<Object>> responses,
+            Map<String, GlobalSeqPo> result, List<List<SeqIncrement>> noScript, List<List<SeqIncrement>> failed) {
+        for (int i = 0; i < batches.size(); i++) {
+            List<SeqIncrement> batch = batches.get(i);
+            List<?> values;
+            try {
+                values = (List<?>) responses.get(i).get();
+            } catch (Exception e) {
+                if (noScript != null && SeqScript.isNoScript(e)) {
+                    noScript.add(batch);
+                } else {
+                    log.warn("slot刷新失败，逐个刷新{}个序列:{}", batch.size(), e.getMessage());
+                    failed.add(batch);
+                }
+                continue;
+            }
+            for (int j = 0; j < batch.size(); j++) {
+                String seqName = batch.get(j).getSeqName();
+                result.put(seqName, new GlobalSeqPo(seqName, ((Number) values.get(j)).longValue()));
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> createSeqAsync(GlobalSeqPo po) {
+        return supplyAsync(() -> createSeq(po));
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> loadSeqAsync(String seqName) {
+        return supplyAsync(() -> loadSeq(seqName));
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> lockSeqAsync(String seqName, long step, long old) {
+        return incrementAndGetAsync(seqName, step, old).thenApply(Optional::of);
+    }
+
+    /**
+     * 异步锁定一段序列，与其他排队的请求合并为一次incrementAll
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 锁定后的序列值
+     */
+    @Override
+    public CompletableFuture<GlobalSeqPo> incrementAndGetAsync(String seqName, long step, long start) {
+        PendingIncrement request = new PendingIncrement(new SeqIncrement(seqName, step, start));
+        pending.add(request);
+        if (flushing.compareAndSet(false, true)) {
+            execute(this::flush);
+        }
+        return request.future;
+    }
+
+    /**
+     * 取出排队的请求批量刷新；incrementAll的结果按序列名称返回，同一序列的多个请求分到不同批次
+     */
+    private void flush() {
+        try {
+            List<PendingIncrement> deferred = new ArrayList<>();
+            PendingIncrement request;
+            while (true) {
+                Map<String, PendingIncrement> batch = new LinkedHashMap<>();
+                for (Iterator<PendingIncrement> it = deferred.iterator(); it.hasNext(); ) {
+                    PendingIncrement item = it.next();
+                    if (batch.putIfAbsent(item.increment.getSeqName(), item) == null) {
+                        it.remove();
+                    }
+                }
+                while ((request = pending.poll()) != null) {
+                    if (batch.putIfAbsent(request.increment.getSeqName(), request) != null) {
+                        deferred.add(request);
+                    }
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                List<SeqIncrement> increments = new ArrayList<>(batch.size());
+                for (PendingIncrement item : batch.values()) {
+                    increments.add(item.increment);
+                }
+                try {
+                    Map<String, GlobalSeqPo> values = incrementAll(increments);
+                    for (PendingIncrement item : batch.values()) {
+                        item.future.complete(values.get(item.increment.getSeqName()));
+                    }
+                } catch (Exception e) {
+                    log.error("异步批量锁定序列失败:{}", e.getMessage(), e);
+                    for (PendingIncrement item : batch.values()) {
+                        item.future.completeExceptionally(e);
+                    }
+                }
+            }
+        } finally {
+            flushing.set(false);
+            // 释放标记后才入队的请求
+            if (!pending.isEmpty() && flushing.compareAndSet(false, true)) {
+                execute(this::flush);
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 在异步刷新线程执行，不使用batchExecutor，避免等待自己提交的批量任务；已关闭时在调用线程执行
+     */
+    private void execute(Runnable task) {
+        Executor executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                if (closed) {
+                    executor = Runnable::run;
+                } else {
+                    if (asyncExecutor == null) {
+                        asyncExecutor = Executors.newSingleThreadExecutor(r -> {
+                            Thread t = new Thread(r, "global-seq-cluster-async");
+                            t.setDaemon(true);
+                            return t;
+                        });
+                    }
+                    executor = asyncExecutor;
+                }
+            }
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private Connection connection(int slot) {
+        if (provider != null) {
+            return provider.getConnectionFromSlot(slot);
+        }
+        return ((JedisCluster) cluster).getConnectionFromSlot(slot);
+    }
+
+    private List<String> keys(List<SeqIncrement> batch) {
+        List<String> keys = new ArrayList<>(batch.size());
+        for (SeqIncrement increment : batch) {
+            keys.add(key(increment.getSeqName()));
+        }
+        return keys;
+    }
+
+    private static List<String> args(List<SeqIncrement> batch) {
+        List<String> args = new ArrayList<>(batch.size() * 2);
+        for (SeqIncrement increment : batch) {
+            args.add(Long.toString(increment.getStep()));
+            args.add(Long.toString(increment.getStart()));
+        }
+        return args;
+    }
+
+    /**
+     * 关闭内置的批量刷新线程池和异步刷新线程，通过batchExecutor传入的线程池由调用方关闭
+     */
+    @Override
+    public void close() {
+        ExecutorService executor;
+        ExecutorService async;
+        synchronized (this) {
+            closed = true;
+            executor = defaultExecutor;
+            defaultExecutor = null;
+            async = asyncExecutor;
+            asyncExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (async != null) {
+            async.shutdown();
+        }
+    }
+
+    private Executor executor() {
+        if (batchExecutor != null) {
+            return batchExecutor;
+        }
+        ExecutorService executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                if (closed) {
+                    return Runnable::run;
+                }
+                executor = defaultExecutor;
+                if (executor == null) {
+                    executor = Executors.newCachedThreadPool(r -> {
+                        Thread t = new Thread(r, "global-seq-cluster-batch");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 排队中的异步刷新请求
+     */
+    private static final class PendingIncrement {
+        final SeqIncrement increment;
+        final CompletableFuture<GlobalSeqPo> future = new CompletableFuture<>();
+
+        PendingIncrement(SeqIncrement increment) {
+            this.increment = increment;
+        }
     }
 }
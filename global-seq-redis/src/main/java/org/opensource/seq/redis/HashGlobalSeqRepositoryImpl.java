@@ -0,0 +1,279 @@
+package org.opensource.seq.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.opensource.seq.core.AtomicIncrementRepository;
+import org.opensource.seq.core.GlobalSeqPo;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.UnifiedJedis;
+
+/**
+ * 基于hash的全局序列redis存储实现
+ *
+ * 序列名称按namespaceSeparator拆成命名空间和字段，例如tenant1:order，命名空间tenant1，字段order。
+ * 不含分隔符的序列放在defaultNamespace，字段前加分隔符，例如order的字段为:order：
+ * 显式命名空间的字段不含分隔符，因此order与default:order是两个字段，不会重复。
+ * 同一命名空间的序列按字段hash分到buckets个hash中，key为sequence:{tenant1}:3：
+ * 1. 每个序列只是hash的一个字段，小hash使用紧凑编码，大量序列时内存远小于独立key
+ * 2. key使用命名空间作为hash tag，一个命名空间的所有bucket在同一slot，
+ *    命名空间内的批量刷新和加载都是一次脚本调用
+ *
+ * 同时支持单机(JedisPooled)和集群(JedisCluster)。
+ *
+ * @author wutianbiao
+ * @date 2022-06-18
+ */
+@Slf4j
+public class HashGlobalSeqRepositoryImpl implements AtomicIncrementRepository {
+
+    /**
+     * 全局序列在redis中的前缀
+     */
+    @Setter
+    @Getter
+    private String seqPrefix = "sequence:";
+    /**
+     * 命名空间与字段的分隔符，取最后一个分隔符之前的部分作为命名空间
+     */
+    @Setter
+    @Getter
+    private String namespaceSeparator = ":";
+    /**
+     * 序列名称不含分隔符时使用的命名空间
+     */
+    @Setter
+    @Getter
+    private String defaultNamespace = "default";
+    /**
+     * 每个命名空间的bucket个数，建议让每个hash的字段数不超过hash-max-listpack-entries(默认128)
+     */
+    @Setter
+    @Getter
+    private int buckets = 16;
+
+    /**
+     * redis连接，单机或集群
+     */
+    private UnifiedJedis jedis;
+
+    /**
+     * 构造方法
+     * @param jedis JedisPooled或JedisCluster
+     */
+    public HashGlobalSeqRepositoryImpl(UnifiedJedis jedis) {
+        this.jedis = jedis;
+    }
+
+    /**
+     * 序列所在的命名空间
+     *
+     * @param seqName
+     * @return
+     */
+    public String namespace(String seqName) {
+        int index = seqName.lastIndexOf(namespaceSeparator);
+        return index > 0 ? seqName.substring(0, index) : defaultNamespace;
+    }
+
+    /**
+     * 序列在hash中的字段，不含命名空间的序列以分隔符开头
+     */
+    private String field(String seqName) {
+        int index = seqName.lastIndexOf(namespaceSeparator);
+        return index > 0 ? seqName.substring(index + namespaceSeparator.length()) : namespaceSeparator + seqName;
+    }
+
+    /**
+     * 由命名空间和字段还原序列名称，{@link #field(String)}的逆运算
+     */
+    private String seqName(String namespace, String field) {
+        if (defaultNamespace.equals(namespace) && field.startsWith(namespaceSeparator)) {
+            return field.substring(namespaceSeparator.length());
+        }
+        return namespace + namespaceSeparator + field;
+    }
+
+    /**
+     * 序列所在hash的key
+     */
+    private String key(String namespace, String field) {
+        return bucketKey(namespace, Math.floorMod(field.hashCode(), buckets));
+    }
+
+    private String bucketKey(String namespace, int bucket) {
+        return seqPrefix + "{" + namespace + "}:" + bucket;
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        String namespace = namespace(po.getSeqName());
+        String field = field(po.getSeqName());
+        long result = jedis.hsetnx(key(namespace, field), field, po.getCurrentValue().toString());
+        log.info("创建序列:{},{}", po.getSeqName(), result);
+        return (int) result;
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        String field = field(seqName);
+        String result = jedis.hget(key(namespace(seqName), field), field);
+        log.info("加载序列:{},{}", seqName, result);
+        if (result == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new GlobalSeqPo(seqName, Long.parseLong(result)));
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        return Optional.of(incrementAndGet(seqName, step, old));
+    }
+
+    /**
+     * 序列不存在时以start创建，再锁定一段step，一次往返
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 锁定后的序列值
+     */
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        List<SeqIncrement> batch = new ArrayList<>(1);
+        batch.add(new SeqIncrement(seqName, step, start));
+        List<?> values = (List<?>) SeqScript.HINCR_MULTI.eval(jedis, keys(batch), args(batch));
+        long value = ((Number) values.get(0)).longValue();
+        log.info("锁定序列成功:{},{}", seqName, value);
+        return new GlobalSeqPo(seqName, value);
+    }
+
+    /**
+     * 批量刷新多个序列
+     *
+     * 同一命名空间的序列合并为一次脚本调用；单机时多个命名空间再合并为一个管道
+     *
+     * @param increments
+     * @return 序列名称到锁定后序列值
+     */
+    public Map<String, GlobalSeqPo> incrementAll(Collection<SeqIncrement> increments) {
+        Map<String, List<SeqIncrement>> namespaces = new LinkedHashMap<>();
+        for (SeqIncrement increment : increments) {
+            namespaces.computeIfAbsent(namespace(increment.getSeqName()), n -> new ArrayList<>()).add(increment);
+        }
+
+        List<List<?>> results = new ArrayList<>(namespaces.size());
+        if (jedis instanceof JedisPooled && namespaces.size() > 1) {
+            results.addAll(pipelined(namespaces.values()));
+        } else {
+            for (List<SeqIncrement> batch : namespaces.values()) {
+                results.add((List<?>) SeqScript.HINCR_MULTI.eval(jedis, keys(batch), args(batch)));
+            }
+        }
+
+        Map<String, GlobalSeqPo> result = new LinkedHashMap<>();
+        int i = 0;
+        for (List<SeqIncrement> batch : namespaces.values()) {
+            List<?> values = results.get(i++);
+            for (int j = 0; j < batch.size(); j++) {
+                String seqName = batch.get(j).getSeqName();
+                result.put(seqName, new GlobalSeqPo(seqName, ((Number) values.get(j)).longValue()));
+            }
+        }
+        log.info("批量锁定序列成功:{}个命名空间，{}个序列", namespaces.size(), result.size());
+        return result;
+    }
+
+    /**
+     * 一次往返加载命名空间下的所有序列
+     *
+     * @param namespace
+     * @return 序列名称到当前值
+     */
+    public Map<String, Long> loadNamespace(String namespace) {
+        List<String> keys = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            keys.add(bucketKey(namespace, i));
+        }
+        List<?> hashes = (List<?>) SeqScript.HGETALL_MULTI.eval(jedis, keys, new ArrayList<>());
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Object hash : hashes) {
+            List<?> pairs = (List<?>) hash;
+            for (int i = 0; i + 1 < pairs.size(); i += 2) {
+                result.put(seqName(namespace, pairs.get(i).toString()), Long.parseLong(pairs.get(i + 1).toString()));
+            }
+        }
+        log.info("加载命名空间序列:{},{}个", namespace, result.size());
+        return result;
+    }
+
+    /**
+     * 单机时在一个连接上管道化执行多个命名空间的脚本
+     */
+    private List<List<?>> pipelined(Collection<List<SeqIncrement>> batches) {
+        List<Response<Object>> responses = new ArrayList<>(batches.size());
+        try (Connection connection = ((JedisPooled) jedis).getPool().getResource()) {
+            Pipeline pipeline = new Pipeline(connection);
+            for (List<SeqIncrement> batch : batches) {
+                responses.add(SeqScript.HINCR_MULTI.eval(pipeline, keys(batch), args(batch)));
+            }
+            pipeline.sync();
+
+            boolean noScript = false;
+            for (Response<Object> response : responses) {
+                try {
+                    response.get();
+                } catch (Exception e) {
+                    if (!SeqScript.isNoScript(e)) {
+                        throw e;
+                    }
+                    noScript = true;
+                }
+            }
+            if (noScript) {
+                log.info("服务端未缓存序列脚本，使用EVAL重试");
+                responses.clear();
+                for (List<SeqIncrement> batch : batches) {
+                    responses.add(SeqScript.HINCR_MULTI.evalSource(pipeline, keys(batch), args(batch)));
+                }
+                pipeline.sync();
+            }
+        }
+
+        List<List<?>> results = new ArrayList<>(responses.size());
+        for (Response<Object> response : responses) {
+            results.add((List<?>) response.get());
+        }
+        return results;
+    }
+
+    private List<String> keys(List<SeqIncrement> batch) {
+        List<String> keys = new ArrayList<>(batch.size());
+        for (SeqIncrement increment : batch) {
+            keys.add(key(namespace(increment.getSeqName()), field(increment.getSeqName())));
+        }
+        return keys;
+    }
+
+    private List<String> args(List<SeqIncrement> batch) {
+        List<String> args = new ArrayList<>(batch.size() * 3);
+        for (SeqIncrement increment : batch) {
+            args.add(field(increment.getSeqName()));
+            args.add(Long.toString(increment.getStep()));
+            args.add(Long.toString(increment.getStart()));
+        }
+        return args;
+    }
+}
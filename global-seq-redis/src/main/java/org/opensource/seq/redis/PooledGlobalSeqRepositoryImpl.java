@@ -1,9 +1,12 @@
 package org.opensource.seq.redis;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
+import org.opensource.seq.core.AtomicIncrementRepository;
 import org.opensource.seq.core.GlobalSeqPo;
-import org.opensource.seq.core.GlobalSeqRepository;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -17,7 +20,7 @@ import redis.clients.jedis.JedisPooled;
  * @date 2022-04-20
  */
 @Slf4j
-public class PooledGlobalSeqRepositoryImpl implements GlobalSeqRepository {
+public class PooledGlobalSeqRepositoryImpl implements AtomicIncrementRepository {
     
     /**
      * 全局序列在jimdb中的前缀
@@ -62,4 +65,22 @@ public class PooledGlobalSeqRepositoryImpl implements GlobalSeqRepository {
         log.info("锁定序列成功:{}", result);
         return Optional.of(new GlobalSeqPo(seqName, result));
     }
+
+    /**
+     * 序列不存在时以start创建，再锁定一段step，一次脚本调用完成
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 锁定后的序列值
+     */
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        List<String> args = new ArrayList<>(2);
+        args.add(Long.toString(step));
+        args.add(Long.toString(start));
+        Object result = SeqScript.INCR.eval(cluster, Collections.singletonList(this.seqPrefix + seqName), args);
+        log.info("锁定序列成功:{},{}", seqName, result);
+        return new GlobalSeqPo(seqName, ((Number) result).longValue());
+    }
 }
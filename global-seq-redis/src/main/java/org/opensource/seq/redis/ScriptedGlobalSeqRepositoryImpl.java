@@ -0,0 +1,367 @@
+package org.opensource.seq.redis;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.opensource.seq.core.AsyncGlobalSeqRepository;
+import org.opensource.seq.core.AtomicIncrementRepository;
+import org.opensource.seq.core.GlobalSeqPo;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.SetParams;
+
+/**
+ * 基于lua脚本的全局序列redis存储实现
+ *
+ * 刷新使用一个服务端脚本，序列不存在时先以初始值创建，再INCRBY步长，一次往返完成；
+ * 已经刷新过的序列，loadSeq直接返回本地记录的最后一次锁定值，不再GET。
+ * key丢失(过期、误删、主从切换)后，脚本以本地记录的最后一次锁定值和start中较大的一个重建，不从start开始重复。
+ *
+ * 同时实现{@link AsyncGlobalSeqRepository}：jedis是阻塞客户端，异步刷新请求先排队，
+ * 由一个刷新线程把排队的请求合并为一个管道发送，任意多个进行中的刷新只占用这一个线程；
+ * 应用停止时调用{@link #close()}关闭刷新线程。
+ *
+ * @author wutianbiao
+ * @date 2022-06-15
+ */
+@Slf4j
+public class ScriptedGlobalSeqRepositoryImpl implements AtomicIncrementRepository, AsyncGlobalSeqRepository, Closeable {
+
+    /**
+     * 全局序列在redis中的前缀
+     */
+    @Setter
+    @Getter
+    private String seqPrefix = "sequence:";
+    /**
+     * 异步刷新时一个管道最多合并的请求数
+     */
+    @Setter
+    @Getter
+    private int maxBatch = 128;
+
+    /**
+     * redis连接
+     */
+    private JedisPooled jedis;
+
+    /**
+     * 每个序列最后一次锁定的值，只增不减；key丢失时loadSeq返回它，刷新以它和start中较大的一个为初始值重建，避免重复
+     */
+    private final Map<String, Long> lastValues = new ConcurrentHashMap<>();
+    /**
+     * 排队中的异步刷新请求
+     */
+    private final Queue<PendingIncrement> pending = new ConcurrentLinkedQueue<>();
+    /**
+     * 是否已有刷新任务在执行
+     */
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    /**
+     * 异步调用的执行线程，第一次异步调用时创建
+     */
+    private volatile ExecutorService asyncExecutor;
+    /**
+     * 是否已关闭，关闭后异步调用在调用线程执行
+     */
+    private volatile boolean closed;
+
+    /**
+     * 构造方法
+     * @param jedis
+     */
+    public ScriptedGlobalSeqRepositoryImpl(JedisPooled jedis) {
+        this.jedis = jedis;
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        String result = jedis.set(seqPrefix + po.getSeqName(), po.getCurrentValue().toString(), SetParams.setParams().nx());
+        log.info("创建序列:{},{}", po.getSeqName(), result);
+        if (result == null) {
+            return 0;
+        }
+        lastValues.merge(po.getSeqName(), po.getCurrentValue(), Math::max);
+        return 1;
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        Long last = lastValues.get(seqName);
+        if (last != null) {
+            return Optional.of(new GlobalSeqPo(seqName, last));
+        }
+        String result = jedis.get(this.seqPrefix + seqName);
+        log.info("加载序列:{}", result);
+        if (result == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new GlobalSeqPo(seqName, Long.parseLong(result)));
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        return Optional.of(incrementAndGet(seqName, step, old));
+    }
+
+    /**
+     * 序列不存在时以start(不小于本地记录的最后一次锁定值)创建，再锁定一段step，一次往返
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 锁定后的序列值
+     */
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        Object result = SeqScript.INCR.eval(jedis,
+                Collections.singletonList(seqPrefix + seqName),
+                args(step, start(seqName, start)));
+        long value = ((Number) result).longValue();
+        lastValues.merge(seqName, value, Math::max);
+        log.info("锁定序列成功:{},{}", seqName, value);
+        return new GlobalSeqPo(seqName, value);
+    }
+
+    @Override
+    public CompletableFuture<Integer> createSeqAsync(GlobalSeqPo po) {
+        return supplyAsync(() -> createSeq(po));
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> loadSeqAsync(String seqName) {
+        return supplyAsync(() -> loadSeq(seqName));
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> lockSeqAsync(String seqName, long step, long old) {
+        return incrementAndGetAsync(seqName, step, old).thenApply(Optional::of);
+    }
+
+    /**
+     * 异步锁定一段序列，与其他排队的请求合并到一个管道
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 锁定后的序列值
+     */
+    @Override
+    public CompletableFuture<GlobalSeqPo> incrementAndGetAsync(String seqName, long step, long start) {
+        PendingIncrement request = new PendingIncrement(new SeqIncrement(seqName, step, start(seqName, start)));
+        pending.add(request);
+        scheduleFlush();
+        return request.future;
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 关闭异步刷新线程，已排队的请求执行完后退出
+     */
+    @Override
+    public void close() {
+        ExecutorService executor;
+        synchronized (this) {
+            closed = true;
+            executor = asyncExecutor;
+            asyncExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * key丢失后重建的初始值，不小于本地记录的最后一次锁定值
+     */
+    private long start(String seqName, long start) {
+        Long last = lastValues.get(seqName);
+        return last == null ? start : Math.max(start, last);
+    }
+
+    private void scheduleFlush() {
+        if (flushing.compareAndSet(false, true)) {
+            execute(this::flush);
+        }
+    }
+
+    /**
+     * 取出排队的请求，每maxBatch个一个管道
+     */
+    private void flush() {
+        try {
+            List<PendingIncrement> batch = new ArrayList<>();
+            PendingIncrement request;
+            while (true) {
+                while (batch.size() < maxBatch && (request = pending.poll()) != null) {
+                    batch.add(request);
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                List<SeqIncrement> increments = new ArrayList<>(batch.size());
+                for (PendingIncrement item : batch) {
+                    increments.add(item.increment);
+                }
+                try {
+                    List<Long> values = pipelined(increments);
+                    for (int i = 0; i < batch.size(); i++) {
+                        PendingIncrement item = batch.get(i);
+                        item.future.complete(new GlobalSeqPo(item.increment.getSeqName(), values.get(i)));
+                    }
+                    log.info("异步批量锁定序列成功:{}个", batch.size());
+                } catch (Exception e) {
+                    log.error("异步批量锁定序列失败:{}", e.getMessage(), e);
+                    for (PendingIncrement item : batch) {
+                        item.future.completeExceptionally(e);
+                    }
+                }
+                batch.clear();
+            }
+        } finally {
+            flushing.set(false);
+            // 释放标记后才入队的请求
+            if (!pending.isEmpty()) {
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * 在一个连接上管道化执行，按顺序返回锁定后的序列值
+     */
+    private List<Long> pipelined(Collection<SeqIncrement> increments) {
+        List<Response<Object>> responses = new ArrayList<>(increments.size());
+        try (Connection connection = jedis.getPool().getResource()) {
+            Pipeline pipeline = new Pipeline(connection);
+            for (SeqIncrement increment : increments) {
+                responses.add(SeqScript.INCR.eval(pipeline, keys(increment), args(increment)));
+            }
+            pipeline.sync();
+
+            // 服务端没有缓存脚本时，用脚本原文重发一次
+            if (SeqScript.isNoScript(failure(responses))) {
+                log.info("服务端未缓存序列脚本，使用EVAL重试");
+                responses.clear();
+                for (SeqIncrement increment : increments) {
+                    responses.add(SeqScript.INCR.evalSource(pipeline, keys(increment), args(increment)));
+                }
+                pipeline.sync();
+            }
+        }
+
+        List<Long> values = new ArrayList<>(increments.size());
+        int i = 0;
+        for (SeqIncrement increment : increments) {
+            long value = ((Number) responses.get(i++).get()).longValue();
+            lastValues.merge(increment.getSeqName(), value, Math::max);
+            values.add(value);
+        }
+        return values;
+    }
+
+    private Executor executor() {
+        ExecutorService executor = asyncExecutor;
+        if (executor != null) {
+            return executor;
+        }
+        synchronized (this) {
+            if (closed) {
+                return Runnable::run;
+            }
+            if (asyncExecutor == null) {
+                asyncExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "global-seq-redis-async");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            return asyncExecutor;
+        }
+    }
+
+    /**
+     * 在刷新线程执行，线程已关闭时在调用线程执行
+     */
+    private void execute(Runnable task) {
+        try {
+            executor().execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private List<String> keys(SeqIncrement increment) {
+        return Collections.singletonList(seqPrefix + increment.getSeqName());
+    }
+
+    private static List<String> args(SeqIncrement increment) {
+        return args(increment.getStep(), increment.getStart());
+    }
+
+    private static List<String> args(long step, long start) {
+        List<String> args = new ArrayList<>(2);
+        args.add(Long.toString(step));
+        args.add(Long.toString(start));
+        return args;
+    }
+
+    /**
+     * 管道中第一个失败的响应
+     */
+    private static Exception failure(List<Response<Object>> responses) {
+        for (Response<Object> response : responses) {
+            try {
+                response.get();
+            } catch (Exception e) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 排队中的异步刷新请求
+     */
+    private static final class PendingIncrement {
+        final SeqIncrement increment;
+        final CompletableFuture<GlobalSeqPo> future = new CompletableFuture<>();
+
+        PendingIncrement(SeqIncrement increment) {
+            this.increment = increment;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.opensource.seq.redis;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量刷新时单个序列的参数
+ *
+ * @author wutianbiao
+ * @date 2022-06-15
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeqIncrement {
+    /**
+     * 序列名称
+     */
+    private String seqName;
+    /**
+     * 本次锁定的长度
+     */
+    private long step;
+    /**
+     * 序列不存在时的初始值
+     */
+    private long start;
+}
@@ -0,0 +1,129 @@
+package org.opensource.seq.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * 序列使用的服务端lua脚本
+ *
+ * 优先使用EVALSHA只传脚本摘要，服务端没有缓存脚本(NOSCRIPT)时退回EVAL，EVAL会顺带缓存脚本
+ *
+ * @author wutianbiao
+ * @date 2022-06-15
+ */
+final class SeqScript {
+    /**
+     * 不存在时用ARGV[2]创建序列，再增加ARGV[1]，返回增加后的值
+     */
+    static final SeqScript INCR = new SeqScript(
+            "redis.call('set', KEYS[1], ARGV[2], 'NX')\n"
+            + "return redis.call('incrby', KEYS[1], ARGV[1])");
+    /**
+     * 多个key的INCR，ARGV按(步长, 初始值)成对排列，返回增加后的值数组；所有key必须在同一个slot
+     */
+    static final SeqScript INCR_MULTI = new SeqScript(
+            "local result = {}\n"
+            + "for i = 1, #KEYS do\n"
+            + "  redis.call('set', KEYS[i], ARGV[i * 2], 'NX')\n"
+            + "  result[i] = redis.call('incrby', KEYS[i], ARGV[i * 2 - 1])\n"
+            + "end\n"
+            + "return result");
+    /**
+     * hash字段的INCR，KEYS[i]对应ARGV中第i组(字段, 步长, 初始值)，返回增加后的值数组；所有key必须在同一个slot
+     */
+    static final SeqScript HINCR_MULTI = new SeqScript(
+            "local result = {}\n"
+            + "for i = 1, #KEYS do\n"
+            + "  local field = ARGV[i * 3 - 2]\n"
+            + "  redis.call('hsetnx', KEYS[i], field, ARGV[i * 3])\n"
+            + "  result[i] = redis.call('hincrby', KEYS[i], field, ARGV[i * 3 - 1])\n"
+            + "end\n"
+            + "return result");
+    /**
+     * 读取多个hash的全部字段，返回每个key的HGETALL结果；所有key必须在同一个slot
+     */
+    static final SeqScript HGETALL_MULTI = new SeqScript(
+            "local result = {}\n"
+            + "for i = 1, #KEYS do\n"
+            + "  result[i] = redis.call('hgetall', KEYS[i])\n"
+            + "end\n"
+            + "return result");
+
+    /**
+     * 脚本内容
+     */
+    private final String source;
+    /**
+     * 脚本的sha1摘要
+     */
+    private final String sha;
+
+    SeqScript(String source) {
+        this.source = source;
+        this.sha = sha1(source);
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    String getSha() {
+        return sha;
+    }
+
+    /**
+     * 执行脚本
+     */
+    Object eval(UnifiedJedis jedis, List<String> keys, List<String> args) {
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisDataException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            return jedis.eval(source, keys, args);
+        }
+    }
+
+    /**
+     * 在管道中追加一次脚本执行
+     */
+    Response<Object> eval(Pipeline pipeline, List<String> keys, List<String> args) {
+        return pipeline.evalsha(sha, keys, args);
+    }
+
+    /**
+     * 在管道中追加一次脚本执行，不使用摘要，用于NOSCRIPT后的重试
+     */
+    Response<Object> evalSource(Pipeline pipeline, List<String> keys, List<String> args) {
+        return pipeline.eval(source, keys, args);
+    }
+
+    /**
+     * 服务端没有缓存该脚本
+     */
+    static boolean isNoScript(Exception e) {
+        return e instanceof JedisDataException && e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT");
+    }
+
+    private static String sha1(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
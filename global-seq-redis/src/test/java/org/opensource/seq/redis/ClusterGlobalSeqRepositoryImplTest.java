@@ -0,0 +1,226 @@
+package org.opensource.seq.redis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensource.seq.core.GlobalSeqPo;
+
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+/**
+ * redis集群存储的单元测试，使用单节点的内存redis服务端
+ *
+ * @author wutianbiao
+ * @date 2022-07-15
+ */
+public class ClusterGlobalSeqRepositoryImplTest {
+    private FakeRedisServer server;
+    private HostAndPort node;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeRedisServer();
+        node = new HostAndPort("127.0.0.1", server.getPort());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    /**
+     * 创建、加载、锁定和一次往返的刷新；设置hashTagResolver后key带hash tag
+     */
+    @Test
+    public void testSingle() {
+        try (JedisCluster cluster = new JedisCluster(node)) {
+            ClusterGlobalSeqRepositoryImpl repository = new ClusterGlobalSeqRepositoryImpl(cluster);
+            assertFalse(repository.loadSeq("cluster").isPresent());
+            assertEquals(1, repository.createSeq(new GlobalSeqPo("cluster", 100L)));
+            assertEquals(0, repository.createSeq(new GlobalSeqPo("cluster", 200L)));
+            assertEquals(100L, repository.loadSeq("cluster").get().getCurrentValue());
+            assertEquals(110L, repository.lockSeq("cluster", 10, 100).get().getCurrentValue());
+            assertEquals(120L, repository.incrementAndGet("cluster", 10, 0).getCurrentValue());
+            assertEquals(60L, repository.incrementAndGet("fresh", 10, 50).getCurrentValue());
+
+            repository.setHashTagResolver(seqName -> "tenant1");
+            assertEquals("sequence:{tenant1}:order", repository.key("order"));
+            repository.incrementAndGet("order", 10, 0);
+            assertEquals("10", server.get("sequence:{tenant1}:order"));
+            repository.close();
+        }
+    }
+
+    /**
+     * 开启hash tag前的key仍然存在时，新key以旧key的值为初始值，不从头开始
+     */
+    @Test
+    public void testLegacyKey() {
+        try (JedisCluster cluster = new JedisCluster(node)) {
+            ClusterGlobalSeqRepositoryImpl repository = new ClusterGlobalSeqRepositoryImpl(cluster);
+            repository.incrementAndGet("legacy", 100, 0);
+            repository.incrementAndGet("legacy_cas", 100, 0);
+            repository.incrementAndGet("legacy_all", 100, 0);
+
+            repository.setHashTagResolver(seqName -> "tenant1");
+            assertEquals(110L, repository.incrementAndGet("legacy", 10, 0).getCurrentValue());
+            assertEquals("110", server.get("sequence:{tenant1}:legacy"));
+
+            GlobalSeqPo loaded = repository.loadSeq("legacy_cas").get();
+            assertEquals(100L, loaded.getCurrentValue());
+            assertEquals(110L, repository.lockSeq("legacy_cas", 10, loaded.getCurrentValue()).get().getCurrentValue());
+
+            Map<String, GlobalSeqPo> values = repository.incrementAll(
+                    Collections.singletonList(new SeqIncrement("legacy_all", 10, 0)));
+            assertEquals(110L, values.get("legacy_all").getCurrentValue());
+
+            // 没有旧key的序列照常从初始值开始
+            assertEquals(10L, repository.incrementAndGet("fresh", 10, 0).getCurrentValue());
+            repository.close();
+        }
+    }
+
+    /**
+     * 并发的异步刷新排队后合并为incrementAll，同一序列的多个请求分批，值不重复；关闭后在调用线程执行
+     */
+    @Test
+    public void testAsync() throws Exception {
+        try (JedisCluster cluster = new JedisCluster(node)) {
+            ClusterGlobalSeqRepositoryImpl repository = new ClusterGlobalSeqRepositoryImpl(cluster);
+            repository.setHashTagResolver(seqName -> "async");
+            List<CompletableFuture<GlobalSeqPo>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(repository.incrementAndGetAsync("async_" + (i % 4), 10, 0));
+            }
+            Set<String> values = new HashSet<>();
+            for (CompletableFuture<GlobalSeqPo> future : futures) {
+                GlobalSeqPo po = future.get(5, TimeUnit.SECONDS);
+                assertTrue(values.add(po.getSeqName() + "=" + po.getCurrentValue()));
+            }
+            for (int i = 0; i < 4; i++) {
+                assertEquals("500", server.get("sequence:{async}:async_" + i));
+            }
+            // 同一slot的请求经过incrementAll合并为一次脚本调用，不是逐个刷新
+            assertTrue(server.count("EVALSHA") + server.count("EVAL") < 200);
+
+            repository.close();
+            assertEquals(510L, repository.incrementAndGetAsync("async_0", 10, 0).get(5, TimeUnit.SECONDS)
+                    .getCurrentValue());
+        }
+    }
+
+    /**
+     * 同一slot的序列一次脚本调用，所有slot的结果都正确
+     */
+    @Test
+    public void testIncrementAll() {
+        try (JedisCluster cluster = new JedisCluster(node)) {
+            ClusterGlobalSeqRepositoryImpl repository = new ClusterGlobalSeqRepositoryImpl(cluster);
+            repository.setHashTagResolver(seqName -> seqName.substring(0, seqName.indexOf('_')));
+            List<SeqIncrement> increments = new ArrayList<>();
+            for (String group : new String[] {"a", "b", "c"}) {
+                for (int i = 0; i < 3; i++) {
+                    increments.add(new SeqIncrement(group + "_" + i, 10, 100));
+                }
+            }
+
+            Map<String, GlobalSeqPo> result = repository.incrementAll(increments);
+            assertEquals(9, result.size());
+            for (SeqIncrement increment : increments) {
+                assertEquals(110L, result.get(increment.getSeqName()).getCurrentValue());
+            }
+            // 3个slot，每个slot一次EVALSHA，脚本缓存前的NOSCRIPT用EVAL重试
+            assertEquals(3, server.count("EVALSHA"));
+            int evals = server.count("EVAL");
+            assertTrue(evals >= 1);
+
+            result = repository.incrementAll(increments);
+            assertEquals(120L, result.get("b_2").getCurrentValue());
+            assertEquals(6, server.count("EVALSHA"));
+            assertEquals(evals, server.count("EVAL"));
+            repository.close();
+        }
+    }
+
+    /**
+     * 同一节点的管道中一个slot失败时，只把这个slot的序列逐个刷新，其他slot不重复锁定
+     */
+    @Test
+    public void testRetryFailedSlot() {
+        ClusterConnectionProvider provider = new ClusterConnectionProvider(
+                Collections.singleton(node), DefaultJedisClientConfig.builder().build());
+        ClusterGlobalSeqRepositoryImpl repository = new ClusterGlobalSeqRepositoryImpl(provider);
+        try {
+            List<SeqIncrement> increments = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                increments.add(new SeqIncrement("retry_" + i, 10, 0));
+            }
+            // 先刷新一次，服务端缓存脚本
+            repository.incrementAll(increments);
+            String failedKey = repository.key("retry_2");
+            for (int i = 0; i < 4; i++) {
+                if (i != 2) {
+                    assertNotEquals(JedisClusterCRC16.getSlot(failedKey),
+                            JedisClusterCRC16.getSlot(repository.key("retry_" + i)));
+                }
+            }
+
+            server.scriptFailures.put(failedKey, new AtomicInteger(1));
+            Map<String, GlobalSeqPo> result = repository.incrementAll(increments);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(20L, result.get("retry_" + i).getCurrentValue());
+                assertEquals("20", server.get(repository.key("retry_" + i)));
+            }
+        } finally {
+            repository.close();
+            provider.close();
+        }
+    }
+
+    /**
+     * 关闭后内置线程池停止，批量刷新在调用线程执行
+     */
+    @Test
+    public void testClose() throws InterruptedException {
+        try (JedisCluster cluster = new JedisCluster(node)) {
+            ClusterGlobalSeqRepositoryImpl repository = new ClusterGlobalSeqRepositoryImpl(cluster);
+            List<SeqIncrement> increments = Collections.singletonList(new SeqIncrement("closed", 10, 0));
+            repository.incrementAll(increments);
+            assertTrue(batchThreads() > 0);
+
+            repository.close();
+            for (int i = 0; i < 500 && batchThreads() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, batchThreads());
+            assertEquals(20L, repository.incrementAll(increments).get("closed").getCurrentValue());
+            assertEquals(0, batchThreads());
+        }
+    }
+
+    private static long batchThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("global-seq-cluster-batch"))
+                .count();
+    }
+}
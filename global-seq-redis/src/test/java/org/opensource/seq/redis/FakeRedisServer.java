@@ -0,0 +1,346 @@
+package org.opensource.seq.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单元测试使用的内存redis服务端
+ *
+ * 实现RESP协议和序列用到的命令：GET/SET/SETNX/INCRBY、HGET/HSETNX/HINCRBY/HGETALL、
+ * EVAL/EVALSHA(只识别{@link SeqScript}中的脚本)和单节点的CLUSTER SLOTS。
+ * 与真实服务端一样，脚本只有EVAL过之后才能用EVALSHA执行，否则返回NOSCRIPT。
+ *
+ * @author wutianbiao
+ * @date 2022-07-15
+ */
+class FakeRedisServer implements Closeable {
+    private static final List<SeqScript> SCRIPTS = Arrays.asList(
+            SeqScript.INCR, SeqScript.INCR_MULTI, SeqScript.HINCR_MULTI, SeqScript.HGETALL_MULTI);
+
+    private final ServerSocket serverSocket;
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+    /**
+     * 已缓存的脚本摘要
+     */
+    private final Set<String> loaded = new HashSet<>();
+    /**
+     * 接下来执行脚本时失败的次数，key为脚本访问的redis key
+     */
+    final Map<String, AtomicInteger> scriptFailures = new ConcurrentHashMap<>();
+    /**
+     * 收到的命令数，按命令名统计
+     */
+    final Map<String, AtomicInteger> commands = new ConcurrentHashMap<>();
+
+    FakeRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "fake-redis-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    synchronized String get(String key) {
+        return strings.get(key);
+    }
+
+    /**
+     * 删除key，模拟key过期或被误删
+     */
+    synchronized void delete(String key) {
+        strings.remove(key);
+        hashes.remove(key);
+    }
+
+    synchronized String hget(String key, String field) {
+        Map<String, String> hash = hashes.get(key);
+        return hash == null ? null : hash.get(field);
+    }
+
+    synchronized Map<String, Map<String, String>> hashes() {
+        Map<String, Map<String, String>> copy = new HashMap<>();
+        hashes.forEach((key, hash) -> copy.put(key, new HashMap<>(hash)));
+        return copy;
+    }
+
+    /**
+     * 清除已缓存的脚本，模拟服务端重启
+     */
+    synchronized void flushScripts() {
+        loaded.clear();
+    }
+
+    int count(String command) {
+        AtomicInteger count = commands.get(command);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread handler = new Thread(() -> serve(socket), "fake-redis-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             InputStream in = new BufferedInputStream(s.getInputStream());
+             OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            while (true) {
+                List<String> command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                String name = command.get(0).toUpperCase();
+                commands.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+                write(out, execute(name, command.subList(1, command.size())));
+                out.flush();
+                if ("QUIT".equals(name)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // 客户端断开
+        }
+    }
+
+    private synchronized Object execute(String name, List<String> args) {
+        switch (name) {
+            case "PING":
+                return new Status("PONG");
+            case "QUIT":
+            case "SELECT":
+            case "CLIENT":
+                return new Status("OK");
+            case "GET":
+                return strings.get(args.get(0));
+            case "SET":
+                if (args.size() > 2 && "NX".equalsIgnoreCase(args.get(2)) && strings.containsKey(args.get(0))) {
+                    return null;
+                }
+                strings.put(args.get(0), args.get(1));
+                return new Status("OK");
+            case "SETNX":
+                return strings.putIfAbsent(args.get(0), args.get(1)) == null ? 1L : 0L;
+            case "INCRBY":
+                return incrBy(args.get(0), Long.parseLong(args.get(1)));
+            case "HGET":
+                return hget(args.get(0), args.get(1));
+            case "HSETNX":
+                return hash(args.get(0)).putIfAbsent(args.get(1), args.get(2)) == null ? 1L : 0L;
+            case "HINCRBY":
+                return hincrBy(args.get(0), args.get(1), Long.parseLong(args.get(2)));
+            case "EVAL":
+                return eval(script(args.get(0)), args);
+            case "EVALSHA":
+                if (!loaded.contains(args.get(0))) {
+                    return new Error("NOSCRIPT No matching script. Please use EVAL.");
+                }
+                return eval(scriptBySha(args.get(0)), args);
+            case "CLUSTER":
+                if ("SLOTS".equalsIgnoreCase(args.get(0))) {
+                    List<Object> node = Arrays.asList("127.0.0.1", (long) getPort(), "fake-node");
+                    return Collections.singletonList(Arrays.asList(0L, 16383L, node));
+                }
+                return new Error("ERR unsupported CLUSTER subcommand");
+            default:
+                return new Error("ERR unknown command '" + name + "'");
+        }
+    }
+
+    private Object eval(SeqScript script, List<String> args) {
+        if (script == null) {
+            return new Error("ERR unsupported script");
+        }
+        loaded.add(script.getSha());
+        int numKeys = Integer.parseInt(args.get(1));
+        List<String> keys = args.subList(2, 2 + numKeys);
+        List<String> argv = args.subList(2 + numKeys, args.size());
+        for (String key : keys) {
+            AtomicInteger failures = scriptFailures.get(key);
+            if (failures != null && failures.getAndDecrement() > 0) {
+                return new Error("ERR injected failure:" + key);
+            }
+        }
+
+        if (script == SeqScript.INCR) {
+            strings.putIfAbsent(keys.get(0), argv.get(1));
+            return incrBy(keys.get(0), Long.parseLong(argv.get(0)));
+        }
+        List<Object> result = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            if (script == SeqScript.INCR_MULTI) {
+                strings.putIfAbsent(key, argv.get(i * 2 + 1));
+                result.add(incrBy(key, Long.parseLong(argv.get(i * 2))));
+            } else if (script == SeqScript.HINCR_MULTI) {
+                String field = argv.get(i * 3);
+                hash(key).putIfAbsent(field, argv.get(i * 3 + 2));
+                result.add(hincrBy(key, field, Long.parseLong(argv.get(i * 3 + 1))));
+            } else {
+                List<Object> pairs = new ArrayList<>();
+                hashes.getOrDefault(key, Collections.emptyMap()).forEach((field, value) -> {
+                    pairs.add(field);
+                    pairs.add(value);
+                });
+                result.add(pairs);
+            }
+        }
+        return result;
+    }
+
+    private long incrBy(String key, long step) {
+        long value = Long.parseLong(strings.getOrDefault(key, "0")) + step;
+        strings.put(key, Long.toString(value));
+        return value;
+    }
+
+    private long hincrBy(String key, String field, long step) {
+        Map<String, String> hash = hash(key);
+        long value = Long.parseLong(hash.getOrDefault(field, "0")) + step;
+        hash.put(field, Long.toString(value));
+        return value;
+    }
+
+    private Map<String, String> hash(String key) {
+        return hashes.computeIfAbsent(key, k -> new HashMap<>());
+    }
+
+    private static SeqScript script(String source) {
+        for (SeqScript script : SCRIPTS) {
+            if (script.getSource().equals(source)) {
+                return script;
+            }
+        }
+        return null;
+    }
+
+    private static SeqScript scriptBySha(String sha) {
+        for (SeqScript script : SCRIPTS) {
+            if (script.getSha().equals(sha)) {
+                return script;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        if (header.charAt(0) != '*') {
+            throw new IOException("不支持的请求:" + header);
+        }
+        int count = Integer.parseInt(header.substring(1));
+        List<String> command = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(bytes, read, length - read);
+                if (n < 0) {
+                    throw new IOException("连接已断开");
+                }
+                read += n;
+            }
+            readLine(in);
+            command.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void write(OutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Status) {
+            out.write(("+" + ((Status) value).text + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Error) {
+            out.write(("-" + ((Error) value).text + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Long) {
+            out.write((":" + value + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.write(("*" + list.size() + "\r\n").getBytes(StandardCharsets.UTF_8));
+            for (Object item : list) {
+                write(out, item);
+            }
+        } else {
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(bytes);
+            out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 状态回复
+     */
+    private static final class Status {
+        final String text;
+
+        Status(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * 错误回复
+     */
+    private static final class Error {
+        final String text;
+
+        Error(String text) {
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.opensource.seq.redis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensource.seq.core.GlobalSeqPo;
+
+import redis.clients.jedis.JedisPooled;
+
+/**
+ * hash存储的单元测试，使用内存redis服务端
+ *
+ * @author wutianbiao
+ * @date 2022-07-15
+ */
+public class HashGlobalSeqRepositoryImplTest {
+    private FakeRedisServer server;
+    private JedisPooled jedis;
+    private HashGlobalSeqRepositoryImpl repository;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeRedisServer();
+        jedis = new JedisPooled("127.0.0.1", server.getPort());
+        repository = new HashGlobalSeqRepositoryImpl(jedis);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        jedis.close();
+        server.close();
+    }
+
+    /**
+     * 不含命名空间的序列与默认命名空间下的同名序列是两个序列
+     */
+    @Test
+    public void testDefaultNamespace() {
+        assertEquals("default", repository.namespace("order"));
+        assertEquals("default", repository.namespace("default:order"));
+
+        assertEquals(10L, repository.incrementAndGet("order", 10, 0).getCurrentValue());
+        assertEquals(1_010L, repository.incrementAndGet("default:order", 10, 1_000).getCurrentValue());
+        assertEquals(20L, repository.incrementAndGet("order", 10, 0).getCurrentValue());
+
+        assertEquals(1, repository.createSeq(new GlobalSeqPo(":order", 5L)));
+        assertEquals(5L, repository.loadSeq(":order").get().getCurrentValue());
+        assertEquals(20L, repository.loadSeq("order").get().getCurrentValue());
+        assertEquals(1_010L, repository.loadSeq("default:order").get().getCurrentValue());
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("order", 20L);
+        expected.put("default:order", 1_010L);
+        expected.put(":order", 5L);
+        assertEquals(expected, repository.loadNamespace("default"));
+    }
+
+    /**
+     * 命名空间内的序列分散到多个bucket，加载命名空间还原完整的序列名称
+     */
+    @Test
+    public void testLoadNamespace() {
+        for (int i = 0; i < 40; i++) {
+            repository.incrementAndGet("tenant1:seq_" + i, i + 1, 0);
+        }
+        repository.incrementAndGet("tenant2:seq_0", 100, 0);
+
+        Map<String, Long> values = repository.loadNamespace("tenant1");
+        assertEquals(40, values.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i + 1L, values.get("tenant1:seq_" + i));
+        }
+        assertTrue(server.hashes().keySet().stream().filter(key -> key.startsWith("sequence:{tenant1}:")).count() > 1);
+        assertEquals(1, repository.loadNamespace("tenant2").size());
+    }
+
+    /**
+     * 创建、加载、锁定
+     */
+    @Test
+    public void testCas() {
+        assertFalse(repository.loadSeq("tenant1:cas").isPresent());
+        assertEquals(1, repository.createSeq(new GlobalSeqPo("tenant1:cas", 100L)));
+        assertEquals(0, repository.createSeq(new GlobalSeqPo("tenant1:cas", 200L)));
+        assertEquals(100L, repository.loadSeq("tenant1:cas").get().getCurrentValue());
+        assertEquals(110L, repository.lockSeq("tenant1:cas", 10, 100).get().getCurrentValue());
+    }
+
+    /**
+     * 多个命名空间的批量刷新合并为一个管道，每个命名空间一次脚本调用
+     */
+    @Test
+    public void testIncrementAll() {
+        List<SeqIncrement> increments = Arrays.asList(
+                new SeqIncrement("order", 10, 0),
+                new SeqIncrement("default:order", 10, 100),
+                new SeqIncrement("tenant1:order", 10, 200),
+                new SeqIncrement("tenant1:user", 10, 300),
+                new SeqIncrement("tenant2:order", 10, 400));
+
+        Map<String, GlobalSeqPo> result = repository.incrementAll(increments);
+        assertEquals(10L, result.get("order").getCurrentValue());
+        assertEquals(110L, result.get("default:order").getCurrentValue());
+        assertEquals(210L, result.get("tenant1:order").getCurrentValue());
+        assertEquals(310L, result.get("tenant1:user").getCurrentValue());
+        assertEquals(410L, result.get("tenant2:order").getCurrentValue());
+        // 3个命名空间
+        assertEquals(3, server.count("EVALSHA"));
+
+        result = repository.incrementAll(increments);
+        assertEquals(20L, result.get("order").getCurrentValue());
+        assertEquals(120L, result.get("default:order").getCurrentValue());
+    }
+}
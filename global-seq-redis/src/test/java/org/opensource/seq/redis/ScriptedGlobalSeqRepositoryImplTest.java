@@ -0,0 +1,165 @@
+package org.opensource.seq.redis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSeqPo;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+import redis.clients.jedis.JedisPooled;
+
+/**
+ * lua脚本redis存储的单元测试，使用内存redis服务端
+ *
+ * @author wutianbiao
+ * @date 2022-07-15
+ */
+public class ScriptedGlobalSeqRepositoryImplTest {
+    private FakeRedisServer server;
+    private JedisPooled jedis;
+    private ScriptedGlobalSeqRepositoryImpl repository;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeRedisServer();
+        jedis = new JedisPooled("127.0.0.1", server.getPort());
+        repository = new ScriptedGlobalSeqRepositoryImpl(jedis);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        jedis.close();
+        server.close();
+    }
+
+    /**
+     * 不存在时以start创建再锁定；服务端没有缓存脚本时退回EVAL，之后使用EVALSHA
+     */
+    @Test
+    public void testIncrementAndGet() {
+        assertEquals(110L, repository.incrementAndGet("scripted", 10, 100).getCurrentValue());
+        assertEquals(120L, repository.incrementAndGet("scripted", 10, 100).getCurrentValue());
+        assertEquals("120", server.get("sequence:scripted"));
+        assertEquals(1, server.count("EVAL"));
+        assertEquals(2, server.count("EVALSHA"));
+
+        server.flushScripts();
+        assertEquals(130L, repository.incrementAndGet("scripted", 10, 100).getCurrentValue());
+        assertEquals(2, server.count("EVAL"));
+    }
+
+    /**
+     * 创建、加载和锁定；刷新过的序列直接返回本地记录的值
+     */
+    @Test
+    public void testCas() {
+        assertFalse(repository.loadSeq("cas").isPresent());
+        assertEquals(1, repository.createSeq(new GlobalSeqPo("cas", 50L)));
+        assertEquals(0, repository.createSeq(new GlobalSeqPo("cas", 60L)));
+        assertEquals(50L, repository.loadSeq("cas").get().getCurrentValue());
+        assertEquals(60L, repository.lockSeq("cas", 10, 50).get().getCurrentValue());
+
+        int gets = server.count("GET");
+        assertEquals(60L, repository.loadSeq("cas").get().getCurrentValue());
+        assertEquals(gets, server.count("GET"));
+    }
+
+    /**
+     * key丢失后，加载返回最后一次锁定的值，锁定以此重建，不从0开始重复
+     */
+    @Test
+    public void testRebuild() {
+        repository.incrementAndGet("rebuild", 10, 0);
+        repository.incrementAndGet("rebuild", 10, 0);
+        server.delete("sequence:rebuild");
+
+        GlobalSeqPo last = repository.loadSeq("rebuild").get();
+        assertEquals(20L, last.getCurrentValue());
+        assertEquals(30L, repository.lockSeq("rebuild", 10, last.getCurrentValue()).get().getCurrentValue());
+        assertEquals("30", server.get("sequence:rebuild"));
+    }
+
+    /**
+     * key丢失后，原子刷新同样以最后一次锁定的值重建，不从start开始重复
+     */
+    @Test
+    public void testRebuildOnIncrement() throws Exception {
+        repository.incrementAndGet("lost", 10, 0);
+        repository.incrementAndGet("lost", 10, 0);
+        server.delete("sequence:lost");
+        assertEquals(30L, repository.incrementAndGet("lost", 10, 0).getCurrentValue());
+
+        server.delete("sequence:lost");
+        assertEquals(40L, repository.incrementAndGetAsync("lost", 10, 0).get(5, TimeUnit.SECONDS).getCurrentValue());
+    }
+
+    /**
+     * 关闭后异步调用在调用线程执行
+     */
+    @Test
+    public void testClose() throws Exception {
+        assertEquals(10L, repository.incrementAndGetAsync("closed", 10, 0).get(5, TimeUnit.SECONDS).getCurrentValue());
+        repository.close();
+        assertEquals(20L, repository.incrementAndGetAsync("closed", 10, 0).get(5, TimeUnit.SECONDS).getCurrentValue());
+        assertEquals(20L, repository.loadSeqAsync("closed").get(5, TimeUnit.SECONDS).get().getCurrentValue());
+    }
+
+    /**
+     * 并发的异步刷新合并到管道，结果按请求对应，值不重复
+     */
+    @Test
+    public void testAsync() throws Exception {
+        List<CompletableFuture<GlobalSeqPo>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(repository.incrementAndGetAsync("async_" + (i % 4), 10, 0));
+        }
+        Set<String> values = ConcurrentHashMap.newKeySet();
+        for (CompletableFuture<GlobalSeqPo> future : futures) {
+            GlobalSeqPo po = future.get(5, TimeUnit.SECONDS);
+            assertTrue(values.add(po.getSeqName() + "=" + po.getCurrentValue()));
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals("500", server.get("sequence:async_" + i));
+        }
+    }
+
+    /**
+     * 通过GlobalSequenceImpl多线程获取，序列不重复
+     */
+    @Test
+    public void testGlobalSequence() throws InterruptedException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(20);
+        GlobalSequence globalSequence = new GlobalSequenceImpl(config, repository);
+
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 250; j++) {
+                    assertTrue(seqs.add(globalSequence.next("scripted_seq")));
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+        assertEquals(1_000, seqs.size());
+    }
+}
@@ -4,10 +4,11 @@ import javax.sql.DataSource;
 
 import org.opensource.seq.core.GlobalSeqConfig;
 import org.opensource.seq.core.GlobalSeqRepository;
-import org.opensource.seq.core.GlobalSequence;
 import org.opensource.seq.core.GlobalSequenceImpl;
 import org.opensource.seq.db.GlobalSeqRepositoryImpl;
+import org.opensource.seq.db.RefillConnectionHolder;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -44,25 +45,34 @@ public class GlobalSequenceAutoConfiguration {
      * 如果没有自定义序列的repository，默认使用db做底层存储
      * 
      * @param dataSource
+     * @param config
+     * @param refillConnection 可选的刷新专用连接
      * @return
      */
     @Bean
     @ConditionalOnBean(DataSource.class)
     @ConditionalOnMissingBean(GlobalSeqRepository.class)
-    public GlobalSeqRepository dbSeqRepository(DataSource dataSource, GlobalSeqConfig config) {
+    public GlobalSeqRepository dbSeqRepository(DataSource dataSource, GlobalSeqConfig config,
+            ObjectProvider<RefillConnectionHolder> refillConnection) {
         log.info("创建dbSeqRepository");
-        return new GlobalSeqRepositoryImpl(dataSource, config.getDefaultTable());
+        GlobalSeqRepositoryImpl repository = new GlobalSeqRepositoryImpl(dataSource, config.getDefaultTable());
+        // 注册了刷新专用连接时，序列刷新不再占用应用连接池
+        refillConnection.ifAvailable(holder -> {
+            log.info("dbSeqRepository使用刷新专用连接");
+            repository.setRefillConnection(holder);
+        });
+        return repository;
     }
 
     /**
-     * GlobalSequence使用入口类
+     * GlobalSequence使用入口类，容器关闭时停止预取线程池
      * 
      * @param config
      * @param repository
      * @return
      */
-    @Bean
-    public GlobalSequence globalSequence(GlobalSeqConfig config, GlobalSeqRepository repository) {
+    @Bean(destroyMethod = "close")
+    public GlobalSequenceImpl globalSequence(GlobalSeqConfig config, GlobalSeqRepository repository) {
         return new GlobalSequenceImpl(config, repository);
     }
 
@@ -0,0 +1,50 @@
+package org.opensource.seq;
+
+import java.util.List;
+
+import org.opensource.seq.core.GlobalSequenceImpl;
+import org.opensource.seq.core.SeqStats;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+/**
+ * 全局序列的actuator端点
+ *
+ * GET /actuator/globalsequence 查看所有已缓存序列的当前值、上限、步长、刷新次数和最近一次刷新耗时；
+ * POST /actuator/globalsequence/{seqName} 修改序列的步长(step)和预取比例(prefetch)，下一次刷新生效。
+ *
+ * @author wutianbiao
+ * @date 2022-06-30
+ */
+@Endpoint(id = "globalsequence")
+public class GlobalSequenceEndpoint {
+    private final GlobalSequenceImpl globalSequence;
+
+    public GlobalSequenceEndpoint(GlobalSequenceImpl globalSequence) {
+        this.globalSequence = globalSequence;
+    }
+
+    /**
+     * 所有已缓存序列的运行状态
+     * @return
+     */
+    @ReadOperation
+    public List<SeqStats> sequences() {
+        return globalSequence.stats();
+    }
+
+    /**
+     * 修改序列的步长和预取比例
+     * @param seqName
+     * @param step 为空不修改
+     * @param prefetch 为空不修改
+     */
+    @WriteOperation
+    public void tune(@Selector String seqName, @Nullable Long step, @Nullable Double prefetch) {
+        globalSequence.tune(seqName, step, prefetch);
+    }
+}
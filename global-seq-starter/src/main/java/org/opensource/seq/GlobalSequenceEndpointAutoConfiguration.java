@@ -0,0 +1,35 @@
+package org.opensource.seq;
+
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * classpath上有spring-boot-actuator时注册全局序列端点
+ *
+ * @author wutianbiao
+ * @date 2022-06-30
+ */
+@Configuration
+@AutoConfigureAfter({ GlobalSequenceAutoConfiguration.class })
+@ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+public class GlobalSequenceEndpointAutoConfiguration {
+
+    /**
+     * 全局序列端点，只支持默认的GlobalSequenceImpl，自定义的GlobalSequence不注册
+     *
+     * @param globalSequence
+     * @return
+     */
+    @Bean
+    @ConditionalOnBean(GlobalSequenceImpl.class)
+    @ConditionalOnMissingBean
+    public GlobalSequenceEndpoint globalSequenceEndpoint(GlobalSequenceImpl globalSequence) {
+        return new GlobalSequenceEndpoint(globalSequence);
+    }
+}
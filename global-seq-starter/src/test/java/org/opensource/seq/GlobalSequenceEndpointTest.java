@@ -0,0 +1,87 @@
+package org.opensource.seq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.opensource.seq.core.GlobalSeqRepository;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.SeqStats;
+import org.opensource.seq.tck.InMemoryGlobalSeqRepository;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * globalsequence端点自动配置的单元测试
+ *
+ * @author wutianbiao
+ * @date 2022-07-15
+ */
+public class GlobalSequenceEndpointTest {
+
+    /**
+     * 默认的GlobalSequenceImpl注册端点，可以查看和调整序列
+     */
+    @Test
+    public void testEndpoint() {
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(
+                RepositoryConfiguration.class, GlobalSequenceAutoConfiguration.class,
+                GlobalSequenceEndpointAutoConfiguration.class)) {
+            GlobalSequence globalSequence = context.getBean(GlobalSequence.class);
+            long next = globalSequence.next("endpoint");
+
+            GlobalSequenceEndpoint endpoint = context.getBean(GlobalSequenceEndpoint.class);
+            List<SeqStats> stats = endpoint.sequences();
+            assertEquals(1, stats.size());
+            assertEquals("endpoint", stats.get(0).getSeqName());
+            assertEquals(next, stats.get(0).getCurrentValue());
+
+            endpoint.tune("endpoint", 500L, null);
+            assertEquals(500L, endpoint.sequences().get(0).getStep());
+        }
+    }
+
+    /**
+     * 自定义的GlobalSequence不是GlobalSequenceImpl时不注册端点，容器正常启动
+     */
+    @Test
+    public void testCustomSequence() {
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(
+                CustomSequenceConfiguration.class, GlobalSequenceEndpointAutoConfiguration.class)) {
+            assertTrue(context.getBeansOfType(GlobalSequenceEndpoint.class).isEmpty());
+            assertEquals(1L, context.getBean(GlobalSequence.class).next("custom"));
+        }
+    }
+
+    @Configuration
+    static class RepositoryConfiguration {
+        @Bean
+        public GlobalSeqRepository memoryRepository() {
+            return new InMemoryGlobalSeqRepository();
+        }
+    }
+
+    @Configuration
+    static class CustomSequenceConfiguration {
+        @Bean
+        public GlobalSequence customSequence() {
+            AtomicLong value = new AtomicLong();
+            return new GlobalSequence() {
+                @Override
+                public long next(String seqName) {
+                    return value.incrementAndGet();
+                }
+
+                @Override
+                public long currentValue(String seqName) {
+                    return value.get();
+                }
+            };
+        }
+    }
+}
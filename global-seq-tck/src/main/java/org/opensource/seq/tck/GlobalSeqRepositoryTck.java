@@ -0,0 +1,302 @@
+package org.opensource.seq.tck;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opensource.seq.core.AtomicIncrementRepository;
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSeqPo;
+import org.opensource.seq.core.GlobalSeqRepository;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+import org.junit.jupiter.api.Test;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 序列仓库的一致性测试套件(TCK)
+ *
+ * 仓库实现在自己的测试中继承该类，实现{@link #newRepository()}即可运行全部用例：
+ * 创建竞争、CAS冲突、多实例并发刷新和序列唯一性，以及标准化的吞吐量和延迟测量。
+ * {@link #newRepository()}每次返回一个新的客户端，连接到同一个后端，相当于多个进程。
+ * 持久的后端不需要清理数据，每个用例使用不同的序列名称。
+ *
+ * @author wutianbiao
+ * @date 2022-07-10
+ */
+@Slf4j
+public abstract class GlobalSeqRepositoryTck {
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private final String run = Long.toString(System.currentTimeMillis() % 1_000_000_000L, 36);
+
+    /**
+     * 创建连接到被测后端的新仓库实例
+     *
+     * @return
+     * @throws Exception
+     */
+    protected abstract GlobalSeqRepository newRepository() throws Exception;
+
+    /**
+     * 并发的仓库实例数
+     *
+     * @return
+     */
+    protected int instances() {
+        return 4;
+    }
+
+    /**
+     * 用例使用的序列名称，不超过30个字符
+     *
+     * @param name
+     * @return
+     */
+    protected String seqName(String name) {
+        return name + "_" + run + COUNTER.incrementAndGet();
+    }
+
+    /**
+     * 创建后能加载，不存在的序列加载为空，重复创建不返回1
+     */
+    @Test
+    public void testCreateAndLoad() throws Exception {
+        GlobalSeqRepository repository = newRepository();
+        String seqName = seqName("tck_create");
+        assertFalse(repository.loadSeq(seqName).isPresent());
+        assertEquals(1, repository.createSeq(new GlobalSeqPo(seqName, 10L)));
+        assertEquals(10L, repository.loadSeq(seqName).get().getCurrentValue());
+
+        int again;
+        try {
+            again = repository.createSeq(new GlobalSeqPo(seqName, 20L));
+        } catch (RuntimeException e) {
+            again = 0;
+        }
+        assertEquals(0, again);
+        assertEquals(10L, repository.loadSeq(seqName).get().getCurrentValue());
+    }
+
+    /**
+     * 多个实例同时创建同一个序列，只有一个成功，失败的返回0或抛出异常
+     */
+    @Test
+    public void testCreateRace() throws Exception {
+        String seqName = seqName("tck_race");
+        List<GlobalSeqRepository> repositories = repositories();
+        AtomicInteger created = new AtomicInteger();
+        AtomicLong winner = new AtomicLong();
+        concurrently(repositories.size() * 2, i -> {
+            long value = 100 + i;
+            int result;
+            try {
+                result = repositories.get(i % repositories.size()).createSeq(new GlobalSeqPo(seqName, value));
+            } catch (RuntimeException e) {
+                result = 0;
+            }
+            if (result == 1) {
+                created.incrementAndGet();
+                winner.set(value);
+            }
+        });
+        assertEquals(1, created.get());
+        assertEquals(winner.get(), repositories.get(0).loadSeq(seqName).get().getCurrentValue());
+    }
+
+    /**
+     * 按旧值锁定：旧值不一致时不写入，一致时增加step
+     */
+    @Test
+    public void testCasConflict() throws Exception {
+        GlobalSeqRepository repository = newRepository();
+        String seqName = seqName("tck_cas");
+        assertEquals(1, repository.createSeq(new GlobalSeqPo(seqName, 10L)));
+
+        assertFalse(repository.lockSeq(seqName, 5, 9).isPresent());
+        assertEquals(10L, repository.loadSeq(seqName).get().getCurrentValue());
+        assertEquals(15L, repository.lockSeq(seqName, 5, 10).get().getCurrentValue());
+        // 旧值已过期
+        assertFalse(repository.lockSeq(seqName, 5, 10).isPresent());
+        assertEquals(15L, repository.loadSeq(seqName).get().getCurrentValue());
+    }
+
+    /**
+     * 多个实例并发加载+锁定，锁定的段互不重叠，最终值等于所有段之和
+     */
+    @Test
+    public void testConcurrentLock() throws Exception {
+        String seqName = seqName("tck_lock");
+        List<GlobalSeqRepository> repositories = repositories();
+        assertEquals(1, repositories.get(0).createSeq(new GlobalSeqPo(seqName, 0L)));
+
+        int threads = repositories.size() * 2;
+        int locks = 20;
+        long step = 10;
+        Set<Long> segments = ConcurrentHashMap.newKeySet();
+        concurrently(threads, i -> {
+            GlobalSeqRepository repository = repositories.get(i % repositories.size());
+            int success = 0;
+            for (int attempt = 0; success < locks; attempt++) {
+                if (attempt > 100_000) {
+                    fail("锁定冲突过多未能完成:" + seqName);
+                }
+                long old = repository.loadSeq(seqName).get().getCurrentValue();
+                Optional<GlobalSeqPo> locked = repository.lockSeq(seqName, step, old);
+                if (locked.isPresent()) {
+                    assertEquals(old + step, locked.get().getCurrentValue());
+                    assertTrue(segments.add(old), "重复锁定的段:" + old);
+                    success++;
+                }
+            }
+        });
+        assertEquals(threads * locks, segments.size());
+        assertEquals(threads * locks * step, repositories.get(0).loadSeq(seqName).get().getCurrentValue());
+    }
+
+    /**
+     * 支持原子自增的仓库：不存在时以start创建，并发自增不重复
+     */
+    @Test
+    public void testIncrementAndGet() throws Exception {
+        List<GlobalSeqRepository> repositories = repositories();
+        assumeTrue(repositories.get(0) instanceof AtomicIncrementRepository, "仓库不支持原子自增");
+        String seqName = seqName("tck_incr");
+        assertEquals(15L, ((AtomicIncrementRepository) repositories.get(0))
+                .incrementAndGet(seqName, 10, 5).getCurrentValue());
+
+        int threads = repositories.size() * 2;
+        int increments = 50;
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+        concurrently(threads, i -> {
+            AtomicIncrementRepository repository = (AtomicIncrementRepository) repositories.get(i % repositories.size());
+            for (int j = 0; j < increments; j++) {
+                assertTrue(values.add(repository.incrementAndGet(seqName, 1, 5).getCurrentValue()));
+            }
+        });
+        assertEquals(15L + threads * increments, repositories.get(0).loadSeq(seqName).get().getCurrentValue());
+    }
+
+    /**
+     * 多个序列实例第一次同时使用一个不存在的序列，都能拿到序列
+     */
+    @Test
+    public void testFirstUseRace() throws Exception {
+        String seqName = seqName("tck_first");
+        List<GlobalSequence> sequences = sequences(10);
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        concurrently(sequences.size() * 2, i -> assertTrue(seqs.add(sequences.get(i % sequences.size()).next(seqName))));
+        assertEquals(sequences.size() * 2, seqs.size());
+    }
+
+    /**
+     * 多个序列实例并发获取，序列值全局唯一
+     */
+    @Test
+    public void testUniqueness() throws Exception {
+        String seqName = seqName("tck_unique");
+        List<GlobalSequence> sequences = sequences(7);
+        int threads = sequences.size() * 2;
+        int count = 500;
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        concurrently(threads, i -> {
+            GlobalSequence sequence = sequences.get(i % sequences.size());
+            for (int j = 0; j < count; j++) {
+                long seq = sequence.next(seqName);
+                assertTrue(seqs.add(seq), "重复的序列:" + seq);
+            }
+        });
+        assertEquals(threads * count, seqs.size());
+    }
+
+    /**
+     * 标准化的刷新吞吐量和延迟测量，结果交给{@link #report(TckMeasurement.Report)}
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        TckMeasurement.Report report = TckMeasurement.measure(this::newRepository, seqName("tck_perf"), instances(),
+                2, 100);
+        report(report);
+        assertEquals(report.getRefills(), report.getUnique());
+    }
+
+    /**
+     * 吞吐量和延迟测量的结果，默认输出info日志；需要汇总或比较结果时覆盖
+     *
+     * @param report
+     */
+    protected void report(TckMeasurement.Report report) {
+        log.info("{}: {}", getClass().getSimpleName(), report);
+    }
+
+    private List<GlobalSeqRepository> repositories() throws Exception {
+        List<GlobalSeqRepository> repositories = new ArrayList<>();
+        for (int i = 0; i < instances(); i++) {
+            repositories.add(newRepository());
+        }
+        return repositories;
+    }
+
+    private List<GlobalSequence> sequences(long step) throws Exception {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(step);
+        config.setMaxRetry(1_000);
+        List<GlobalSequence> sequences = new ArrayList<>();
+        for (GlobalSeqRepository repository : repositories()) {
+            sequences.add(new GlobalSequenceImpl(config, repository));
+        }
+        return sequences;
+    }
+
+    /**
+     * 同时启动threads个线程执行task，任一线程失败时抛出该异常
+     */
+    private static void concurrently(int threads, Task task) throws Exception {
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Throwable> errors = new ArrayList<>();
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    ready.await();
+                    task.run(index);
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            pool.add(thread);
+        }
+        ready.countDown();
+        for (Thread thread : pool) {
+            thread.join();
+        }
+        if (!errors.isEmpty()) {
+            Throwable error = errors.get(0);
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            throw error instanceof Exception ? (Exception) error : new IllegalStateException(error);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run(int index) throws Exception;
+    }
+}
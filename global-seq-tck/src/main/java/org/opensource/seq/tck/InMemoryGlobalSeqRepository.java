@@ -0,0 +1,63 @@
+package org.opensource.seq.tck;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opensource.seq.core.AtomicIncrementRepository;
+import org.opensource.seq.core.GlobalSeqPo;
+
+/**
+ * 内存中的序列仓库，作为一致性测试的参照实现，也可以在业务单测中代替真实后端
+ *
+ * 多个实例共用同一个store时相当于多个进程访问同一个后端。
+ *
+ * @author wutianbiao
+ * @date 2022-07-10
+ */
+public class InMemoryGlobalSeqRepository implements AtomicIncrementRepository {
+    /**
+     * 序列名称到当前值
+     */
+    private final ConcurrentMap<String, AtomicLong> store;
+
+    public InMemoryGlobalSeqRepository() {
+        this(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param store 共享的存储
+     */
+    public InMemoryGlobalSeqRepository(ConcurrentMap<String, AtomicLong> store) {
+        this.store = store;
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        return store.putIfAbsent(po.getSeqName(), new AtomicLong(po.getCurrentValue())) == null ? 1 : 0;
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        AtomicLong value = store.get(seqName);
+        return value == null ? Optional.empty() : Optional.of(new GlobalSeqPo(seqName, value.get()));
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        AtomicLong value = store.get(seqName);
+        if (value == null || !value.compareAndSet(old, old + step)) {
+            return Optional.empty();
+        }
+        return Optional.of(new GlobalSeqPo(seqName, old + step));
+    }
+
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        long value = store.computeIfAbsent(seqName, k -> new AtomicLong(start)).addAndGet(step);
+        return new GlobalSeqPo(seqName, value);
+    }
+}
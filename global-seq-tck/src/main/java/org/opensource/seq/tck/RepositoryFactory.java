@@ -0,0 +1,21 @@
+package org.opensource.seq.tck;
+
+import org.opensource.seq.core.GlobalSeqRepository;
+
+/**
+ * 创建仓库实例，每次调用返回一个新的客户端，连接到同一个后端
+ *
+ * @author wutianbiao
+ * @date 2022-07-10
+ */
+@FunctionalInterface
+public interface RepositoryFactory {
+
+    /**
+     * 创建仓库实例
+     *
+     * @return
+     * @throws Exception
+     */
+    GlobalSeqRepository create() throws Exception;
+}
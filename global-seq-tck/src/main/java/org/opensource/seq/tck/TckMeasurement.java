@@ -0,0 +1,142 @@
+package org.opensource.seq.tck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSeqRepository;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+import lombok.Data;
+
+/**
+ * 标准化的刷新吞吐量和延迟测量
+ *
+ * instances个序列实例(各自一个仓库实例，相当于多个进程)各启动threads个线程，
+ * 步长为1、不预取，每次next()都是一次完整的刷新；统计所有刷新的吞吐量和延迟分位数。
+ * 不同后端使用同样的参数测量，结果可以直接比较。
+ *
+ * @author wutianbiao
+ * @date 2022-07-10
+ */
+public final class TckMeasurement {
+
+    private TckMeasurement() {
+    }
+
+    /**
+     * 测量
+     *
+     * @param factory 创建仓库实例
+     * @param seqName 序列名称
+     * @param instances 序列实例数
+     * @param threads 每个实例的线程数
+     * @param refills 每个线程的刷新次数
+     * @return
+     * @throws Exception
+     */
+    public static Report measure(RepositoryFactory factory, String seqName, int instances, int threads, int refills)
+            throws Exception {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(1);
+        config.setMaxRetry(10_000);
+        List<GlobalSequence> sequences = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            sequences.add(new GlobalSequenceImpl(config, factory.create()));
+        }
+
+        int total = instances * threads * refills;
+        long[] latencies = new long[total];
+        Set<Long> seqs = ConcurrentHashMap.newKeySet(total);
+        List<Throwable> errors = new ArrayList<>();
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < instances * threads; i++) {
+            GlobalSequence sequence = sequences.get(i % instances);
+            int offset = i * refills;
+            Thread thread = new Thread(() -> {
+                try {
+                    ready.await();
+                    for (int j = 0; j < refills; j++) {
+                        long begin = System.nanoTime();
+                        long seq = sequence.next(seqName);
+                        latencies[offset + j] = System.nanoTime() - begin;
+                        seqs.add(seq);
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }, "global-seq-tck-" + i);
+            thread.start();
+            pool.add(thread);
+        }
+
+        long begin = System.nanoTime();
+        ready.countDown();
+        for (Thread thread : pool) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("测量线程异常", errors.get(0));
+        }
+
+        Arrays.sort(latencies);
+        Report report = new Report();
+        report.setInstances(instances);
+        report.setThreads(threads);
+        report.setRefills(total);
+        report.setUnique(seqs.size());
+        report.setThroughput(total * 1e9 / elapsed);
+        report.setP50Micros(micros(latencies, 0.5));
+        report.setP99Micros(micros(latencies, 0.99));
+        report.setP999Micros(micros(latencies, 0.999));
+        report.setMaxMicros(TimeUnit.NANOSECONDS.toMicros(latencies[total - 1]));
+        return report;
+    }
+
+    private static long micros(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]);
+    }
+
+    /**
+     * 测量结果
+     */
+    @Data
+    public static class Report {
+        private int instances;
+        private int threads;
+        /**
+         * 刷新次数
+         */
+        private int refills;
+        /**
+         * 不重复的序列值个数，应等于刷新次数
+         */
+        private int unique;
+        /**
+         * 每秒刷新次数
+         */
+        private double throughput;
+        private long p50Micros;
+        private long p99Micros;
+        private long p999Micros;
+        private long maxMicros;
+
+        @Override
+        public String toString() {
+            return String.format("instances=%d threads=%d refills=%d unique=%d throughput=%.0f/s "
+                    + "latency(us) p50=%d p99=%d p999=%d max=%d", instances, threads, refills, unique, throughput,
+                    p50Micros, p99Micros, p999Micros, maxMicros);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.opensource.seq.tck;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opensource.seq.core.GlobalSeqRepository;
+
+/**
+ * 内存仓库运行一致性测试，所有实例共享同一份数据
+ *
+ * @author wutianbiao
+ * @date 2022-07-10
+ */
+public class InMemoryRepositoryTckTest extends GlobalSeqRepositoryTck {
+    private final ConcurrentMap<String, AtomicLong> store = new ConcurrentHashMap<>();
+
+    @Override
+    protected GlobalSeqRepository newRepository() {
+        return new InMemoryGlobalSeqRepository(store);
+    }
+}
@@ -0,0 +1,57 @@
+package org.opensource.seq.tck;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.opensource.seq.core.GlobalSeqRepository;
+import org.opensource.seq.db.GlobalSeqRepositoryImpl;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+/**
+ * 数据库实现运行一致性测试，使用临时的sqlite数据库文件，每个实例一个数据源
+ *
+ * @author wutianbiao
+ * @date 2022-07-10
+ */
+public class SqliteRepositoryTckTest extends GlobalSeqRepositoryTck {
+    private static final String TABLE = "global_seq";
+    private static File file;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        file = File.createTempFile("global-seq-tck", ".sqlite");
+        try (Connection connection = dataSource().getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table " + TABLE + " ("
+                    + "id integer NOT NULL primary key AUTOINCREMENT, "
+                    + "seq_name varchar(50) NOT NULL, "
+                    + "current_value bigint DEFAULT 0)");
+            statement.executeUpdate("create unique index uniq_seq_name on " + TABLE + "(seq_name)");
+        }
+    }
+
+    @AfterAll
+    public static void destory() {
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    @Override
+    protected GlobalSeqRepository newRepository() {
+        return new GlobalSeqRepositoryImpl(dataSource(), TABLE);
+    }
+
+    private static SQLiteDataSource dataSource() {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(60_000);
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        SQLiteDataSource dataSource = new SQLiteDataSource(config);
+        dataSource.setUrl("jdbc:sqlite:" + file.getAbsolutePath());
+        return dataSource;
+    }
+}
@@ -0,0 +1,50 @@
+package org.opensource.seq.tck;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.opensource.seq.core.GlobalSeqRepository;
+import org.opensource.seq.zookeeper.OptimisticGlobalSeqRepositoryImpl;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+
+/**
+ * 无锁zookeeper实现运行一致性测试，使用内嵌的zookeeper服务，每个实例一个客户端
+ *
+ * @author wutianbiao
+ * @date 2022-07-10
+ */
+public class ZookeeperRepositoryTckTest extends GlobalSeqRepositoryTck {
+    private static final List<CuratorFramework> CLIENTS = new CopyOnWriteArrayList<>();
+    private static TestingServer server;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        server = new TestingServer();
+    }
+
+    @AfterAll
+    public static void destory() throws Exception {
+        for (CuratorFramework client : CLIENTS) {
+            client.close();
+        }
+        CLIENTS.clear();
+        server.close();
+    }
+
+    @Override
+    protected GlobalSeqRepository newRepository() {
+        CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(),
+                new ExponentialBackoffRetry(1000, 3));
+        client.start();
+        CLIENTS.add(client);
+        OptimisticGlobalSeqRepositoryImpl repository = new OptimisticGlobalSeqRepositoryImpl(client);
+        repository.setMaxRetry(1_000);
+        return repository;
+    }
+}
@@ -40,6 +40,12 @@ public class GlobalSeqRepositoryImpl implements GlobalSeqRepository {
     @Setter
     @Getter
     private String lockPrefix = "/sequence/lock/";
+    /**
+     * 序列节点的本地缓存，可选；设置后loadSeq和createSeq的存在判断优先读本地
+     */
+    @Setter
+    @Getter
+    private SequenceNodeCache nodeCache;
     /**
      * Curator实例
      */
@@ -56,6 +62,10 @@ public class GlobalSeqRepositoryImpl implements GlobalSeqRepository {
 
     @Override
     public int createSeq(GlobalSeqPo po) {
+        if (cached(po.getSeqName()) != null) {
+            log.info("序列节点已存在(缓存)，返回0:{}", po.getSeqName());
+            return 0;
+        }
         InterProcessMutex lock = new InterProcessMutex(client, lockPrefix + po.getSeqName());
         try {
             if (lock.acquire(lockTime, TimeUnit.SECONDS)) {
@@ -83,6 +93,10 @@ public class GlobalSeqRepositoryImpl implements GlobalSeqRepository {
 
     @Override
     public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        SequenceNodeCache.Node node = cached(seqName);
+        if (node != null) {
+            return Optional.of(new GlobalSeqPo(seqName, node.value));
+        }
         try {
             Stat seqStat = client.checkExists().forPath(seqPrefix + seqName);
             if (seqStat == null) {
@@ -124,4 +138,8 @@ public class GlobalSeqRepositoryImpl implements GlobalSeqRepository {
         }
         return Optional.empty();
     }
+
+    private SequenceNodeCache.Node cached(String seqName) {
+        return nodeCache == null ? null : nodeCache.get(seqName);
+    }
 }
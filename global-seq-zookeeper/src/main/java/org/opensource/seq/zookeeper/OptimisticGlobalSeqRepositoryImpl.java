@@ -0,0 +1,352 @@
+package org.opensource.seq.zookeeper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.opensource.seq.core.AsyncGlobalSeqRepository;
+import org.opensource.seq.core.AtomicIncrementRepository;
+import org.opensource.seq.core.GlobalSeqPo;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.KeeperException;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 基于zookeeper节点版本的全局序列仓库实现(无锁)
+ *
+ * 不再使用InterProcessMutex加锁，刷新时getData取得节点值和版本，再setData().withVersion(version)写入新值；
+ * 节点不存在时直接create。版本冲突(BadVersion)或并发创建(NodeExists)时重新读取，最多重试maxRetry次。
+ * 一次刷新约两次zookeeper操作，不创建锁节点和watch；全部基于curator的异步(inBackground)调用，
+ * 同时实现{@link AsyncGlobalSeqRepository}。
+ * 设置{@link SequenceNodeCache}后，读取走本地缓存，刷新只剩一次按版本的写入；缓存落后导致版本冲突时再读zookeeper重试。
+ *
+ * @author wutianbiao
+ * @date 2022-06-22
+ */
+@Slf4j
+public class OptimisticGlobalSeqRepositoryImpl implements AtomicIncrementRepository, AsyncGlobalSeqRepository {
+    /**
+     * 全局序列在zookeeper中的前缀
+     */
+    @Setter
+    @Getter
+    private String seqPrefix = "/sequence/";
+    /**
+     * 版本冲突时的最大重试次数
+     */
+    @Setter
+    @Getter
+    private int maxRetry = 10;
+    /**
+     * 同步刷新等待异步结果的最长时间(毫秒)
+     */
+    @Setter
+    @Getter
+    private long timeout = 30_000;
+    /**
+     * 序列节点的本地缓存，可选
+     */
+    @Setter
+    @Getter
+    private SequenceNodeCache nodeCache;
+    /**
+     * Curator实例
+     */
+    private CuratorFramework client;
+
+    /**
+     * 构造方法
+     *
+     * @param client
+     */
+    public OptimisticGlobalSeqRepositoryImpl(CuratorFramework client) {
+        this.client = client;
+    }
+
+    @Override
+    public int createSeq(GlobalSeqPo po) {
+        try {
+            return await(createSeqAsync(po));
+        } catch (Exception e) {
+            log.error("序列创建失败:{}", e.getMessage(), e);
+        }
+        return 0;
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> loadSeq(String seqName) {
+        try {
+            return await(loadSeqAsync(seqName));
+        } catch (Exception e) {
+            log.error("序列加载失败:{}", e.getMessage(), e);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<GlobalSeqPo> lockSeq(String seqName, long step, long old) {
+        try {
+            return await(lockSeqAsync(seqName, step, old));
+        } catch (Exception e) {
+            log.error("锁定序列失败:{}", e.getMessage(), e);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Integer> createSeqAsync(GlobalSeqPo po) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        if (cached(po.getSeqName()) != null) {
+            log.info("序列节点已存在(缓存)，返回0:{}", po.getSeqName());
+            result.complete(0);
+            return result;
+        }
+        String path = seqPrefix + po.getSeqName();
+        try {
+            client.create().creatingParentsIfNeeded().inBackground((c, event) -> {
+                KeeperException.Code code = code(event);
+                if (code == KeeperException.Code.OK) {
+                    log.info("创建序列:{}", po.getSeqName());
+                    result.complete(1);
+                } else if (code == KeeperException.Code.NODEEXISTS) {
+                    log.info("序列节点已存在，返回0:{}", po.getSeqName());
+                    result.complete(0);
+                } else {
+                    result.completeExceptionally(KeeperException.create(code, path));
+                }
+            }).forPath(path, bytes(po.getCurrentValue()));
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> loadSeqAsync(String seqName) {
+        CompletableFuture<Optional<GlobalSeqPo>> result = new CompletableFuture<>();
+        SequenceNodeCache.Node node = cached(seqName);
+        if (node != null) {
+            result.complete(Optional.of(new GlobalSeqPo(seqName, node.value)));
+            return result;
+        }
+        String path = seqPrefix + seqName;
+        try {
+            client.getData().inBackground((c, event) -> {
+                KeeperException.Code code = code(event);
+                if (code == KeeperException.Code.OK) {
+                    result.complete(Optional.of(new GlobalSeqPo(seqName, parse(event.getData()))));
+                } else if (code == KeeperException.Code.NONODE) {
+                    log.info("序列节点不存在:{}", seqName);
+                    result.complete(Optional.empty());
+                } else {
+                    result.completeExceptionally(KeeperException.create(code, path));
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * 节点值等于old时，按版本写入old + step；值或版本已变化返回空，由调用方重新加载。
+     * 有缓存时直接用缓存的版本写入，不再读取
+     */
+    @Override
+    public CompletableFuture<Optional<GlobalSeqPo>> lockSeqAsync(String seqName, long step, long old) {
+        CompletableFuture<Optional<GlobalSeqPo>> result = new CompletableFuture<>();
+        String path = seqPrefix + seqName;
+        try {
+            SequenceNodeCache.Node node = cached(seqName);
+            if (node != null && node.value == old) {
+                compareAndSet(seqName, old + step, node.version, result);
+                return result;
+            }
+            client.getData().inBackground((c, event) -> {
+                KeeperException.Code code = code(event);
+                try {
+                    if (code != KeeperException.Code.OK) {
+                        result.completeExceptionally(KeeperException.create(code, path));
+                    } else if (parse(event.getData()) != old) {
+                        log.info("序列值已变化:{},{}", seqName, old);
+                        result.complete(Optional.empty());
+                    } else {
+                        compareAndSet(seqName, old + step, event.getStat().getVersion(), result);
+                    }
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * 按版本写入，版本冲突说明值已不是old(序列只增不减)，返回空
+     */
+    private void compareAndSet(String seqName, long value, int version,
+            CompletableFuture<Optional<GlobalSeqPo>> result) throws Exception {
+        String path = seqPrefix + seqName;
+        client.setData().withVersion(version).inBackground((c, event) -> {
+            KeeperException.Code code = code(event);
+            if (code == KeeperException.Code.OK) {
+                result.complete(Optional.of(new GlobalSeqPo(seqName, value)));
+            } else if (code == KeeperException.Code.BADVERSION) {
+                log.info("序列节点版本已变化:{}", seqName);
+                result.complete(Optional.empty());
+            } else {
+                result.completeExceptionally(KeeperException.create(code, path));
+            }
+        }).forPath(path, bytes(value));
+    }
+
+    @Override
+    public GlobalSeqPo incrementAndGet(String seqName, long step, long start) {
+        CompletableFuture<GlobalSeqPo> future = incrementAndGetAsync(seqName, step, start);
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("锁定序列失败:" + seqName, e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new RuntimeException("锁定序列超时:" + seqName, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("锁定序列被中断:" + seqName, e);
+        }
+    }
+
+    /**
+     * 异步锁定一段(step)序列，节点不存在时以start为当前值创建
+     *
+     * @param seqName
+     * @param step
+     * @param start
+     * @return 锁定后的序列值
+     */
+    @Override
+    public CompletableFuture<GlobalSeqPo> incrementAndGetAsync(String seqName, long step, long start) {
+        CompletableFuture<GlobalSeqPo> result = new CompletableFuture<>();
+        SequenceNodeCache.Node node = cached(seqName);
+        if (node == null) {
+            attempt(seqName, step, start, 0, result);
+            return result;
+        }
+        // 用缓存的值和版本直接写入，冲突时retry会重新读取zookeeper
+        try {
+            update(seqName, node.value + step, node.version, step, start, 0, result);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * 一次读取+按版本写入(或创建)，冲突时重试
+     */
+    private void attempt(String seqName, long step, long start, int retry, CompletableFuture<GlobalSeqPo> result) {
+        String path = seqPrefix + seqName;
+        try {
+            client.getData().inBackground((c, event) -> {
+                KeeperException.Code code = code(event);
+                try {
+                    if (code == KeeperException.Code.NONODE) {
+                        create(seqName, step, start, retry, result);
+                    } else if (code != KeeperException.Code.OK) {
+                        result.completeExceptionally(KeeperException.create(code, path));
+                    } else {
+                        update(seqName, parse(event.getData()) + step, event.getStat().getVersion(),
+                                step, start, retry, result);
+                    }
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 节点不存在，以start + step创建
+     */
+    private void create(String seqName, long step, long start, int retry, CompletableFuture<GlobalSeqPo> result)
+            throws Exception {
+        String path = seqPrefix + seqName;
+        long value = start + step;
+        client.create().creatingParentsIfNeeded().inBackground((c, event) -> {
+            KeeperException.Code code = code(event);
+            if (code == KeeperException.Code.OK) {
+                log.info("创建序列:{},{}", seqName, value);
+                result.complete(new GlobalSeqPo(seqName, value));
+            } else if (code == KeeperException.Code.NODEEXISTS) {
+                retry(seqName, step, start, retry, result);
+            } else {
+                result.completeExceptionally(KeeperException.create(code, path));
+            }
+        }).forPath(path, bytes(value));
+    }
+
+    /**
+     * 按读取时的版本写入新值
+     */
+    private void update(String seqName, long value, int version, long step, long start, int retry,
+            CompletableFuture<GlobalSeqPo> result) throws Exception {
+        String path = seqPrefix + seqName;
+        client.setData().withVersion(version).inBackground((c, event) -> {
+            KeeperException.Code code = code(event);
+            if (code == KeeperException.Code.OK) {
+                log.info("锁定序列成功:{},{}", seqName, value);
+                result.complete(new GlobalSeqPo(seqName, value));
+            } else if (code == KeeperException.Code.BADVERSION) {
+                retry(seqName, step, start, retry, result);
+            } else {
+                result.completeExceptionally(KeeperException.create(code, path));
+            }
+        }).forPath(path, bytes(value));
+    }
+
+    private void retry(String seqName, long step, long start, int retry, CompletableFuture<GlobalSeqPo> result) {
+        if (retry + 1 >= maxRetry) {
+            result.completeExceptionally(new IllegalStateException("超过最大重试次数未能锁定序列:" + seqName));
+            return;
+        }
+        log.info("序列节点版本冲突，重试:{},{}", seqName, retry + 1);
+        attempt(seqName, step, start, retry + 1, result);
+    }
+
+    private <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private SequenceNodeCache.Node cached(String seqName) {
+        return nodeCache == null ? null : nodeCache.get(seqName);
+    }
+
+    private static KeeperException.Code code(CuratorEvent event) {
+        return KeeperException.Code.get(event.getResultCode());
+    }
+
+    private static long parse(byte[] data) {
+        return Long.parseLong(new String(data, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] bytes(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.UTF_8);
+    }
+}
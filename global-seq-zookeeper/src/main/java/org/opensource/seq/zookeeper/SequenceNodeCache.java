@@ -0,0 +1,183 @@
+package org.opensource.seq.zookeeper;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.framework.recipes.cache.CuratorCacheStorage;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * zookeeper序列节点的本地缓存
+ *
+ * 使用CuratorCache监听seqPrefix子树，在本地保存每个序列节点的值和版本，
+ * 仓库实现的loadSeq和createSeq的存在判断直接读本地，只有按版本的写入才访问zookeeper。
+ * lockPrefix下的锁节点不进入缓存。缓存可能落后于zookeeper，写入时的版本校验保证正确性；
+ * 未初始化完成或没有缓存的序列，仓库实现仍然直接读zookeeper。
+ *
+ * @author wutianbiao
+ * @date 2022-06-24
+ */
+@Slf4j
+public class SequenceNodeCache implements Closeable {
+    /**
+     * 全局序列在zookeeper中的前缀，需要与仓库实现一致，start前设置
+     */
+    @Setter
+    @Getter
+    private String seqPrefix = "/sequence/";
+    /**
+     * 全局序列锁节点的前缀，不缓存
+     */
+    @Setter
+    @Getter
+    private String lockPrefix = "/sequence/lock/";
+
+    /**
+     * Curator实例
+     */
+    private final CuratorFramework client;
+    /**
+     * 序列名称到节点值和版本
+     */
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    /**
+     * 首次全量加载完成
+     */
+    private final CountDownLatch initialized = new CountDownLatch(1);
+    /**
+     * 底层的CuratorCache
+     */
+    private CuratorCache cache;
+
+    /**
+     * 构造方法
+     *
+     * @param client
+     */
+    public SequenceNodeCache(CuratorFramework client) {
+        this.client = client;
+    }
+
+    /**
+     * 开始监听，首次全量加载异步完成
+     */
+    public synchronized void start() {
+        if (cache != null) {
+            return;
+        }
+        String root = seqPrefix.endsWith("/") ? seqPrefix.substring(0, seqPrefix.length() - 1) : seqPrefix;
+        // 值和版本由本类保存，CuratorCache不再另存节点数据
+        cache = CuratorCache.builder(client, root)
+                .withStorage(CuratorCacheStorage.dataNotCached())
+                .withExceptionHandler(e -> log.error("序列节点缓存异常:{}", e.getMessage(), e))
+                .build();
+        cache.listenable().addListener(new CuratorCacheListener() {
+            @Override
+            public void event(Type type, ChildData oldData, ChildData data) {
+                if (type == Type.NODE_DELETED) {
+                    String seqName = seqName(oldData.getPath());
+                    if (seqName != null) {
+                        nodes.remove(seqName);
+                    }
+                } else {
+                    put(data);
+                }
+            }
+
+            @Override
+            public void initialized() {
+                log.info("序列节点缓存初始化完成:{}个", nodes.size());
+                initialized.countDown();
+            }
+        });
+        cache.start();
+        log.info("序列节点缓存启动:{}", root);
+    }
+
+    /**
+     * 等待首次全量加载完成
+     *
+     * @param timeout
+     * @param unit
+     * @return 是否已完成
+     * @throws InterruptedException
+     */
+    public boolean awaitInitialized(long timeout, TimeUnit unit) throws InterruptedException {
+        return initialized.await(timeout, unit);
+    }
+
+    /**
+     * 首次全量加载是否已完成
+     */
+    public boolean isInitialized() {
+        return initialized.getCount() == 0;
+    }
+
+    /**
+     * 序列节点的缓存，未初始化或节点不在缓存中返回null
+     */
+    Node get(String seqName) {
+        if (!isInitialized()) {
+            return null;
+        }
+        return nodes.get(seqName);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (cache != null) {
+            cache.close();
+            cache = null;
+        }
+        nodes.clear();
+    }
+
+    private void put(ChildData data) {
+        String seqName = seqName(data.getPath());
+        if (seqName == null || data.getData() == null || data.getStat() == null) {
+            return;
+        }
+        try {
+            long value = Long.parseLong(new String(data.getData(), StandardCharsets.UTF_8));
+            nodes.merge(seqName, new Node(value, data.getStat().getVersion()),
+                    (old, now) -> now.version >= old.version ? now : old);
+        } catch (NumberFormatException e) {
+            log.warn("序列节点不是数字，忽略:{}", data.getPath());
+        }
+    }
+
+    /**
+     * 节点路径对应的序列名称，根节点和锁节点返回null
+     */
+    private String seqName(String path) {
+        if (!path.startsWith(seqPrefix) || path.startsWith(lockPrefix)
+                || (path + "/").equals(lockPrefix)) {
+            return null;
+        }
+        return path.substring(seqPrefix.length());
+    }
+
+    /**
+     * 缓存的节点值和版本
+     */
+    static final class Node {
+        final long value;
+        final int version;
+
+        Node(long value, int version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.opensource.seq.zookeeper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.opensource.seq.core.GlobalSeqConfig;
+import org.opensource.seq.core.GlobalSeqPo;
+import org.opensource.seq.core.GlobalSequence;
+import org.opensource.seq.core.GlobalSequenceImpl;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 无锁zookeeper实现的单元测试，使用内嵌的zookeeper服务
+ *
+ * @author wutianbiao
+ * @date 2022-06-22
+ */
+public class OptimisticGlobalSeqTest {
+    private static TestingServer server;
+    private static CuratorFramework client;
+    private static OptimisticGlobalSeqRepositoryImpl repository;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new ExponentialBackoffRetry(1000, 3));
+        client.start();
+        repository = new OptimisticGlobalSeqRepositoryImpl(client);
+        repository.setMaxRetry(100);
+    }
+
+    @AfterAll
+    public static void destory() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testCreateAndLock() {
+        String seqName = "optimistic_create";
+        assertEquals(1, repository.createSeq(new GlobalSeqPo(seqName, 10L)));
+        assertEquals(0, repository.createSeq(new GlobalSeqPo(seqName, 20L)));
+        assertEquals(10L, repository.loadSeq(seqName).get().getCurrentValue());
+
+        // 旧值不一致时不写入
+        assertFalse(repository.lockSeq(seqName, 5, 9).isPresent());
+        assertEquals(15L, repository.lockSeq(seqName, 5, 10).get().getCurrentValue());
+        assertFalse(repository.loadSeq("optimistic_absent").isPresent());
+    }
+
+    @Test
+    public void testIncrementAndGet() {
+        String seqName = "optimistic_increment";
+        assertEquals(101L, repository.incrementAndGet(seqName, 100, 1).getCurrentValue());
+        assertEquals(201L, repository.incrementAndGet(seqName, 100, 1).getCurrentValue());
+    }
+
+    /**
+     * 十个线程，并发获取不超过1000的序列，序列不重复
+     */
+    @Test
+    public void testGetSeqNext() throws InterruptedException {
+        GlobalSeqConfig config = new GlobalSeqConfig();
+        config.setDefaultStep(50);
+        GlobalSequence globalSequence = new GlobalSequenceImpl(config, repository);
+
+        String seqName = "optimistic_next";
+        long threshold = 1_000;
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Thread t = new Thread(() -> {
+                long next;
+                while ((next = globalSequence.next(seqName)) <= threshold) {
+                    assertTrue(seqs.add(next), "序列重复:" + next);
+                }
+            });
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+        // 序列从start + 1开始
+        assertEquals(threshold - 1, seqs.size());
+    }
+
+    /**
+     * 带本地缓存的仓库与不带缓存的仓库并发刷新，缓存过期时版本冲突重试，序列不重复
+     */
+    @Test
+    public void testNodeCache() throws Exception {
+        String seqName = "optimistic_cached";
+        repository.createSeq(new GlobalSeqPo(seqName, 0L));
+
+        try (SequenceNodeCache nodeCache = new SequenceNodeCache(client)) {
+            nodeCache.start();
+            assertTrue(nodeCache.awaitInitialized(10, TimeUnit.SECONDS));
+            OptimisticGlobalSeqRepositoryImpl cached = new OptimisticGlobalSeqRepositoryImpl(client);
+            cached.setMaxRetry(100);
+            cached.setNodeCache(nodeCache);
+
+            assertEquals(0L, cached.loadSeq(seqName).get().getCurrentValue());
+            assertEquals(0, cached.createSeq(new GlobalSeqPo(seqName, 5L)));
+
+            Set<Long> limits = ConcurrentHashMap.newKeySet();
+            List<Thread> pool = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                OptimisticGlobalSeqRepositoryImpl repo = i % 2 == 0 ? cached : repository;
+                Thread t = new Thread(() -> {
+                    for (int j = 0; j < 25; j++) {
+                        limits.add(repo.incrementAndGet(seqName, 10, 0).getCurrentValue());
+                    }
+                });
+                t.start();
+                pool.add(t);
+            }
+            for (Thread t : pool) {
+                t.join();
+            }
+            assertEquals(100, limits.size());
+            assertEquals(1000L, repository.loadSeq(seqName).get().getCurrentValue());
+        }
+    }
+}